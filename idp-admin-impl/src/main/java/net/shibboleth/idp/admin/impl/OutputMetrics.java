@@ -17,15 +17,22 @@
 
 package net.shibboleth.idp.admin.impl;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.shibboleth.idp.profile.AbstractProfileAction;
@@ -46,17 +53,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.webflow.execution.RequestContext;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.json.MetricsModule;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.util.JSONPObject;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 
 /**
  * Action that outputs one or more {@link Metric} objects.
  * 
+ * <p>Output is JSON by default, or the Prometheus text exposition format if the request contains a
+ * {@link #FORMAT_PARAM} parameter of {@link #FORMAT_PROMETHEUS}, or accepts that format's content type
+ * without the parameter being set. The default can be changed with {@link #setOutputFormat(String)}.</p>
+ * 
  * <p>On success, a 200 HTTP status is returned. On failure, a non-successful HTTP status is returned.</p>
  * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
@@ -74,6 +89,28 @@ public class OutputMetrics extends AbstractProfileAction {
     /** Default date/time format string. */
     @Nonnull @NotEmpty public static final String DEFAULT_DT_FORMAT = "YYYY-MM-dd'T'HH:mm:ss.SSSZZ";
     
+    /** Request parameter selecting the output format. */
+    @Nonnull @NotEmpty public static final String FORMAT_PARAM = "format";
+
+    /** Output format name for JSON. */
+    @Nonnull @NotEmpty public static final String FORMAT_JSON = "json";
+
+    /** Output format name for the Prometheus text exposition format. */
+    @Nonnull @NotEmpty public static final String FORMAT_PROMETHEUS = "prometheus";
+
+    /** Accept header content indicating a Prometheus scraper. */
+    @Nonnull @NotEmpty private static final String PROMETHEUS_ACCEPT = "text/plain;version=0.0.4";
+
+    /** Shared writer for the Prometheus format. */
+    @Nonnull private static final PrometheusMetricsWriter PROMETHEUS_WRITER = new PrometheusMetricsWriter();
+
+    /**
+     * JSON writers for the "all" and group outputs, keyed by filters and date format, shared across
+     * the (prototype-scoped) instances of this action.
+     */
+    @Nonnull private static final Cache<List<Object>,ObjectWriter> JSON_WRITER_CACHE =
+            CacheBuilder.newBuilder().maximumSize(100).build();
+
     /** Class logger. */
     @Nonnull private Logger log = LoggerFactory.getLogger(OutputMetrics.class);
     
@@ -92,6 +129,9 @@ public class OutputMetrics extends AbstractProfileAction {
     /** Formatting string for {@link DateTime} fields. */
     @Nullable private String dateTimeFormat;
 
+    /** Default output format. */
+    @Nonnull @NotEmpty private String outputFormat;
+
     /** Map of custom metric groups to filters. */
     @Nonnull @NonnullElements private Map<String,MetricFilter> metricFilterMap;
     
@@ -101,6 +141,7 @@ public class OutputMetrics extends AbstractProfileAction {
     /** Constructor. */
     public OutputMetrics() {
         metricFilterMap = Collections.emptyMap();
+        outputFormat = FORMAT_JSON;
     }
 
     /**
@@ -158,6 +199,26 @@ public class OutputMetrics extends AbstractProfileAction {
         dateTimeFormat = StringSupport.trimOrNull(format);
     }
     
+    /**
+     * Set the default output format, {@link #FORMAT_JSON} or {@link #FORMAT_PROMETHEUS}.
+     * 
+     * <p>Defaults to {@link #FORMAT_JSON}.</p>
+     * 
+     * @param format output format
+     */
+    public void setOutputFormat(@Nullable final String format) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        final String trimmed = StringSupport.trimOrNull(format);
+        if (trimmed == null) {
+            outputFormat = FORMAT_JSON;
+        } else if (FORMAT_JSON.equals(trimmed) || FORMAT_PROMETHEUS.equals(trimmed)) {
+            outputFormat = trimmed;
+        } else {
+            throw new IllegalArgumentException("Unsupported output format: " + trimmed);
+        }
+    }
+    
     /**
      * Set the map of custom group names to metric filters.
      * 
@@ -231,6 +292,7 @@ public class OutputMetrics extends AbstractProfileAction {
     @Override protected void doExecute(final ProfileRequestContext profileRequestContext) {
         
         MetricFilter filter = ALL_METRICS.equals(metricId) ? MetricFilter.ALL : metricFilterMap.get(metricId);
+        final boolean cacheable = filter != null;
         if (filter == null) {
             // Use a filter matching one metric. 
             filter = new MetricFilter() {
@@ -241,7 +303,7 @@ public class OutputMetrics extends AbstractProfileAction {
         }
         
         // Wrap with logger check.
-        filter = new ChainedMetricFilter(filter);
+        final MetricFilter chainedFilter = new ChainedMetricFilter(filter, metricFilter);
         
         try {
             final HttpServletResponse response = getHttpServletResponse();
@@ -252,18 +314,34 @@ public class OutputMetrics extends AbstractProfileAction {
                 response.setHeader("Access-Control-Allow-Origin", allowedOrigin);
             }
             
-            final ObjectMapper mapper = new ObjectMapper().registerModule(
-                    new MetricsModule(TimeUnit.SECONDS, TimeUnit.SECONDS, true, filter));
-            mapper.registerModule(new JodaModule());
-            mapper.setDateFormat(new SimpleDateFormat(dateTimeFormat != null ? dateTimeFormat : DEFAULT_DT_FORMAT));
+            if (FORMAT_PROMETHEUS.equals(getOutputFormat())) {
+                response.setContentType(PrometheusMetricsWriter.CONTENT_TYPE);
+                final Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+                PROMETHEUS_WRITER.write(metricRegistry, chainedFilter, writer);
+                return;
+            }
+            
+            final ObjectWriter writer;
+            if (cacheable) {
+                final List<Object> key = Arrays.<Object>asList(filter, metricFilter, dateTimeFormat);
+                final ObjectWriter cached = JSON_WRITER_CACHE.getIfPresent(key);
+                if (cached != null) {
+                    writer = cached;
+                } else {
+                    writer = buildJSONWriter(chainedFilter);
+                    JSON_WRITER_CACHE.put(key, writer);
+                }
+            } else {
+                writer = buildJSONWriter(chainedFilter);
+            }
             
             if (jsonpCallbackName != null) {
                 response.setContentType("application/javascript");
-                mapper.writer().writeValue(response.getOutputStream(),
-                        new JSONPObject(jsonpCallbackName, metricRegistry));
+                writer.writeValue(response.getOutputStream(), new JSONPObject(jsonpCallbackName, metricRegistry));
             } else {
                 response.setContentType("application/json");
-                mapper.writer().writeValue(response.getOutputStream(), metricRegistry);
+                writer.writeValue(response.getOutputStream(), metricRegistry);
             }
         } catch (final IOException e) {
             log.error("{} I/O error responding to request", getLogPrefix(), e);
@@ -271,26 +349,66 @@ public class OutputMetrics extends AbstractProfileAction {
         }
     }
 
+    /**
+     * Get the output format to use for the current request.
+     * 
+     * @return output format
+     */
+    @Nonnull @NotEmpty private String getOutputFormat() {
+        final HttpServletRequest request = getHttpServletRequest();
+        if (request != null) {
+            final String param = StringSupport.trimOrNull(request.getParameter(FORMAT_PARAM));
+            if (param != null) {
+                return FORMAT_PROMETHEUS.equals(param) ? FORMAT_PROMETHEUS : FORMAT_JSON;
+            }
+            final String accept = request.getHeader("Accept");
+            if (accept != null && accept.replace(" ", "").contains(PROMETHEUS_ACCEPT)) {
+                return FORMAT_PROMETHEUS;
+            }
+        }
+        return outputFormat;
+    }
+
+    /**
+     * Build a JSON writer for the metrics matching a filter.
+     * 
+     * @param filter filter to apply
+     * 
+     * @return the writer
+     */
+    @Nonnull private ObjectWriter buildJSONWriter(@Nonnull final MetricFilter filter) {
+        final ObjectMapper mapper = new ObjectMapper().registerModule(
+                new MetricsModule(TimeUnit.SECONDS, TimeUnit.SECONDS, true, filter));
+        mapper.registerModule(new JodaModule());
+        mapper.setDateFormat(new SimpleDateFormat(dateTimeFormat != null ? dateTimeFormat : DEFAULT_DT_FORMAT));
+        return mapper.writer();
+    }
+
     /**
      * {@link MetricFilter} that combines two other filters.
      */
-    private class ChainedMetricFilter implements MetricFilter {
+    private static class ChainedMetricFilter implements MetricFilter {
 
         /** Filter to apply before the logger-driven filter. */
         @Nonnull private final MetricFilter parentFilter;
         
+        /** Filter to apply after the parent filter, if any. */
+        @Nullable private final MetricFilter childFilter;
+        
         /**
          * Constructor.
          *
-         * @param parent filter to apply before this one
+         * @param parent filter to apply first
+         * @param child filter to apply second, if any
          */
-        public ChainedMetricFilter(@Nonnull final MetricFilter parent) {
+        public ChainedMetricFilter(@Nonnull final MetricFilter parent, @Nullable final MetricFilter child) {
             parentFilter = parent;
+            childFilter = child;
         }
         
         /** {@inheritDoc} */
         public boolean matches(final String name, final Metric metric) {
-            return parentFilter.matches(name, metric) && metricFilter.matches(name, metric);
+            return parentFilter.matches(name, metric) && (childFilter == null || childFilter.matches(name, metric));
         }
 
     }
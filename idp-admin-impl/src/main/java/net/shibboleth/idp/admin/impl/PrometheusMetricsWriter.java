@@ -0,0 +1,303 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.admin.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Writes the contents of a {@link MetricRegistry} in the Prometheus text exposition format (version 0.0.4).
+ * 
+ * <p>Metrics are streamed directly to the supplied {@link Writer}. Metric names are converted to legal
+ * Prometheus names by replacing illegal characters with underscores, and the converted names are cached
+ * across calls. Counters and numeric or boolean gauges are written as gauges, meters as counters, and
+ * histograms and timers as summaries, with timer values in seconds. Gauges with any other type of value
+ * are skipped.</p>
+ * 
+ * <p>A summary's sum is estimated from the mean of its snapshot, so it is exact only if the underlying
+ * reservoir retains every value. If converted names collide, including with the _sum and _count samples
+ * of a summary, later metrics are given a numeric suffix so that each name is only written once.</p>
+ */
+@ThreadSafe
+public class PrometheusMetricsWriter {
+
+    /** Content type of the output. */
+    @Nonnull @NotEmpty public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Upper bound on the number of cached names. */
+    private static final int MAX_CACHED_NAMES = 10000;
+
+    /** Quantile labels written for summaries. */
+    @Nonnull private static final String[] QUANTILES = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+
+    /** Divisor converting nanoseconds to seconds. */
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** Cache of converted metric names. */
+    @Nonnull private final ConcurrentMap<String,String> nameCache;
+
+    /** Constructor. */
+    public PrometheusMetricsWriter() {
+        nameCache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Write the metrics matching a filter.
+     * 
+     * @param registry registry to write
+     * @param filter filter to apply
+     * @param writer destination
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    public void write(@Nonnull final MetricRegistry registry, @Nonnull final MetricFilter filter,
+            @Nonnull final Writer writer) throws IOException {
+        
+        final Set<String> written = new HashSet<>();
+
+        for (final Map.Entry<String,Gauge> entry : registry.getGauges(filter).entrySet()) {
+            final Object value = entry.getValue().getValue();
+            if (value instanceof Number) {
+                writeSimple(writer, written, entry.getKey(), "gauge", ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                writeSimple(writer, written, entry.getKey(), "gauge", ((Boolean) value) ? 1 : 0);
+            }
+        }
+
+        for (final Map.Entry<String,Counter> entry : registry.getCounters(filter).entrySet()) {
+            writeSimple(writer, written, entry.getKey(), "gauge", entry.getValue().getCount());
+        }
+
+        for (final Map.Entry<String,Meter> entry : registry.getMeters(filter).entrySet()) {
+            writeSimple(writer, written, entry.getKey(), "counter", entry.getValue().getCount());
+        }
+
+        for (final Map.Entry<String,Histogram> entry : registry.getHistograms(filter).entrySet()) {
+            writeSummary(writer, written, entry.getKey(), entry.getValue().getSnapshot(), entry.getValue().getCount(),
+                    1.0);
+        }
+
+        for (final Map.Entry<String,Timer> entry : registry.getTimers(filter).entrySet()) {
+            writeSummary(writer, written, entry.getKey(), entry.getValue().getSnapshot(), entry.getValue().getCount(),
+                    NANOS_PER_SECOND);
+        }
+        
+        writer.flush();
+    }
+
+    /**
+     * Write a metric with a single sample.
+     * 
+     * @param writer destination
+     * @param written converted names already written
+     * @param name metric name
+     * @param type Prometheus metric type
+     * @param value sample value
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSimple(@Nonnull final Writer writer, @Nonnull final Set<String> written,
+            @Nonnull final String name, @Nonnull final String type, final double value) throws IOException {
+        final String promName = getUniqueName(getName(name), written, false);
+        writeType(writer, promName, type);
+        writer.write(promName);
+        writer.write(' ');
+        writeValue(writer, value);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a summary from a {@link Snapshot}.
+     * 
+     * @param writer destination
+     * @param written converted names already written
+     * @param name metric name
+     * @param snapshot the snapshot
+     * @param count the number of observations
+     * @param divisor divisor to apply to the snapshot values
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeSummary(@Nonnull final Writer writer, @Nonnull final Set<String> written,
+            @Nonnull final String name, @Nonnull final Snapshot snapshot, final long count, final double divisor)
+                    throws IOException {
+        final String promName = getUniqueName(getName(name), written, true);
+        writeType(writer, promName, "summary");
+        writeQuantile(writer, promName, QUANTILES[0], snapshot.getMedian() / divisor);
+        writeQuantile(writer, promName, QUANTILES[1], snapshot.get75thPercentile() / divisor);
+        writeQuantile(writer, promName, QUANTILES[2], snapshot.get95thPercentile() / divisor);
+        writeQuantile(writer, promName, QUANTILES[3], snapshot.get98thPercentile() / divisor);
+        writeQuantile(writer, promName, QUANTILES[4], snapshot.get99thPercentile() / divisor);
+        writeQuantile(writer, promName, QUANTILES[5], snapshot.get999thPercentile() / divisor);
+        writer.write(promName);
+        writer.write("_sum ");
+        writeValue(writer, count > 0 ? snapshot.getMean() * count / divisor : 0);
+        writer.write('\n');
+        writer.write(promName);
+        writer.write("_count ");
+        writeValue(writer, count);
+        writer.write('\n');
+    }
+
+    /**
+     * Get a converted name that does not collide with any name already written, and record its use.
+     * 
+     * @param promName converted metric name
+     * @param written converted names already written
+     * @param summary whether the name is for a summary, which also uses the _sum and _count suffixes
+     * 
+     * @return the converted name, with a numeric suffix if needed to make it unique
+     */
+    @Nonnull @NotEmpty private String getUniqueName(@Nonnull @NotEmpty final String promName,
+            @Nonnull final Set<String> written, final boolean summary) {
+        String uniqueName = promName;
+        for (int i = 1; isWritten(uniqueName, written, summary); i++) {
+            uniqueName = promName + '_' + i;
+        }
+        written.add(uniqueName);
+        if (summary) {
+            written.add(uniqueName + "_sum");
+            written.add(uniqueName + "_count");
+        }
+        return uniqueName;
+    }
+
+    /**
+     * Check whether a converted name, or the additional names used by a summary, were already written.
+     * 
+     * @param promName converted metric name
+     * @param written converted names already written
+     * @param summary whether the name is for a summary
+     * 
+     * @return true iff any of the names is in use
+     */
+    private boolean isWritten(@Nonnull @NotEmpty final String promName, @Nonnull final Set<String> written,
+            final boolean summary) {
+        return written.contains(promName)
+                || (summary && (written.contains(promName + "_sum") || written.contains(promName + "_count")));
+    }
+
+    /**
+     * Write a single quantile sample.
+     * 
+     * @param writer destination
+     * @param promName converted metric name
+     * @param quantile quantile label
+     * @param value sample value
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeQuantile(@Nonnull final Writer writer, @Nonnull final String promName,
+            @Nonnull final String quantile, final double value) throws IOException {
+        writer.write(promName);
+        writer.write("{quantile=\"");
+        writer.write(quantile);
+        writer.write("\"} ");
+        writeValue(writer, value);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a TYPE comment.
+     * 
+     * @param writer destination
+     * @param promName converted metric name
+     * @param type Prometheus metric type
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeType(@Nonnull final Writer writer, @Nonnull final String promName,
+            @Nonnull final String type) throws IOException {
+        writer.write("# TYPE ");
+        writer.write(promName);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    /**
+     * Write a sample value.
+     * 
+     * @param writer destination
+     * @param value sample value
+     * 
+     * @throws IOException if an error occurs writing the output
+     */
+    private void writeValue(@Nonnull final Writer writer, final double value) throws IOException {
+        if (value == Double.POSITIVE_INFINITY) {
+            writer.write("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            writer.write("-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            writer.write(Long.toString((long) value));
+        } else {
+            writer.write(Double.toString(value));
+        }
+    }
+
+    /**
+     * Convert a metric name into a legal Prometheus name.
+     * 
+     * @param name metric name
+     * 
+     * @return the converted name
+     */
+    @Nonnull @NotEmpty String getName(@Nonnull final String name) {
+        String promName = nameCache.get(name);
+        if (promName == null) {
+            final StringBuilder builder = new StringBuilder(name.length() + 1);
+            for (int i = 0; i < name.length(); i++) {
+                final char c = name.charAt(i);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                        || (i > 0 && c >= '0' && c <= '9')) {
+                    builder.append(c);
+                } else if (i == 0 && c >= '0' && c <= '9') {
+                    builder.append('_').append(c);
+                } else {
+                    builder.append('_');
+                }
+            }
+            promName = builder.length() > 0 ? builder.toString() : "_";
+            if (nameCache.size() < MAX_CACHED_NAMES) {
+                nameCache.put(name, promName);
+            }
+        }
+        return promName;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.admin.impl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+
+/** Unit test for {@link PrometheusMetricsWriter}. */
+public class PrometheusMetricsWriterTest {
+
+    @Test public void testNames() {
+        final PrometheusMetricsWriter writer = new PrometheusMetricsWriter();
+        Assert.assertEquals(writer.getName("net.shibboleth.idp.foo"), "net_shibboleth_idp_foo");
+        Assert.assertEquals(writer.getName("1st-metric"), "_1st_metric");
+        Assert.assertEquals(writer.getName("a:b_c9"), "a:b_c9");
+    }
+
+    @Test public void testOutput() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("a.counter").inc(3);
+        registry.meter("a.meter").mark(2);
+        registry.register("a.gauge", new Gauge<Double>() {
+            public Double getValue() {
+                return 0.5;
+            }
+        });
+        registry.register("a.string", new Gauge<String>() {
+            public String getValue() {
+                return "skipped";
+            }
+        });
+        final Timer timer = registry.timer("a.timer");
+        timer.update(2000000000L, TimeUnit.NANOSECONDS);
+        
+        final StringWriter out = new StringWriter();
+        new PrometheusMetricsWriter().write(registry, MetricFilter.ALL, out);
+        final String text = out.toString();
+        
+        Assert.assertTrue(text.contains("# TYPE a_counter gauge\na_counter 3\n"));
+        Assert.assertTrue(text.contains("# TYPE a_meter counter\na_meter 2\n"));
+        Assert.assertTrue(text.contains("# TYPE a_gauge gauge\na_gauge 0.5\n"));
+        Assert.assertFalse(text.contains("a_string"));
+        Assert.assertTrue(text.contains("# TYPE a_timer summary\n"));
+        Assert.assertTrue(text.contains("a_timer{quantile=\"0.5\"} 2\n"));
+        Assert.assertTrue(text.contains("a_timer_sum 2\n"));
+        Assert.assertTrue(text.contains("a_timer_count 1\n"));
+    }
+
+    @Test public void testHistogramSum() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        final Histogram histogram = registry.register("a.histogram", new Histogram(new UniformReservoir()));
+        histogram.update(3);
+        histogram.update(5);
+        registry.histogram("empty.histogram");
+
+        final StringWriter out = new StringWriter();
+        new PrometheusMetricsWriter().write(registry, MetricFilter.ALL, out);
+        final String text = out.toString();
+
+        Assert.assertTrue(text.contains("a_histogram_sum 8\n"));
+        Assert.assertTrue(text.contains("a_histogram_count 2\n"));
+        Assert.assertTrue(text.contains("empty_histogram_sum 0\n"));
+        Assert.assertTrue(text.contains("empty_histogram_count 0\n"));
+    }
+
+    @Test public void testCollisions() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("a.b").inc(1);
+        registry.counter("a-b").inc(2);
+        registry.counter("t.count").inc(3);
+        registry.timer("t").update(1, TimeUnit.SECONDS);
+
+        final StringWriter out = new StringWriter();
+        new PrometheusMetricsWriter().write(registry, MetricFilter.ALL, out);
+        final String text = out.toString();
+
+        Assert.assertTrue(text.contains("# TYPE a_b gauge\na_b 2\n"));
+        Assert.assertTrue(text.contains("# TYPE a_b_1 gauge\na_b_1 1\n"));
+        Assert.assertTrue(text.contains("# TYPE t_count gauge\nt_count 3\n"));
+        Assert.assertTrue(text.contains("# TYPE t_1 summary\n"));
+        Assert.assertTrue(text.contains("t_1_count 1\n"));
+        Assert.assertEquals(text.split("# TYPE t_count ", -1).length, 2);
+    }
+
+    @Test public void testFilter() throws IOException {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("included").inc();
+        registry.counter("excluded").inc();
+        
+        final StringWriter out = new StringWriter();
+        new PrometheusMetricsWriter().write(registry, new MetricFilter() {
+            public boolean matches(final String name, final Metric metric) {
+                return name.equals("included");
+            }
+        }, out);
+        
+        Assert.assertTrue(out.toString().contains("included 1\n"));
+        Assert.assertFalse(out.toString().contains("excluded"));
+    }
+
+}
@@ -30,7 +30,9 @@ import javax.annotation.concurrent.ThreadSafe;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.filter.PolicyRequirementRule.Tristate;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.metrics.PluginLatencyRecorder;
 import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
@@ -72,6 +74,9 @@ public class AttributeFilterPolicy extends AbstractIdentifiedInitializableCompon
     /** Log prefix. */
     private String logPrefix;
 
+    /** Records a sample of the times taken to apply the policy. */
+    @NonnullAfterInit private PluginLatencyRecorder latencyRecorder;
+
     /**
      * Constructor.
      * 
@@ -154,22 +159,27 @@ public class AttributeFilterPolicy extends AbstractIdentifiedInitializableCompon
 
         Constraint.isNotNull(filterContext, "Attribute filter context can not be null");
 
-        if (!isApplicable(filterContext)) {
-            return;
-        }
-
-        final Map<String, IdPAttribute> attributes = filterContext.getPrefilteredIdPAttributes();
-        log.debug("{} Applying attribute filter policy to current set of attributes: {}", getLogPrefix(),
-                attributes.keySet());
+        final long latencyStart = latencyRecorder.start();
+        try {
+            if (!isApplicable(filterContext)) {
+                return;
+            }
 
-        IdPAttribute attribute;
-        for (final AttributeRule valuePolicy : valuePolicies) {
-            attribute = attributes.get(valuePolicy.getAttributeId());
-            if (attribute != null) {
-                if (!attribute.getValues().isEmpty()) {
-                    valuePolicy.apply(attribute, filterContext);
+            final Map<String, IdPAttribute> attributes = filterContext.getPrefilteredIdPAttributes();
+            log.debug("{} Applying attribute filter policy to current set of attributes: {}", getLogPrefix(),
+                    attributes.keySet());
+
+            IdPAttribute attribute;
+            for (final AttributeRule valuePolicy : valuePolicies) {
+                attribute = attributes.get(valuePolicy.getAttributeId());
+                if (attribute != null) {
+                    if (!attribute.getValues().isEmpty()) {
+                        valuePolicy.apply(attribute, filterContext);
+                    }
                 }
             }
+        } finally {
+            latencyRecorder.stop(latencyStart);
         }
     }
 
@@ -177,6 +187,15 @@ public class AttributeFilterPolicy extends AbstractIdentifiedInitializableCompon
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
         logPrefix = null;
+        latencyRecorder = new PluginLatencyRecorder("filter.policy", getId());
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (latencyRecorder != null) {
+            latencyRecorder.destroy();
+        }
+        super.doDestroy();
     }
 
     /**
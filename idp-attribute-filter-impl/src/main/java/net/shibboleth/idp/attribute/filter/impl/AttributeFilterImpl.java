@@ -19,8 +19,12 @@ package net.shibboleth.idp.attribute.filter.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,9 +35,14 @@ import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.filter.AttributeFilter;
 import net.shibboleth.idp.attribute.filter.AttributeFilterException;
 import net.shibboleth.idp.attribute.filter.AttributeFilterPolicy;
+import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterWorkContext;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
@@ -55,7 +64,15 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
-/** Service that filters out attributes and values based upon loaded policies. */
+/**
+ * Service that filters out attributes and values based upon loaded policies.
+ *
+ * <p>On initialization the {@link PolicyRequirementRule} of each policy is examined, and policies which can only be
+ * active for a known set of attribute requesters are indexed by requester ID. Each request then applies just the
+ * indexed policies for its requester together with those policies that could not be indexed, in their configured
+ * order. Every policy applied still evaluates its own rule, so the index only has to be a superset of the policies
+ * which would be active.</p>
+ */
 @ThreadSafe
 public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeFilter> implements AttributeFilter {
 
@@ -65,6 +82,12 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     /** Filter policies used by this engine. */
     private final List<AttributeFilterPolicy> filterPolicies;
 
+    /** Filter policies which cannot be selected by requester, in order. */
+    @NonnullAfterInit private List<AttributeFilterPolicy> unindexedPolicies;
+
+    /** Candidate filter policies for each indexed requester, in order, including {@link #unindexedPolicies}. */
+    @NonnullAfterInit private Map<String, List<AttributeFilterPolicy>> requesterPolicies;
+
     /** Log prefix. */
     private String logPrefix;
 
@@ -125,7 +148,7 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
             log.debug("{} Beginning process of filtering the following {} attributes: {}", new Object[] {getLogPrefix(),
                     prefilteredAttributes.size(), prefilteredAttributes.keySet(),});
     
-            final List<AttributeFilterPolicy> policies = getFilterPolicies();
+            final List<AttributeFilterPolicy> policies = getCandidatePolicies(filterContext);
             for (final AttributeFilterPolicy policy : policies) {
                 policy.apply(filterContext);
             }
@@ -150,6 +173,25 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
         }
     }
 
+    /**
+     * Gets the policies which might be active for a request, in their configured order.
+     * 
+     * @param filterContext current attribute filter context
+     * 
+     * @return the policies to apply
+     */
+    @Nonnull @NonnullElements private List<AttributeFilterPolicy> getCandidatePolicies(
+            @Nonnull final AttributeFilterContext filterContext) {
+        final String requester = filterContext.getAttributeRecipientID();
+        if (requester != null) {
+            final List<AttributeFilterPolicy> policies = requesterPolicies.get(requester);
+            if (policies != null) {
+                return policies;
+            }
+        }
+        return unindexedPolicies;
+    }
+
     /**
      * Gets the permitted values for the given attribute from the
      * {@link AttributeFilterWorkContext#getPermittedIdPAttributeValues()} and removes all denied values given in the
@@ -197,6 +239,76 @@ public class AttributeFilterImpl extends AbstractServiceableComponent<AttributeF
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
         logPrefix = null;
+
+        final ImmutableList.Builder<AttributeFilterPolicy> unindexed = ImmutableList.builder();
+        final Map<String, ImmutableList.Builder<AttributeFilterPolicy>> indexed = new HashMap<>();
+        for (final AttributeFilterPolicy policy : filterPolicies) {
+            final Set<String> requesters = getRequesters(policy.getPolicyRequirementRule());
+            if (requesters == null) {
+                unindexed.add(policy);
+                for (final ImmutableList.Builder<AttributeFilterPolicy> builder : indexed.values()) {
+                    builder.add(policy);
+                }
+            } else {
+                for (final String requester : requesters) {
+                    ImmutableList.Builder<AttributeFilterPolicy> builder = indexed.get(requester);
+                    if (builder == null) {
+                        builder = ImmutableList.<AttributeFilterPolicy>builder().addAll(unindexed.build());
+                        indexed.put(requester, builder);
+                    }
+                    builder.add(policy);
+                }
+            }
+        }
+
+        unindexedPolicies = unindexed.build();
+        requesterPolicies = new HashMap<>(indexed.size());
+        for (final Map.Entry<String, ImmutableList.Builder<AttributeFilterPolicy>> entry : indexed.entrySet()) {
+            requesterPolicies.put(entry.getKey(), entry.getValue().build());
+        }
+        log.debug("{} Indexed {} of {} policies by requester across {} requesters", new Object[] {getLogPrefix(),
+                filterPolicies.size() - unindexedPolicies.size(), filterPolicies.size(), requesterPolicies.size(),});
+    }
+
+    /**
+     * Gets the requester IDs for which a rule could be satisfied, if the rule restricts them to a known set.
+     * 
+     * <p>Exact, case sensitive requester rules are recognized directly, a disjunction is indexable if all of its
+     * rules are, and a conjunction is indexable if any of its rules is.</p>
+     * 
+     * @param rule the rule to examine
+     * 
+     * @return the requester IDs, or null if the rule may be satisfied by other requesters
+     */
+    @Nullable private Set<String> getRequesters(@Nonnull final PolicyRequirementRule rule) {
+        if (rule instanceof AttributeRequesterPolicyRule) {
+            final AttributeRequesterPolicyRule requesterRule = (AttributeRequesterPolicyRule) rule;
+            if (requesterRule.isIgnoreCase() || requesterRule.getMatchString() == null) {
+                return null;
+            }
+            return Collections.singleton(requesterRule.getMatchString());
+        } else if (rule instanceof OrPolicyRule && ((OrPolicyRule) rule).getComposedRules() != null) {
+            final Set<String> requesters = new HashSet<>();
+            for (final PolicyRequirementRule composed : ((OrPolicyRule) rule).getComposedRules()) {
+                final Set<String> composedRequesters = getRequesters(composed);
+                if (composedRequesters == null) {
+                    return null;
+                }
+                requesters.addAll(composedRequesters);
+            }
+            return requesters.isEmpty() ? null : requesters;
+        } else if (rule instanceof AndPolicyRule && ((AndPolicyRule) rule).getComposedRules() != null) {
+            Set<String> requesters = null;
+            for (final PolicyRequirementRule composed : ((AndPolicyRule) rule).getComposedRules()) {
+                final Set<String> composedRequesters = getRequesters(composed);
+                if (composedRequesters != null
+                        && (requesters == null || composedRequesters.size() < requesters.size())) {
+                    requesters = composedRequesters;
+                }
+            }
+            return requesters;
+        }
+        return null;
     }
 
     /**
@@ -26,6 +26,7 @@ import javax.annotation.Nullable;
 
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.filter.policyrule.impl.AbstractPolicyRule;
+import net.shibboleth.idp.saml.metadata.EntityAttributesIndex;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -183,6 +184,8 @@ public abstract class AbstractEntityAttributePolicyRule extends AbstractPolicyRu
          * Gets the entity attribute values from the given entity metadata. If both the attribute name and name format
          * for this match functor is configured then both must match, otherwise only the attribute name must match.
          * 
+         * <p>An {@link EntityAttributesIndex} attached to the metadata is used if present.</p>
+         * 
          * @param entityDescriptor the metadata for the entity
          * 
          * @return the values of the designated attribute
@@ -193,6 +196,25 @@ public abstract class AbstractEntityAttributePolicyRule extends AbstractPolicyRu
         
         List<XMLObject> valueAccumulator = null;
         
+        final EntityAttributesIndex index = EntityAttributesIndex.get(entityDescriptor);
+        if (index != null) {
+            for (final Attribute entityAttribute : index.getEntityTags(getAttributeName())) {
+                if (getNameFormat() == null || getNameFormat().equals(entityAttribute.getNameFormat())) {
+                    if (valueAccumulator == null) {
+                        valueAccumulator = new ArrayList<>();
+                    }
+                    valueAccumulator.addAll(entityAttribute.getAttributeValues());
+                }
+            }
+            if (valueAccumulator == null || valueAccumulator.isEmpty()) {
+                log.debug("{} EntityDescriptor for {} does not contain entity attribute with the name {} and the"
+                        + " format {}", new Object[] {getLogPrefix(), entityDescriptor.getEntityID(),
+                                getAttributeName(), getNameFormat(),});
+                return null;
+            }
+            return valueAccumulator;
+        }
+        
         List<XMLObject> entityAttributesCollection = null;
         if (entityDescriptor.getExtensions() != null) {
             entityAttributesCollection =
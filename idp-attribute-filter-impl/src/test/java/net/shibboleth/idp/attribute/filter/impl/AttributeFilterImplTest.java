@@ -17,10 +17,13 @@
 
 package net.shibboleth.idp.attribute.filter.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -33,6 +36,10 @@ import net.shibboleth.idp.attribute.filter.MockMatcher;
 import net.shibboleth.idp.attribute.filter.MockPolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.PolicyRequirementRule;
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
+import net.shibboleth.idp.attribute.filter.policyrule.filtercontext.impl.AttributeRequesterPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AbstractComposedPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.AndPolicyRule;
+import net.shibboleth.idp.attribute.filter.policyrule.logic.impl.OrPolicyRule;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
@@ -372,4 +379,77 @@ public class AttributeFilterImplTest {
         Assert.assertTrue(matcher.isDestroyed());
     }
 
-}
\ No newline at end of file
+    /** Test that requester-indexed policies are selected as they would be by evaluating every policy. */
+    @Test public void testRequesterIndex() throws Exception {
+        final List<AttributeFilterPolicy> policies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            policies.add(newPermitPolicy("sp" + i, newRequesterRule("https://sp" + i + ".example.org", false),
+                    "attribute1"));
+        }
+        policies.add(newPermitPolicy("or", newComposedRule(new OrPolicyRule(),
+                newRequesterRule("https://a.example.org", false), newRequesterRule("https://b.example.org", false)),
+                "attribute2"));
+        policies.add(newPermitPolicy("and", newComposedRule(new AndPolicyRule(), PolicyRequirementRule.MATCHES_ALL,
+                newRequesterRule("https://b.example.org", false)), "attribute3"));
+        policies.add(newPermitPolicy("caseless", newRequesterRule("HTTPS://A.EXAMPLE.ORG", true), "attribute4"));
+        policies.add(newPermitPolicy("all", PolicyRequirementRule.MATCHES_ALL, "attribute5"));
+
+        final AttributeFilterImpl filter = new AttributeFilterImpl("engine", policies);
+        filter.initialize();
+
+        Assert.assertEquals(filterFor(filter, "https://sp7.example.org"),
+                new HashSet<>(Arrays.asList("attribute1", "attribute5")));
+        Assert.assertEquals(filterFor(filter, "https://a.example.org"),
+                new HashSet<>(Arrays.asList("attribute2", "attribute4", "attribute5")));
+        Assert.assertEquals(filterFor(filter, "https://b.example.org"),
+                new HashSet<>(Arrays.asList("attribute2", "attribute3", "attribute5")));
+        Assert.assertEquals(filterFor(filter, "https://other.example.org"),
+                Collections.singleton("attribute5"));
+        Assert.assertEquals(filterFor(filter, null), Collections.singleton("attribute5"));
+    }
+
+    private Set<String> filterFor(final AttributeFilterImpl filter, final String requester) throws Exception {
+        final AttributeFilterContext filterContext = new AttributeFilterContext();
+        filterContext.setAttributeRecipientID(requester);
+        for (int i = 1; i <= 5; i++) {
+            final IdPAttribute attribute = new IdPAttribute("attribute" + i);
+            attribute.setValues(Collections.singletonList(new StringAttributeValue("value")));
+            filterContext.getPrefilteredIdPAttributes().put(attribute.getId(), attribute);
+        }
+        filter.filterAttributes(filterContext);
+        return filterContext.getFilteredIdPAttributes().keySet();
+    }
+
+    private AttributeFilterPolicy newPermitPolicy(final String id, final PolicyRequirementRule rule,
+            final String attributeId) throws ComponentInitializationException {
+        final AttributeRule attributeRule = new AttributeRule();
+        attributeRule.setId(id);
+        attributeRule.setAttributeId(attributeId);
+        attributeRule.setMatcher(Matcher.MATCHES_ALL);
+        attributeRule.setIsDenyRule(false);
+        attributeRule.initialize();
+        final AttributeFilterPolicy policy =
+                new AttributeFilterPolicy(id, rule, Collections.singletonList(attributeRule));
+        policy.initialize();
+        return policy;
+    }
+
+    private PolicyRequirementRule newRequesterRule(final String requester, final boolean ignoreCase)
+            throws ComponentInitializationException {
+        final AttributeRequesterPolicyRule rule = new AttributeRequesterPolicyRule();
+        rule.setId(requester);
+        rule.setMatchString(requester);
+        rule.setIgnoreCase(ignoreCase);
+        rule.initialize();
+        return rule;
+    }
+
+    private PolicyRequirementRule newComposedRule(final AbstractComposedPolicyRule rule,
+            final PolicyRequirementRule... rules) throws ComponentInitializationException {
+        rule.setId("composed");
+        rule.setSubsidiaries(Arrays.asList(rules));
+        rule.initialize();
+        return rule;
+    }
+
+}
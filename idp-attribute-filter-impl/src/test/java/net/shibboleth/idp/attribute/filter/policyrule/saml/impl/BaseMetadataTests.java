@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.filter.policyrule.saml.impl;
 
 import java.util.Collections;
+import java.util.List;
 
 import net.shibboleth.idp.attribute.filter.context.AttributeFilterContext;
 import net.shibboleth.idp.attribute.filter.policyrule.saml.impl.AttributeRequesterEntityAttributeExactPolicyRule;
@@ -62,7 +63,7 @@ public class BaseMetadataTests extends XMLObjectBaseTestCase {
         metadata = unmarshallElement("/net/shibboleth/idp/filter/impl/saml/shibboleth.net-metadata.xml");
         
         final NodeProcessingMetadataFilter filter = new NodeProcessingMetadataFilter();
-        filter.setNodeProcessors(Collections.<MetadataNodeProcessor>singletonList(new EntitiesDescriptorNameProcessor()));
+        filter.setNodeProcessors(getNodeProcessors());
         filter.initialize();
         filter.filter(metadata);
 
@@ -79,6 +80,10 @@ public class BaseMetadataTests extends XMLObjectBaseTestCase {
         }
     }
 
+    protected List<MetadataNodeProcessor> getNodeProcessors() {
+        return Collections.<MetadataNodeProcessor>singletonList(new EntitiesDescriptorNameProcessor());
+    }
+
     static protected AttributeFilterContext metadataContext(EntityDescriptor sp, String principal) {
 
         AttributeFilterContext filterContext = new AttributeFilterContext();
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.filter.policyrule.saml.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.shibboleth.idp.saml.metadata.EntityAttributesIndex;
+import net.shibboleth.idp.saml.metadata.impl.EntityAttributesIndexNodeProcessor;
+
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.metadata.resolver.filter.impl.EntitiesDescriptorNameProcessor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Reruns {@link AttributeRequesterEntityAttributeExactPolicyRuleTest} against metadata carrying an
+ * {@link EntityAttributesIndex}.
+ */
+public class IndexedEntityAttributeExactPolicyRuleTest extends AttributeRequesterEntityAttributeExactPolicyRuleTest {
+
+    /** {@inheritDoc} */
+    @Override protected List<MetadataNodeProcessor> getNodeProcessors() {
+        return Arrays.<MetadataNodeProcessor>asList(new EntitiesDescriptorNameProcessor(),
+                new EntityAttributesIndexNodeProcessor());
+    }
+
+    @Test public void testIndexAttached() {
+        Assert.assertNotNull(EntityAttributesIndex.get(idpEntity));
+        Assert.assertEquals(EntityAttributesIndex.get(idpEntity).getEntityTags("urn:example.org:policies").size(), 2);
+    }
+}
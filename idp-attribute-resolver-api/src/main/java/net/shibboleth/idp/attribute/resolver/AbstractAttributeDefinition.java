@@ -228,6 +228,11 @@ public abstract class AbstractAttributeDefinition extends AbstractResolverPlugin
         logPrefix = null;
     }
 
+    /** {@inheritDoc} */
+    @Override @Nonnull @NotEmpty protected String getLatencyMetricCategory() {
+        return "resolver.definition";
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -50,7 +50,7 @@ public abstract class AbstractDataConnector extends AbstractResolverPlugin<Map<S
     @Nullable private String logPrefix;
 
     /** When did this connector last fail? */
-    private long lastFail;
+    private volatile long lastFail;
 
     /** How long to wait until we declare the connector live again. */
     @Duration private long noRetryDelay;
@@ -156,6 +156,11 @@ public abstract class AbstractDataConnector extends AbstractResolverPlugin<Map<S
         logPrefix = null;
     }
 
+    /** {@inheritDoc} */
+    @Override @Nonnull @NotEmpty protected String getLatencyMetricCategory() {
+        return "resolver.connector";
+    }
+
     /**
      * Retrieves a collection of attributes from some data source.
      * 
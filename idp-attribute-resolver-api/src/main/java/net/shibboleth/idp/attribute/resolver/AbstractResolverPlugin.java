@@ -27,7 +27,10 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.idp.metrics.PluginLatencyRecorder;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
 import net.shibboleth.utilities.java.support.collection.CollectionSupport;
@@ -74,6 +77,9 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
     /** IDs of the {@link ResolverPlugin}s this plug-in depends on. */
     @Nonnull @NonnullElements private Set<ResolverPluginDependency> dependencies = Collections.emptySet();
 
+    /** Records a sample of resolution times. */
+    @NonnullAfterInit private PluginLatencyRecorder latencyRecorder;
+
     /** {@inheritDoc} */
     @Override public boolean isPropagateResolutionExceptions() {
         return propagateResolutionExceptions;
@@ -175,6 +181,7 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         Constraint.isNotNull(resolutionContext, "AttributeResolutionContext cannot be null");
 
         final boolean timerStarted = startTimer(resolutionContext);
+        final long latencyStart = latencyRecorder.start();
         
         try {
             if (null != activationCondition) {
@@ -210,6 +217,7 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
                 }
             }
         } finally {
+            latencyRecorder.stop(latencyStart);
             if (timerStarted) {
                 stopTimer(resolutionContext);
             }
@@ -220,6 +228,9 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
     @Override protected void doDestroy() {
         activationCondition = Predicates.alwaysFalse();
         dependencies = Collections.emptySet();
+        if (latencyRecorder != null) {
+            latencyRecorder.destroy();
+        }
 
         super.doDestroy();
     }
@@ -232,6 +243,17 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         // child class initialization.
         final HashSet<ResolverPluginDependency> checkedDeps = new HashSet<>(dependencies);
         dependencies = ImmutableSet.copyOf(checkedDeps);
+
+        latencyRecorder = new PluginLatencyRecorder(getLatencyMetricCategory(), getId());
+    }
+
+    /**
+     * Get the category under which this plugin's resolution times are recorded.
+     * 
+     * @return the metric category
+     */
+    @Nonnull @NotEmpty protected String getLatencyMetricCategory() {
+        return "resolver.plugin";
     }
 
     /** {@inheritDoc} */
@@ -284,7 +306,10 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         if (prc != null) {
             final MetricContext timerCtx = prc.getSubcontext(MetricContext.class);
             if (timerCtx != null) {
-                timerCtx.start(getId());
+                // Plugins may be resolved concurrently against the same request.
+                synchronized (timerCtx) {
+                    timerCtx.start(getId());
+                }
                 return true;
             }
         }
@@ -301,7 +326,9 @@ public abstract class AbstractResolverPlugin<ResolvedType> extends AbstractIdent
         if (prc != null) {
             final MetricContext timerCtx = prc.getSubcontext(MetricContext.class);
             if (timerCtx != null) {
-                timerCtx.stop(getId());
+                synchronized (timerCtx) {
+                    timerCtx.stop(getId());
+                }
             }
         }
     }
@@ -17,9 +17,20 @@
 
 package net.shibboleth.idp.attribute.resolver.dc.impl;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -33,23 +44,60 @@ import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
 import net.shibboleth.idp.attribute.resolver.dc.Validator;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.opensaml.core.metrics.MetricsSupport;
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * A {@link net.shibboleth.idp.attribute.resolver.DataConnector} containing functionality common to data connectors that
  * retrieve attribute data by searching a data source.
  * 
+ * <p>If a results cache is configured, concurrent cache misses for the same
+ * {@link ExecutableSearch#getResultCacheKey()} are coalesced so that only one search is run against the data source
+ * while the other requests wait for its outcome. Empty results may optionally be held in a separate cache with its
+ * own lifetime, and entries older than a refresh-ahead interval are refreshed in the background while the existing
+ * entry continues to be served. A {@link StorageService} may be set as a second level cache, usually shared between
+ * nodes, which is consulted (once per key, as above) between the results cache and the data source. A result found
+ * there is held in the results cache no longer than the stored record, and is due for refresh-ahead straight away.
+ * Hits, misses, coalesced waits, storage hits and search times are recorded as metrics named after the connector
+ * ID.</p>
+ * 
  * @param <T> type of executable search
  */
 public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> extends AbstractDataConnector {
 
+    /** Prefix of the metric names used to report on cache behavior. */
+    @Nonnull @NotEmpty private static final String DEFAULT_METRIC_NAME = "net.shibboleth.idp.attribute.resolver.dc";
+
+    /** Prefix of the storage context used for results, to which the connector ID is appended. */
+    @Nonnull @NotEmpty private static final String STORAGE_CONTEXT_PREFIX = "_idp_dc_results:";
+
+    /** Default maximum number of keys tracked alongside the results cache. */
+    private static final long DEFAULT_CACHE_MAXIMUM_SIZE = 500;
+
+    /** Default lifetime of results held in storage (4 hours). */
+    private static final long DEFAULT_STORAGE_LIFETIME = 4 * 60 * 60 * 1000;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractSearchDataConnector.class);
 
@@ -65,6 +113,50 @@ public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> ex
     /** Query result cache. */
     private Cache<String, Map<String, IdPAttribute>> resultsCache;
 
+    /** Optional cache for empty query results. */
+    @Nullable private Cache<String, Map<String, IdPAttribute>> negativeResultsCache;
+
+    /** Maximum number of keys tracked alongside the results cache. */
+    @Positive private long resultsCacheMaximumSize;
+
+    /** Age after which a cached result is refreshed in the background. */
+    @Duration @NonNegative private long refreshAheadInterval;
+
+    /** Executor for background refreshes. */
+    @Nullable private Executor refreshExecutor;
+
+    /** Executor created by, and so to be shut down by, this connector. */
+    @Nullable private ExecutorService ownedRefreshExecutor;
+
+    /** Keys of the cached results which are younger than the refresh-ahead interval. */
+    @Nullable private Cache<String, Boolean> freshResults;
+
+    /** Expiration of the stored records from which cached results were taken, which those results must not outlive. */
+    @Nullable private Cache<String, Long> storedExpirations;
+
+    /** Optional second level cache for query results, usually shared between nodes. */
+    @Nullable private StorageService resultsStorage;
+
+    /** Lifetime of results held in {@link #resultsStorage}. */
+    @Duration @Positive private long resultsStorageLifetime;
+
+    /** Optional sealer used to encrypt results held in {@link #resultsStorage}. */
+    @Nullable private DataSealer resultsSealer;
+
+    /** Serializer for results held in {@link #resultsStorage}. */
+    @Nonnull private final ResultsStorageSerializer resultsSerializer;
+
+    /** Searches in progress, indexed by result cache key. */
+    @Nonnull private final ConcurrentMap<String, FutureTask<Map<String, IdPAttribute>>> pendingSearches =
+            new ConcurrentHashMap<>();
+
+    /** Constructor. */
+    public AbstractSearchDataConnector() {
+        resultsCacheMaximumSize = DEFAULT_CACHE_MAXIMUM_SIZE;
+        resultsStorageLifetime = DEFAULT_STORAGE_LIFETIME;
+        resultsSerializer = new ResultsStorageSerializer();
+    }
+
     /**
      * Gets the builder used to create executable searches.
      * 
@@ -152,6 +244,161 @@ public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> ex
         resultsCache = cache;
     }
 
+    /**
+     * Gets the cache used to cache empty search results, if any.
+     * 
+     * @return cache used to cache empty search results
+     */
+    @Nullable public Cache<String, Map<String, IdPAttribute>> getNegativeResultsCache() {
+        return negativeResultsCache;
+    }
+
+    /**
+     * Sets the cache used to cache empty search results, allowing them a different lifetime and size from other
+     * results. If not set, empty results are held in the results cache. Only used if a results cache is set. Note,
+     * all entries in the cache are invalidated prior to use.
+     * 
+     * @param cache cache used to cache empty search results
+     */
+    public void setNegativeResultsCache(@Nullable final Cache<String, Map<String, IdPAttribute>> cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        negativeResultsCache = cache;
+    }
+
+    /**
+     * Gets the maximum number of keys for which per-key state is tracked alongside the results cache.
+     * 
+     * @return the maximum size
+     */
+    @Positive public long getResultsCacheMaximumSize() {
+        return resultsCacheMaximumSize;
+    }
+
+    /**
+     * Sets the maximum number of keys for which per-key state (such as refresh-ahead ages) is tracked alongside the
+     * results cache. This should match the maximum size of the results cache, and defaults to 500.
+     * 
+     * @param size the maximum size
+     */
+    public void setResultsCacheMaximumSize(@Positive final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        resultsCacheMaximumSize = Constraint.isGreaterThan(0, size, "Maximum size must be greater than 0");
+    }
+
+    /**
+     * Gets the age after which a cached result is refreshed in the background.
+     * 
+     * @return the refresh-ahead interval, or 0 if disabled
+     */
+    @Duration @NonNegative public long getRefreshAheadInterval() {
+        return refreshAheadInterval;
+    }
+
+    /**
+     * Sets the age after which a cached result is refreshed in the background. Until the refresh completes the
+     * existing result continues to be served, and only one refresh per key runs at a time. This should be shorter
+     * than the cache's own expiration to be of any use.
+     * 
+     * @param interval the refresh-ahead interval, or 0 to disable
+     */
+    @Duration public void setRefreshAheadInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshAheadInterval =
+                Constraint.isGreaterThanOrEqual(0, interval, "Refresh interval must be greater than or equal to 0");
+    }
+
+    /**
+     * Sets the executor used to run background refreshes. If not set, and refresh-ahead is enabled, a single
+     * daemon thread is created for the purpose.
+     * 
+     * @param executor executor used to run background refreshes
+     */
+    public void setRefreshExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        refreshExecutor = executor;
+    }
+
+    /**
+     * Gets the storage service used as a second level cache of search results.
+     * 
+     * @return the storage service, or null
+     */
+    @Nullable public StorageService getResultsStorage() {
+        return resultsStorage;
+    }
+
+    /**
+     * Sets a storage service used as a second level cache of search results. This is consulted after the results
+     * cache, and before the data source, and is normally a service shared between nodes. Only used if a results
+     * cache is set.
+     * 
+     * <p>Results which are not empty hold the attribute values of the subject, and are stored in the clear unless
+     * a {@link #setResultsSealer(DataSealer)} is also set. Empty results are never stored; they are left to the
+     * (negative) results cache.</p>
+     * 
+     * @param storage the storage service
+     */
+    public void setResultsStorage(@Nullable final StorageService storage) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        resultsStorage = storage;
+    }
+
+    /**
+     * Gets the lifetime of results held in the results storage.
+     * 
+     * @return the lifetime
+     */
+    @Duration @Positive public long getResultsStorageLifetime() {
+        return resultsStorageLifetime;
+    }
+
+    /**
+     * Sets the lifetime of results held in the results storage. Defaults to 4 hours.
+     * 
+     * @param lifetime the lifetime
+     */
+    @Duration public void setResultsStorageLifetime(@Duration @Positive final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        resultsStorageLifetime = Constraint.isGreaterThan(0, lifetime, "Lifetime must be greater than 0");
+    }
+
+    /**
+     * Gets the sealer used to encrypt results held in the results storage.
+     * 
+     * @return the sealer, or null
+     */
+    @Nullable public DataSealer getResultsSealer() {
+        return resultsSealer;
+    }
+
+    /**
+     * Sets a sealer used to encrypt results held in the results storage, so that attribute values are not exposed
+     * to anyone with access to the storage.
+     * 
+     * @param sealer the sealer
+     */
+    public void setResultsSealer(@Nullable final DataSealer sealer) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        ComponentSupport.ifDestroyedThrowDestroyedComponentException(this);
+
+        resultsSealer = sealer;
+    }
+
     /**
      * Attempts to retrieve attributes from the data source.
      * 
@@ -173,18 +420,9 @@ public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> ex
         final Map<String, List<IdPAttributeValue<?>>> dependsAttributes =
                 PluginDependencySupport.getAllAttributeValues(workContext, getDependencies());
         final T executable = searchBuilder.build(resolutionContext, dependsAttributes);
-        Map<String, IdPAttribute> resolvedAttributes = null;
+        final Map<String, IdPAttribute> resolvedAttributes;
         if (resultsCache != null && resolutionContext.getAllowCachedResults()) {
-            final String cacheKey = executable.getResultCacheKey();
-            resolvedAttributes = resultsCache.getIfPresent(cacheKey);
-            log.trace("{} Cache found, resolved attributes {} using cache {}", new Object[] {getLogPrefix(),
-                    resolvedAttributes, resultsCache,});
-            if (resolvedAttributes == null) {
-                resolvedAttributes = retrieveAttributes(executable);
-                log.trace("{} Resolved attributes {}", getLogPrefix(), resolvedAttributes);
-                resultsCache.put(cacheKey, resolvedAttributes != null ? resolvedAttributes
-                        : Collections.<String,IdPAttribute>emptyMap());
-            }
+            resolvedAttributes = retrieveCachedAttributes(executable);
         } else {
             resolvedAttributes = retrieveAttributes(executable);
             log.trace("{} Resolved attributes: {}", getLogPrefix(), resolvedAttributes);
@@ -193,6 +431,341 @@ public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> ex
         return resolvedAttributes;
     }
 
+    /**
+     * Retrieve attributes through the results cache, coalescing concurrent misses on the same key into one search.
+     * 
+     * @param executable used to retrieve data from the data source
+     * 
+     * @return attributes
+     * 
+     * @throws ResolutionException thrown if there is a problem retrieving data from the data source
+     */
+    @Nullable private Map<String, IdPAttribute> retrieveCachedAttributes(@Nonnull final T executable)
+            throws ResolutionException {
+        final String cacheKey = executable.getResultCacheKey();
+        final Map<String, IdPAttribute> cachedAttributes = getCachedAttributes(cacheKey);
+        if (cachedAttributes != null) {
+            log.trace("{} Cache found, resolved attributes {} using cache {}", new Object[] {getLogPrefix(),
+                    cachedAttributes, resultsCache,});
+            countCacheEvent("hits");
+            if (freshResults != null && freshResults.getIfPresent(cacheKey) == null) {
+                refreshCachedAttributes(cacheKey, executable);
+            }
+            return cachedAttributes;
+        }
+
+        final FutureTask<Map<String, IdPAttribute>> search =
+                new FutureTask<>(new Callable<Map<String, IdPAttribute>>() {
+                    /** {@inheritDoc} */
+                    @Override public Map<String, IdPAttribute> call() throws ResolutionException {
+                        // The search we raced against may have completed just before we registered.
+                        final Map<String, IdPAttribute> attributes = getCachedAttributes(cacheKey);
+                        if (attributes != null) {
+                            return attributes;
+                        }
+                        final Pair<Map<String, IdPAttribute>, Long> storedAttributes = getStoredAttributes(cacheKey);
+                        if (storedAttributes != null) {
+                            countCacheEvent("storageHits");
+                            cacheAttributes(cacheKey, storedAttributes.getFirst(), storedAttributes.getSecond());
+                            return storedAttributes.getFirst();
+                        }
+                        return retrieveAndCacheAttributes(cacheKey, executable);
+                    }
+                });
+
+        final FutureTask<Map<String, IdPAttribute>> pendingSearch = pendingSearches.putIfAbsent(cacheKey, search);
+        if (pendingSearch != null) {
+            log.trace("{} Waiting for search already in progress for the same key", getLogPrefix());
+            countCacheEvent("coalesced");
+            return waitForSearch(pendingSearch);
+        }
+
+        countCacheEvent("misses");
+        try {
+            search.run();
+        } finally {
+            pendingSearches.remove(cacheKey, search);
+        }
+        return waitForSearch(search);
+    }
+
+    /**
+     * Look up a key in the results cache, and the negative results cache if there is one.
+     * 
+     * <p>A result taken from the results storage is discarded once the stored record has expired.</p>
+     * 
+     * @param cacheKey the result cache key
+     * 
+     * @return the cached attributes, or null
+     */
+    @Nullable private Map<String, IdPAttribute> getCachedAttributes(@Nonnull final String cacheKey) {
+        if (storedExpirations != null) {
+            final Long expiration = storedExpirations.getIfPresent(cacheKey);
+            if (expiration != null && expiration <= System.currentTimeMillis()) {
+                resultsCache.invalidate(cacheKey);
+                if (negativeResultsCache != null) {
+                    negativeResultsCache.invalidate(cacheKey);
+                }
+                storedExpirations.invalidate(cacheKey);
+                return null;
+            }
+        }
+
+        final Map<String, IdPAttribute> attributes = resultsCache.getIfPresent(cacheKey);
+        if (attributes == null && negativeResultsCache != null) {
+            return negativeResultsCache.getIfPresent(cacheKey);
+        }
+        return attributes;
+    }
+
+    /**
+     * Retrieve attributes from the data source and record the result in the appropriate cache.
+     * 
+     * @param cacheKey the result cache key
+     * @param executable used to retrieve data from the data source
+     * 
+     * @return attributes
+     * 
+     * @throws ResolutionException thrown if there is a problem retrieving data from the data source
+     */
+    @Nullable private Map<String, IdPAttribute> retrieveAndCacheAttributes(@Nonnull final String cacheKey,
+            @Nonnull final T executable) throws ResolutionException {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        final Timer.Context timer =
+                registry != null ? registry.timer(MetricRegistry.name(DEFAULT_METRIC_NAME, getId(), "search")).time()
+                        : null;
+        final Map<String, IdPAttribute> attributes;
+        try {
+            attributes = retrieveAttributes(executable);
+        } finally {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
+        log.trace("{} Resolved attributes {}", getLogPrefix(), attributes);
+
+        cacheAttributes(cacheKey, attributes, null);
+        storeAttributes(cacheKey, attributes);
+        return attributes;
+    }
+
+    /**
+     * Record a result in the appropriate heap cache.
+     * 
+     * <p>A result from the data source is marked as fresh for the purposes of refresh-ahead. A result taken from the
+     * results storage may already be old, so is not, and is limited to the lifetime of the stored record.</p>
+     * 
+     * @param cacheKey the result cache key
+     * @param attributes the result
+     * @param storedExpiration expiration of the stored record the result was taken from, or null if it came from the
+     *            data source
+     */
+    private void cacheAttributes(@Nonnull final String cacheKey, @Nullable final Map<String, IdPAttribute> attributes,
+            @Nullable final Long storedExpiration) {
+        if (attributes == null || attributes.isEmpty()) {
+            if (negativeResultsCache != null) {
+                negativeResultsCache.put(cacheKey, Collections.<String,IdPAttribute>emptyMap());
+                resultsCache.invalidate(cacheKey);
+            } else {
+                resultsCache.put(cacheKey, Collections.<String,IdPAttribute>emptyMap());
+            }
+        } else {
+            resultsCache.put(cacheKey, attributes);
+            if (negativeResultsCache != null) {
+                negativeResultsCache.invalidate(cacheKey);
+            }
+        }
+        if (storedExpiration != null) {
+            if (storedExpirations != null) {
+                storedExpirations.put(cacheKey, storedExpiration);
+            }
+            return;
+        }
+        if (storedExpirations != null) {
+            storedExpirations.invalidate(cacheKey);
+        }
+        if (freshResults != null) {
+            freshResults.put(cacheKey, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Look up a key in the results storage, if there is any.
+     * 
+     * @param cacheKey the result cache key
+     * 
+     * @return the stored attributes and the expiration of their record, or null
+     */
+    @Nullable private Pair<Map<String, IdPAttribute>, Long> getStoredAttributes(@Nonnull final String cacheKey) {
+        if (resultsStorage == null) {
+            return null;
+        }
+
+        final String storageKey = DigestUtils.sha256Hex(cacheKey);
+        try {
+            final StorageRecord<Map<String, IdPAttribute>> record =
+                    resultsStorage.read(getResultsStorageContext(), storageKey);
+            if (record == null) {
+                return null;
+            }
+            final String value = resultsSealer != null ? resultsSealer.unwrap(record.getValue()) : record.getValue();
+            final Long expiration =
+                    record.getExpiration() != null ? record.getExpiration() : System.currentTimeMillis()
+                            + resultsStorageLifetime;
+            return new Pair<>(resultsSerializer.deserialize(record.getVersion(), getResultsStorageContext(),
+                    storageKey, value, record.getExpiration()), expiration);
+        } catch (final IOException e) {
+            log.warn("{} Unable to read result from storage", getLogPrefix(), e);
+            return null;
+        } catch (final DataSealerException e) {
+            log.warn("{} Unable to unseal result from storage", getLogPrefix(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Record a result in the results storage, if there is any.
+     * 
+     * <p>An empty result is not stored, since the storage lifetime would override any negative cache lifetime,
+     * but any earlier result stored under the same key is removed.</p>
+     * 
+     * @param cacheKey the result cache key
+     * @param attributes the result
+     */
+    private void storeAttributes(@Nonnull final String cacheKey, @Nullable final Map<String, IdPAttribute> attributes) {
+        if (resultsStorage == null) {
+            return;
+        }
+
+        final String storageKey = DigestUtils.sha256Hex(cacheKey);
+        if (attributes == null || attributes.isEmpty()) {
+            try {
+                resultsStorage.delete(getResultsStorageContext(), storageKey);
+            } catch (final IOException e) {
+                log.warn("{} Unable to remove result from storage", getLogPrefix(), e);
+            }
+            return;
+        }
+
+        if (!resultsSerializer.isSerializable(attributes)) {
+            log.debug("{} Result contains values which cannot be stored, leaving it to the heap cache",
+                    getLogPrefix());
+            return;
+        }
+
+        final Long expiration = System.currentTimeMillis() + resultsStorageLifetime;
+        try {
+            String value = resultsSerializer.serialize(attributes);
+            if (resultsSealer != null) {
+                value = resultsSealer.wrap(value, expiration);
+            }
+            if (value.length() > resultsStorage.getCapabilities().getValueSize()) {
+                log.debug("{} Result is too large for storage, leaving it to the heap cache", getLogPrefix());
+                return;
+            }
+            if (!resultsStorage.create(getResultsStorageContext(), storageKey, value, expiration)) {
+                resultsStorage.update(getResultsStorageContext(), storageKey, value, expiration);
+            }
+        } catch (final IOException e) {
+            log.warn("{} Unable to write result to storage", getLogPrefix(), e);
+        } catch (final DataSealerException e) {
+            log.warn("{} Unable to seal result for storage", getLogPrefix(), e);
+        }
+    }
+
+    /**
+     * Get the storage context under which this connector's results are stored.
+     * 
+     * @return the storage context
+     */
+    @Nonnull @NotEmpty private String getResultsStorageContext() {
+        return STORAGE_CONTEXT_PREFIX + getId();
+    }
+
+    /**
+     * Refresh a cached result in the background, unless a search for the same key is already in progress.
+     * 
+     * @param cacheKey the result cache key
+     * @param executable used to retrieve data from the data source
+     */
+    private void refreshCachedAttributes(@Nonnull final String cacheKey, @Nonnull final T executable) {
+        final FutureTask<Map<String, IdPAttribute>> refresh =
+                new FutureTask<>(new Callable<Map<String, IdPAttribute>>() {
+                    /** {@inheritDoc} */
+                    @Override public Map<String, IdPAttribute> call() throws ResolutionException {
+                        return retrieveAndCacheAttributes(cacheKey, executable);
+                    }
+                });
+        if (pendingSearches.putIfAbsent(cacheKey, refresh) != null) {
+            return;
+        }
+
+        log.debug("{} Refreshing cached result in the background", getLogPrefix());
+        try {
+            refreshExecutor.execute(new Runnable() {
+                /** {@inheritDoc} */
+                @Override public void run() {
+                    try {
+                        refresh.run();
+                        refresh.get();
+                    } catch (final ExecutionException e) {
+                        log.warn("{} Background refresh of cached result failed", getLogPrefix(), e.getCause());
+                        // Back off until the next interval rather than retrying on every hit.
+                        freshResults.put(cacheKey, Boolean.TRUE);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        pendingSearches.remove(cacheKey, refresh);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            log.debug("{} Background refresh rejected by executor", getLogPrefix());
+            pendingSearches.remove(cacheKey, refresh);
+        }
+    }
+
+    /**
+     * Wait for the outcome of a search.
+     * 
+     * @param search the search
+     * 
+     * @return attributes
+     * 
+     * @throws ResolutionException thrown if the search failed, or the wait was interrupted
+     */
+    @Nullable private Map<String, IdPAttribute> waitForSearch(
+            @Nonnull final FutureTask<Map<String, IdPAttribute>> search) throws ResolutionException {
+        try {
+            return search.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(getLogPrefix() + " Interrupted waiting for search", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ResolutionException) {
+                throw (ResolutionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ResolutionException(getLogPrefix() + " Search failed", e);
+        }
+    }
+
+    /**
+     * Increment the counter for a cache event.
+     * 
+     * @param event the event name
+     */
+    private void countCacheEvent(@Nonnull @NotEmpty final String event) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.counter(MetricRegistry.name(DEFAULT_METRIC_NAME, getId(), "cache", event)).inc();
+        }
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -206,6 +779,37 @@ public abstract class AbstractSearchDataConnector<T extends ExecutableSearch> ex
         if (mappingStrategy == null) {
             throw new ComponentInitializationException(getLogPrefix() + " No mapping strategy was configured");
         }
+
+        resultsSerializer.initialize();
+
+        if (resultsCache != null && refreshAheadInterval > 0) {
+            freshResults = CacheBuilder.newBuilder()
+                    .maximumSize(resultsCacheMaximumSize)
+                    .expireAfterWrite(refreshAheadInterval, TimeUnit.MILLISECONDS)
+                    .<String, Boolean>build();
+            if (refreshExecutor == null) {
+                ownedRefreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("DataConnector-" + getId() + "-refresh")
+                        .build());
+                refreshExecutor = ownedRefreshExecutor;
+            }
+        }
+        if (resultsCache != null && resultsStorage != null) {
+            storedExpirations = CacheBuilder.newBuilder()
+                    .maximumSize(resultsCacheMaximumSize)
+                    .<String, Long>build();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doDestroy() {
+        if (ownedRefreshExecutor != null) {
+            ownedRefreshExecutor.shutdownNow();
+            ownedRefreshExecutor = null;
+        }
+
+        super.doDestroy();
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.EmptyAttributeValue;
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.LocalizedStringAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+
+import org.opensaml.storage.StorageSerializer;
+
+/**
+ * Compact binary serialization of data connector results for storage in a
+ * {@link org.opensaml.storage.StorageService}.
+ *
+ * <p>The format is a version byte followed by length-prefixed attribute IDs, display names and descriptions, and
+ * tagged values, all Base64 encoded to suit string storage. Only the value types data connectors produce are
+ * supported; a result containing any other type (e.g. {@link net.shibboleth.idp.attribute.XMLObjectAttributeValue})
+ * cannot be serialized and {@link #isSerializable(Map)} reports this so the caller can skip storing it.</p>
+ */
+@ThreadSafe
+public class ResultsStorageSerializer extends AbstractInitializableComponent
+        implements StorageSerializer<Map<String, IdPAttribute>> {
+
+    /** Format version. */
+    private static final byte VERSION = 1;
+
+    /** Tag for {@link StringAttributeValue}. */
+    private static final byte STRING_VALUE = 0;
+
+    /** Tag for {@link ScopedStringAttributeValue}. */
+    private static final byte SCOPED_VALUE = 1;
+
+    /** Tag for {@link LocalizedStringAttributeValue}. */
+    private static final byte LOCALIZED_VALUE = 2;
+
+    /** Tag for {@link ByteAttributeValue}. */
+    private static final byte BYTE_VALUE = 3;
+
+    /** Tag for {@link EmptyAttributeValue#NULL}. */
+    private static final byte NULL_VALUE = 4;
+
+    /** Tag for {@link EmptyAttributeValue#ZERO_LENGTH}. */
+    private static final byte ZERO_LENGTH_VALUE = 5;
+
+    /** Smallest encoding of an attribute: an empty ID, no display names or descriptions, and no values. */
+    private static final int MIN_ATTRIBUTE_SIZE = 16;
+
+    /** Smallest encoding of a value: a tag alone. */
+    private static final int MIN_VALUE_SIZE = 1;
+
+    /** Smallest encoding of a localized string: an empty language tag and string. */
+    private static final int MIN_LOCALIZED_STRING_SIZE = 8;
+
+    /**
+     * Check whether every value in a result is of a type this serializer supports.
+     * 
+     * <p>Subclasses of the supported types are not supported, since they would be read back as the base type.</p>
+     *
+     * @param attributes the result
+     *
+     * @return true iff {@link #serialize(Map)} will succeed
+     */
+    public boolean isSerializable(@Nonnull final Map<String, IdPAttribute> attributes) {
+        for (final IdPAttribute attribute : attributes.values()) {
+            for (final IdPAttributeValue<?> value : attribute.getValues()) {
+                if (!isSupportedType(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a value is of a type this serializer supports.
+     * 
+     * @param value the value
+     * 
+     * @return true iff the value's class is exactly one of the supported types
+     */
+    private boolean isSupportedType(@Nonnull final IdPAttributeValue<?> value) {
+        final Class<?> type = value.getClass();
+        return type == StringAttributeValue.class || type == ScopedStringAttributeValue.class
+                || type == LocalizedStringAttributeValue.class || type == ByteAttributeValue.class
+                || type == EmptyAttributeValue.class;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull @NotEmpty public String serialize(@Nonnull final Map<String, IdPAttribute> instance)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        out.writeInt(instance.size());
+        for (final IdPAttribute attribute : instance.values()) {
+            writeString(out, attribute.getId());
+            writeLocalizedStrings(out, attribute.getDisplayNames());
+            writeLocalizedStrings(out, attribute.getDisplayDescriptions());
+            out.writeInt(attribute.getValues().size());
+            for (final IdPAttributeValue<?> value : attribute.getValues()) {
+                writeValue(out, value);
+            }
+        }
+        out.flush();
+        return Base64Support.encode(bytes.toByteArray(), Base64Support.UNCHUNKED);
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public Map<String, IdPAttribute> deserialize(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            @Nonnull @NotEmpty final String value, @Nullable final Long expiration) throws IOException {
+        try {
+            return readResults(new DataInputStream(new ByteArrayInputStream(Base64Support.decode(value))));
+        } catch (final RuntimeException e) {
+            // e.g. an empty attribute ID, or undecodable Base64.
+            throw new IOException("Malformed stored results", e);
+        }
+    }
+
+    /**
+     * Read a result.
+     *
+     * @param in input
+     *
+     * @return the result
+     *
+     * @throws IOException if the input is malformed
+     */
+    @Nonnull private Map<String, IdPAttribute> readResults(@Nonnull final DataInputStream in) throws IOException {
+        final byte formatVersion = in.readByte();
+        if (formatVersion != VERSION) {
+            throw new IOException("Unsupported results format version " + formatVersion);
+        }
+
+        final int attributeCount = readCount(in, MIN_ATTRIBUTE_SIZE);
+        if (attributeCount == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<String, IdPAttribute> attributes = new HashMap<>(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            final IdPAttribute attribute = new IdPAttribute(readString(in));
+            final Map<Locale, String> displayNames = readLocalizedStrings(in);
+            if (!displayNames.isEmpty()) {
+                attribute.setDisplayNames(displayNames);
+            }
+            final Map<Locale, String> displayDescriptions = readLocalizedStrings(in);
+            if (!displayDescriptions.isEmpty()) {
+                attribute.setDisplayDescriptions(displayDescriptions);
+            }
+            final int valueCount = readCount(in, MIN_VALUE_SIZE);
+            final List<IdPAttributeValue<?>> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(readValue(in));
+            }
+            attribute.setValues(values);
+            attributes.put(attribute.getId(), attribute);
+        }
+        return attributes;
+    }
+
+    /**
+     * Write a single value.
+     *
+     * @param out output
+     * @param value the value
+     *
+     * @throws IOException if the value is of an unsupported type
+     */
+    private void writeValue(@Nonnull final DataOutputStream out, @Nonnull final IdPAttributeValue<?> value)
+            throws IOException {
+        if (!isSupportedType(value)) {
+            throw new IOException("Unsupported attribute value type " + value.getClass().getName());
+        } else if (value instanceof ScopedStringAttributeValue) {
+            out.writeByte(SCOPED_VALUE);
+            writeString(out, ((ScopedStringAttributeValue) value).getValue());
+            writeString(out, ((ScopedStringAttributeValue) value).getScope());
+        } else if (value instanceof LocalizedStringAttributeValue) {
+            out.writeByte(LOCALIZED_VALUE);
+            writeString(out, ((LocalizedStringAttributeValue) value).getValue());
+            final Locale locale = ((LocalizedStringAttributeValue) value).getValueLocale();
+            writeString(out, locale != null ? locale.toLanguageTag() : "");
+        } else if (value instanceof StringAttributeValue) {
+            out.writeByte(STRING_VALUE);
+            writeString(out, ((StringAttributeValue) value).getValue());
+        } else if (value instanceof ByteAttributeValue) {
+            out.writeByte(BYTE_VALUE);
+            final byte[] data = ((ByteAttributeValue) value).getValue();
+            out.writeInt(data.length);
+            out.write(data);
+        } else if (EmptyAttributeValue.NULL.equals(value)) {
+            out.writeByte(NULL_VALUE);
+        } else if (EmptyAttributeValue.ZERO_LENGTH.equals(value)) {
+            out.writeByte(ZERO_LENGTH_VALUE);
+        } else {
+            throw new IOException("Unsupported attribute value type " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Read a single value.
+     *
+     * @param in input
+     *
+     * @return the value
+     *
+     * @throws IOException if the input is malformed
+     */
+    @Nonnull private IdPAttributeValue<?> readValue(@Nonnull final DataInputStream in) throws IOException {
+        final byte tag = in.readByte();
+        switch (tag) {
+            case STRING_VALUE:
+                return new StringAttributeValue(readString(in));
+            case SCOPED_VALUE:
+                final String scopedValue = readString(in);
+                return new ScopedStringAttributeValue(scopedValue, readString(in));
+            case LOCALIZED_VALUE:
+                final String localizedValue = readString(in);
+                final String languageTag = readString(in);
+                return new LocalizedStringAttributeValue(localizedValue,
+                        languageTag.isEmpty() ? null : Locale.forLanguageTag(languageTag));
+            case BYTE_VALUE:
+                final byte[] data = new byte[readCount(in, 1)];
+                in.readFully(data);
+                return new ByteAttributeValue(data);
+            case NULL_VALUE:
+                return EmptyAttributeValue.NULL;
+            case ZERO_LENGTH_VALUE:
+                return EmptyAttributeValue.ZERO_LENGTH;
+            default:
+                throw new IOException("Unknown attribute value tag " + tag);
+        }
+    }
+
+    /**
+     * Write a map of localized strings.
+     *
+     * @param out output
+     * @param strings the strings
+     *
+     * @throws IOException if an error occurs
+     */
+    private void writeLocalizedStrings(@Nonnull final DataOutputStream out, @Nonnull final Map<Locale, String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (final Map.Entry<Locale, String> entry : strings.entrySet()) {
+            writeString(out, entry.getKey().toLanguageTag());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    /**
+     * Read a map of localized strings.
+     *
+     * @param in input
+     *
+     * @return the strings
+     *
+     * @throws IOException if the input is malformed
+     */
+    @Nonnull private Map<Locale, String> readLocalizedStrings(@Nonnull final DataInputStream in) throws IOException {
+        final int count = readCount(in, MIN_LOCALIZED_STRING_SIZE);
+        if (count == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<Locale, String> strings = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            final Locale locale = Locale.forLanguageTag(readString(in));
+            strings.put(locale, readString(in));
+        }
+        return strings;
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param out output
+     * @param string the string
+     *
+     * @throws IOException if an error occurs
+     */
+    private void writeString(@Nonnull final DataOutputStream out, @Nonnull final String string) throws IOException {
+        final byte[] data = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     *
+     * @param in input
+     *
+     * @return the string
+     *
+     * @throws IOException if the input is malformed
+     */
+    @Nonnull private String readString(@Nonnull final DataInputStream in) throws IOException {
+        final byte[] data = new byte[readCount(in, 1)];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a length or count, checking that the remaining input could hold that many items.
+     * 
+     * <p>This prevents a corrupt record from causing a huge allocation.</p>
+     * 
+     * @param in input
+     * @param minItemSize the smallest number of bytes each item occupies
+     * 
+     * @return the length or count
+     * 
+     * @throws IOException if the input is malformed
+     */
+    private int readCount(@Nonnull final DataInputStream in, final int minItemSize) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || (long) count * minItemSize > in.available()) {
+            throw new IOException("Invalid length " + count + " in stored results");
+        }
+        return count;
+    }
+}
@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -30,11 +31,16 @@ import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.dc.impl.ExecutableSearchBuilder;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
 
 /**
- * Basis of statement builder. The derived classes just have to provide the per request sql string.
+ * Basis of statement builder. The derived classes just have to provide the per request sql string, or may build a
+ * {@link PreparedStatement} from a fixed SQL shape and a list of bind parameters via
+ * {@link #buildPreparedStatement(String, List)}.
  */
 public abstract class AbstractExecutableStatementBuilder extends AbstractInitializableComponent implements
         ExecutableSearchBuilder<ExecutableStatement> {
@@ -42,6 +48,12 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
     /** Query timeout. */
     private int queryTimeout = 5000;
 
+    /** Number of rows the driver should fetch per round trip, 0 to use the driver's default. */
+    @NonNegative private int fetchSize;
+
+    /** Maximum number of rows a query may return, 0 for no limit. */
+    @NonNegative private int maxResults;
+
     /**
      * Gets the timeout of the SQL query.
      * 
@@ -61,6 +73,44 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
         queryTimeout = timeout;
     }
 
+    /**
+     * Gets the number of rows the driver should fetch per round trip.
+     * 
+     * @return fetch size, or 0 for the driver's default
+     */
+    @NonNegative public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the number of rows the driver should fetch per round trip.
+     * 
+     * @param size fetch size, or 0 for the driver's default
+     */
+    public void setFetchSize(@NonNegative final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        fetchSize = (int) Constraint.isGreaterThanOrEqual(0, size, "Fetch size cannot be negative");
+    }
+
+    /**
+     * Gets the maximum number of rows a query may return.
+     * 
+     * @return row limit, or 0 for no limit
+     */
+    @NonNegative public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Sets the maximum number of rows a query may return. Rows beyond the limit are silently dropped by the driver.
+     * 
+     * @param limit row limit, or 0 for no limit
+     */
+    public void setMaxResults(@NonNegative final int limit) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        maxResults = (int) Constraint.isGreaterThanOrEqual(0, limit, "Result row limit cannot be negative");
+    }
+
     /**
      * Method to return the query SQL.
      * 
@@ -88,7 +138,7 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
             /** {@inheritDoc} */
             @Override @Nonnull public ResultSet execute(@Nonnull final Connection connection) throws SQLException {
                 final Statement stmt = connection.createStatement();
-                stmt.setQueryTimeout(queryTimeout);
+                applyStatementLimits(stmt);
                 return stmt.executeQuery(query);
             }
 
@@ -99,4 +149,86 @@ public abstract class AbstractExecutableStatementBuilder extends AbstractInitial
         };
     }
 
-}
\ No newline at end of file
+    /**
+     * Build an executable statement which runs the supplied SQL as a {@link PreparedStatement}, binding each parameter
+     * in order to a <code>?</code> placeholder.
+     * 
+     * <p>The SQL text stays the same across requests, so the database can reuse its plan and a pooling data source
+     * can reuse the driver's statement. The result cache key is derived from both the SQL and the parameters.</p>
+     * 
+     * @param query the SQL, containing one placeholder per parameter
+     * @param parameters the values to bind
+     * 
+     * @return the executable statement
+     */
+    @Nonnull protected ExecutableStatement buildPreparedStatement(@Nonnull final String query,
+            @Nonnull final List<Object> parameters) {
+        final String cacheKey = getResultCacheKey(query, parameters);
+
+        return new ExecutableStatement() {
+
+            /** {@inheritDoc} */
+            @Override @Nonnull public String getResultCacheKey() {
+                return cacheKey;
+            }
+
+            /** {@inheritDoc} */
+            @Override @Nonnull public ResultSet execute(@Nonnull final Connection connection) throws SQLException {
+                final PreparedStatement stmt = connection.prepareStatement(query);
+                stmt.setPoolable(true);
+                applyStatementLimits(stmt);
+                for (int i = 0; i < parameters.size(); i++) {
+                    stmt.setObject(i + 1, parameters.get(i));
+                }
+                return stmt.executeQuery();
+            }
+
+            /** {@inheritDoc} */
+            @Override public String toString() {
+                return query + " " + parameters;
+            }
+        };
+    }
+
+    /**
+     * Apply the configured timeout, fetch size and row limit to a statement.
+     * 
+     * @param stmt the statement
+     * 
+     * @throws SQLException if the driver rejects a setting
+     */
+    private void applyStatementLimits(@Nonnull final Statement stmt) throws SQLException {
+        stmt.setQueryTimeout(queryTimeout);
+        if (fetchSize > 0) {
+            stmt.setFetchSize(fetchSize);
+        }
+        if (maxResults > 0) {
+            stmt.setMaxRows(maxResults);
+        }
+    }
+
+    /**
+     * Derive an unambiguous result cache key from a SQL shape and its parameters.
+     * 
+     * @param query the SQL
+     * @param parameters the values to bind
+     * 
+     * @return the cache key
+     */
+    @Nonnull private static String getResultCacheKey(@Nonnull final String query,
+            @Nonnull final List<Object> parameters) {
+        final StringBuilder key = new StringBuilder(query.length() + 16 * parameters.size());
+        key.append(query);
+        for (final Object parameter : parameters) {
+            final String value;
+            if (parameter instanceof byte[]) {
+                value = Base64Support.encode((byte[]) parameter, Base64Support.UNCHUNKED);
+            } else {
+                value = String.valueOf(parameter);
+            }
+            key.append('\n').append(value.length()).append(':').append(value);
+        }
+        return key.toString();
+    }
+
+}
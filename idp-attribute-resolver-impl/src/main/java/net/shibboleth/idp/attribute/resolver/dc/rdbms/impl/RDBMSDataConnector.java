@@ -20,6 +20,7 @@ package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -174,7 +175,12 @@ public class RDBMSDataConnector extends AbstractSearchDataConnector<ExecutableSt
         } finally {
             try {
                 if (queryResult != null) {
+                    // closing the statement returns it to the driver's cache when it is pooled
+                    final Statement statement = queryResult.getStatement();
                     queryResult.close();
+                    if (statement != null) {
+                        statement.close();
+                    }
                 }
 
                 if (connection != null && !connection.isClosed()) {
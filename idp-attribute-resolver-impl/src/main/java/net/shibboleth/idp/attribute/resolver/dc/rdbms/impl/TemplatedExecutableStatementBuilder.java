@@ -18,6 +18,7 @@
 package net.shibboleth.idp.attribute.resolver.dc.rdbms.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +71,9 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
     /** Do we need to make ourself V2 Compatible? */
     private boolean v2Compatibility;
 
+    /** Whether to bind inserted values as parameters of a prepared statement. */
+    private boolean usePreparedStatement;
+
     /**
      * Gets the template to be evaluated.
      * 
@@ -157,6 +161,31 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
         v2Compatibility = compat;
     }
 
+    /**
+     * Gets whether inserted values are bound as parameters of a prepared statement.
+     * 
+     * @return whether to use a prepared statement
+     */
+    public boolean isUsePreparedStatement() {
+        return usePreparedStatement;
+    }
+
+    /**
+     * Sets whether inserted values are bound as parameters of a prepared statement.
+     * 
+     * <p>If true, every reference the template inserts is replaced with a <code>?</code> placeholder (or a
+     * comma-separated list of them for a multi-valued reference) and its value is bound to the statement, so the
+     * template must not quote the references itself. The {@link ReferenceInsertionEventHandler} is not used in this
+     * mode.</p>
+     * 
+     * @param flag whether to use a prepared statement
+     */
+    public void setUsePreparedStatement(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        usePreparedStatement = flag;
+    }
+
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
@@ -175,6 +204,46 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
      */
     @Override protected String getSQLQuery(@Nonnull final AttributeResolutionContext resolutionContext,
             @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) throws ResolutionException {
+        final VelocityContext context = createContext(resolutionContext, dependencyAttributes);
+
+        if (eventHandler != null) {
+            final EventCartridge cartridge = new EventCartridge();
+            cartridge.addEventHandler(eventHandler);
+            cartridge.attachToContext(context);
+        }
+
+        return evaluate(context);
+    }
+
+    /** {@inheritDoc} */
+    @Override public ExecutableStatement build(@Nonnull final AttributeResolutionContext resolutionContext,
+            @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) throws ResolutionException {
+        if (!usePreparedStatement) {
+            return super.build(resolutionContext, dependencyAttributes);
+        }
+
+        final VelocityContext context = createContext(resolutionContext, dependencyAttributes);
+        final ParameterBindingReferenceInsertionEventHandler binder =
+                new ParameterBindingReferenceInsertionEventHandler();
+        final EventCartridge cartridge = new EventCartridge();
+        cartridge.addEventHandler(binder);
+        cartridge.attachToContext(context);
+
+        final String query = evaluate(context);
+        log.trace("Binding {} parameter(s) to prepared statement", binder.getParameters().size());
+        return buildPreparedStatement(query, binder.getParameters());
+    }
+
+    /**
+     * Populate a context with the resolution context and dependency values.
+     * 
+     * @param resolutionContext the context of the resolution
+     * @param dependencyAttributes made available to the template
+     * 
+     * @return the populated context
+     */
+    @Nonnull private VelocityContext createContext(@Nonnull final AttributeResolutionContext resolutionContext,
+            @Nullable final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
         final VelocityContext context = new VelocityContext();
         log.trace("Creating search filter using attribute resolution context {}", resolutionContext);
         context.put("resolutionContext", resolutionContext);
@@ -197,12 +266,19 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
             }
         }
 
-        if (eventHandler != null) {
-            final EventCartridge cartridge = new EventCartridge();
-            cartridge.addEventHandler(eventHandler);
-            cartridge.attachToContext(context);
-        }
+        return context;
+    }
 
+    /**
+     * Merge the template with a context, translating any error.
+     * 
+     * @param context to merge
+     * 
+     * @return result of the merge operation
+     * 
+     * @throws ResolutionException if the template cannot be evaluated
+     */
+    @Nonnull private String evaluate(@Nonnull final VelocityContext context) throws ResolutionException {
         try {
             return merge(context);
         } catch (final VelocityException ex) {
@@ -266,4 +342,57 @@ public class TemplatedExecutableStatementBuilder extends AbstractExecutableState
             return value;
         }
     }
+
+    /**
+     * Replaces each inserted value with a bind placeholder and records the value, in order, as a parameter. A new
+     * instance is needed for each evaluation.
+     */
+    private static class ParameterBindingReferenceInsertionEventHandler implements ReferenceInsertionEventHandler {
+
+        /** Values to bind, in placeholder order. */
+        @Nonnull private final List<Object> parameters = new ArrayList<>();
+
+        /**
+         * Get the values to bind, in placeholder order.
+         * 
+         * @return the parameters
+         */
+        @Nonnull public List<Object> getParameters() {
+            return parameters;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Object referenceInsert(final String reference, final Object value) {
+            if (value == null) {
+                return null;
+            } else if (value instanceof Object[]) {
+                return bindAll(Arrays.asList((Object[]) value));
+            } else if (value instanceof Collection<?>) {
+                return bindAll((Collection<?>) value);
+            } else {
+                parameters.add(value);
+                return "?";
+            }
+        }
+
+        /**
+         * Record each of a set of values and return the matching placeholders.
+         * 
+         * @param values the values
+         * 
+         * @return comma-separated placeholders
+         */
+        @Nonnull private String bindAll(@Nonnull final Collection<?> values) {
+            final StringBuilder placeholders = new StringBuilder(3 * values.size());
+            for (final Object o : values) {
+                if (placeholders.length() > 0) {
+                    placeholders.append(", ");
+                }
+                placeholders.append('?');
+                parameters.add(o);
+            }
+            return placeholders.toString();
+        }
+    }
 }
\ No newline at end of file
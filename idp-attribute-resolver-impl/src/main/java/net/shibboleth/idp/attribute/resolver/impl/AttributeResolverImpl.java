@@ -21,9 +21,19 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -32,6 +42,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.AbstractDataConnector;
 import net.shibboleth.idp.attribute.resolver.AttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.AttributeResolver;
 import net.shibboleth.idp.attribute.resolver.DataConnector;
@@ -46,6 +57,8 @@ import net.shibboleth.idp.attribute.resolver.ResolverPluginDependency;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -57,6 +70,7 @@ import net.shibboleth.utilities.java.support.component.ComponentInitializationEx
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 
+import org.opensaml.messaging.context.BaseContext;
 import org.opensaml.messaging.context.navigate.ParentContextLookup;
 import org.opensaml.profile.context.MetricContext;
 import org.opensaml.profile.context.ProfileRequestContext;
@@ -65,6 +79,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * A component that resolves the attributes for a particular subject.
@@ -99,9 +114,25 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
     /** Strategy to get the {@link ProfileRequestContext}. */
     @Nonnull private Function<AttributeResolutionContext,ProfileRequestContext> profileContextStrategy;
 
+    /** Executor used to resolve independent data connectors concurrently, or null for serial resolution. */
+    @Nullable private ExecutorService parallelExecutor;
+
+    /** Default time to wait for a concurrently resolved data connector, 0 meaning wait indefinitely. */
+    @Duration @NonNegative private long dataConnectorTimeout;
+
+    /** Per data connector overrides of {@link #dataConnectorTimeout}, indexed by connector ID. */
+    @Nonnull @NonnullElements private Map<String, Long> dataConnectorTimeouts;
+
+    /**
+     * IDs of the data connectors with no dependencies of their own, indexed by the ID of each attribute definition
+     * whose resolution will end up resolving them.
+     */
+    @NonnullAfterInit private Map<String, Set<String>> independentDataConnectors;
+
     /** Constructor. */
     public AttributeResolverImpl() {
         profileContextStrategy = new ParentContextLookup<>();
+        dataConnectorTimeouts = Collections.emptyMap();
     }
     
     /** {@inheritDoc} */
@@ -191,6 +222,60 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
         
         profileContextStrategy = Constraint.isNotNull(strategy, "ProfileRequestContext lookup strategy cannot be null");
     }
+
+    /**
+     * Set the executor used to resolve independent data connectors concurrently.
+     * 
+     * <p>If set, every data connector which has no dependencies of its own and which is (transitively) required by
+     * the attribute definitions being resolved is dispatched to this executor before any attribute definition is
+     * resolved, so the request pays the latency of the slowest such connector rather than the sum of them all. The
+     * remainder of the dependency graph is then walked serially as usual. The executor should be bounded, and is
+     * not shut down by this component.</p>
+     * 
+     * @param executor the executor to use, or null for serial resolution
+     */
+    public void setParallelExecutor(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        parallelExecutor = executor;
+    }
+
+    /**
+     * Set the default time to wait for a concurrently resolved data connector to complete.
+     * 
+     * <p>The wait includes any time spent queued in the executor. A connector which does not complete in time is
+     * treated as having failed. Only applies when a {@link #setParallelExecutor(ExecutorService)} is set.</p>
+     * 
+     * @param timeout time to wait in milliseconds, or 0 to wait indefinitely
+     */
+    @Duration public void setDataConnectorTimeout(@Duration @NonNegative final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        dataConnectorTimeout =
+                Constraint.isGreaterThanOrEqual(0, timeout, "Timeout must be greater than or equal to 0");
+    }
+
+    /**
+     * Set per data connector overrides of the time to wait for a concurrently resolved data connector.
+     * 
+     * @param timeouts map of connector ID to time to wait in milliseconds (0 to wait indefinitely)
+     */
+    public void setDataConnectorTimeouts(@Nullable @NullableElements final Map<String, Long> timeouts) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        if (timeouts != null) {
+            final Map<String, Long> checkedTimeouts = new HashMap<>(timeouts.size());
+            for (final Map.Entry<String, Long> entry : timeouts.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    checkedTimeouts.put(entry.getKey(), Constraint.isGreaterThanOrEqual(0, entry.getValue(),
+                            "Timeout must be greater than or equal to 0"));
+                }
+            }
+            dataConnectorTimeouts = ImmutableMap.copyOf(checkedTimeouts);
+        } else {
+            dataConnectorTimeouts = Collections.emptyMap();
+        }
+    }
     
     /**
      * Resolves the attribute for the given request. Note, if attributes are requested,
@@ -225,6 +310,10 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             // Create work context to hold intermediate results.
             final AttributeResolverWorkContext workContext =
                     resolutionContext.getSubcontext(AttributeResolverWorkContext.class, true);
+
+            if (null != parallelExecutor) {
+                resolveIndependentDataConnectors(attributeIds, resolutionContext);
+            }
     
             for (final String attributeId : attributeIds) {
                 resolveAttributeDefinition(attributeId, resolutionContext);
@@ -393,6 +482,206 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
     }
     // CheckStyle: ReturnCount ON
 
+    /**
+     * Resolve, concurrently, all the data connectors without dependencies of their own which are required by the
+     * given attribute definitions.
+     * 
+     * <p>The results are recorded in the {@link AttributeResolverWorkContext} exactly as the serial path would
+     * record them, including failover, so that the subsequent walk of the dependency graph finds them already
+     * resolved. Connectors still inside their no-retry window are left to the serial path.</p>
+     * 
+     * <p>Each connector is resolved against a private copy of the resolution context, and its result is merged
+     * into the real one only once it has completed successfully. A connector which ignores the interrupt sent when
+     * it times out (as most JDBC and LDAP drivers do) therefore cannot affect the rest of the resolution, including
+     * any failover.</p>
+     * 
+     * @param attributeIds IDs of the attribute definitions about to be resolved
+     * @param resolutionContext resolution context that we are working in
+     * 
+     * @throws ResolutionException if a connector failed and had no failover
+     */
+    protected void resolveIndependentDataConnectors(@Nonnull @NonnullElements final Collection<String> attributeIds,
+            @Nonnull final AttributeResolutionContext resolutionContext) throws ResolutionException {
+        final AttributeResolverWorkContext workContext =
+                resolutionContext.getSubcontext(AttributeResolverWorkContext.class, false);
+
+        final Set<String> connectorIds = new LinkedHashSet<>();
+        for (final String attributeId : attributeIds) {
+            final Set<String> ids = independentDataConnectors.get(attributeId);
+            if (null != ids) {
+                connectorIds.addAll(ids);
+            }
+        }
+
+        final long dispatchTime = System.currentTimeMillis();
+        final Map<String, Future<Map<String, IdPAttribute>>> pending = new LinkedHashMap<>(connectorIds.size());
+        for (final String connectorId : connectorIds) {
+            final DataConnector connector = dataConnectors.get(connectorId);
+            if (workContext.getResolvedDataConnectors().containsKey(connectorId)) {
+                continue;
+            }
+            if (connector instanceof DataConnectorEx) {
+                final DataConnectorEx connectorEx = (DataConnectorEx) connector;
+                if (dispatchTime < connectorEx.getLastFail() + connectorEx.getNoRetryDelay()) {
+                    continue;
+                }
+            }
+            try {
+                log.debug("{} Dispatching data connector '{}' for concurrent resolution", logPrefix, connectorId);
+                final AttributeResolutionContext privateContext = newPrivateContext(resolutionContext);
+                pending.put(connectorId, parallelExecutor.submit(new Callable<Map<String, IdPAttribute>>() {
+                    /** {@inheritDoc} */
+                    @Override public Map<String, IdPAttribute> call() throws ResolutionException {
+                        return connector.resolve(privateContext);
+                    }
+                }));
+            } catch (final RejectedExecutionException e) {
+                log.warn("{} Data connector '{}' rejected by executor, it will be resolved serially", logPrefix,
+                        connectorId);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Wait for everything before recording anything. A connector which timed out may still be running, but
+        // only against its private context, and its eventual result is discarded.
+        final Map<String, ResolutionException> failures = new LinkedHashMap<>();
+        RuntimeException unchecked = null;
+        for (final Map.Entry<String, Future<Map<String, IdPAttribute>>> entry : pending.entrySet()) {
+            final String connectorId = entry.getKey();
+            try {
+                final Map<String, IdPAttribute> resolvedAttributes =
+                        waitForDataConnector(connectorId, entry.getValue(), dispatchTime);
+                if (null != resolvedAttributes) {
+                    log.debug("{} Data connector '{}' resolved the following attributes: {}", logPrefix, connectorId,
+                            resolvedAttributes.keySet());
+                } else {
+                    log.debug("{} Data connector '{}' produced no attributes", logPrefix, connectorId);
+                }
+                workContext.recordDataConnectorResolution(dataConnectors.get(connectorId), resolvedAttributes);
+            } catch (final ResolutionException e) {
+                failures.put(connectorId, e);
+            } catch (final RuntimeException e) {
+                if (null == unchecked) {
+                    unchecked = e;
+                }
+            }
+        }
+
+        if (null != unchecked) {
+            throw unchecked;
+        }
+
+        while (!failures.isEmpty()) {
+            failoverDataConnector(failures.keySet().iterator().next(), failures, resolutionContext);
+        }
+    }
+
+    /**
+     * Create a private copy of a resolution context, for a data connector to be resolved concurrently against.
+     * 
+     * <p>The copy carries the request parameters of the original and has the same parent, so that lookups of the
+     * {@link ProfileRequestContext} behave as normal, but it is not a child of that parent and has its own empty
+     * {@link AttributeResolverWorkContext}. This is sufficient for a connector with no dependencies.</p>
+     * 
+     * @param resolutionContext the original context
+     * 
+     * @return the private copy
+     */
+    @Nonnull private AttributeResolutionContext newPrivateContext(
+            @Nonnull final AttributeResolutionContext resolutionContext) {
+        final AttributeResolutionContext privateContext = new DetachedResolutionContext(resolutionContext.getParent());
+        privateContext.setPrincipal(resolutionContext.getPrincipal());
+        privateContext.setPrincipalAuthenticationMethod(resolutionContext.getPrincipalAuthenticationMethod());
+        privateContext.setAttributeIssuerID(resolutionContext.getAttributeIssuerID());
+        privateContext.setAttributeRecipientID(resolutionContext.getAttributeRecipientID());
+        privateContext.setAllowCachedResults(resolutionContext.getAllowCachedResults());
+        privateContext.setRequestedIdPAttributeNames(resolutionContext.getRequestedIdPAttributeNames());
+        privateContext.getSubcontext(AttributeResolverWorkContext.class, true);
+        return privateContext;
+    }
+
+    /**
+     * Wait for the outcome of a concurrently resolved data connector.
+     * 
+     * @param connectorId ID of the data connector
+     * @param future the pending resolution
+     * @param dispatchTime when the resolution was dispatched
+     * 
+     * @return the attributes produced by the connector
+     * 
+     * @throws ResolutionException if the connector failed, timed out, or the wait was interrupted
+     */
+    @Nullable private Map<String, IdPAttribute> waitForDataConnector(@Nonnull final String connectorId,
+            @Nonnull final Future<Map<String, IdPAttribute>> future, final long dispatchTime)
+                    throws ResolutionException {
+        final Long timeoutOverride = dataConnectorTimeouts.get(connectorId);
+        final long timeout = null != timeoutOverride ? timeoutOverride : dataConnectorTimeout;
+        try {
+            if (timeout == 0) {
+                return future.get();
+            }
+            final long remaining = dispatchTime + timeout - System.currentTimeMillis();
+            return future.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            future.cancel(true);
+            log.warn("{} Data connector '{}' did not complete within {}ms", logPrefix, connectorId, timeout);
+            final DataConnector connector = dataConnectors.get(connectorId);
+            if (connector instanceof AbstractDataConnector) {
+                ((AbstractDataConnector) connector).setLastFail(System.currentTimeMillis());
+            }
+            throw new ResolutionException(logPrefix + " Data connector '" + connectorId + "' timed out", e);
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(logPrefix + " Interrupted waiting for data connector '" + connectorId
+                    + "'", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ResolutionException) {
+                throw (ResolutionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ResolutionException(logPrefix + " Data connector '" + connectorId + "' failed", e);
+        }
+    }
+
+    /**
+     * Apply the failover rules of {@link #resolveDataConnector(String, AttributeResolutionContext)} to a data
+     * connector which failed during concurrent resolution.
+     * 
+     * @param connectorId ID of the failed data connector
+     * @param failures outstanding failures, indexed by connector ID; the entry for this connector is removed
+     * @param resolutionContext resolution context that we are working in
+     * 
+     * @throws ResolutionException if there is no failover connector, or it also failed
+     */
+    private void failoverDataConnector(@Nonnull final String connectorId,
+            @Nonnull final Map<String, ResolutionException> failures,
+            @Nonnull final AttributeResolutionContext resolutionContext) throws ResolutionException {
+        final ResolutionException failure = failures.remove(connectorId);
+        final DataConnector connector = dataConnectors.get(connectorId);
+        final String failoverDataConnectorId = connector.getFailoverDataConnectorId();
+        if (null == failoverDataConnectorId) {
+            throw failure;
+        }
+
+        log.debug("{} Data connector '{}' failed to resolve, invoking failover data"
+                + " connector '{}'.  Reason for failure:", logPrefix, connectorId, failoverDataConnectorId, failure);
+        if (failures.containsKey(failoverDataConnectorId)) {
+            failoverDataConnector(failoverDataConnectorId, failures, resolutionContext);
+        } else {
+            resolveDataConnector(failoverDataConnectorId, resolutionContext);
+        }
+        resolutionContext.getSubcontext(AttributeResolverWorkContext.class, false).recordFailoverResolution(
+                connector, dataConnectors.get(failoverDataConnectorId));
+    }
+
     /**
      * Resolves all the dependencies for a given plugin.
      * 
@@ -521,6 +810,57 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             log.debug("{} Checking if attribute definition '{}' has a circular dependency", logPrefix, plugin.getId());
             checkPlugInDependencies(plugin.getId(), plugin, dependencyVerifiedPlugins);
         }
+
+        final Map<ResolverPlugin<?>, Set<String>> visited = new IdentityHashMap<>();
+        final Map<String, Set<String>> independentConnectors = new HashMap<>(attributeDefinitions.size());
+        for (final AttributeDefinition plugin : attributeDefinitions.values()) {
+            independentConnectors.put(plugin.getId(), collectIndependentDataConnectors(plugin, visited));
+        }
+        independentDataConnectors = ImmutableMap.copyOf(independentConnectors);
+    }
+
+    /**
+     * Collect the IDs of the data connectors with no dependencies of their own which will be resolved as part of
+     * resolving the given plugin. This relies on {@link #checkPlugInDependencies(String, ResolverPlugin, Set)} having
+     * already rejected dependency loops and dangling dependencies.
+     * 
+     * @param plugin the plugin to start from
+     * @param visited results already computed, indexed by plugin
+     * 
+     * @return the connector IDs
+     */
+    @Nonnull @NonnullElements private Set<String> collectIndependentDataConnectors(
+            @Nonnull final ResolverPlugin<?> plugin, @Nonnull final Map<ResolverPlugin<?>, Set<String>> visited) {
+        Set<String> result = visited.get(plugin);
+        if (null != result) {
+            return result;
+        }
+
+        if (plugin instanceof DataConnector && plugin.getDependencies().isEmpty()) {
+            result = Collections.singleton(plugin.getId());
+        } else {
+            final Set<String> connectorIds = new LinkedHashSet<>();
+            for (final ResolverPluginDependency dependency : plugin.getDependencies()) {
+                final String pluginId = dependency.getDependencyPluginId();
+                final ResolverPlugin<?> dependencyPlugin;
+                if (dependency instanceof ResolverAttributeDefinitionDependency) {
+                    dependencyPlugin = attributeDefinitions.get(pluginId);
+                } else if (dependency instanceof ResolverDataConnectorDependency) {
+                    dependencyPlugin = dataConnectors.get(pluginId);
+                } else if (attributeDefinitions.containsKey(pluginId)) {
+                    dependencyPlugin = attributeDefinitions.get(pluginId);
+                } else {
+                    dependencyPlugin = dataConnectors.get(pluginId);
+                }
+                if (null != dependencyPlugin) {
+                    connectorIds.addAll(collectIndependentDataConnectors(dependencyPlugin, visited));
+                }
+            }
+            result = ImmutableSet.copyOf(connectorIds);
+        }
+
+        visited.put(plugin, result);
+        return result;
     }
 
     /**
@@ -624,5 +964,21 @@ public class AttributeResolverImpl extends AbstractServiceableComponent<Attribut
             }
         }
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * A resolution context which has a parent without being one of its children, so that a data connector resolved
+     * against it can navigate to the request without being able to modify the real resolution context.
+     */
+    private static final class DetachedResolutionContext extends AttributeResolutionContext {
+
+        /**
+         * Constructor.
+         * 
+         * @param parent the parent
+         */
+        DetachedResolutionContext(@Nullable final BaseContext parent) {
+            setParent(parent);
+        }
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.idp.attribute.resolver.dc.MappingStrategy;
+import net.shibboleth.idp.attribute.resolver.dc.Validator;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.security.DataSealer;
+import net.shibboleth.utilities.java.support.security.DataSealerException;
+
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/** Tests for the results cache handling in {@link AbstractSearchDataConnector}. */
+public class AbstractSearchDataConnectorTest {
+
+    @Test public void coalesceMisses() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingConnector connector = new CountingConnector(release, "value");
+        connector.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+        connector.initialize();
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<Map<String, IdPAttribute>> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        results.add(connector.resolve(newContext()));
+                    } catch (final ResolutionException e) {
+                        // results will be short
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(200);
+        release.countDown();
+        for (final Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        Assert.assertEquals(connector.getSearchCount(), 1);
+        Assert.assertEquals(results.size(), 8);
+        for (final Map<String, IdPAttribute> result : results) {
+            Assert.assertEquals(result.get("attr").getValues().get(0), new StringAttributeValue("value"));
+        }
+    }
+
+    @Test public void negativeCache() throws Exception {
+        final CountDownLatch release = new CountDownLatch(0);
+        final CountingConnector connector = new CountingConnector(release, null);
+        final Cache<String, Map<String, IdPAttribute>> cache =
+                CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build();
+        final Cache<String, Map<String, IdPAttribute>> negativeCache =
+                CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build();
+        connector.setResultsCache(cache);
+        connector.setNegativeResultsCache(negativeCache);
+        connector.initialize();
+
+        Assert.assertNull(connector.resolve(newContext()));
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertEquals(negativeCache.size(), 1);
+
+        Assert.assertTrue(connector.resolve(newContext()).isEmpty());
+        Assert.assertEquals(connector.getSearchCount(), 1);
+    }
+
+    @Test public void refreshAhead() throws Exception {
+        final CountDownLatch release = new CountDownLatch(0);
+        final CountingConnector connector = new CountingConnector(release, "value");
+        connector.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+        connector.setRefreshAheadInterval(1);
+        connector.initialize();
+
+        try {
+            connector.resolve(newContext());
+            Assert.assertEquals(connector.getSearchCount(), 1);
+
+            Thread.sleep(20);
+            Assert.assertNotNull(connector.resolve(newContext()));
+
+            for (int i = 0; i < 50 && connector.getSearchCount() < 2; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(connector.getSearchCount(), 2);
+        } finally {
+            connector.destroy();
+        }
+    }
+
+    @Test public void storageTier() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("storage");
+        storage.initialize();
+        try {
+            final CountingConnector first = new CountingConnector(new CountDownLatch(0), "value");
+            first.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+            first.setResultsStorage(storage);
+            first.initialize();
+            Assert.assertEquals(first.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("value"));
+            Assert.assertEquals(first.getSearchCount(), 1);
+
+            final CountingConnector second = new CountingConnector(new CountDownLatch(0), "other");
+            second.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+            second.setResultsStorage(storage);
+            second.initialize();
+            Assert.assertEquals(second.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("value"));
+            Assert.assertEquals(second.getSearchCount(), 0);
+        } finally {
+            storage.destroy();
+        }
+    }
+
+    @Test public void storageExpiration() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("storage");
+        storage.initialize();
+        try {
+            final CountingConnector first = new CountingConnector(new CountDownLatch(0), "value");
+            first.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+            first.setResultsStorage(storage);
+            first.setResultsStorageLifetime(200);
+            first.initialize();
+            Assert.assertNotNull(first.resolve(newContext()));
+
+            // The result taken from storage must not outlive the stored record.
+            final CountingConnector second = newStorageConnector(storage, "other", null);
+            Assert.assertEquals(second.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("value"));
+            Assert.assertEquals(second.getSearchCount(), 0);
+
+            Thread.sleep(400);
+            Assert.assertEquals(second.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("other"));
+            Assert.assertEquals(second.getSearchCount(), 1);
+        } finally {
+            storage.destroy();
+        }
+    }
+
+    @Test public void storageHitNotFresh() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("storage");
+        storage.initialize();
+        try {
+            final CountingConnector first = newStorageConnector(storage, "value", null);
+            Assert.assertNotNull(first.resolve(newContext()));
+
+            final CountingConnector second = new CountingConnector(new CountDownLatch(0), "other");
+            second.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+            second.setResultsStorage(storage);
+            second.setRefreshAheadInterval(60 * 60 * 1000);
+            second.initialize();
+            try {
+                Assert.assertNotNull(second.resolve(newContext()));
+                Assert.assertEquals(second.getSearchCount(), 0);
+
+                // The stored result may be old, so the next hit refreshes it from the data source.
+                Assert.assertNotNull(second.resolve(newContext()));
+                for (int i = 0; i < 50 && second.getSearchCount() < 1; i++) {
+                    Thread.sleep(100);
+                }
+                Assert.assertEquals(second.getSearchCount(), 1);
+            } finally {
+                second.destroy();
+            }
+        } finally {
+            storage.destroy();
+        }
+    }
+
+    @Test public void storageSkipsEmpty() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("storage");
+        storage.initialize();
+        try {
+            final CountingConnector first = newStorageConnector(storage, "value", null);
+            Assert.assertNotNull(first.resolve(newContext()));
+
+            // An empty result removes the stored one rather than replacing it.
+            final CountingConnector empty = newStorageConnector(storage, null, null);
+            Assert.assertNull(empty.resolve(newContext()));
+            Assert.assertEquals(empty.getSearchCount(), 1);
+
+            final CountingConnector third = newStorageConnector(storage, "other", null);
+            Assert.assertEquals(third.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("other"));
+            Assert.assertEquals(third.getSearchCount(), 1);
+        } finally {
+            storage.destroy();
+        }
+    }
+
+    @Test public void storageSealed() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("storage");
+        storage.initialize();
+        try {
+            final DataSealer sealer = new PrefixingSealer();
+            final CountingConnector first = newStorageConnector(storage, "value", sealer);
+            Assert.assertNotNull(first.resolve(newContext()));
+
+            final CountingConnector second = newStorageConnector(storage, "other", sealer);
+            Assert.assertEquals(second.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("value"));
+            Assert.assertEquals(second.getSearchCount(), 0);
+
+            // Without the sealer the stored result is unusable, so the data source is searched.
+            final CountingConnector unsealed = newStorageConnector(storage, "other", null);
+            Assert.assertEquals(unsealed.resolve(newContext()).get("attr").getValues().get(0),
+                    new StringAttributeValue("other"));
+            Assert.assertEquals(unsealed.getSearchCount(), 1);
+        } finally {
+            storage.destroy();
+        }
+    }
+
+    /**
+     * Create an initialized connector backed by a storage service.
+     *
+     * @param storage the storage service
+     * @param value the value the connector returns, or null
+     * @param sealer the sealer, or null
+     *
+     * @return the connector
+     *
+     * @throws ComponentInitializationException if initialization fails
+     */
+    private static CountingConnector newStorageConnector(final MemoryStorageService storage, final String value,
+            final DataSealer sealer) throws ComponentInitializationException {
+        final CountingConnector connector = new CountingConnector(new CountDownLatch(0), value);
+        connector.setResultsCache(CacheBuilder.newBuilder().<String, Map<String, IdPAttribute>>build());
+        connector.setResultsStorage(storage);
+        connector.setResultsSealer(sealer);
+        connector.initialize();
+        return connector;
+    }
+
+    /**
+     * Create a context to resolve against.
+     *
+     * @return the context
+     */
+    private static AttributeResolutionContext newContext() {
+        final AttributeResolutionContext context = new AttributeResolutionContext();
+        context.getSubcontext(AttributeResolverWorkContext.class, true);
+        return context;
+    }
+
+    /** A search which always has the same cache key. */
+    private static class FixedSearch implements ExecutableSearch {
+
+        /** {@inheritDoc} */
+        public String getResultCacheKey() {
+            return "key";
+        }
+    }
+
+    /** A connector which counts its searches, each of which waits on a latch. */
+    private static class CountingConnector extends AbstractSearchDataConnector<FixedSearch> {
+
+        /** Number of searches run. */
+        private final AtomicInteger searchCount = new AtomicInteger();
+
+        /** Latch the searches wait for. */
+        private final CountDownLatch latch;
+
+        /** The value to return, or null for no result. */
+        private final String value;
+
+        public CountingConnector(final CountDownLatch release, final String returnValue) {
+            setId("counting");
+            latch = release;
+            value = returnValue;
+            setExecutableSearchBuilder(new ExecutableSearchBuilder<FixedSearch>() {
+                public FixedSearch build(final AttributeResolutionContext resolutionContext,
+                        final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
+                    return new FixedSearch();
+                }
+            });
+            setValidator(new Validator() {
+                public void validate() {
+                }
+            });
+            setMappingStrategy(new MappingStrategy<Object>() {
+                public Map<String, IdPAttribute> map(final Object results) {
+                    return null;
+                }
+            });
+        }
+
+        public int getSearchCount() {
+            return searchCount.get();
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nullable protected Map<String, IdPAttribute> retrieveAttributes(
+                @Nonnull final FixedSearch executable) throws ResolutionException {
+            searchCount.incrementAndGet();
+            try {
+                latch.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                throw new ResolutionException(e);
+            }
+            if (value == null) {
+                return null;
+            }
+            final IdPAttribute attribute = new IdPAttribute("attr");
+            attribute.setValues(Collections.singletonList(new StringAttributeValue(value)));
+            return Collections.singletonMap("attr", attribute);
+        }
+    }
+
+    /** A sealer which only marks the data, so a record sealed by it cannot be read without it. */
+    private static class PrefixingSealer extends DataSealer {
+
+        /** {@inheritDoc} */
+        @Override @Nonnull public String wrap(@Nonnull final String data, final long exp) {
+            return "sealed:" + data;
+        }
+
+        /** {@inheritDoc} */
+        @Override @Nonnull public String unwrap(@Nonnull final String wrapped) throws DataSealerException {
+            if (!wrapped.startsWith("sealed:")) {
+                throw new DataSealerException("Not sealed");
+            }
+            return wrapped.substring(7);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.attribute.resolver.dc.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.EmptyAttributeValue;
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.LocalizedStringAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.XMLObjectAttributeValue;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+
+import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Tests for {@link ResultsStorageSerializer}. */
+public class ResultsStorageSerializerTest {
+
+    @Test public void roundTrip() throws Exception {
+        final IdPAttribute first = new IdPAttribute("first");
+        first.setDisplayNames(Collections.singletonMap(Locale.ENGLISH, "First"));
+        first.setDisplayDescriptions(Collections.singletonMap(Locale.FRENCH, "Premier"));
+        first.setValues(Arrays.<IdPAttributeValue<?>>asList(new StringAttributeValue("string"),
+                new ScopedStringAttributeValue("user", "example.org"),
+                new LocalizedStringAttributeValue("localized", Locale.GERMAN),
+                new ByteAttributeValue(new byte[] {1, 2, 3})));
+        final IdPAttribute second = new IdPAttribute("second");
+        second.setValues(Arrays.<IdPAttributeValue<?>>asList(EmptyAttributeValue.NULL,
+                EmptyAttributeValue.ZERO_LENGTH));
+        final Map<String, IdPAttribute> result = new HashMap<>();
+        result.put(first.getId(), first);
+        result.put(second.getId(), second);
+
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        Assert.assertTrue(serializer.isSerializable(result));
+
+        final Map<String, IdPAttribute> copy =
+                serializer.deserialize(1, "context", "key", serializer.serialize(result), null);
+        Assert.assertEquals(copy.size(), 2);
+        Assert.assertEquals(copy.get("first").getValues(), first.getValues());
+        Assert.assertEquals(copy.get("first").getDisplayNames(), first.getDisplayNames());
+        Assert.assertEquals(copy.get("first").getDisplayDescriptions(), first.getDisplayDescriptions());
+        Assert.assertEquals(copy.get("second").getValues(), second.getValues());
+    }
+
+    @Test public void empty() throws Exception {
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        final String serialized = serializer.serialize(Collections.<String, IdPAttribute> emptyMap());
+        Assert.assertTrue(serializer.deserialize(1, "context", "key", serialized, null).isEmpty());
+    }
+
+    @Test public void unsupported() throws Exception {
+        final IdPAttribute attribute = new IdPAttribute("xml");
+        attribute.setValues(Collections.<IdPAttributeValue<?>> singletonList(
+                new XMLObjectAttributeValue(new XSStringBuilder().buildObject("urn:test", "test", "t"))));
+
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        Assert.assertFalse(serializer.isSerializable(Collections.singletonMap("xml", attribute)));
+    }
+
+    @Test public void subclass() throws Exception {
+        final IdPAttribute attribute = new IdPAttribute("sub");
+        attribute.setValues(Collections.<IdPAttributeValue<?>> singletonList(new StringAttributeValue("value") {}));
+
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        final Map<String, IdPAttribute> result = Collections.singletonMap("sub", attribute);
+        Assert.assertFalse(serializer.isSerializable(result));
+        try {
+            serializer.serialize(result);
+            Assert.fail("Subclass should not be serialized");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    @Test public void oversizedLength() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeInt(1);
+        out.writeInt(Integer.MAX_VALUE);
+        out.flush();
+        assertMalformed(Base64Support.encode(bytes.toByteArray(), Base64Support.UNCHUNKED));
+    }
+
+    @Test public void negativeCount() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeInt(-1);
+        out.flush();
+        assertMalformed(Base64Support.encode(bytes.toByteArray(), Base64Support.UNCHUNKED));
+    }
+
+    @Test public void truncated() throws Exception {
+        final IdPAttribute attribute = new IdPAttribute("attribute");
+        attribute.setValues(Collections.<IdPAttributeValue<?>> singletonList(new StringAttributeValue("value")));
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        final byte[] data =
+                Base64Support.decode(serializer.serialize(Collections.singletonMap("attribute", attribute)));
+        assertMalformed(Base64Support.encode(Arrays.copyOf(data, data.length - 2), Base64Support.UNCHUNKED));
+    }
+
+    /**
+     * Assert that a serialized result is rejected.
+     * 
+     * @param serialized the serialized result
+     * 
+     * @throws Exception if an unexpected error occurs
+     */
+    private void assertMalformed(final String serialized) throws Exception {
+        final ResultsStorageSerializer serializer = new ResultsStorageSerializer();
+        serializer.initialize();
+        try {
+            serializer.deserialize(1, "context", "key", serialized, null);
+            Assert.fail("Malformed record should be rejected");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}
@@ -233,6 +233,67 @@ public class RDBMSDataConnectorTest extends OpenSAMLInitBaseTestCase {
         Assert.assertEquals(query, "SELECT userid FROM people WHERE userid='McHale''s Navy'");
     }
 
+    @Test public void preparedTemplate() throws ComponentInitializationException, ResolutionException {
+        final TemplatedExecutableStatementBuilder builder = new TemplatedExecutableStatementBuilder();
+        builder.setTemplateText("SELECT userid FROM people WHERE userid=${resolutionContext.principal} AND eduPersonEntitlement IN (${entitlement})");
+        builder.setVelocityEngine(VelocityEngine.newVelocityEngine());
+        builder.setUsePreparedStatement(true);
+        builder.initialize();
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext("McHale's Navy", TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final Map<String, List<IdPAttributeValue<?>>> dependsAttributes = new HashMap<>();
+        final List<IdPAttributeValue<?>> attributeValues = new ArrayList<>();
+        attributeValues.add(new StringAttributeValue("entitlement1"));
+        attributeValues.add(new StringAttributeValue("entitlement2"));
+        dependsAttributes.put("entitlement", attributeValues);
+
+        final ExecutableStatement statement = builder.build(context, dependsAttributes);
+        Assert.assertEquals(statement.toString(),
+                "SELECT userid FROM people WHERE userid=? AND eduPersonEntitlement IN (?, ?) "
+                        + "[McHale's Navy, entitlement1, entitlement2]");
+
+        attributeValues.remove(1);
+        final ExecutableStatement other = builder.build(context, dependsAttributes);
+        Assert.assertNotEquals(other.getResultCacheKey(), statement.getResultCacheKey());
+        Assert.assertEquals(builder.build(context, dependsAttributes).getResultCacheKey(), other.getResultCacheKey());
+    }
+
+    @Test public void resolvePrepared() throws ComponentInitializationException, ResolutionException {
+        final TemplatedExecutableStatementBuilder builder = new TemplatedExecutableStatementBuilder();
+        builder.setTemplateText("SELECT userid, name, homephone, mail FROM people WHERE userid=$resolutionContext.principal");
+        builder.setVelocityEngine(VelocityEngine.newVelocityEngine());
+        builder.setUsePreparedStatement(true);
+        builder.setFetchSize(10);
+        builder.initialize();
+        final RDBMSDataConnector connector = createUserRdbmsDataConnector(builder, null);
+        connector.initialize();
+
+        AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final Map<String, IdPAttribute> attrs = connector.resolve(context);
+        Assert.assertEquals(attrs.size(), 4);
+        Assert.assertEquals(attrs.get("NAME").getValues().iterator().next(),
+                new StringAttributeValue("Peter Principal"));
+
+        context = TestSources.createResolutionContext("' OR '1'='1", TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID);
+        Assert.assertNull(connector.resolve(context));
+    }
+
+    @Test public void resolveMaxResults() throws ComponentInitializationException, ResolutionException {
+        final FormatExecutableStatementBuilder builder = newFormatExecutableStatementBuilder(GROUP_QUERY);
+        builder.setMaxResults(1);
+        final RDBMSDataConnector connector = createGroupRdbmsDataConnector(builder, null);
+        connector.initialize();
+
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        Assert.assertEquals(connector.resolve(context).get("NAME").getValues().size(), 1);
+    }
+
     @Test public void resolve() throws ComponentInitializationException, ResolutionException {
         final RDBMSDataConnector connector = createUserRdbmsDataConnector(null, null);
         connector.initialize();
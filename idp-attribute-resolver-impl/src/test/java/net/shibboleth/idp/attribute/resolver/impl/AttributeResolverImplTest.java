@@ -24,6 +24,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,6 +48,7 @@ import net.shibboleth.idp.attribute.resolver.ResolverDataConnectorDependency;
 import net.shibboleth.idp.attribute.resolver.ResolverPluginDependency;
 import net.shibboleth.idp.attribute.resolver.ad.impl.SimpleAttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
@@ -51,6 +56,7 @@ import net.shibboleth.utilities.java.support.collection.LazySet;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.DestroyedComponentException;
 
+import org.opensaml.profile.context.ProfileRequestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -869,6 +875,174 @@ public class AttributeResolverImplTest {
         Assert.assertEquals(resolver.canonicalize(null), "Principal");
     }
 
+    @Test public void resolveParallel() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final IdPAttribute attr1 = new IdPAttribute("attr1");
+        attr1.setValues(Collections.singleton(new StringAttributeValue("value1")));
+        final IdPAttribute attr2 = new IdPAttribute("attr2");
+        attr2.setValues(Collections.singleton(new StringAttributeValue("value2")));
+
+        // Each connector waits for the other, so this only completes if they run concurrently.
+        final MockDataConnector dc1 = new RendezvousDataConnector("dc1", Collections.singletonMap("attr1", attr1),
+                latch);
+        dc1.initialize();
+        final MockDataConnector dc2 = new RendezvousDataConnector("dc2", Collections.singletonMap("attr2", attr2),
+                latch);
+        dc2.initialize();
+
+        final SimpleAttributeDefinition ad1 = new SimpleAttributeDefinition();
+        ad1.setId("output1");
+        ad1.setSourceAttributeId("attr1");
+        ad1.setDependencies(Collections.singleton((ResolverPluginDependency) new ResolverPluginDependency("dc1")));
+        ad1.initialize();
+
+        final SimpleAttributeDefinition ad2 = new SimpleAttributeDefinition();
+        ad2.setId("output2");
+        ad2.setSourceAttributeId("attr2");
+        ad2.setDependencies(Collections.singleton((ResolverPluginDependency) new ResolverPluginDependency("dc2")));
+        ad2.initialize();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Arrays.asList((AttributeDefinition) ad1, ad2), Arrays.asList((DataConnector) dc1, dc2), null);
+            resolver.setParallelExecutor(executor);
+            resolver.initialize();
+
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+
+            Assert.assertEquals(context.getResolvedIdPAttributes().size(), 2);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("output1").getValues().iterator().next(),
+                    new StringAttributeValue("value1"));
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("output2").getValues().iterator().next(),
+                    new StringAttributeValue("value2"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void resolveParallelFailover() throws Exception {
+        final IdPAttribute i1Val = new IdPAttribute("Atr");
+        i1Val.setValues(Collections.singleton(new StringAttributeValue("value1")));
+        final MockDataConnector dc1 = new MockDataConnector("dc1", Collections.singletonMap("Atr", i1Val));
+        dc1.setFailoverDataConnectorId("dc2");
+        dc1.setFailure(true);
+        dc1.initialize();
+
+        final IdPAttribute i2Val = new IdPAttribute("Atr");
+        i2Val.setValues(Collections.singleton(new StringAttributeValue("value2")));
+        final MockDataConnector dc2 = new MockDataConnector("dc2", Collections.singletonMap("Atr", i2Val));
+        dc2.initialize();
+
+        final SimpleAttributeDefinition ad = new SimpleAttributeDefinition();
+        ad.setId("output");
+        ad.setSourceAttributeId("Atr");
+        ad.setDependencies(Collections.singleton((ResolverPluginDependency) new ResolverPluginDependency("dc1")));
+        ad.initialize();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad), Arrays.asList((DataConnector) dc1, dc2), null);
+            resolver.setParallelExecutor(executor);
+            resolver.initialize();
+
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("output").getValues().iterator().next(),
+                    new StringAttributeValue("value2"));
+
+            dc2.setFailure(true);
+            try {
+                resolver.resolveAttributes(new AttributeResolutionContext());
+                Assert.fail();
+            } catch (final ResolutionException e) {
+                // OK
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void resolveParallelTimeout() throws Exception {
+        final IdPAttribute i1Val = new IdPAttribute("Atr");
+        i1Val.setValues(Collections.singleton(new StringAttributeValue("value1")));
+        final MockDataConnector dc1 = new RendezvousDataConnector("dc1", Collections.singletonMap("Atr", i1Val),
+                new CountDownLatch(2));
+        dc1.setFailoverDataConnectorId("dc2");
+        dc1.setNoRetryDelay(60000);
+        dc1.initialize();
+
+        final IdPAttribute i2Val = new IdPAttribute("Atr");
+        i2Val.setValues(Collections.singleton(new StringAttributeValue("value2")));
+        final MockDataConnector dc2 = new MockDataConnector("dc2", Collections.singletonMap("Atr", i2Val));
+        dc2.initialize();
+
+        final SimpleAttributeDefinition ad = new SimpleAttributeDefinition();
+        ad.setId("output");
+        ad.setSourceAttributeId("Atr");
+        ad.setDependencies(Collections.singleton((ResolverPluginDependency) new ResolverPluginDependency("dc1")));
+        ad.initialize();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad), Arrays.asList((DataConnector) dc1, dc2), null);
+            resolver.setParallelExecutor(executor);
+            resolver.setDataConnectorTimeouts(Collections.singletonMap("dc1", 100L));
+            resolver.initialize();
+
+            final AttributeResolutionContext context = new AttributeResolutionContext();
+            resolver.resolveAttributes(context);
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("output").getValues().iterator().next(),
+                    new StringAttributeValue("value2"));
+            Assert.assertTrue(dc1.getLastFail() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void resolveParallelPrivateContext() throws Exception {
+        final IdPAttribute i1Val = new IdPAttribute("Atr");
+        i1Val.setValues(Collections.singleton(new StringAttributeValue("value1")));
+        final ContextCapturingDataConnector dc1 =
+                new ContextCapturingDataConnector("dc1", Collections.singletonMap("Atr", i1Val));
+        dc1.initialize();
+
+        final SimpleAttributeDefinition ad = new SimpleAttributeDefinition();
+        ad.setId("output");
+        ad.setSourceAttributeId("Atr");
+        ad.setDependencies(Collections.singleton((ResolverPluginDependency) new ResolverPluginDependency("dc1")));
+        ad.initialize();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AttributeResolverImpl resolver = newAttributeResolverImpl("foo",
+                    Collections.singleton((AttributeDefinition) ad), Collections.singleton((DataConnector) dc1), null);
+            resolver.setParallelExecutor(executor);
+            resolver.initialize();
+
+            final ProfileRequestContext prc = new ProfileRequestContext();
+            final AttributeResolutionContext context = prc.getSubcontext(AttributeResolutionContext.class, true);
+            context.setPrincipal("jdoe");
+            context.setAttributeRecipientID("https://sp.example.org");
+            resolver.resolveAttributes(context);
+
+            Assert.assertEquals(context.getResolvedIdPAttributes().get("output").getValues().iterator().next(),
+                    new StringAttributeValue("value1"));
+
+            final AttributeResolutionContext seen = dc1.getResolutionContext();
+            Assert.assertNotSame(seen, context);
+            Assert.assertSame(seen.getParent(), prc);
+            Assert.assertSame(prc.getSubcontext(AttributeResolutionContext.class), context);
+            Assert.assertEquals(seen.getPrincipal(), "jdoe");
+            Assert.assertEquals(seen.getAttributeRecipientID(), "https://sp.example.org");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     public static AttributeResolverImpl newAttributeResolverImpl(@Nonnull @NotEmpty final String resolverId,
             @Nullable @NullableElements final Collection<AttributeDefinition> definitions,
             @Nullable @NullableElements final Collection<DataConnector> connectors,
@@ -880,4 +1054,56 @@ public class AttributeResolverImplTest {
         result.setPrincipalDecoder(principalResolver);
         return result;
     }
-}
\ No newline at end of file
+
+    /** A connector which waits (up to 5s) for a number of connectors to be resolving at the same time. */
+    private static class RendezvousDataConnector extends MockDataConnector {
+
+        /** Shared latch. */
+        private final CountDownLatch latch;
+
+        public RendezvousDataConnector(final String id, final Map<String, IdPAttribute> values,
+                final CountDownLatch rendezvous) throws ComponentInitializationException {
+            super(id, values);
+            latch = rendezvous;
+        }
+
+        /** {@inheritDoc} */
+        @Override protected Map<String, IdPAttribute> doDataConnectorResolve(
+                @Nonnull final AttributeResolutionContext resolutionContext,
+                @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+            latch.countDown();
+            try {
+                if (!latch.await(5, TimeUnit.SECONDS)) {
+                    throw new ResolutionException("Connectors were not resolved concurrently");
+                }
+            } catch (final InterruptedException e) {
+                throw new ResolutionException(e);
+            }
+            return super.doDataConnectorResolve(resolutionContext, workContext);
+        }
+    }
+
+    /** A connector which remembers the context it was last resolved against. */
+    private static class ContextCapturingDataConnector extends MockDataConnector {
+
+        /** The context. */
+        private volatile AttributeResolutionContext resolutionContext;
+
+        public ContextCapturingDataConnector(final String id, final Map<String, IdPAttribute> values)
+                throws ComponentInitializationException {
+            super(id, values);
+        }
+
+        public AttributeResolutionContext getResolutionContext() {
+            return resolutionContext;
+        }
+
+        /** {@inheritDoc} */
+        @Override protected Map<String, IdPAttribute> doDataConnectorResolve(
+                @Nonnull final AttributeResolutionContext context,
+                @Nonnull final AttributeResolverWorkContext workContext) throws ResolutionException {
+            resolutionContext = context;
+            return super.doDataConnectorResolve(context, workContext);
+        }
+    }
+}
@@ -98,17 +98,11 @@ public class CacheConfigParser {
             return null;
         }
         
-        final List<Element> cacheElements = ElementSupport.getChildElements(configElement, RESULT_CACHE_DC);
-        cacheElements.addAll(ElementSupport.getChildElements(configElement, RESULT_CACHE_RESOLVER));
-        if (cacheElements.isEmpty()) {
+        final Element cacheElement = getCacheElement(true);
+        if (null == cacheElement) {
             return null;
         }
         
-        if (cacheElements.size() > 1) {
-            log.warn("Only one <ResultCache> element can be specified, the first one has been taken");
-        }
-        
-        final Element cacheElement = cacheElements.get(0);
         final String elementTimeToLive =
                 AttributeSupport.getAttributeValue(cacheElement, new QName("elementTimeToLive"));
         if (null != elementTimeToLive) {
@@ -139,6 +133,149 @@ public class CacheConfigParser {
         return cache.getBeanDefinition();
     }
     
+    /**
+     * Creates a bean definition for a separate cache of empty results from a v2 XML configuration, if the
+     * <code>negativeExpireAfterWrite</code> attribute is present.
+     * 
+     * @return cache bean definition, or null
+     */
+    @Nullable public BeanDefinition createNegativeCache() {
+        final Element cacheElement = getCacheElement(false);
+        if (null == cacheElement) {
+            return null;
+        }
+
+        final String negativeExpireAfterWrite =
+                AttributeSupport.getAttributeValue(cacheElement, new QName("negativeExpireAfterWrite"));
+        if (null == negativeExpireAfterWrite) {
+            return null;
+        }
+
+        final BeanDefinitionBuilder cache =
+                BeanDefinitionBuilder.rootBeanDefinition(CacheConfigParser.class, "buildCacheWrite");
+        cache.addConstructorArgValue(negativeExpireAfterWrite);
+        cache.addConstructorArgValue(
+                AttributeSupport.getAttributeValue(cacheElement, new QName("maximumCachedElements")));
+        return cache.getBeanDefinition();
+    }
+
+    /**
+     * Creates a bean definition for the refresh-ahead interval from a v2 XML configuration, if the
+     * <code>refreshAfterWrite</code> attribute is present.
+     * 
+     * @return interval bean definition (a long, in milliseconds), or null
+     */
+    @Nullable public BeanDefinition createRefreshAheadInterval() {
+        final Element cacheElement = getCacheElement(false);
+        if (null == cacheElement) {
+            return null;
+        }
+
+        final String refreshAfterWrite =
+                AttributeSupport.getAttributeValue(cacheElement, new QName("refreshAfterWrite"));
+        if (null == refreshAfterWrite) {
+            return null;
+        }
+
+        final BeanDefinitionBuilder interval =
+                BeanDefinitionBuilder.rootBeanDefinition(DOMTypeSupport.class, "durationToLong");
+        interval.addConstructorArgValue(refreshAfterWrite);
+        return interval.getBeanDefinition();
+    }
+
+    /**
+     * Creates a bean definition for the maximum number of entries in the results cache from a v2 XML configuration,
+     * so that the connector can bound its other per-key state to match.
+     * 
+     * @return size bean definition (a long), or null
+     */
+    @Nullable public BeanDefinition createMaximumSize() {
+        final Element cacheElement = getCacheElement(false);
+        if (null == cacheElement) {
+            return null;
+        }
+
+        final BeanDefinitionBuilder size =
+                BeanDefinitionBuilder.rootBeanDefinition(CacheConfigParser.class, "buildMaximumSize");
+        size.addConstructorArgValue(
+                AttributeSupport.getAttributeValue(cacheElement, new QName("maximumCachedElements")));
+        return size.getBeanDefinition();
+    }
+
+    /**
+     * Get the bean ID of the storage service to be used as a second level results cache, if any.
+     * 
+     * @return storage service bean ID, or null
+     */
+    @Nullable public String getStorageServiceRef() {
+        final Element cacheElement = getCacheElement(false);
+        if (null == cacheElement) {
+            return null;
+        }
+        return StringSupport.trimOrNull(AttributeSupport.getAttributeValue(cacheElement,
+                new QName("storageServiceRef")));
+    }
+
+    /**
+     * Get the bean ID of the data sealer used to encrypt results held in the second level cache, if any.
+     * 
+     * @return data sealer bean ID, or null
+     */
+    @Nullable public String getDataSealerRef() {
+        final Element cacheElement = getCacheElement(false);
+        if (null == cacheElement) {
+            return null;
+        }
+        return StringSupport.trimOrNull(AttributeSupport.getAttributeValue(cacheElement,
+                new QName("dataSealerRef")));
+    }
+
+    /**
+     * Creates a bean definition for the lifetime of results held in the second level cache. This is taken from the
+     * <code>storageLifetime</code> attribute, or failing that the lifetime of the results cache itself.
+     * 
+     * @return lifetime bean definition (a long, in milliseconds)
+     */
+    @Nonnull public BeanDefinition createStorageLifetime() {
+        final Element cacheElement = getCacheElement(false);
+        String lifetime = null;
+        if (null != cacheElement) {
+            for (final String name : new String[] {"storageLifetime", "expireAfterWrite", "expireAfterAccess",
+                    "elementTimeToLive",}) {
+                lifetime = AttributeSupport.getAttributeValue(cacheElement, new QName(name));
+                if (null != lifetime) {
+                    break;
+                }
+            }
+        }
+
+        final BeanDefinitionBuilder interval =
+                BeanDefinitionBuilder.rootBeanDefinition(CacheConfigParser.class, "buildTimeToLive");
+        interval.addConstructorArgValue(lifetime);
+        return interval.getBeanDefinition();
+    }
+
+    /**
+     * Find the (first) ResultCache element.
+     * 
+     * @param warn whether to warn if there is more than one
+     * 
+     * @return the element, or null
+     */
+    @Nullable private Element getCacheElement(final boolean warn) {
+        final List<Element> cacheElements = ElementSupport.getChildElements(configElement, RESULT_CACHE_DC);
+        cacheElements.addAll(ElementSupport.getChildElements(configElement, RESULT_CACHE_RESOLVER));
+        if (cacheElements.isEmpty()) {
+            return null;
+        }
+        
+        if (warn && cacheElements.size() > 1) {
+            log.warn("Only one <ResultCache> element can be specified, the first one has been taken");
+        }
+        
+        return cacheElements.get(0);
+    }
+    
     /** Helper function to return size provided with a suitable default.
      * 
      * @param maximumSize long string
@@ -164,6 +301,29 @@ public class CacheConfigParser {
         }
     }
     
+    /**
+     * Factory method to leverage spring property replacement functionality. The default is
+     * {@link #DEFAULT_CACHE_ENTRIES}.
+     * 
+     * @param maximumSize long string
+     * 
+     * @return the maximum size
+     */
+    public static long buildMaximumSize(@Nullable final String maximumSize) {
+        return getMaxSize(maximumSize);
+    }
+
+    /**
+     * Factory method to leverage spring property replacement functionality. The default is {@link #DEFAULT_TTL_MS}.
+     * 
+     * @param timeToLive duration string
+     * 
+     * @return the duration in milliseconds
+     */
+    public static long buildTimeToLive(@Nullable final String timeToLive) {
+        return getTimeToLiveMs(timeToLive);
+    }
+
     /**
      * Factory method to leverage spring property replacement functionality. The default settings are a max size
      * of {@link #DEFAULT_CACHE_ENTRIES} and an expiration time {@link #DEFAULT_TTL_MS}.
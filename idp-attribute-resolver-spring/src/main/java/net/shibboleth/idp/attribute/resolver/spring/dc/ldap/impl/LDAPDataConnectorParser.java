@@ -209,7 +209,29 @@ public class LDAPDataConnectorParser extends AbstractDataConnectorParser {
         if (null != resultCacheBeanID) {
             builder.addPropertyReference("resultsCache", resultCacheBeanID);
         } else {
-            builder.addPropertyValue("resultsCache", v2Parser.createCache());
+            final CacheConfigParser cacheParser = new CacheConfigParser(config);
+            builder.addPropertyValue("resultsCache", cacheParser.createCache());
+            final BeanDefinition negativeCache = cacheParser.createNegativeCache();
+            if (null != negativeCache) {
+                builder.addPropertyValue("negativeResultsCache", negativeCache);
+            }
+            final BeanDefinition refreshAheadInterval = cacheParser.createRefreshAheadInterval();
+            if (null != refreshAheadInterval) {
+                builder.addPropertyValue("refreshAheadInterval", refreshAheadInterval);
+            }
+            final BeanDefinition maximumSize = cacheParser.createMaximumSize();
+            if (null != maximumSize) {
+                builder.addPropertyValue("resultsCacheMaximumSize", maximumSize);
+            }
+            final String storageServiceRef = cacheParser.getStorageServiceRef();
+            if (null != storageServiceRef) {
+                builder.addPropertyReference("resultsStorage", storageServiceRef);
+                builder.addPropertyValue("resultsStorageLifetime", cacheParser.createStorageLifetime());
+                final String dataSealerRef = cacheParser.getDataSealerRef();
+                if (null != dataSealerRef) {
+                    builder.addPropertyReference("resultsSealer", dataSealerRef);
+                }
+            }
         }
 
         builder.setInitMethodName("initialize");
@@ -703,16 +725,6 @@ public class LDAPDataConnectorParser extends AbstractDataConnectorParser {
             return validator.getBeanDefinition();
         }
 
-        /**
-         * Create a results cache bean definition. See {@link CacheConfigParser}.
-         * 
-         * @return results cache bean definition
-         */
-        @Nullable public BeanDefinition createCache() {
-            final CacheConfigParser parser = new CacheConfigParser(configElement);
-            return parser.createCache();
-        }
-        
         /** The parent's log prefix.
          * @return the log prefix.  Set up in the constructor.
          */
@@ -117,7 +117,29 @@ public class RDBMSDataConnectorParser extends AbstractDataConnectorParser {
         if (null != resultCacheBeanID) {
            builder.addPropertyReference("resultsCache", resultCacheBeanID);
         } else {
-            builder.addPropertyValue("resultsCache", v2Parser.createCache());
+            final CacheConfigParser cacheParser = new CacheConfigParser(config);
+            builder.addPropertyValue("resultsCache", cacheParser.createCache());
+            final BeanDefinition negativeCache = cacheParser.createNegativeCache();
+            if (null != negativeCache) {
+                builder.addPropertyValue("negativeResultsCache", negativeCache);
+            }
+            final BeanDefinition refreshAheadInterval = cacheParser.createRefreshAheadInterval();
+            if (null != refreshAheadInterval) {
+                builder.addPropertyValue("refreshAheadInterval", refreshAheadInterval);
+            }
+            final BeanDefinition maximumSize = cacheParser.createMaximumSize();
+            if (null != maximumSize) {
+                builder.addPropertyValue("resultsCacheMaximumSize", maximumSize);
+            }
+            final String storageServiceRef = cacheParser.getStorageServiceRef();
+            if (null != storageServiceRef) {
+                builder.addPropertyReference("resultsStorage", storageServiceRef);
+                builder.addPropertyValue("resultsStorageLifetime", cacheParser.createStorageLifetime());
+                final String dataSealerRef = cacheParser.getDataSealerRef();
+                if (null != dataSealerRef) {
+                    builder.addPropertyReference("resultsSealer", dataSealerRef);
+                }
+            }
         }
 
         builder.setInitMethodName("initialize");
@@ -208,6 +230,23 @@ public class RDBMSDataConnectorParser extends AbstractDataConnectorParser {
                 templateBuilder.addPropertyValue("queryTimeout", duration.getBeanDefinition());
             }
 
+            final String usePreparedStatement =
+                    AttributeSupport.getAttributeValue(configElement, new QName("usePreparedStatement"));
+            if (usePreparedStatement != null) {
+                templateBuilder.addPropertyValue("usePreparedStatement", usePreparedStatement);
+            }
+
+            final String fetchSize = AttributeSupport.getAttributeValue(configElement, new QName("fetchSize"));
+            if (fetchSize != null) {
+                templateBuilder.addPropertyValue("fetchSize", fetchSize);
+            }
+
+            final String maxResultSize =
+                    AttributeSupport.getAttributeValue(configElement, new QName("maxResultSize"));
+            if (maxResultSize != null) {
+                templateBuilder.addPropertyValue("maxResults", maxResultSize);
+            }
+
             final List<Element> queryTemplates = ElementSupport.getChildElements(configElement, 
                             new QName(DataConnectorNamespaceHandler.NAMESPACE, "QueryTemplate"));
             queryTemplates.addAll(ElementSupport.getChildElements(configElement, 
@@ -315,16 +354,6 @@ public class RDBMSDataConnectorParser extends AbstractDataConnectorParser {
             return validator.getBeanDefinition();
         }
         
-        /**
-         * Create the results cache. See {@link CacheConfigParser}.
-         * 
-         * @return results cache
-         */
-        @Nullable public BeanDefinition createCache() {
-            final CacheConfigParser parser = new CacheConfigParser(configElement);
-            return parser.createCache();
-        }
-        
         /** The parent parser's log prefix.
          * @return the log prefix.
          */
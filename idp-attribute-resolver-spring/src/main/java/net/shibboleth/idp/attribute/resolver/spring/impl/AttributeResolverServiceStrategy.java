@@ -18,6 +18,8 @@
 package net.shibboleth.idp.attribute.resolver.spring.impl;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,6 +30,9 @@ import net.shibboleth.idp.attribute.resolver.DataConnector;
 import net.shibboleth.idp.attribute.resolver.impl.AttributeResolverImpl;
 import net.shibboleth.idp.saml.attribute.principalconnector.impl.PrincipalConnector;
 import net.shibboleth.idp.saml.attribute.principalconnector.impl.PrinicpalConnectorCanonicalizer;
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.service.ServiceException;
@@ -50,6 +55,42 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeResolverServiceStrategy.class);
 
+    /** Executor used to resolve independent data connectors concurrently. */
+    @Nullable private ExecutorService parallelExecutor;
+
+    /** Default time to wait for a concurrently resolved data connector. */
+    @Duration @NonNegative private long dataConnectorTimeout;
+
+    /** Per data connector overrides of {@link #dataConnectorTimeout}. */
+    @Nullable @NullableElements private Map<String, Long> dataConnectorTimeouts;
+
+    /**
+     * Set the executor used to resolve independent data connectors concurrently.
+     * 
+     * @param executor the executor to use, or null for serial resolution
+     */
+    public void setParallelExecutor(@Nullable final ExecutorService executor) {
+        parallelExecutor = executor;
+    }
+
+    /**
+     * Set the default time to wait for a concurrently resolved data connector.
+     * 
+     * @param timeout time to wait in milliseconds, or 0 to wait indefinitely
+     */
+    @Duration public void setDataConnectorTimeout(@Duration @NonNegative final long timeout) {
+        dataConnectorTimeout = timeout;
+    }
+
+    /**
+     * Set per data connector overrides of the time to wait for a concurrently resolved data connector.
+     * 
+     * @param timeouts map of connector ID to time to wait in milliseconds
+     */
+    public void setDataConnectorTimeouts(@Nullable @NullableElements final Map<String, Long> timeouts) {
+        dataConnectorTimeouts = timeouts;
+    }
+
     /** {@inheritDoc} */
     @Override @Nullable public ServiceableComponent<AttributeResolver> apply(
             @Nullable final ApplicationContext appContext) {
@@ -70,6 +111,9 @@ public class AttributeResolverServiceStrategy extends AbstractIdentifiableInitia
         resolver.setAttributeDefinitions(definitions);
         resolver.setDataConnectors(connectors);
         resolver.setPrincipalDecoder(pcc);
+        resolver.setParallelExecutor(parallelExecutor);
+        resolver.setDataConnectorTimeout(dataConnectorTimeout);
+        resolver.setDataConnectorTimeouts(dataConnectorTimeouts);
         resolver.setId(getId());
         resolver.setApplicationContext(appContext);
 
@@ -28,6 +28,7 @@ import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
 
@@ -100,4 +101,55 @@ public class CacheConfigParserTest extends OpenSAMLInitBaseTestCase {
         context.close();
     }
 
+    @Test public void negativeAndRefresh() throws XMLParserException, IOException {
+        final ParserPool parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+        final Resource resource= new ClassPathResource("net/shibboleth/idp/attribute/resolver/spring/dc/ResultCacheNegativeRefresh.xml");
+        final Document doc = parserPool.parse(resource.getInputStream());
+        final CacheConfigParser ccp = new CacheConfigParser(doc.getDocumentElement());
+        
+        final GenericApplicationContext context = new GenericApplicationContext();
+        
+        context.registerBeanDefinition("Write", ccp.createCache());
+        context.registerBeanDefinition("Negative", ccp.createNegativeCache());
+        context.registerBeanDefinition("Refresh", ccp.createRefreshAheadInterval());
+        context.registerBeanDefinition("Size", ccp.createMaximumSize());
+        context.refresh();
+        context.getBean("Write", Cache.class);
+        context.getBean("Negative", Cache.class);
+        Assert.assertEquals(context.getBean("Refresh", Long.class).longValue(), 30 * 60 * 1000L);
+        Assert.assertEquals(context.getBean("Size", Long.class).longValue(), 1L);
+        
+        context.close();
+    }
+
+    @Test public void noNegativeOrRefresh() throws XMLParserException, IOException {
+        final ParserPool parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+        final Resource resource= new ClassPathResource("net/shibboleth/idp/attribute/resolver/spring/dc/ResultCacheExpireAfterWrite.xml");
+        final Document doc = parserPool.parse(resource.getInputStream());
+        final CacheConfigParser ccp = new CacheConfigParser(doc.getDocumentElement());
+        
+        Assert.assertNull(ccp.createNegativeCache());
+        Assert.assertNull(ccp.createRefreshAheadInterval());
+        Assert.assertNull(ccp.getStorageServiceRef());
+        Assert.assertNull(ccp.getDataSealerRef());
+    }
+
+    @Test public void storage() throws XMLParserException, IOException {
+        final ParserPool parserPool = XMLObjectProviderRegistrySupport.getParserPool();
+        final Resource resource= new ClassPathResource("net/shibboleth/idp/attribute/resolver/spring/dc/ResultCacheStorage.xml");
+        final Document doc = parserPool.parse(resource.getInputStream());
+        final CacheConfigParser ccp = new CacheConfigParser(doc.getDocumentElement());
+        
+        Assert.assertEquals(ccp.getStorageServiceRef(), "shibboleth.StorageService");
+        Assert.assertEquals(ccp.getDataSealerRef(), "shibboleth.DataSealer");
+
+        final GenericApplicationContext context = new GenericApplicationContext();
+        
+        context.registerBeanDefinition("Lifetime", ccp.createStorageLifetime());
+        context.refresh();
+        Assert.assertEquals(context.getBean("Lifetime", Long.class).longValue(), 4 * 60 * 60 * 1000L);
+        
+        context.close();
+    }
+
 }
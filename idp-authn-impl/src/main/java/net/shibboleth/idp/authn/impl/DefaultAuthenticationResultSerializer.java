@@ -17,9 +17,15 @@
 
 package net.shibboleth.idp.authn.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -46,6 +52,7 @@ import net.shibboleth.idp.authn.principal.PrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.AuthenticationResultPrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.GenericPrincipalSerializer;
 import net.shibboleth.idp.authn.principal.impl.UsernamePrincipalSerializer;
+import net.shibboleth.idp.session.CompactSerializationSupport;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
@@ -62,6 +69,10 @@ import com.google.common.collect.Collections2;
 /**
  * Handles serialization of results, delegating handling of {@link Principal} objects to one or more
  * {@link PrincipalSerializer} plugins.
+ * 
+ * <p>Results are written as JSON unless {@link #setCompactSerialization(boolean)} is set, in which case a
+ * versioned binary form is written instead, carrying the principal plugins' output as is. Both forms are always
+ * readable, so the setting can be changed without invalidating existing results.</p>
  */
 public class DefaultAuthenticationResultSerializer extends AbstractInitializableComponent
         implements StorageSerializer<AuthenticationResult> {
@@ -81,6 +92,9 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     /** Field name of private credentials array. */
     @Nonnull @NotEmpty private static final String PRIV_CREDS_ARRAY_FIELD = "priv";
 
+    /** Version of the compact format. */
+    private static final byte COMPACT_FORMAT_VERSION = 1;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(DefaultAuthenticationResultSerializer.class);
 
@@ -98,6 +112,9 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     
     /** Generic principal serializer for any unsupported principals. */
     @Nonnull private final GenericPrincipalSerializer genericSerializer;
+    
+    /** Whether to write the compact binary format instead of JSON. */
+    private boolean compactSerialization;
 
     /** Constructor. */
     public DefaultAuthenticationResultSerializer() {
@@ -131,6 +148,28 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         return genericSerializer;
     }
     
+    /**
+     * Get whether results are written in a compact binary format instead of JSON.
+     * 
+     * @return true iff the compact format is written
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether results are written in a compact binary format instead of JSON.
+     * 
+     * <p>Defaults to false. Either format is read regardless of this setting.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compactSerialization = flag;
+    }
+    
     /** {@inheritDoc} */
     @Override
     public void doInitialize() throws ComponentInitializationException {
@@ -155,6 +194,10 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
     @Nonnull @NotEmpty public String serialize(@Nonnull final AuthenticationResult instance) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        if (compactSerialization) {
+            return serializeCompact(instance);
+        }
+        
         try {
             final StringWriter sink = new StringWriter(128);
             final JsonGenerator gen = generatorFactory.createGenerator(sink);
@@ -205,6 +248,10 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
                     @Nullable final Long expiration) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        if (!CompactSerializationSupport.isJSON(value)) {
+            return deserializeCompact(value, expiration);
+        }
+        
         try {
             final JsonReader reader = readerFactory.createReader(new StringReader(value));
             JsonStructure st = null;
@@ -277,21 +324,8 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
      */
     private void serializePrincipal(@Nonnull final JsonGenerator generator, @Nonnull final Principal principal)
             throws IOException {
-        boolean serialized = false;
-        for (final PrincipalSerializer<String> serializer : principalSerializers) {
-            if (serializer.supports(principal)) {
-                final JsonReader reader = readerFactory.createReader(new StringReader(serializer.serialize(principal)));
-                try {
-                    generator.write(reader.readObject());
-                } finally {
-                    reader.close();
-                }
-                serialized = true;
-            }
-        }
-        if (!serialized && genericSerializer.supports(principal)) {
-            final JsonReader reader =
-                    readerFactory.createReader(new StringReader(genericSerializer.serialize(principal)));
+        for (final String serialized : serializePrincipal(principal)) {
+            final JsonReader reader = readerFactory.createReader(new StringReader(serialized));
             try {
                 generator.write(reader.readObject());
             } finally {
@@ -300,6 +334,28 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
         }
     }
 
+    /**
+     * Attempt to serialize a principal with the registered and default serializers.
+     *
+     * @param principal object to serialize
+     * 
+     * @return the output of each serializer that supports the principal
+     * @throws IOException if serialization fails
+     */
+    @Nonnull @NonnullElements private Collection<String> serializePrincipal(@Nonnull final Principal principal)
+            throws IOException {
+        final Collection<String> serialized = new ArrayList<>(1);
+        for (final PrincipalSerializer<String> serializer : principalSerializers) {
+            if (serializer.supports(principal)) {
+                serialized.add(serializer.serialize(principal));
+            }
+        }
+        if (serialized.isEmpty() && genericSerializer.supports(principal)) {
+            serialized.add(genericSerializer.serialize(principal));
+        }
+        return serialized;
+    }
+
     /**
      * Attempt to deserialize a principal with the registered and default serializers.
      * 
@@ -310,18 +366,148 @@ public class DefaultAuthenticationResultSerializer extends AbstractInitializable
      */
     @Nullable private Principal deserializePrincipal(@Nonnull final JsonValue jsonValue) throws IOException {
         if (jsonValue instanceof JsonObject) {
-            final String json = ((JsonObject) jsonValue).toString();
-            for (final PrincipalSerializer serializer : principalSerializers) {
-                if (serializer.supports(json)) {
-                    return serializer.deserialize(json);
-                }
-            }
-            if (genericSerializer.supports(json)) {
-                return genericSerializer.deserialize(json);
+            return deserializePrincipal(((JsonObject) jsonValue).toString());
+        }
+        
+        return null;
+    }
+
+    /**
+     * Attempt to deserialize a principal with the registered and default serializers.
+     * 
+     * @param json the serialized principal
+     * 
+     * @return the {@link Principal} recovered, or null
+     * @throws IOException if an error occurs
+     */
+    @Nullable private Principal deserializePrincipal(@Nonnull final String json) throws IOException {
+        for (final PrincipalSerializer serializer : principalSerializers) {
+            if (serializer.supports(json)) {
+                return serializer.deserialize(json);
             }
         }
+        if (genericSerializer.supports(json)) {
+            return genericSerializer.deserialize(json);
+        }
         
         return null;
     }
+
+    /**
+     * Serialize a result in the compact binary format.
+     * 
+     * @param instance the result
+     * 
+     * @return the encoded record
+     * @throws IOException if an error occurs
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final AuthenticationResult instance)
+            throws IOException {
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(COMPACT_FORMAT_VERSION);
+        out.writeUTF(instance.getAuthenticationFlowId());
+        out.writeLong(instance.getAuthenticationInstant());
+        writePrincipals(out, instance.getSubject().getPrincipals());
+        writePrincipals(out, instance.getSubject().getPublicCredentials(Principal.class));
+        writePrincipals(out, instance.getSubject().getPrivateCredentials(Principal.class));
+        out.flush();
+        
+        return CompactSerializationSupport.encode(bytes.toByteArray());
+    }
+
+    /**
+     * Write a set of principals in the compact binary format.
+     * 
+     * @param out the output stream
+     * @param principals the principals to write
+     * 
+     * @throws IOException if an error occurs
+     */
+    private void writePrincipals(@Nonnull final DataOutputStream out, @Nullable final Set<Principal> principals)
+            throws IOException {
+        
+        final Collection<String> serialized = new ArrayList<>();
+        if (principals != null) {
+            for (final Principal p : principals) {
+                serialized.addAll(serializePrincipal(p));
+            }
+        }
+        
+        out.writeInt(serialized.size());
+        for (final String s : serialized) {
+            // Principal data is not limited to the 64K that writeUTF supports.
+            final byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    /**
+     * Deserialize a result from the compact binary format.
+     * 
+     * @param value the encoded record
+     * @param expiration record expiration
+     * 
+     * @return the result
+     * @throws IOException if the record is malformed
+     */
+    @Nonnull private AuthenticationResult deserializeCompact(@Nonnull @NotEmpty final String value,
+            @Nullable final Long expiration) throws IOException {
+        
+        try {
+            final DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(CompactSerializationSupport.decode(value)));
+            final byte formatVersion = in.readByte();
+            if (formatVersion != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unsupported AuthenticationResult format version " + formatVersion);
+            }
+            
+            final String flowId = in.readUTF();
+            final long authnInstant = in.readLong();
+
+            final AuthenticationResult result = new AuthenticationResult(flowId, new Subject());
+            result.setAuthenticationInstant(authnInstant);
+            result.setLastActivityInstant(expiration != null ? expiration : authnInstant);
+            result.setPreviousResult(true);
+            
+            readPrincipals(in, result.getSubject().getPrincipals());
+            readPrincipals(in, result.getSubject().getPublicCredentials());
+            readPrincipals(in, result.getSubject().getPrivateCredentials());
+            
+            return result;
+            
+        } catch (final EOFException | IllegalArgumentException e) {
+            log.error("Exception while parsing AuthenticationResult", e);
+            throw new IOException("Found invalid data structure while parsing AuthenticationResult", e);
+        }
+    }
+
+    /**
+     * Read a set of principals written by {@link #writePrincipals(DataOutputStream, Set)}.
+     * 
+     * @param in the input stream
+     * @param principals the set to populate
+     * 
+     * @throws IOException if an error occurs
+     */
+    private void readPrincipals(@Nonnull final DataInputStream in, @Nonnull final Set<? super Principal> principals)
+            throws IOException {
+        
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new EOFException("Principal length exceeds the remaining data");
+            }
+            final byte[] data = new byte[length];
+            in.readFully(data);
+            final Principal principal = deserializePrincipal(new String(data, StandardCharsets.UTF_8));
+            if (principal != null) {
+                principals.add(principal);
+            }
+        }
+    }
     
 }
\ No newline at end of file
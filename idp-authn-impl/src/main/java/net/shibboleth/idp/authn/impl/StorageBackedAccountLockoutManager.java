@@ -18,6 +18,10 @@
 package net.shibboleth.idp.authn.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -38,9 +42,11 @@ import net.shibboleth.idp.authn.AccountLockoutManager;
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.context.UsernamePasswordContext;
 import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -50,6 +56,15 @@ import net.shibboleth.utilities.java.support.logic.FunctionSupport;
 /**
  * Implementation of {@link AccountLockoutManager} interface that relies on a {@link StorageService}
  * to track lockout state.
+ * 
+ * <p>Optionally, failed attempts may be counted in memory on each node and written through to the
+ * {@link StorageService} only once a threshold of unwritten attempts accumulates for a key, when a key
+ * reaches the lockout limit, or when the key's counter is evicted from memory. This keeps storage writes
+ * proportional to lockouts rather than to failed attempts during password spraying. Checks still read
+ * storage, which remains authoritative, so a lockout cleared on one node is cleared everywhere; the local
+ * counters are only relied on when storage cannot be read. Decisions within a node remain exact; across a
+ * cluster of N nodes with a threshold of T, a key may see up to (N - 1) &times; (T - 1) failures beyond the
+ * maximum before it is locked out everywhere.</p>
  */
 public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInitializableComponent
         implements AccountLockoutManager {
@@ -74,12 +89,22 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
     
     /** Controls whether attempts against locked accounts extend duration. */
     private boolean extendLockoutDuration;
+
+    /** Number of unwritten failed attempts to accumulate locally before writing through, or 0 to disable. */
+    @NonNegative private int localCounterThreshold;
+
+    /** Maximum number of keys with local counters to retain. */
+    @Positive private int maxLocalCounters;
+
+    /** Stripes of local counters, or null if disabled. */
+    @Nullable private CounterStripe[] localCounters;
     
     /** Constructor. */
     public StorageBackedAccountLockoutManager() {
         setMaxAttempts(5);
         setCounterInterval(5 * 60 * 1000);
         setLockoutDuration(5 * 60 * 1000);
+        maxLocalCounters = 10000;
     }
 
     /**
@@ -208,6 +233,35 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         
         extendLockoutDuration = flag;
     }
+
+    /**
+     * Set the number of failed attempts for a key to count locally before writing them through to storage.
+     * 
+     * <p>Reaching the lockout limit always writes through. Defaults to 0, which disables local counting
+     * and writes every attempt to storage.</p>
+     * 
+     * @param threshold number of attempts
+     */
+    public void setLocalCounterThreshold(@NonNegative final int threshold) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        localCounterThreshold = (int) Constraint.isGreaterThanOrEqual(0, threshold,
+                "Local counter threshold cannot be negative");
+    }
+
+    /**
+     * Set the maximum number of keys for which to retain local counters.
+     * 
+     * <p>Defaults to 10000. Unwritten attempts for the least recently used keys are written to storage when
+     * their counters are discarded.</p>
+     * 
+     * @param max maximum number of keys
+     */
+    public void setMaxLocalCounters(@Positive final int max) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxLocalCounters = (int) Constraint.isGreaterThan(0, max, "Maximum local counters must be greater than 0");
+    }
     
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
@@ -218,6 +272,14 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else if (lockoutKeyStrategy == null) {
             throw new ComponentInitializationException("Lockout key strategy cannot be null");
         }
+
+        if (localCounterThreshold > 0) {
+            final int stripeCapacity = Math.max(1, maxLocalCounters / CounterStripe.STRIPES);
+            localCounters = new CounterStripe[CounterStripe.STRIPES];
+            for (int i = 0; i < localCounters.length; i++) {
+                localCounters[i] = new CounterStripe(stripeCapacity);
+            }
+        }
     }
     
     /** {@inheritDoc} */
@@ -229,14 +291,24 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
 
         // Read back account state. No state obviously means no lockout, but in the case of errors
-        // that does fail open. Of course, in-memory won't fail...
+        // that does fail open, unless this node knows of a lockout. Of course, in-memory won't fail...
         StorageRecord sr = null;
         try {
             sr = storageService.read(getId(), key);
         } catch (final IOException e) {
-            sr = null;
             log.error("Error reading back account lockout state for '{}'", key, e);
+            return localCounters != null && checkLocal(profileRequestContext, key);
+        }
+
+        if (localCounters != null) {
+            // Storage is authoritative, e.g. if the lockout was cleared by another node, but this node may
+            // know of attempts it has yet to write.
+            syncLocal(profileRequestContext, key, sr);
+            if (checkLocal(profileRequestContext, key)) {
+                return true;
+            }
         }
+
         if (sr == null) {
             log.debug("No lockout record available for '{}'", key);
             return false;
@@ -245,17 +317,23 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         try {
             // Read counter and check if we've exceeded the limit.
             final int counter = Integer.parseInt(sr.getValue());
+            final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
+            final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext);
+            
+            // Recover time of last attempt from the record expiration.
+            final long lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+            
             if (counter >= maxAttemptsLookupStrategy.apply(profileRequestContext)) {
-                // Recover time of last attempt from the record expiration and find the time elapsed since.
-                // If that's under the lockout duration, we're locked out.
-                final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
-                final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext);
-                final long lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+                // If the time elapsed since the last attempt is under the lockout duration, we're locked out.
                 final long timeDifference = System.currentTimeMillis() - lastAttempt;
                 if (timeDifference <= lockoutDuration) {
                     log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
                     if (extendLockoutDuration) {
-                        doIncrement(profileRequestContext, key, 10);
+                        if (localCounters != null) {
+                            incrementLocal(profileRequestContext, key);
+                        } else {
+                            doIncrement(profileRequestContext, key, 10);
+                        }
                     }
                     return true;
                 } else {
@@ -280,6 +358,9 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             return false;
         }
         
+        if (localCounters != null) {
+            return incrementLocal(profileRequestContext, key);
+        }
         return doIncrement(profileRequestContext, key, 10);
     }
 
@@ -289,6 +370,12 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
             final String key = lockoutKeyStrategy.apply(profileRequestContext);
             if (key != null) {
                 log.debug("Clearing lockout state for '{}'", key);
+                if (localCounters != null) {
+                    final CounterStripe stripe = getStripe(key);
+                    synchronized (stripe) {
+                        stripe.remove(key);
+                    }
+                }
                 storageService.delete(getId(), key);
                 return true;
             } else {
@@ -312,10 +399,27 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
      */
     protected boolean doIncrement(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull @NotEmpty final String key, final int retries) {
+        return doIncrement(key, 1, lockoutDurationLookupStrategy.apply(profileRequestContext),
+                counterIntervalLookupStrategy.apply(profileRequestContext), retries) > 0;
+    }
+
+    /**
+     * Add to the invalid login attempt counter via storage service, retrying as necessary.
+     * 
+     * @param key account lockout key
+     * @param attempts number of attempts to add
+     * @param lockoutDuration duration of lockout
+     * @param counterInterval interval after which counter is reset
+     * @param retries number of additional retries to allow
+     * 
+     * @return the resulting counter, or 0 if unsuccessful
+     */
+    private int doIncrement(@Nonnull @NotEmpty final String key, @Positive final int attempts,
+            final long lockoutDuration, final long counterInterval, final int retries) {
 
         if (retries <= 0) {
             log.error("Account lockout increment attempts for '{}' exceeded retry limit", key);
-            return false;
+            return 0;
         }
         
         // Read back account record, initializing counter to zero otherwise.
@@ -340,8 +444,6 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
         
         final long now = System.currentTimeMillis();
-        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
-        final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext);
         
         // Compute last access time by backing off from record expiration.
         long lastAccess = now;
@@ -355,7 +457,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         }
             
         // Increment, and set expiration to longer of the two settings to ensure it hangs around.
-        ++counter;
+        counter += attempts;
         final long expiration = System.currentTimeMillis() + Math.max(lockoutDuration, counterInterval);
 
         log.debug("Invalid login count for '{}' will be {}, expiring at {}", key, counter, new DateTime(expiration));
@@ -364,7 +466,7 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         if (sr == null) {
             try {
                 if (storageService.create(getId(), key, Integer.toString(counter), expiration)) {
-                    return true;
+                    return counter;
                 }
             } catch (final IOException e) {
                 log.error("Unable to create account lockout record for '{}'", key, e);
@@ -372,16 +474,290 @@ public class StorageBackedAccountLockoutManager extends AbstractIdentifiableInit
         } else {
             try {
                 if (storageService.update(getId(), key, Integer.toString(counter), expiration)) {
-                    return true;
+                    return counter;
                 }
             } catch (final IOException e) {
                 log.error("Unable to update account lockout record for '{}'", key, e);
             }
         }
         
-        return doIncrement(profileRequestContext, key, retries-1);
+        return doIncrement(key, attempts, lockoutDuration, counterInterval, retries-1);
     }
 // Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Check for a lockout known to this node, which includes any attempts not yet written to storage.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return true iff the key is locked out according to its local counter
+     */
+    private boolean checkLocal(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        final int maxAttempts = maxAttemptsLookupStrategy.apply(profileRequestContext);
+        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
+        
+        final CounterStripe stripe = getStripe(key);
+        final int counter;
+        synchronized (stripe) {
+            final LocalCounter local = stripe.get(key);
+            if (local == null || local.count < maxAttempts
+                    || System.currentTimeMillis() - local.lastAttempt > lockoutDuration) {
+                return false;
+            }
+            counter = local.count;
+        }
+        
+        log.info("Lockout threshold reached for '{}', invalid count is {}", key, counter);
+        if (extendLockoutDuration) {
+            incrementLocal(profileRequestContext, key);
+        }
+        return true;
+    }
+
+    /**
+     * Count a failed attempt locally, writing through to storage if necessary.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * 
+     * @return true iff successful
+     */
+    private boolean incrementLocal(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key) {
+        final int maxAttempts = maxAttemptsLookupStrategy.apply(profileRequestContext);
+        final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
+        final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext);
+        final CounterStripe stripe = getStripe(key);
+
+        // Seed a new counter from storage, outside the lock, so other nodes' attempts are reflected.
+        boolean present;
+        synchronized (stripe) {
+            present = stripe.containsKey(key);
+        }
+        if (!present) {
+            int counter = 0;
+            long lastAttempt = 0;
+            try {
+                final StorageRecord sr = storageService.read(getId(), key);
+                if (sr != null) {
+                    counter = Integer.parseInt(sr.getValue());
+                    lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+                }
+            } catch (final IOException e) {
+                log.error("Error reading back account lockout state for '{}'", key, e);
+            } catch (final NumberFormatException e) {
+                log.error("Error converting lockout data for '{}' into integer", key, e);
+            }
+            synchronized (stripe) {
+                if (!stripe.containsKey(key)) {
+                    stripe.put(key, new LocalCounter(counter, lastAttempt));
+                }
+            }
+            writeEvicted(stripe);
+        }
+
+        final int attempts;
+        synchronized (stripe) {
+            LocalCounter local = stripe.get(key);
+            if (local == null) {
+                // Evicted since seeding, and written through if necessary.
+                local = new LocalCounter(0, 0);
+                stripe.put(key, local);
+            }
+            
+            final long now = System.currentTimeMillis();
+            if (now - local.lastAttempt > counterInterval) {
+                local.count = 0;
+                local.unwritten = 0;
+            }
+            local.count++;
+            local.unwritten++;
+            local.lastAttempt = now;
+            local.lockoutDuration = lockoutDuration;
+            local.counterInterval = counterInterval;
+
+            log.debug("Invalid login count for '{}' is {}, with {} not yet written to storage", key, local.count,
+                    local.unwritten);
+            
+            // Write through on reaching the threshold, or if storage doesn't yet reflect a lockout.
+            final boolean lockoutUnwritten = local.count >= maxAttempts && local.count - local.unwritten < maxAttempts;
+            if (!lockoutUnwritten && local.unwritten < localCounterThreshold) {
+                return true;
+            }
+            attempts = local.unwritten;
+            local.unwritten = 0;
+        }
+        writeEvicted(stripe);
+        
+        final int counter = doIncrement(key, attempts, lockoutDuration, counterInterval, 10);
+        synchronized (stripe) {
+            final LocalCounter local = stripe.get(key);
+            if (local != null) {
+                if (counter > 0) {
+                    local.count = Math.max(local.count, counter + local.unwritten);
+                } else {
+                    local.unwritten += attempts;
+                }
+            }
+        }
+        return counter > 0;
+    }
+
+    /**
+     * Bring the local counter for a key, if any, into line with the state read back from storage.
+     * 
+     * <p>The stored counter includes every attempt written by this node unless it has since been cleared or has
+     * expired, so the local count becomes the stored count plus the attempts not yet written.</p>
+     * 
+     * @param profileRequestContext current profile request context
+     * @param key account lockout key
+     * @param sr record read from storage, or null
+     */
+    private void syncLocal(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull @NotEmpty final String key, @Nullable final StorageRecord sr) {
+        int counter = 0;
+        long lastAttempt = 0;
+        if (sr != null) {
+            try {
+                counter = Integer.parseInt(sr.getValue());
+            } catch (final NumberFormatException e) {
+                // Logged by the caller.
+                return;
+            }
+            final long lockoutDuration = lockoutDurationLookupStrategy.apply(profileRequestContext);
+            final long counterInterval = counterIntervalLookupStrategy.apply(profileRequestContext);
+            lastAttempt = sr.getExpiration() - Math.max(lockoutDuration, counterInterval);
+            if (System.currentTimeMillis() - lastAttempt > counterInterval) {
+                // Stored counter has lapsed.
+                counter = 0;
+            }
+        }
+
+        final CounterStripe stripe = getStripe(key);
+        synchronized (stripe) {
+            final LocalCounter local = stripe.get(key);
+            if (local == null) {
+                return;
+            } else if (sr == null && local.unwritten == 0) {
+                log.debug("Lockout state for '{}' was cleared or has expired, discarding local counter", key);
+                stripe.remove(key);
+                return;
+            }
+            local.count = counter + local.unwritten;
+            local.lastAttempt = Math.max(local.lastAttempt, lastAttempt);
+        }
+    }
+
+    /**
+     * Write through any unwritten attempts of counters evicted from a stripe.
+     * 
+     * @param stripe the stripe
+     */
+    private void writeEvicted(@Nonnull final CounterStripe stripe) {
+        final List<Pair<String,LocalCounter>> evicted;
+        synchronized (stripe) {
+            if (stripe.evicted.isEmpty()) {
+                return;
+            }
+            evicted = new ArrayList<>(stripe.evicted);
+            stripe.evicted.clear();
+        }
+
+        for (final Pair<String,LocalCounter> entry : evicted) {
+            final LocalCounter local = entry.getSecond();
+            log.debug("Writing {} attempts for evicted local counter '{}' to storage", local.unwritten,
+                    entry.getFirst());
+            if (doIncrement(entry.getFirst(), local.unwritten, local.lockoutDuration, local.counterInterval,
+                    10) == 0) {
+                log.warn("Unable to write attempts for evicted local counter '{}' to storage", entry.getFirst());
+            }
+        }
+    }
+
+    /**
+     * Get the stripe of local counters holding a key.
+     * 
+     * @param key account lockout key
+     * 
+     * @return the stripe
+     */
+    @Nonnull private CounterStripe getStripe(@Nonnull @NotEmpty final String key) {
+        final int hash = key.hashCode();
+        return localCounters[(hash ^ (hash >>> 16)) & (localCounters.length - 1)];
+    }
+
+    /** Node-local state for a lockout key. */
+    private static final class LocalCounter {
+
+        /** Invalid attempts, including those not yet written to storage. */
+        private int count;
+
+        /** Invalid attempts not yet written to storage. */
+        private int unwritten;
+
+        /** Time of last attempt. */
+        private long lastAttempt;
+
+        /** Lockout duration that applied to the last attempt. */
+        private long lockoutDuration;
+
+        /** Counter interval that applied to the last attempt. */
+        private long counterInterval;
+
+        /**
+         * Constructor.
+         * 
+         * @param initialCount counter read from storage
+         * @param initialAttempt time of last attempt recorded in storage
+         */
+        private LocalCounter(final int initialCount, final long initialAttempt) {
+            count = initialCount;
+            lastAttempt = initialAttempt;
+        }
+    }
+
+    /**
+     * A bounded, least recently used map of local counters, guarded by its own monitor.
+     * 
+     * <p>Evicted counters with unwritten attempts are queued for the caller to write through outside the lock.</p>
+     */
+    private static final class CounterStripe extends LinkedHashMap<String,LocalCounter> {
+
+        /** Number of stripes, which must be a power of two. */
+        private static final int STRIPES = 16;
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = 6180713964183722147L;
+
+        /** Maximum entries in this stripe. */
+        private final int capacity;
+
+        /** Evicted counters with unwritten attempts. */
+        @Nonnull private final List<Pair<String,LocalCounter>> evicted;
+
+        /**
+         * Constructor.
+         * 
+         * @param maxEntries maximum entries in this stripe
+         */
+        private CounterStripe(final int maxEntries) {
+            super(16, 0.75f, true);
+            capacity = maxEntries;
+            evicted = new ArrayList<>();
+        }
+
+        /** {@inheritDoc} */
+        @Override protected boolean removeEldestEntry(final Map.Entry<String,LocalCounter> eldest) {
+            if (size() <= capacity) {
+                return false;
+            } else if (eldest.getValue().unwritten > 0) {
+                evicted.add(new Pair<>(eldest.getKey(), eldest.getValue()));
+            }
+            return true;
+        }
+    }
     
     /**
      * A function to generate a key for lockout storage. This effectively defines
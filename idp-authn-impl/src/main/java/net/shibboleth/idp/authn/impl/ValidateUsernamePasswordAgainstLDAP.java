@@ -78,6 +78,9 @@ public class ValidateUsernamePasswordAgainstLDAP extends AbstractUsernamePasswor
     /** Attributes to return from authentication. */
     @Nullable private String[] returnAttributes;
 
+    /** Optional cache of successful responses. */
+    @Nullable private VerifiedCredentialCache<AuthenticationResponse> credentialCache;
+
     /** Authentication response associated with the login. */
     @Nullable private AuthenticationResponse response;
 
@@ -126,6 +129,18 @@ public class ValidateUsernamePasswordAgainstLDAP extends AbstractUsernamePasswor
         returnAttributes = attributes;
     }
 
+    /**
+     * Set a cache of successful responses, allowing repeated logins with the same credentials to skip the
+     * directory.
+     * 
+     * @param cache credential cache
+     */
+    public void setCredentialCache(@Nullable final VerifiedCredentialCache<AuthenticationResponse> cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        credentialCache = cache;
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -139,17 +154,29 @@ public class ValidateUsernamePasswordAgainstLDAP extends AbstractUsernamePasswor
     @Override protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
             @Nonnull final AuthenticationContext authenticationContext) {
         try {
-            log.debug("{} Attempting to authenticate user {}", getLogPrefix(), getUsernamePasswordContext()
-                    .getUsername());
-            final VelocityContext context = new VelocityContext();
-            context.put("usernamePasswordContext", getUsernamePasswordContext());
-            final AuthenticationRequest request =
-                    new AuthenticationRequest(new User(getUsernamePasswordContext().getUsername(), context),
-                            new Credential(getUsernamePasswordContext().getPassword()), returnAttributes);
-            response = authenticator.authenticate(request);
-            log.trace("{} Authentication response {}", getLogPrefix(), response);
+            final String password = getUsernamePasswordContext().getPassword();
+            final AuthenticationResponse cached =
+                    credentialCache != null ? credentialCache.get(profileRequestContext, password) : null;
+            if (cached != null) {
+                log.debug("{} Using cached authentication response for user {}", getLogPrefix(),
+                        getUsernamePasswordContext().getUsername());
+                response = cached;
+            } else {
+                log.debug("{} Attempting to authenticate user {}", getLogPrefix(), getUsernamePasswordContext()
+                        .getUsername());
+                final VelocityContext context = new VelocityContext();
+                context.put("usernamePasswordContext", getUsernamePasswordContext());
+                final AuthenticationRequest request =
+                        new AuthenticationRequest(new User(getUsernamePasswordContext().getUsername(), context),
+                                new Credential(password), returnAttributes);
+                response = authenticator.authenticate(request);
+                log.trace("{} Authentication response {}", getLogPrefix(), response);
+            }
             if (response.getResult()) {
                 log.info("{} Login by '{}' succeeded", getLogPrefix(), getUsernamePasswordContext().getUsername());
+                if (credentialCache != null && cached == null) {
+                    credentialCache.put(profileRequestContext, password, response);
+                }
                 recordSuccess(profileRequestContext);
                 authenticationContext.getSubcontext(LDAPResponseContext.class, true)
                         .setAuthenticationResponse(response);
@@ -164,6 +191,9 @@ public class ValidateUsernamePasswordAgainstLDAP extends AbstractUsernamePasswor
                 buildAuthenticationResult(profileRequestContext, authenticationContext);
             } else {
                 log.info("{} Login by '{}' failed", getLogPrefix(), getUsernamePasswordContext().getUsername());
+                if (credentialCache != null) {
+                    credentialCache.invalidate(profileRequestContext);
+                }
                 authenticationContext.getSubcontext(LDAPResponseContext.class, true)
                         .setAuthenticationResponse(response);
                 if (AuthenticationResultCode.DN_RESOLUTION_FAILURE == response.getAuthenticationResultCode()
@@ -191,6 +221,9 @@ public class ValidateUsernamePasswordAgainstLDAP extends AbstractUsernamePasswor
         } catch (final LdapException e) {
             log.warn("{} Login by {} produced exception", getLogPrefix(), getUsernamePasswordContext().getUsername(),
                     e);
+            if (credentialCache != null) {
+                credentialCache.invalidate(profileRequestContext);
+            }
             recordFailure(profileRequestContext, false);
             handleError(profileRequestContext, authenticationContext, e, AuthnEventIds.AUTHN_EXCEPTION);
         }
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A short-lived, in-memory cache of successful password validation results, allowing a client that repeatedly
+ * presents the same credentials to skip the back-end.
+ * 
+ * <p>Entries are keyed by a lookup strategy, typically scoping them to a username and client address, and hold
+ * a salted PBKDF2 hash of the password rather than the password itself. The salt is random to each instance,
+ * and the hash is only computed when an entry exists for the key. Callers are expected to invalidate the
+ * entry for a key on any failed validation.</p>
+ * 
+ * @param <T> type of validation result
+ */
+@ThreadSafe
+public class VerifiedCredentialCache<T> extends AbstractInitializableComponent {
+
+    /** Key derivation algorithm. */
+    @Nonnull @NotEmpty private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    /** Length of derived key and salt in bits. */
+    private static final int KEY_LENGTH = 160;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(VerifiedCredentialCache.class);
+
+    /** Lookup function to produce cache keys. */
+    @NonnullAfterInit private Function<ProfileRequestContext,String> keyStrategy;
+
+    /** Lifetime of entries, or 0 to disable caching. */
+    @Duration @NonNegative private long timeout;
+
+    /** Maximum number of entries. */
+    @Positive private int maxSize;
+
+    /** Key derivation iteration count. */
+    @Positive private int iterations;
+
+    /** Salt for key derivation. */
+    @NonnullAfterInit private byte[] salt;
+
+    /** Cached results, or null if disabled. */
+    @Nullable private Cache<String,CachedResult<T>> cache;
+
+    /** Constructor. */
+    public VerifiedCredentialCache() {
+        maxSize = 1000;
+        iterations = 1000;
+    }
+
+    /**
+     * Set the strategy function to compute the cache key.
+     * 
+     * @param strategy strategy function
+     */
+    public void setKeyStrategy(@Nonnull final Function<ProfileRequestContext,String> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        keyStrategy = Constraint.isNotNull(strategy, "Key strategy cannot be null");
+    }
+
+    /**
+     * Set the lifetime of cached results.
+     * 
+     * <p>Defaults to 0, which disables caching.</p>
+     * 
+     * @param duration lifetime of results
+     */
+    @Duration
+    public void setTimeout(@Duration @NonNegative final long duration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        timeout = Constraint.isGreaterThanOrEqual(0, duration, "Timeout cannot be negative");
+    }
+
+    /**
+     * Set the maximum number of cached results.
+     * 
+     * <p>Defaults to 1000.</p>
+     * 
+     * @param size maximum number of results
+     */
+    public void setMaxSize(@Positive final int size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        maxSize = (int) Constraint.isGreaterThan(0, size, "Maximum size must be greater than 0");
+    }
+
+    /**
+     * Set the PBKDF2 iteration count used to hash passwords.
+     * 
+     * <p>Defaults to 1000.</p>
+     * 
+     * @param count iteration count
+     */
+    public void setIterations(@Positive final int count) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        iterations = (int) Constraint.isGreaterThan(0, count, "Iteration count must be greater than 0");
+    }
+
+    /**
+     * Get whether caching is enabled.
+     * 
+     * @return true iff results will be cached
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+
+        if (keyStrategy == null) {
+            throw new ComponentInitializationException("Key strategy cannot be null");
+        }
+
+        try {
+            SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (final GeneralSecurityException e) {
+            throw new ComponentInitializationException(ALGORITHM + " is not supported", e);
+        }
+
+        salt = new byte[KEY_LENGTH / 8];
+        new SecureRandom().nextBytes(salt);
+
+        if (timeout > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .expireAfterWrite(timeout, TimeUnit.MILLISECONDS)
+                    .maximumSize(maxSize)
+                    .build();
+        }
+    }
+
+    /**
+     * Get the cached result for the current request, if the password matches the one it was cached with.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param password the password presented
+     * 
+     * @return the cached result, or null
+     */
+    @Nullable public T get(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final String password) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (cache == null) {
+            return null;
+        }
+
+        final String key = keyStrategy.apply(profileRequestContext);
+        if (key == null) {
+            return null;
+        }
+
+        final CachedResult<T> entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+
+        final byte[] hash = hash(key, password);
+        if (hash != null && MessageDigest.isEqual(hash, entry.hash)) {
+            log.debug("Using cached validation result for '{}'", key);
+            return entry.result;
+        }
+
+        log.debug("Password for '{}' does not match cached validation result, discarding it", key);
+        cache.invalidate(key);
+        return null;
+    }
+
+    /**
+     * Cache a successful result for the current request.
+     * 
+     * @param profileRequestContext current profile request context
+     * @param password the password validated
+     * @param result the result
+     */
+    public void put(@Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final String password,
+            @Nonnull final T result) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (cache == null) {
+            return;
+        }
+
+        final String key = keyStrategy.apply(profileRequestContext);
+        if (key == null) {
+            return;
+        }
+
+        final byte[] hash = hash(key, password);
+        if (hash != null) {
+            cache.put(key, new CachedResult<>(hash, result));
+        }
+    }
+
+    /**
+     * Discard any cached result for the current request.
+     * 
+     * @param profileRequestContext current profile request context
+     */
+    public void invalidate(@Nonnull final ProfileRequestContext profileRequestContext) {
+        ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
+        if (cache == null) {
+            return;
+        }
+
+        final String key = keyStrategy.apply(profileRequestContext);
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Derive the salted hash of a password, bound to its cache key.
+     * 
+     * @param key cache key
+     * @param password password
+     * 
+     * @return the hash, or null if an error occurs
+     */
+    @Nullable private byte[] hash(@Nonnull final String key, @Nonnull final String password) {
+        final char[] input = new char[key.length() + 1 + password.length()];
+        key.getChars(0, key.length(), input, 0);
+        password.getChars(0, password.length(), input, key.length() + 1);
+        final PBEKeySpec spec = new PBEKeySpec(input, salt, iterations, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (final GeneralSecurityException e) {
+            log.error("Unable to hash password for '{}'", key, e);
+            return null;
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(input, '\0');
+        }
+    }
+
+    /**
+     * A cached result and the password hash it was cached with.
+     * 
+     * @param <T> type of validation result
+     */
+    private static final class CachedResult<T> {
+
+        /** Password hash. */
+        @Nonnull private final byte[] hash;
+
+        /** The result. */
+        @Nonnull private final T result;
+
+        /**
+         * Constructor.
+         * 
+         * @param passwordHash password hash
+         * @param validationResult the result
+         */
+        private CachedResult(@Nonnull final byte[] passwordHash, @Nonnull final T validationResult) {
+            hash = passwordHash;
+            result = validationResult;
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.Oid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the server's acceptor {@link GSSCredential} for each realm, so that the JAAS keytab login is
+ * performed once per realm and lifetime rather than for every SPNEGO negotiation.
+ * 
+ * <p>A credential is replaced once it reaches the configured lifetime, or shortly before the expiry of any
+ * Kerberos ticket obtained by the login (as happens with password-based acceptors). Credentials are shared by
+ * concurrent negotiations and are never disposed by them; replaced credentials are left to the garbage
+ * collector, since contexts created from them may still be in use.</p>
+ * 
+ * <p>Logins for different realms proceed independently. A credential can be discarded early if it appears to
+ * be out of date, e.g. after the keytab is rotated, but not within {@link #MIN_REPLACEMENT_INTERVAL} of its
+ * creation, so that a client presenting bad tokens cannot force repeated logins.</p>
+ */
+@ThreadSafe
+public class GSSAcceptorCredentialPool {
+
+    /** Minimum age in milliseconds of a credential before it may be discarded early. */
+    public static final long MIN_REPLACEMENT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /** How long before a ticket's expiry to replace a credential. */
+    private static final long TICKET_REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(GSSAcceptorCredentialPool.class);
+
+    /** Settings used to perform the login. */
+    @Nonnull private final KerberosSettings kerberosSettings;
+
+    /** Maximum lifetime of a pooled credential. */
+    @Duration @Positive private final long maxLifetime;
+
+    /** Pooled credentials by realm. */
+    @Nonnull private final ConcurrentMap<KerberosRealmSettings,PooledCredential> credentials;
+
+    /** Locks serializing the login for each realm. */
+    @Nonnull private final ConcurrentMap<KerberosRealmSettings,Object> loginLocks;
+
+    /**
+     * Constructor.
+     * 
+     * @param settings the Kerberos settings
+     * @param lifetime maximum lifetime in milliseconds of a pooled credential
+     */
+    public GSSAcceptorCredentialPool(@Nonnull final KerberosSettings settings,
+            @Duration @Positive final long lifetime) {
+        kerberosSettings = Constraint.isNotNull(settings, "KerberosSettings cannot be null");
+        maxLifetime = Constraint.isGreaterThan(0, lifetime, "Credential lifetime must be greater than 0");
+        credentials = new ConcurrentHashMap<>();
+        loginLocks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the acceptor credential for a realm, logging in if there is no current one.
+     * 
+     * @param realm realm settings
+     * @param mechanism the mechanism OID the credential is for
+     * 
+     * @return the credential
+     * 
+     * @throws LoginException thrown if login failed
+     * @throws PrivilegedActionException thrown if GSS credentials could not be created
+     */
+    @Nonnull public GSSCredential getCredential(@Nonnull final KerberosRealmSettings realm,
+            @Nonnull final Oid mechanism) throws LoginException, PrivilegedActionException {
+        PooledCredential pooled = credentials.get(realm);
+        if (pooled != null && pooled.expiration > getCurrentTime()) {
+            return pooled.credential;
+        }
+
+        synchronized (getLoginLock(realm)) {
+            pooled = credentials.get(realm);
+            if (pooled != null && pooled.expiration > getCurrentTime()) {
+                return pooled.credential;
+            }
+
+            log.debug("Acquiring server credentials for principal: {}", realm.getServicePrincipal());
+            final Subject subject = login(realm);
+            final GSSCredential credential = createCredential(subject, mechanism);
+            pooled = new PooledCredential(credential, getCurrentTime(), getExpiration(subject));
+            credentials.put(realm, pooled);
+            return credential;
+        }
+    }
+
+    /**
+     * Discard a credential for a realm that appears to be out of date, so that the next use logs in again.
+     * 
+     * <p>This has no effect if the credential has already been replaced, or was created less than
+     * {@link #MIN_REPLACEMENT_INTERVAL} ago.</p>
+     * 
+     * @param realm realm settings
+     * @param credential the credential that failed
+     * 
+     * @return true iff the credential was discarded
+     */
+    public boolean invalidate(@Nonnull final KerberosRealmSettings realm, @Nonnull final GSSCredential credential) {
+        final PooledCredential pooled = credentials.get(realm);
+        if (pooled == null || pooled.credential != credential) {
+            return false;
+        } else if (getCurrentTime() - pooled.created < MIN_REPLACEMENT_INTERVAL) {
+            log.debug("Server credentials for principal {} were refreshed recently, not discarding them",
+                    realm.getServicePrincipal());
+            return false;
+        }
+        log.info("Discarding server credentials for principal {}, key may have changed",
+                realm.getServicePrincipal());
+        return credentials.remove(realm, pooled);
+    }
+
+    /**
+     * Perform the JAAS login for a realm.
+     * 
+     * @param realm realm settings
+     * 
+     * @return the logged-in subject
+     * 
+     * @throws LoginException thrown if login failed
+     */
+    @Nonnull protected Subject login(@Nonnull final KerberosRealmSettings realm) throws LoginException {
+        final GSSAcceptorLoginModule loginModule = new GSSAcceptorLoginModule(realm,
+                kerberosSettings.getRefreshKrb5Config(), kerberosSettings.getLoginModuleClassName());
+        return loginModule.login();
+    }
+
+    /**
+     * Create an acceptor credential within a logged-in {@link Subject}.
+     * 
+     * @param subject the subject
+     * @param mechanism the mechanism OID
+     * 
+     * @return the credential
+     * 
+     * @throws PrivilegedActionException thrown if the credential could not be created
+     */
+    @Nonnull protected GSSCredential createCredential(@Nonnull final Subject subject, @Nonnull final Oid mechanism)
+            throws PrivilegedActionException {
+        final PrivilegedExceptionAction<GSSCredential> action = new PrivilegedExceptionAction<GSSCredential>() {
+            public GSSCredential run() throws GSSException {
+                return GSSManager.getInstance().createCredential(null, GSSCredential.INDEFINITE_LIFETIME, mechanism,
+                        GSSCredential.ACCEPT_ONLY);
+            }
+        };
+        return Subject.doAs(subject, action);
+    }
+
+    /**
+     * Get the current time.
+     * 
+     * @return the current time in milliseconds
+     */
+    long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Get the lock serializing logins for a realm.
+     * 
+     * @param realm realm settings
+     * 
+     * @return the lock
+     */
+    @Nonnull private Object getLoginLock(@Nonnull final KerberosRealmSettings realm) {
+        final Object lock = loginLocks.get(realm);
+        if (lock != null) {
+            return lock;
+        }
+        final Object newLock = new Object();
+        final Object existing = loginLocks.putIfAbsent(realm, newLock);
+        return existing != null ? existing : newLock;
+    }
+
+    /**
+     * Get the time at which a credential obtained in a {@link Subject} should be replaced.
+     * 
+     * @param subject the subject
+     * 
+     * @return the expiration time
+     */
+    private long getExpiration(@Nonnull final Subject subject) {
+        long expiration = getCurrentTime() + maxLifetime;
+        for (final KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getEndTime() != null) {
+                expiration = Math.min(expiration, ticket.getEndTime().getTime() - TICKET_REFRESH_MARGIN);
+            }
+        }
+        return expiration;
+    }
+
+    /** A credential, when it was created, and the time at which to replace it. */
+    private static final class PooledCredential {
+
+        /** The credential. */
+        @Nonnull private final GSSCredential credential;
+
+        /** When the credential was created. */
+        private final long created;
+
+        /** When to replace the credential. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param cred the credential
+         * @param creation when the credential was created
+         * @param exp when to replace the credential
+         */
+        PooledCredential(@Nonnull final GSSCredential cred, final long creation, final long exp) {
+            credential = cred;
+            created = creation;
+            expiration = exp;
+        }
+    }
+
+}
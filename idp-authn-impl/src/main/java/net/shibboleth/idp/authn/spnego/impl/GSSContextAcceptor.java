@@ -19,6 +19,10 @@ package net.shibboleth.idp.authn.spnego.impl;
 
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -60,6 +64,9 @@ public class GSSContextAcceptor {
     /** Server credentials used during context establishment. */
     @Nullable private GSSCredential serverCreds;
 
+    /** Whether the server credentials are shared from the pool, and so must not be disposed. */
+    private boolean pooledCreds;
+
     /** The GSSContext being established, or that was established. */
     @Nullable private GSSContext context;
 
@@ -136,11 +143,16 @@ public class GSSContextAcceptor {
             }
         }
         if (serverCreds != null) {
-            try {
-                serverCreds.dispose();
+            if (pooledCreds) {
                 serverCreds = null;
-            } catch (final GSSException e) {
-                log.error("GSS-API credentials disposal failed", e);
+                pooledCreds = false;
+            } else {
+                try {
+                    serverCreds.dispose();
+                    serverCreds = null;
+                } catch (final GSSException e) {
+                    log.error("GSS-API credentials disposal failed", e);
+                }
             }
         }
         if (krbLoginModule != null) {
@@ -166,11 +178,17 @@ public class GSSContextAcceptor {
     @Nullable private byte[] acceptFirstToken(@Nonnull final byte[] inToken, final int offset, final int len)
             throws Exception {
 
-        // We loop over each realm to determine which one might work.
+        // Try the realm matching the ticket's service principal first, then the rest in order.
+        
+        final String servicePrincipal = ServicePrincipalExtractor.extract(inToken, offset, len);
+        log.debug("Service principal in first GSS input token: {}", servicePrincipal);
+        final List<KerberosRealmSettings> realms = orderRealms(kerberosSettings.getRealms(), servicePrincipal);
+        final KerberosRealmSettings matched = servicePrincipal != null && !realms.isEmpty()
+                && matchesPrincipal(realms.get(0).getServicePrincipal(), servicePrincipal) ? realms.get(0) : null;
         
         Exception preserved = null;
         
-        for (final KerberosRealmSettings realm : kerberosSettings.getRealms()) {
+        for (final KerberosRealmSettings realm : realms) {
             
             log.debug("Validating the first GSS input token against service principal: {}",
                     realm.getServicePrincipal());
@@ -186,6 +204,10 @@ public class GSSContextAcceptor {
                 return tokenOut;
             } catch (final Exception e) {
                 log.debug("Error establishing security context", e);
+                if (pooledCreds && realm == matched && isKeyMismatch(e)) {
+                    // The token was meant for this realm, so the pooled credential may be stale (e.g. a new key).
+                    kerberosSettings.getCredentialPool().invalidate(realm, serverCreds);
+                }
                 logout();
                 preserved = e;
             }
@@ -206,6 +228,27 @@ public class GSSContextAcceptor {
     private void createGSSContext(@Nonnull final KerberosRealmSettings realm)
             throws GSSException, LoginException, PrivilegedActionException {
         
+        final GSSManager manager = GSSManager.getInstance();
+        final GSSAcceptorCredentialPool pool = kerberosSettings.getCredentialPool();
+        if (pool != null) {
+            try {
+                serverCreds = pool.getCredential(realm, spnegoOid);
+                pooledCreds = true;
+                context = manager.createContext(serverCreds);
+            } catch (final LoginException e) {
+                log.error("Server login error using principal: {}", realm.getServicePrincipal());
+                throw e;
+            } catch (final PrivilegedActionException e) {
+                log.error("Error creating GSS credentials", e);
+                throw e;
+            } catch (final GSSException e) {
+                log.error("Error creating GSS acceptor context", e);
+                throw e;
+            }
+            log.trace("GSS acceptor context created using pooled credentials");
+            return;
+        }
+        
         // Establish server login credentials.
         Subject krbSubject = null;
         krbLoginModule = new GSSAcceptorLoginModule(realm, kerberosSettings.getRefreshKrb5Config(),
@@ -222,7 +265,6 @@ public class GSSContextAcceptor {
          * Create the server credentials and an acceptor context.
          */
         log.trace("Creating GSS credentials and context");
-        final GSSManager manager = GSSManager.getInstance();
         try {
             serverCreds = getServerCredential(krbSubject);
             context = manager.createContext(serverCreds);
@@ -236,6 +278,76 @@ public class GSSContextAcceptor {
         log.trace("GSS acceptor context created");
     }
 
+    /**
+     * Order the realms to try, putting the first realm whose service principal matches the one in the token
+     * ahead of the rest, which keep their configured order.
+     * 
+     * @param configured the configured realms
+     * @param servicePrincipal the service principal from the token, or null
+     * 
+     * @return the realms in the order to try them
+     */
+    @Nonnull static List<KerberosRealmSettings> orderRealms(
+            @Nonnull final Collection<KerberosRealmSettings> configured, @Nullable final String servicePrincipal) {
+        final List<KerberosRealmSettings> realms = new ArrayList<>(configured.size());
+        boolean matched = false;
+        for (final KerberosRealmSettings realm : configured) {
+            if (!matched && servicePrincipal != null
+                    && matchesPrincipal(realm.getServicePrincipal(), servicePrincipal)) {
+                matched = true;
+                realms.add(0, realm);
+            } else {
+                realms.add(realm);
+            }
+        }
+        return realms;
+    }
+
+    /**
+     * Check whether an error accepting a token suggests the server's key differs from the one the ticket was
+     * issued for, as opposed to a bad or replayed token.
+     * 
+     * @param e the error
+     * 
+     * @return true iff the error suggests a key mismatch
+     */
+    static boolean isKeyMismatch(@Nonnull final Exception e) {
+        if (e instanceof GSSException && ((GSSException) e).getMajor() == GSSException.NO_CRED) {
+            return true;
+        }
+        for (Throwable t = e; t != null; t = t.getCause() != t ? t.getCause() : null) {
+            final String message = t.getMessage();
+            if (message != null) {
+                final String lower = message.toLowerCase(Locale.ROOT);
+                if (lower.contains("key version") || lower.contains("version of key")
+                        || lower.contains("checksum failed") || lower.contains("cannot find key")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a configured service principal names the principal found in a token.
+     * 
+     * <p>A configured principal without a realm matches on the name alone.</p>
+     * 
+     * @param configured the configured service principal
+     * @param fromToken the service principal from the token, including realm
+     * 
+     * @return true iff the principals match
+     */
+    static boolean matchesPrincipal(@Nullable final String configured, @Nonnull final String fromToken) {
+        if (configured == null) {
+            return false;
+        } else if (configured.indexOf('@') >= 0) {
+            return configured.equalsIgnoreCase(fromToken);
+        }
+        final int at = fromToken.lastIndexOf('@');
+        return configured.equalsIgnoreCase(at >= 0 ? fromToken.substring(0, at) : fromToken);
+    }
+
     /**
      * Create the credential for the GSS-API.
      * 
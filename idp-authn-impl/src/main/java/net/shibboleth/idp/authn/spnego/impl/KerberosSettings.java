@@ -22,10 +22,13 @@ import java.util.Collection;
 import java.util.Collections;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.Collections2;
 
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -51,6 +54,12 @@ public class KerberosSettings extends AbstractInitializableComponent {
     /** List of realms (KerberosRealmSettings objects). */
     @NonnullAfterInit @NonnullElements private Collection<KerberosRealmSettings> realmSettings;
 
+    /** Maximum lifetime of pooled server credentials, or 0 to log in for every negotiation. */
+    @Duration @NonNegative private long credentialLifetime;
+
+    /** Pool of server credentials, if enabled. */
+    @Nullable private GSSAcceptorCredentialPool credentialPool;
+
     /** Constructor. */
     public KerberosSettings() {
         loginModuleClassName = "com.sun.security.auth.module.Krb5LoginModule";
@@ -98,6 +107,37 @@ public class KerberosSettings extends AbstractInitializableComponent {
         return refreshKrb5Config;
     }
 
+    /**
+     * Set the maximum time to reuse the server credentials established for a realm.
+     * 
+     * <p>Defaults to 0, meaning a fresh login is performed for every negotiation.</p>
+     * 
+     * @param lifetime maximum lifetime of pooled credentials
+     */
+    @Duration public void setCredentialLifetime(@Duration @NonNegative final long lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        credentialLifetime = Constraint.isGreaterThanOrEqual(0, lifetime, "Credential lifetime cannot be negative");
+    }
+
+    /**
+     * Get the maximum time to reuse the server credentials established for a realm.
+     * 
+     * @return maximum lifetime of pooled credentials, or 0
+     */
+    @Duration @NonNegative public long getCredentialLifetime() {
+        return credentialLifetime;
+    }
+
+    /**
+     * Get the pool of server credentials, if reuse is enabled.
+     * 
+     * @return the pool, or null
+     */
+    @Nullable public GSSAcceptorCredentialPool getCredentialPool() {
+        return credentialPool;
+    }
+
     /**
      * Collection of realms (KerberosRealmSettings objects).
      * 
@@ -127,7 +167,10 @@ public class KerberosSettings extends AbstractInitializableComponent {
         if (realmSettings.isEmpty()) {
             throw new ComponentInitializationException("Realm collection cannot be empty");
         }
-        
+
+        if (credentialLifetime > 0) {
+            credentialPool = new GSSAcceptorCredentialPool(this, credentialLifetime);
+        }
     }
     
 }
\ No newline at end of file
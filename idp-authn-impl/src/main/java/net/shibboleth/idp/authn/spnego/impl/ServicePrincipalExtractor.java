@@ -0,0 +1,241 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Extracts the service principal named in the Kerberos ticket carried by an initial SPNEGO or Kerberos
+ * GSS-API token, so that the matching realm settings can be tried first.
+ * 
+ * <p>Only enough DER is parsed to reach the ticket's realm and sname, which are sent in the clear. The
+ * result is a hint and is not authenticated; a malformed or unexpected token simply yields null.</p>
+ */
+final class ServicePrincipalExtractor {
+
+    /** DER encoding of the SPNEGO mechanism OID (1.3.6.1.5.5.2). */
+    @Nonnull private static final byte[] SPNEGO_OID = {0x2b, 0x06, 0x01, 0x05, 0x05, 0x02};
+
+    /** DER encoding of the Kerberos V5 mechanism OID (1.2.840.113554.1.2.2). */
+    @Nonnull private static final byte[] KRB5_OID =
+        {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02};
+
+    /** DER encoding of the legacy Microsoft Kerberos V5 mechanism OID (1.2.840.48018.1.2.2). */
+    @Nonnull private static final byte[] MS_KRB5_OID =
+        {0x2a, (byte) 0x86, 0x48, (byte) 0x82, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02};
+
+    /** The token. */
+    @Nonnull private final byte[] buffer;
+
+    /** Current read position. */
+    private int pos;
+
+    /**
+     * Constructor.
+     * 
+     * @param token the token
+     * @param offset offset of the token within the array
+     */
+    private ServicePrincipalExtractor(@Nonnull final byte[] token, final int offset) {
+        buffer = token;
+        pos = offset;
+    }
+
+    /**
+     * Get the service principal, in the form "name/instance@REALM", from an initial GSS-API token.
+     * 
+     * @param token the token
+     * @param offset the offset within the array where the token begins
+     * @param len the length of the token
+     * 
+     * @return the service principal, or null if it cannot be determined
+     */
+    @Nullable static String extract(@Nonnull final byte[] token, final int offset, final int len) {
+        try {
+            return new ServicePrincipalExtractor(token, offset).parseInitialContextToken(offset + len);
+        } catch (final IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse an InitialContextToken (RFC 2743, section 3.1) for either SPNEGO or Kerberos.
+     * 
+     * @param limit end of the enclosing element
+     * 
+     * @return the service principal, or null
+     */
+    @Nullable private String parseInitialContextToken(final int limit) {
+        final int end = enter(0x60, limit);
+        final int oidEnd = enter(0x06, end);
+        final byte[] oid = Arrays.copyOfRange(buffer, pos, oidEnd);
+        pos = oidEnd;
+
+        if (Arrays.equals(oid, KRB5_OID) || Arrays.equals(oid, MS_KRB5_OID)) {
+            // Two byte TOK_ID, then the AP-REQ.
+            if (buffer[pos] != 0x01 || buffer[pos + 1] != 0x00) {
+                return null;
+            }
+            pos += 2;
+            return parseAPReq(end);
+        } else if (!Arrays.equals(oid, SPNEGO_OID)) {
+            return null;
+        }
+
+        // NegotiationToken ::= CHOICE { negTokenInit [0] NegTokenInit, ... }
+        final int negTokenInitEnd = enter(0x30, enter(0xa0, end));
+        while (pos < negTokenInitEnd) {
+            final int tag = buffer[pos] & 0xff;
+            if (tag == 0xa2) {
+                // mechToken [2] OCTET STRING
+                final int mechTokenEnd = enter(0x04, enter(0xa2, negTokenInitEnd));
+                return parseInitialContextToken(mechTokenEnd);
+            }
+            skip(negTokenInitEnd);
+        }
+        return null;
+    }
+
+    /**
+     * Parse an AP-REQ (RFC 4120, section 5.5.1) for the ticket's service principal.
+     * 
+     * @param limit end of the enclosing element
+     * 
+     * @return the service principal, or null
+     */
+    @Nullable private String parseAPReq(final int limit) {
+        final int apReqEnd = enter(0x30, enter(0x6e, limit));
+        while (pos < apReqEnd) {
+            if ((buffer[pos] & 0xff) == 0xa3) {
+                return parseTicket(enter(0xa3, apReqEnd));
+            }
+            skip(apReqEnd);
+        }
+        return null;
+    }
+
+    /**
+     * Parse a Ticket (RFC 4120, section 5.3) for its realm and sname.
+     * 
+     * @param limit end of the enclosing element
+     * 
+     * @return the service principal, or null
+     */
+    @Nullable private String parseTicket(final int limit) {
+        final int ticketEnd = enter(0x30, enter(0x61, limit));
+        String realm = null;
+        final StringBuilder name = new StringBuilder();
+        while (pos < ticketEnd) {
+            final int tag = buffer[pos] & 0xff;
+            if (tag == 0xa1) {
+                realm = readGeneralString(enter(0xa1, ticketEnd));
+            } else if (tag == 0xa2) {
+                // PrincipalName ::= SEQUENCE { name-type [0] Int32, name-string [1] SEQUENCE OF KerberosString }
+                final int principalEnd = enter(0x30, enter(0xa2, ticketEnd));
+                while (pos < principalEnd) {
+                    if ((buffer[pos] & 0xff) == 0xa1) {
+                        final int namesEnd = enter(0x30, enter(0xa1, principalEnd));
+                        while (pos < namesEnd) {
+                            if (name.length() > 0) {
+                                name.append('/');
+                            }
+                            name.append(readGeneralString(namesEnd));
+                        }
+                    } else {
+                        skip(principalEnd);
+                    }
+                }
+            } else {
+                skip(ticketEnd);
+            }
+        }
+        if (realm == null || name.length() == 0) {
+            return null;
+        }
+        return name.append('@').append(realm).toString();
+    }
+
+    /**
+     * Read a GeneralString (Kerberos restricts these to IA5 characters).
+     * 
+     * @param limit end of the enclosing element
+     * 
+     * @return the string
+     */
+    @Nonnull private String readGeneralString(final int limit) {
+        final int end = enter(0x1b, limit);
+        final String value = new String(buffer, pos, end - pos, StandardCharsets.US_ASCII);
+        pos = end;
+        return value;
+    }
+
+    /**
+     * Read the header of an element with the expected tag and position at the start of its contents.
+     * 
+     * @param tag the expected tag
+     * @param limit end of the enclosing element
+     * 
+     * @return the end of the element
+     */
+    private int enter(final int tag, final int limit) {
+        if (pos >= limit || (buffer[pos++] & 0xff) != tag) {
+            throw new IllegalArgumentException("Unexpected DER tag");
+        }
+        return readLength(limit);
+    }
+
+    /**
+     * Skip over the next element.
+     * 
+     * @param limit end of the enclosing element
+     */
+    private void skip(final int limit) {
+        pos++;
+        pos = readLength(limit);
+    }
+
+    /**
+     * Read a DER length and return the end of the element's contents.
+     * 
+     * @param limit end of the enclosing element
+     * 
+     * @return the end of the element
+     */
+    private int readLength(final int limit) {
+        int length = buffer[pos++] & 0xff;
+        if (length >= 0x80) {
+            final int count = length & 0x7f;
+            if (count == 0 || count > 3) {
+                throw new IllegalArgumentException("Unsupported DER length");
+            }
+            length = 0;
+            for (int i = 0; i < count; i++) {
+                length = (length << 8) | (buffer[pos++] & 0xff);
+            }
+        }
+        if (pos + length > limit) {
+            throw new IllegalArgumentException("DER length exceeds enclosing element");
+        }
+        return pos + length;
+    }
+
+}
@@ -21,14 +21,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import javax.security.auth.Subject;
 
 import net.shibboleth.idp.attribute.ByteAttributeValue;
 import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.authn.AuthenticationResult;
@@ -294,6 +297,54 @@ public class DefaultAuthenticationResultSerializerTest {
         Assert.assertEquals(nested.getSubject(), nested2.getSubject());
     }
 
+    @Test public void testCompact() throws Exception {
+        final IdPAttributePrincipalSerializer attrSerializer = new IdPAttributePrincipalSerializer();
+        serializer.setPrincipalSerializers(Collections.<PrincipalSerializer<String>>singletonList(attrSerializer));
+        serializer.setCompactSerialization(true);
+        serializer.initialize();
+        
+        final AuthenticationResult result = createResult("test", new Subject());
+        final IdPAttributePrincipal prin = new IdPAttributePrincipal(new IdPAttribute("foo"));
+        final List<IdPAttributeValue<?>> values = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            values.add(new ScopedStringAttributeValue("member" + i, "example.org"));
+        }
+        prin.getAttribute().setValues(values);
+        result.getSubject().getPrincipals().add(prin);
+        result.getSubject().getPrincipals().add(new UsernamePrincipal("bob"));
+        final AuthenticationResult nested = createResult("nested", new Subject());
+        nested.getSubject().getPrincipals().add(new UsernamePrincipal("bob"));
+        result.getSubject().getPrincipals().add(new AuthenticationResultPrincipal(nested));
+        
+        // Large enough to be deflated.
+        final String s = serializer.serialize(result);
+        Assert.assertTrue(s.startsWith("~"));
+        
+        final DefaultAuthenticationResultSerializer jsonSerializer = new DefaultAuthenticationResultSerializer();
+        jsonSerializer.setPrincipalSerializers(
+                Collections.<PrincipalSerializer<String>>singletonList(attrSerializer));
+        jsonSerializer.initialize();
+        final String json = jsonSerializer.serialize(result);
+        Assert.assertTrue(s.length() < json.length());
+        
+        // Either format can be read by either serializer.
+        for (final AuthenticationResult result2 : Arrays.asList(serializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY),
+                serializer.deserialize(1, CONTEXT, KEY, json, ACTIVITY),
+                jsonSerializer.deserialize(1, CONTEXT, KEY, s, ACTIVITY))) {
+            Assert.assertEquals(result.getAuthenticationFlowId(), result2.getAuthenticationFlowId());
+            Assert.assertEquals(result.getAuthenticationInstant(), result2.getAuthenticationInstant());
+            Assert.assertEquals(result.getLastActivityInstant(), result2.getLastActivityInstant());
+            Assert.assertEquals(result.getSubject(), result2.getSubject());
+        }
+        
+        try {
+            serializer.deserialize(1, CONTEXT, KEY, "AQID", ACTIVITY);
+            Assert.fail();
+        } catch (IOException e) {
+            
+        }
+    }
+
     private AuthenticationResult createResult(String flowId, Subject subject) {
         final AuthenticationResult result = new AuthenticationResult(flowId, subject);
         result.setAuthenticationInstant(INSTANT);
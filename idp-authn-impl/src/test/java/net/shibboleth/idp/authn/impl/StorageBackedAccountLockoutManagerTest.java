@@ -35,29 +35,43 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
 
     private StorageBackedAccountLockoutManager manager;    
 
+    private MemoryStorageService ss;
+
     @BeforeMethod public void setUp() throws Exception {
         super.setUp();
         
-        final MemoryStorageService ss = new MemoryStorageService();
+        ss = new MemoryStorageService();
         ss.setId("test");
         ss.setCleanupInterval(0);
         ss.initialize();
         
-        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
-        keyStrategy.setHttpServletRequest((HttpServletRequest) src.getExternalContext().getNativeRequest());
-        manager = new StorageBackedAccountLockoutManager();
-        manager.setId("test");
-        manager.setStorageService(ss);
-        manager.setLockoutKeyStrategy(keyStrategy);
-        manager.setMaxAttempts(3);
-        manager.setCounterInterval(3000);
-        manager.setLockoutDuration(5000);
-        manager.initialize();
+        manager = newManager(0);
         
         ((MockHttpServletRequest) src.getExternalContext().getNativeRequest()).setRemoteAddr("192.168.1.1");
         prc.getSubcontext(AuthenticationContext.class).getSubcontext(UsernamePasswordContext.class, true).setUsername("jdoe");
     }
 
+    private StorageBackedAccountLockoutManager newManager(final int localThreshold) throws Exception {
+        return newManager(localThreshold, 10000);
+    }
+
+    private StorageBackedAccountLockoutManager newManager(final int localThreshold, final int maxLocalCounters)
+            throws Exception {
+        final UsernameIPLockoutKeyStrategy keyStrategy = new UsernameIPLockoutKeyStrategy();
+        keyStrategy.setHttpServletRequest((HttpServletRequest) src.getExternalContext().getNativeRequest());
+        final StorageBackedAccountLockoutManager newManager = new StorageBackedAccountLockoutManager();
+        newManager.setId("test");
+        newManager.setStorageService(ss);
+        newManager.setLockoutKeyStrategy(keyStrategy);
+        newManager.setMaxAttempts(3);
+        newManager.setCounterInterval(3000);
+        newManager.setLockoutDuration(5000);
+        newManager.setLocalCounterThreshold(localThreshold);
+        newManager.setMaxLocalCounters(maxLocalCounters);
+        newManager.initialize();
+        return newManager;
+    }
+
     @Test public void noKey() {
         prc.getSubcontext(AuthenticationContext.class).clearSubcontexts();
         Assert.assertFalse(manager.check(prc));
@@ -108,4 +122,91 @@ public class StorageBackedAccountLockoutManagerTest extends BaseAuthenticationCo
         Assert.assertFalse(manager.check(prc));
     }
 
+    @Test public void localLockout() throws Exception {
+        manager = newManager(5);
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        Assert.assertFalse(manager.check(prc));
+        
+        // Reaching the limit writes through.
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "3");
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertTrue(newManager(5).check(prc));
+        
+        Assert.assertTrue(manager.clear(prc));
+        Assert.assertFalse(manager.check(prc));
+    }
+
+    @Test public void localThreshold() throws Exception {
+        manager = newManager(2);
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "2");
+        Assert.assertFalse(manager.check(prc));
+    }
+
+    @Test public void localMerge() throws Exception {
+        manager = newManager(5);
+        final StorageBackedAccountLockoutManager other = newManager(5);
+        Assert.assertTrue(other.increment(prc));
+        Assert.assertTrue(other.increment(prc));
+        Assert.assertTrue(other.increment(prc));
+        
+        // Lockout on another node is seen via storage.
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+    }
+
+    @Test public void localClearOnOtherNode() throws Exception {
+        manager = newManager(5);
+        final StorageBackedAccountLockoutManager other = newManager(5);
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        
+        // Clearing via another node is honored here.
+        Assert.assertTrue(other.clear(prc));
+        Assert.assertFalse(manager.check(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertFalse(manager.check(prc));
+    }
+
+    @Test public void localEviction() throws Exception {
+        // One counter per stripe.
+        manager = newManager(5, 16);
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertNull(ss.read("test", "jdoe!192.168.1.1"));
+        
+        // Flooding other keys evicts the counter, which must not lose its attempts.
+        final UsernamePasswordContext upContext =
+                prc.getSubcontext(AuthenticationContext.class).getSubcontext(UsernamePasswordContext.class);
+        for (int i = 0; i < 100; ++i) {
+            upContext.setUsername("junk" + i);
+            Assert.assertTrue(manager.increment(prc));
+        }
+        upContext.setUsername("jdoe");
+        Assert.assertEquals(ss.read("test", "jdoe!192.168.1.1").getValue(), "2");
+        
+        Assert.assertFalse(manager.check(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        Assert.assertTrue(newManager(5).check(prc));
+    }
+
+    @Test public void localWaitForUnlock() throws Exception {
+        manager = newManager(5);
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.increment(prc));
+        Assert.assertTrue(manager.check(prc));
+        Thread.sleep(5500);
+        Assert.assertFalse(manager.check(prc));
+    }
+
 }
\ No newline at end of file
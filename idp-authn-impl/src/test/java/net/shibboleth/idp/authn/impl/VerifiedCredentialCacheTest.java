@@ -0,0 +1,110 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.impl;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+
+/** {@link VerifiedCredentialCache} unit test. */
+public class VerifiedCredentialCacheTest {
+
+    private ProfileRequestContext prc;
+    
+    private String key;
+
+    private VerifiedCredentialCache<String> cache;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        prc = new ProfileRequestContext();
+        key = "jdoe!192.168.1.1";
+        cache = newCache(60000);
+    }
+
+    private VerifiedCredentialCache<String> newCache(final long timeout) throws ComponentInitializationException {
+        final VerifiedCredentialCache<String> newCache = new VerifiedCredentialCache<>();
+        newCache.setKeyStrategy(new Function<ProfileRequestContext,String>() {
+            public String apply(final ProfileRequestContext input) {
+                return key;
+            }
+        });
+        newCache.setTimeout(timeout);
+        newCache.initialize();
+        return newCache;
+    }
+
+    @Test public void disabled() throws ComponentInitializationException {
+        cache = newCache(0);
+        Assert.assertFalse(cache.isEnabled());
+        cache.put(prc, "password", "result");
+        Assert.assertNull(cache.get(prc, "password"));
+    }
+
+    @Test public void hit() {
+        Assert.assertTrue(cache.isEnabled());
+        Assert.assertNull(cache.get(prc, "password"));
+        cache.put(prc, "password", "result");
+        Assert.assertEquals(cache.get(prc, "password"), "result");
+        Assert.assertEquals(cache.get(prc, "password"), "result");
+    }
+
+    @Test public void wrongPassword() {
+        cache.put(prc, "password", "result");
+        Assert.assertNull(cache.get(prc, "Password"));
+        
+        // A mismatch discards the entry.
+        Assert.assertNull(cache.get(prc, "password"));
+    }
+
+    @Test public void otherKey() {
+        cache.put(prc, "password", "result");
+        key = "jdoe!192.168.1.2";
+        Assert.assertNull(cache.get(prc, "password"));
+        key = null;
+        Assert.assertNull(cache.get(prc, "password"));
+        cache.put(prc, "password", "result");
+    }
+
+    @Test public void invalidate() {
+        cache.put(prc, "password", "result");
+        cache.invalidate(prc);
+        Assert.assertNull(cache.get(prc, "password"));
+    }
+
+    @Test public void expiry() throws Exception {
+        cache = newCache(100);
+        cache.put(prc, "password", "result");
+        Assert.assertEquals(cache.get(prc, "password"), "result");
+        Thread.sleep(200);
+        Assert.assertNull(cache.get(prc, "password"));
+    }
+
+    @Test public void separateSalts() throws Exception {
+        final VerifiedCredentialCache<String> other = newCache(60000);
+        other.put(prc, "password", "other");
+        cache.put(prc, "password", "result");
+        Assert.assertEquals(cache.get(prc, "password"), "result");
+        Assert.assertEquals(other.get(prc, "password"), "other");
+    }
+
+}
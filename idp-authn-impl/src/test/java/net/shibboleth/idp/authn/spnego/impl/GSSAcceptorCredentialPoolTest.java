@@ -0,0 +1,220 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.LoginException;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
+import org.ietf.jgss.Oid;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link GSSAcceptorCredentialPool}. */
+public class GSSAcceptorCredentialPoolTest {
+
+    private Oid mechanism;
+
+    private KerberosRealmSettings realm1;
+
+    private KerberosRealmSettings realm2;
+
+    private TestPool pool;
+
+    @BeforeMethod public void setUp() throws GSSException, ComponentInitializationException {
+        mechanism = new Oid("1.3.6.1.5.5.2");
+        realm1 = newRealm("HTTP/idp.example.org@EXAMPLE.ORG");
+        realm2 = newRealm("HTTP/idp.example.org@EXAMPLE.COM");
+        pool = new TestPool(TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test public void testReuse() throws Exception {
+        final GSSCredential credential = pool.getCredential(realm1, mechanism);
+        Assert.assertSame(pool.getCredential(realm1, mechanism), credential);
+        Assert.assertEquals(pool.logins.get(), 1);
+
+        Assert.assertNotSame(pool.getCredential(realm2, mechanism), credential);
+        Assert.assertEquals(pool.logins.get(), 2);
+    }
+
+    @Test public void testLifetime() throws Exception {
+        final GSSCredential credential = pool.getCredential(realm1, mechanism);
+        pool.now += TimeUnit.HOURS.toMillis(1) - 1;
+        Assert.assertSame(pool.getCredential(realm1, mechanism), credential);
+
+        pool.now += 1;
+        Assert.assertNotSame(pool.getCredential(realm1, mechanism), credential);
+        Assert.assertEquals(pool.logins.get(), 2);
+    }
+
+    @Test public void testTicketExpiry() throws Exception {
+        pool.ticketEnd = new Date(pool.now + TimeUnit.MINUTES.toMillis(10));
+        final GSSCredential credential = pool.getCredential(realm1, mechanism);
+        pool.now += TimeUnit.MINUTES.toMillis(4);
+        Assert.assertSame(pool.getCredential(realm1, mechanism), credential);
+
+        // replaced ahead of the ticket's expiry
+        pool.now += TimeUnit.MINUTES.toMillis(1);
+        Assert.assertNotSame(pool.getCredential(realm1, mechanism), credential);
+        Assert.assertEquals(pool.logins.get(), 2);
+    }
+
+    @Test public void testInvalidate() throws Exception {
+        final GSSCredential credential = pool.getCredential(realm1, mechanism);
+
+        // too soon after the login
+        Assert.assertFalse(pool.invalidate(realm1, credential));
+        Assert.assertSame(pool.getCredential(realm1, mechanism), credential);
+
+        pool.now += GSSAcceptorCredentialPool.MIN_REPLACEMENT_INTERVAL;
+        Assert.assertFalse(pool.invalidate(realm1, mock(GSSCredential.class)));
+        Assert.assertFalse(pool.invalidate(realm2, credential));
+        Assert.assertTrue(pool.invalidate(realm1, credential));
+
+        final GSSCredential replacement = pool.getCredential(realm1, mechanism);
+        Assert.assertNotSame(replacement, credential);
+        Assert.assertEquals(pool.logins.get(), 2);
+
+        // a late failure of the old credential leaves the replacement alone
+        pool.now += GSSAcceptorCredentialPool.MIN_REPLACEMENT_INTERVAL;
+        Assert.assertFalse(pool.invalidate(realm1, credential));
+        Assert.assertSame(pool.getCredential(realm1, mechanism), replacement);
+    }
+
+    @Test public void testLoginFailure() throws Exception {
+        pool.fail = true;
+        try {
+            pool.getCredential(realm1, mechanism);
+            Assert.fail("Login should have failed");
+        } catch (final LoginException e) {
+            // expected
+        }
+
+        pool.fail = false;
+        Assert.assertNotNull(pool.getCredential(realm1, mechanism));
+        Assert.assertEquals(pool.logins.get(), 2);
+    }
+
+    @Test public void testRealmsLoginIndependently() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.blockedRealm = realm1;
+        pool.blocked = blocked;
+        pool.release = release;
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<GSSCredential> slow = executor.submit(new Callable<GSSCredential>() {
+                public GSSCredential call() throws Exception {
+                    return pool.getCredential(realm1, mechanism);
+                }
+            });
+            Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            // realm2 must not wait for realm1's login
+            Assert.assertNotNull(pool.getCredential(realm2, mechanism));
+
+            release.countDown();
+            Assert.assertNotNull(slow.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private KerberosRealmSettings newRealm(final String principal) throws ComponentInitializationException {
+        final KerberosRealmSettings realm = new KerberosRealmSettings();
+        realm.setServicePrincipal(principal);
+        realm.setKeytab("/opt/kerberos/http.keytab");
+        realm.initialize();
+        return realm;
+    }
+
+    /** Pool with a controllable clock that logs in without a KDC. */
+    private static class TestPool extends GSSAcceptorCredentialPool {
+
+        private final AtomicInteger logins = new AtomicInteger();
+
+        private volatile long now = System.currentTimeMillis();
+
+        private volatile Date ticketEnd;
+
+        private volatile boolean fail;
+
+        private volatile KerberosRealmSettings blockedRealm;
+
+        private volatile CountDownLatch blocked;
+
+        private volatile CountDownLatch release;
+
+        TestPool(final long lifetime) {
+            super(new KerberosSettings(), lifetime);
+        }
+
+        /** {@inheritDoc} */
+        protected Subject login(final KerberosRealmSettings realm) throws LoginException {
+            logins.incrementAndGet();
+            if (fail) {
+                throw new LoginException("Login failed");
+            }
+            if (realm == blockedRealm) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    throw new LoginException("Interrupted");
+                }
+            }
+            final Subject subject = new Subject();
+            if (ticketEnd != null) {
+                final KerberosPrincipal principal = new KerberosPrincipal(realm.getServicePrincipal());
+                subject.getPrivateCredentials().add(new KerberosTicket(new byte[] {0}, principal, principal,
+                        new byte[16], 17, null, null, new Date(now), ticketEnd, null, null));
+            }
+            return subject;
+        }
+
+        /** {@inheritDoc} */
+        protected GSSCredential createCredential(final Subject subject, final Oid mechanism) {
+            return mock(GSSCredential.class);
+        }
+
+        /** {@inheritDoc} */
+        long getCurrentTime() {
+            return now;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import java.security.PrivilegedActionException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.ietf.jgss.GSSException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for the realm selection and error classification in {@link GSSContextAcceptor}. */
+public class GSSContextAcceptorTest {
+
+    private KerberosRealmSettings orgRealm;
+
+    private KerberosRealmSettings comRealm;
+
+    private KerberosRealmSettings bareRealm;
+
+    @BeforeMethod public void setUp() throws ComponentInitializationException {
+        orgRealm = newRealm("HTTP/idp.example.org@EXAMPLE.ORG");
+        comRealm = newRealm("HTTP/idp.example.com@EXAMPLE.COM");
+        bareRealm = newRealm("HTTP/idp.example.net");
+    }
+
+    @Test public void testMatchesPrincipal() {
+        Assert.assertTrue(GSSContextAcceptor.matchesPrincipal("HTTP/idp.example.org@EXAMPLE.ORG",
+                "http/IDP.example.org@example.org"));
+        Assert.assertFalse(GSSContextAcceptor.matchesPrincipal("HTTP/idp.example.org@EXAMPLE.ORG",
+                "HTTP/idp.example.org@EXAMPLE.COM"));
+        Assert.assertTrue(GSSContextAcceptor.matchesPrincipal("HTTP/idp.example.net",
+                "HTTP/idp.example.net@EXAMPLE.NET"));
+        Assert.assertTrue(GSSContextAcceptor.matchesPrincipal("HTTP/idp.example.net", "HTTP/idp.example.net"));
+        Assert.assertFalse(GSSContextAcceptor.matchesPrincipal("HTTP/idp.example.net",
+                "HTTP/idp.example.org@EXAMPLE.NET"));
+        Assert.assertFalse(GSSContextAcceptor.matchesPrincipal(null, "HTTP/idp.example.net@EXAMPLE.NET"));
+    }
+
+    @Test public void testOrderWithoutPrincipal() {
+        final List<KerberosRealmSettings> configured = Arrays.asList(orgRealm, comRealm, bareRealm);
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, null), configured);
+    }
+
+    @Test public void testOrderUnmatched() {
+        final List<KerberosRealmSettings> configured = Arrays.asList(orgRealm, comRealm, bareRealm);
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, "HTTP/other.example.org@EXAMPLE.ORG"),
+                configured);
+    }
+
+    @Test public void testOrderMatched() {
+        final List<KerberosRealmSettings> configured = Arrays.asList(orgRealm, comRealm, bareRealm);
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, "HTTP/idp.example.com@EXAMPLE.COM"),
+                Arrays.asList(comRealm, orgRealm, bareRealm));
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, "HTTP/idp.example.net@EXAMPLE.NET"),
+                Arrays.asList(bareRealm, orgRealm, comRealm));
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, "HTTP/idp.example.org@EXAMPLE.ORG"),
+                configured);
+    }
+
+    @Test public void testOrderFirstMatchOnly() throws ComponentInitializationException {
+        final KerberosRealmSettings duplicate = newRealm("HTTP/idp.example.com@EXAMPLE.COM");
+        final List<KerberosRealmSettings> configured = Arrays.asList(orgRealm, comRealm, duplicate);
+        Assert.assertEquals(GSSContextAcceptor.orderRealms(configured, "HTTP/idp.example.com@EXAMPLE.COM"),
+                Arrays.asList(comRealm, orgRealm, duplicate));
+        Assert.assertTrue(GSSContextAcceptor.orderRealms(
+                Collections.<KerberosRealmSettings>emptyList(), "HTTP/idp.example.com@EXAMPLE.COM").isEmpty());
+    }
+
+    @Test public void testKeyMismatch() {
+        Assert.assertTrue(GSSContextAcceptor.isKeyMismatch(new GSSException(GSSException.NO_CRED)));
+        Assert.assertTrue(GSSContextAcceptor.isKeyMismatch(newFailure(GSSException.FAILURE,
+                "Specified version of key is not available (44)")));
+        Assert.assertTrue(GSSContextAcceptor.isKeyMismatch(newFailure(GSSException.DEFECTIVE_TOKEN,
+                "Checksum failed")));
+        Assert.assertTrue(GSSContextAcceptor.isKeyMismatch(newFailure(GSSException.FAILURE,
+                "Invalid argument (400) - Cannot find key of appropriate type to decrypt AP REP - AES256 CTS mode")));
+        Assert.assertTrue(GSSContextAcceptor.isKeyMismatch(new PrivilegedActionException(
+                newFailure(GSSException.FAILURE, "Key version 3 not found"))));
+    }
+
+    @Test public void testNotKeyMismatch() {
+        Assert.assertFalse(GSSContextAcceptor.isKeyMismatch(new GSSException(GSSException.DEFECTIVE_TOKEN)));
+        Assert.assertFalse(GSSContextAcceptor.isKeyMismatch(newFailure(GSSException.DUPLICATE_TOKEN,
+                "Request is a replay (34)")));
+        Assert.assertFalse(GSSContextAcceptor.isKeyMismatch(newFailure(GSSException.FAILURE,
+                "Clock skew too great (37)")));
+        Assert.assertFalse(GSSContextAcceptor.isKeyMismatch(new IllegalStateException()));
+    }
+
+    private GSSException newFailure(final int major, final String cause) {
+        final GSSException e = new GSSException(major, -1, "Failure unspecified at GSS-API level");
+        e.initCause(new Exception(cause));
+        return e;
+    }
+
+    private KerberosRealmSettings newRealm(final String principal) throws ComponentInitializationException {
+        final KerberosRealmSettings realm = new KerberosRealmSettings();
+        realm.setServicePrincipal(principal);
+        realm.setKeytab("/opt/kerberos/http.keytab");
+        realm.initialize();
+        return realm;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.authn.spnego.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link ServicePrincipalExtractor}. */
+public class ServicePrincipalExtractorTest {
+
+    private static final byte[] SPNEGO_OID = {0x2b, 0x06, 0x01, 0x05, 0x05, 0x02};
+
+    private static final byte[] KRB5_OID =
+        {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02};
+
+    @Test public void testKerberosToken() {
+        final byte[] token = krb5Token("HTTP", "idp.example.org", "EXAMPLE.ORG");
+        Assert.assertEquals(ServicePrincipalExtractor.extract(token, 0, token.length),
+                "HTTP/idp.example.org@EXAMPLE.ORG");
+    }
+
+    @Test public void testSPNEGOToken() {
+        final byte[] token = spnegoToken(krb5Token("HTTP", "idp.example.org", "EXAMPLE.ORG"));
+        Assert.assertEquals(ServicePrincipalExtractor.extract(token, 0, token.length),
+                "HTTP/idp.example.org@EXAMPLE.ORG");
+    }
+
+    @Test public void testOffset() {
+        final byte[] token = krb5Token("HTTP", "idp.example.org", "EXAMPLE.ORG");
+        final byte[] padded = new byte[token.length + 4];
+        System.arraycopy(token, 0, padded, 2, token.length);
+        Assert.assertEquals(ServicePrincipalExtractor.extract(padded, 2, token.length),
+                "HTTP/idp.example.org@EXAMPLE.ORG");
+    }
+
+    @Test public void testLongName() {
+        final StringBuilder host = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            host.append("subdomain.");
+        }
+        host.append("example.org");
+        final byte[] token = spnegoToken(krb5Token("HTTP", host.toString(), "EXAMPLE.ORG"));
+        Assert.assertEquals(ServicePrincipalExtractor.extract(token, 0, token.length),
+                "HTTP/" + host + "@EXAMPLE.ORG");
+    }
+
+    @Test public void testMalformed() {
+        final byte[] token = spnegoToken(krb5Token("HTTP", "idp.example.org", "EXAMPLE.ORG"));
+        Assert.assertNull(ServicePrincipalExtractor.extract(token, 0, token.length - 5));
+        Assert.assertNull(ServicePrincipalExtractor.extract(new byte[] {0x60, 0x02, 0x06}, 0, 3));
+        Assert.assertNull(ServicePrincipalExtractor.extract(new byte[0], 0, 0));
+        
+        final byte[] ntlm = "NTLMSSP\0".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertNull(ServicePrincipalExtractor.extract(ntlm, 0, ntlm.length));
+    }
+
+    private static byte[] krb5Token(final String service, final String host, final String realm) {
+        final byte[] sname = der(0x30,
+                der(0xa0, der(0x02, new byte[] {0x02})),
+                der(0xa1, der(0x30, string(service), string(host))));
+        final byte[] ticket = der(0x61, der(0x30,
+                der(0xa0, der(0x02, new byte[] {0x05})),
+                der(0xa1, string(realm)),
+                der(0xa2, sname),
+                der(0xa3, der(0x30, der(0x04, new byte[16])))));
+        final byte[] apReq = der(0x6e, der(0x30,
+                der(0xa0, der(0x02, new byte[] {0x05})),
+                der(0xa1, der(0x02, new byte[] {0x0e})),
+                der(0xa2, der(0x03, new byte[] {0x00, 0x00, 0x00, 0x00, 0x00})),
+                der(0xa3, ticket)));
+        return der(0x60, der(0x06, KRB5_OID), new byte[] {0x01, 0x00}, apReq);
+    }
+
+    private static byte[] spnegoToken(final byte[] mechToken) {
+        final byte[] negTokenInit = der(0x30,
+                der(0xa0, der(0x30, der(0x06, KRB5_OID))),
+                der(0xa2, der(0x04, mechToken)));
+        return der(0x60, der(0x06, SPNEGO_OID), der(0xa0, negTokenInit));
+    }
+
+    private static byte[] string(final String value) {
+        return der(0x1b, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] der(final int tag, final byte[]... contents) {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (final byte[] content : contents) {
+            body.write(content, 0, content.length);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        final int length = body.size();
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length & 0xff);
+        }
+        final byte[] data = body.toByteArray();
+        out.write(data, 0, data.length);
+        return out.toByteArray();
+    }
+
+}
@@ -17,8 +17,9 @@
 
 package net.shibboleth.idp.cas.service;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -27,16 +28,26 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.component.IdentifiableComponent;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Service registry that evaluates a candidate service URL against one or more defined services, where each
  * definition contains a service URL regular expression pattern.
  *
+ * <p>Definitions are evaluated in order and the first match wins. To avoid evaluating every pattern, definitions
+ * whose pattern begins with a literal scheme, host and path separator (e.g. <code>https://app\.example\.org/.*</code>)
+ * are indexed by that literal part, so only those sharing the candidate URL's scheme and host, plus any that could
+ * not be indexed, are evaluated. A bounded cache of recent lookups is also maintained.</p>
+ *
  * <p>NOTE: This class will become an implementation component in the next major software version.</p>
  *
  * @author Marvin S. Addison
@@ -44,13 +55,32 @@ import org.slf4j.LoggerFactory;
 public class PatternServiceRegistry extends AbstractServiceableComponent<ServiceRegistry>
         implements IdentifiableComponent, ServiceRegistry {
 
+    /** Default number of lookups to cache. */
+    public static final int DEFAULT_LOOKUP_CACHE_SIZE = 500;
+
+    /** Regular expression metacharacters that end a literal prefix. */
+    private static final String METACHARACTERS = ".[]()*+?{}|^$\\";
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(PatternServiceRegistry.class);
 
-    /** Map of service definitions to compiled patterns. */
+    /** Definitions indexed by the scheme and host their pattern requires, in order. */
     @Nonnull
     @NonnullElements
-    private Map<ServiceDefinition, Pattern> definitions = Collections.emptyMap();
+    private Map<String, List<CompiledDefinition>> indexedDefinitions = Collections.emptyMap();
+
+    /** Definitions that could not be indexed, in order. */
+    @Nonnull
+    @NonnullElements
+    private List<CompiledDefinition> unindexedDefinitions = Collections.emptyList();
+
+    /** Maximum number of lookups to cache. */
+    @NonNegative
+    private int lookupCacheSize = DEFAULT_LOOKUP_CACHE_SIZE;
+
+    /** Cache of recent lookups. */
+    @Nullable
+    private Cache<String, Optional<Service>> lookupCache;
 
     @Override
     public void setId(@Nonnull final String componentId) {
@@ -65,11 +95,43 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
      */
     public void setDefinitions(@Nonnull @NonnullElements final List<ServiceDefinition> serviceDefinitions) {
         Constraint.noNullItems(serviceDefinitions, "Definitions cannot be null or contain null items");
-        // Preserve order of services in map
-        definitions = new LinkedHashMap<>(serviceDefinitions.size());
+        final List<CompiledDefinition> compiled = new ArrayList<>(serviceDefinitions.size());
+        final Map<String, List<CompiledDefinition>> indexed = new HashMap<>();
+        final List<CompiledDefinition> unindexed = new ArrayList<>();
         for (final ServiceDefinition definition : serviceDefinitions) {
-            definitions.put(definition, Pattern.compile(definition.getId()));
+            final CompiledDefinition entry = new CompiledDefinition(compiled.size(), definition);
+            compiled.add(entry);
+            final String key = getIndexKey(getLiteralPrefix(definition.getId()));
+            if (key != null) {
+                List<CompiledDefinition> bucket = indexed.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    indexed.put(key, bucket);
+                }
+                bucket.add(entry);
+            } else {
+                unindexed.add(entry);
+            }
         }
+        log.debug("Indexed {} of {} service definitions by scheme and host", compiled.size() - unindexed.size(),
+                compiled.size());
+        indexedDefinitions = indexed;
+        unindexedDefinitions = unindexed;
+        if (lookupCache != null) {
+            lookupCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Sets the maximum number of recent lookups to cache. 0 disables the cache.
+     *
+     * <p>Defaults to {@link #DEFAULT_LOOKUP_CACHE_SIZE}.</p>
+     *
+     * @param size maximum number of lookups to cache
+     */
+    public void setLookupCacheSize(@NonNegative final int size) {
+        lookupCacheSize = (int) Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+        lookupCache = null;
     }
 
     @Nonnull
@@ -82,14 +144,187 @@ public class PatternServiceRegistry extends AbstractServiceableComponent<Service
     @Nullable
     public Service lookup(@Nonnull final String serviceURL) {
         Constraint.isNotNull(serviceURL, "Service URL cannot be null");
-        for (final ServiceDefinition def : definitions.keySet()) {
-            log.debug("Evaluating whether {} matches {}", serviceURL, def);
-            if (definitions.get(def).matcher(serviceURL).matches()) {
+        final Cache<String, Optional<Service>> cache = getLookupCache();
+        if (cache == null) {
+            return doLookup(serviceURL);
+        }
+        Optional<Service> service = cache.getIfPresent(serviceURL);
+        if (service == null) {
+            service = Optional.fromNullable(doLookup(serviceURL));
+            cache.put(serviceURL, service);
+        } else {
+            log.debug("Found cached result for {}", serviceURL);
+        }
+        return service.orNull();
+    }
+
+    /**
+     * Evaluates the candidate definitions for a service URL in order.
+     *
+     * @param serviceURL Service URL
+     *
+     * @return the service matching the first matching definition, or null
+     */
+    @Nullable
+    private Service doLookup(@Nonnull final String serviceURL) {
+        final String key = getIndexKey(serviceURL);
+        final List<CompiledDefinition> indexed = key != null ? indexedDefinitions.get(key) : null;
+        final List<CompiledDefinition> candidates;
+        if (indexed == null) {
+            candidates = unindexedDefinitions;
+        } else if (unindexedDefinitions.isEmpty()) {
+            candidates = indexed;
+        } else {
+            candidates = merge(indexed, unindexedDefinitions);
+        }
+
+        for (final CompiledDefinition def : candidates) {
+            log.debug("Evaluating whether {} matches {}", serviceURL, def.definition);
+            if (def.pattern.matcher(serviceURL).matches()) {
                 log.debug("Found match");
-                return new Service(serviceURL, def.getGroup(), def.isAuthorizedToProxy(),
-                        def.isSingleLogoutParticipant());
+                return new Service(serviceURL, def.definition.getGroup(), def.definition.isAuthorizedToProxy(),
+                        def.definition.isSingleLogoutParticipant());
             }
         }
         return null;
     }
+
+    /**
+     * Get the lookup cache, creating it if necessary.
+     *
+     * @return the cache, or null if caching is disabled
+     */
+    @Nullable
+    private Cache<String, Optional<Service>> getLookupCache() {
+        if (lookupCacheSize == 0) {
+            return null;
+        }
+        Cache<String, Optional<Service>> cache = lookupCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = lookupCache;
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder().maximumSize(lookupCacheSize).build();
+                    lookupCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Merges two lists of definitions into definition order.
+     *
+     * @param first first list
+     * @param second second list
+     *
+     * @return merged list
+     */
+    @Nonnull
+    @NonnullElements
+    private static List<CompiledDefinition> merge(@Nonnull @NonnullElements final List<CompiledDefinition> first,
+            @Nonnull @NonnullElements final List<CompiledDefinition> second) {
+        final List<CompiledDefinition> merged = new ArrayList<>(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            if (first.get(i).order < second.get(j).order) {
+                merged.add(first.get(i++));
+            } else {
+                merged.add(second.get(j++));
+            }
+        }
+        merged.addAll(first.subList(i, first.size()));
+        merged.addAll(second.subList(j, second.size()));
+        return merged;
+    }
+
+    /**
+     * Gets the literal text every match of a pattern must begin with.
+     *
+     * @param regex Regular expression
+     *
+     * @return the literal prefix, which may be empty
+     */
+    @Nonnull
+    static String getLiteralPrefix(@Nonnull final String regex) {
+        // Alternation anywhere may make the leading text optional.
+        for (int i = 0; i < regex.length(); i++) {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            } else if (regex.charAt(i) == '|') {
+                return "";
+            }
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                // Only an escaped punctuation character is a literal.
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                prefix.append(regex.charAt(i + 1));
+                i += 2;
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                // A quantifier makes the preceding character optional or repeatable.
+                if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            } else {
+                prefix.append(c);
+                i++;
+            }
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Gets the index key of a URL or literal pattern prefix, i.e. the text up to the first path separator following
+     * the scheme.
+     *
+     * @param text URL or literal prefix
+     *
+     * @return the index key, or null if the text does not contain a scheme, host and separator
+     */
+    @Nullable
+    static String getIndexKey(@Nonnull final String text) {
+        final int scheme = text.indexOf("://");
+        if (scheme <= 0) {
+            return null;
+        }
+        final int separator = text.indexOf('/', scheme + 3);
+        if (separator <= scheme + 3) {
+            return null;
+        }
+        return text.substring(0, separator);
+    }
+
+    /** A service definition with its compiled pattern and position. */
+    private static final class CompiledDefinition {
+
+        /** Position of the definition. */
+        private final int order;
+
+        /** The definition. */
+        @Nonnull private final ServiceDefinition definition;
+
+        /** Compiled pattern. */
+        @Nonnull private final Pattern pattern;
+
+        /**
+         * Constructor.
+         *
+         * @param position position of the definition
+         * @param def the definition
+         */
+        private CompiledDefinition(final int position, @Nonnull final ServiceDefinition def) {
+            order = position;
+            definition = def;
+            pattern = Pattern.compile(def.getId());
+        }
+    }
 }
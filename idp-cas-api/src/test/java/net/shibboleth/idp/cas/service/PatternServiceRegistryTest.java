@@ -15,17 +15,19 @@
  * limitations under the License.
  */
 
-package net.shibboleth.idp.cas.service.impl;
+package net.shibboleth.idp.cas.service;
 
 import java.util.Arrays;
 import java.util.List;
 
-import net.shibboleth.idp.cas.service.Service;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.*;
 
+/**
+ * Unit test for {@link PatternServiceRegistry}.
+ */
 public class PatternServiceRegistryTest {
 
     @DataProvider(name = "services")
@@ -36,6 +38,8 @@ public class PatternServiceRegistryTest {
         final ServiceDefinition d2 = new ServiceDefinition("https://trusted\\.example\\.org/.*");
         d2.setGroup("trusted-service");
         d2.setAuthorizedToProxy(true);
+        final ServiceDefinition d3 = new ServiceDefinition("^https://app\\.example\\.org/cas/.*");
+        d3.setGroup("app");
         return new Object[][] {
                 {
                         Arrays.asList(d1, d2),
@@ -52,6 +56,21 @@ public class PatternServiceRegistryTest {
                         "https://service.untrusted.org/landing",
                         null,
                 },
+                {
+                        Arrays.asList(d3, d2, d1),
+                        "https://app.example.org/cas/login",
+                        new Service("https://app.example.org/cas/login", "app", false),
+                },
+                {
+                        Arrays.asList(d3, d2, d1),
+                        "https://app.example.org/other",
+                        new Service("https://app.example.org/other", "example.org-plus-subdomains", false),
+                },
+                {
+                        Arrays.asList(d2, d3),
+                        "https://app.example.org.evil.com/cas/",
+                        null,
+                },
         };
     };
 
@@ -61,13 +80,32 @@ public class PatternServiceRegistryTest {
             throws Exception {
         final PatternServiceRegistry registry = new PatternServiceRegistry();
         registry.setDefinitions(services);
-        final Service actual = registry.lookup(serviceURL);
-        if (expected == null) {
-            assertNull(actual);
-        } else {
-            assertEquals(actual.getName(), expected.getName());
-            assertEquals(actual.getGroup(), expected.getGroup());
-            assertEquals(actual.isAuthorizedToProxy(), expected.isAuthorizedToProxy());
+        for (int i = 0; i < 2; i++) {
+            final Service actual = registry.lookup(serviceURL);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(actual.getName(), expected.getName());
+                assertEquals(actual.getGroup(), expected.getGroup());
+                assertEquals(actual.isAuthorizedToProxy(), expected.isAuthorizedToProxy());
+            }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("https://app\\.example\\.org/.*"),
+                "https://app.example.org/");
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("^https://app\\.example\\.org/cas"),
+                "https://app.example.org/cas");
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("https?://app\\.example\\.org/.*"), "http");
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("https://app\\.example\\.org\\d/.*"),
+                "https://app.example.org");
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("https://a\\.org/.*|https://b\\.org/.*"), "");
+        assertEquals(PatternServiceRegistry.getLiteralPrefix("(?i)https://app\\.example\\.org/.*"), "");
+
+        assertEquals(PatternServiceRegistry.getIndexKey("https://app.example.org/"), "https://app.example.org");
+        assertNull(PatternServiceRegistry.getIndexKey("https://app.example.org"));
+        assertNull(PatternServiceRegistry.getIndexKey("http"));
+    }
+}
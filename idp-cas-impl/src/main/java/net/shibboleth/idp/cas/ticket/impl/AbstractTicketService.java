@@ -40,6 +40,7 @@ import org.joda.time.Instant;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
 import org.opensaml.storage.StorageService;
+import org.opensaml.storage.VersionMismatchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -228,28 +229,36 @@ public abstract class AbstractTicketService implements TicketServiceEx {
     /**
      * Retrieves a ticket by ID from the storage service and then deletes it.
      *
+     * <p>The delete is conditional on the version that was read, so when several callers attempt to remove the
+     * same ticket concurrently, only the one whose delete succeeds receives the ticket.</p>
+     *
      * @param id Ticket identifier.
      * @param <T> Type of ticket.
      * @param clazz Ticket class
      *
-     * @return Deleted ticket or null if ticket not found.
+     * @return Deleted ticket or null if ticket not found or removed by another caller.
      */
     protected <T extends Ticket> T delete(final String id, final Class<T> clazz) {
-        final T ticket = read(id, clazz);
-        if (ticket == null) {
-            return null;
-        }
+        final String context = context(clazz);
+        log.debug("Reading {}", id);
         try {
-            final String context = context(clazz);
+            final StorageRecord<T> record = storageService.read(context, id);
+            if (record == null) {
+                log.debug("{} not found in context {}", id, context);
+                return null;
+            }
+            final T ticket = record.getValue(serializer(clazz), context, id);
             log.debug("Attempting to delete {} from context {}", ticket, context);
-            if (!storageService.delete(context, id)) {
-                log.info("Failed deleting {}. Ticket probably expired from storage service.", id);
+            if (!storageService.deleteWithVersion(record.getVersion(), context, id)) {
+                log.info("Failed deleting {}. Ticket was consumed concurrently or expired from storage service.", id);
+                return null;
             }
+            return ticket;
+        } catch (final VersionMismatchException e) {
+            log.info("Failed deleting {}. Ticket was modified concurrently.", id);
+            return null;
         } catch (final IOException e) {
             throw new RuntimeException("Error deleting ticket " + id, e);
         }
-        return ticket;
     }
-
-
 }
@@ -30,7 +30,9 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.security.DataSealer;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.Instant;
+import org.opensaml.storage.ReplayCache;
 import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,16 +46,21 @@ import org.slf4j.LoggerFactory;
  *     <li>Proxy-granting tickets are persisted using a {@link StorageService}.</li>
  * </ol>
  *
- * <p><strong>NOTE:</strong> The service tickets and proxy tickets produced by this component do not support one-time
- * use. More precisely, {@link #removeServiceTicket(String)} and {@link #removeProxyTicket(String)} simply return a
- * decoded ticket and do not invalidate the ticket in any way. Since there is no backing store for those types of
- * tickets, they can be reused until one of the following conditions is met:
+ * <p><strong>NOTE:</strong> Unless a {@link ReplayCache} is supplied, the service tickets and proxy tickets produced
+ * by this component do not support one-time use. More precisely, {@link #removeServiceTicket(String)} and
+ * {@link #removeProxyTicket(String)} simply return a decoded ticket and do not invalidate the ticket in any way.
+ * Since there is no backing store for those types of tickets, they can be reused until one of the following
+ * conditions is met:
  *
  * <ol>
  *     <li>The value of {@link Ticket#getExpirationInstant()} is exceeded.</li>
  *     <li>The {@link DataSealer} key used to encrypt data is revoked.</li>
  * </ol>
  *
+ * <p>With a {@link ReplayCache}, a hash of each ticket removed is recorded until the ticket expires, and a ticket
+ * already recorded is treated as not found. Only that hash is stored, so the ticket data itself still requires no
+ * storage.</p>
+ *
  * @author Marvin S. Addison
  * @since 3.3.0
  */
@@ -83,6 +90,10 @@ public class EncodingTicketService extends AbstractTicketService {
     @NotEmpty
     private String proxyTicketPrefix = PROXY_TICKET_PREFIX;
 
+    /** Optional cache used to enforce one-time use of tickets. */
+    @Nullable
+    private ReplayCache replayCache;
+
 
     /**
      * Creates a new instance.
@@ -114,6 +125,15 @@ public class EncodingTicketService extends AbstractTicketService {
         proxyTicketPrefix = Constraint.isNotEmpty(prefix, "Prefix cannot be null or empty");
     }
 
+    /**
+     * Sets the replay cache used to enforce one-time use of service and proxy tickets.
+     *
+     * @param cache Replay cache, or null to allow tickets to be reused until they expire.
+     */
+    public void setReplayCache(@Nullable final ReplayCache cache) {
+        replayCache = cache;
+    }
+
     @Override
     @Nonnull
     public ServiceTicket createServiceTicket(
@@ -136,7 +156,7 @@ public class EncodingTicketService extends AbstractTicketService {
     @Nullable
     public ServiceTicket removeServiceTicket(@Nonnull final String id) {
         Constraint.isNotNull(id, "Id cannot be null");
-        return decode(ServiceTicket.class, id, serviceTicketPrefix);
+        return checkReplay(ServiceTicket.class, decode(ServiceTicket.class, id, serviceTicketPrefix));
     }
 
     @Nonnull
@@ -159,7 +179,7 @@ public class EncodingTicketService extends AbstractTicketService {
     @Nullable
     @Override
     public ProxyTicket removeProxyTicket(final @Nonnull String id) {
-        return decode(ProxyTicket.class, id, proxyTicketPrefix);
+        return checkReplay(ProxyTicket.class, decode(ProxyTicket.class, id, proxyTicketPrefix));
     }
 
     /**
@@ -203,4 +223,27 @@ public class EncodingTicketService extends AbstractTicketService {
         }
         return null;
     }
+
+    /**
+     * Record the use of a ticket, rejecting it if it has been used before.
+     *
+     * @param ticketClass class of ticket
+     * @param ticket decoded ticket, or null
+     * @param <T> type of ticket
+     *
+     * @return the ticket, or null if it was null or has been used before
+     */
+    @Nullable
+    private <T extends Ticket> T checkReplay(final Class<T> ticketClass, @Nullable final T ticket) {
+        if (ticket == null || replayCache == null) {
+            return ticket;
+        }
+        if (!replayCache.check(context(ticketClass), DigestUtils.sha256Hex(ticket.getId()),
+                ticket.getExpirationInstant().getMillis())) {
+            log.warn("Rejecting replayed {} expiring at {}", ticketClass.getSimpleName(),
+                    ticket.getExpirationInstant());
+            return null;
+        }
+        return ticket;
+    }
 }
@@ -30,6 +30,7 @@ import net.shibboleth.utilities.java.support.security.DataSealer;
 import net.shibboleth.utilities.java.support.security.IdentifierGenerationStrategy;
 import net.shibboleth.utilities.java.support.security.RandomIdentifierGenerationStrategy;
 import org.joda.time.Instant;
+import org.opensaml.storage.ReplayCache;
 import org.opensaml.storage.impl.MemoryStorageService;
 import org.springframework.core.io.ClassPathResource;
 import org.testng.annotations.BeforeTest;
@@ -46,6 +47,8 @@ public class EncodingTicketServiceTest {
 
     private EncodingTicketService ticketService;
 
+    private DataSealer sealer;
+
     private IdentifierGenerationStrategy sessionIdGenerator = new RandomIdentifierGenerationStrategy(32);
 
     private IdentifierGenerationStrategy pgtIdGenerator = new TicketIdentifierGenerationStrategy("PGT", 32);
@@ -70,7 +73,7 @@ public class EncodingTicketServiceTest {
         strategy.setKeyAlias("secret");
         strategy.setKeyPassword("password");
         strategy.initialize();
-        final DataSealer sealer = new DataSealer();
+        sealer = new DataSealer();
         sealer.setKeyStrategy(strategy);
         sealer.setRandom(secureRandom);
         sealer.initialize();
@@ -159,6 +162,38 @@ public class EncodingTicketServiceTest {
         assertNull(ticketService.removeProxyTicket("PT-123"));
     }
 
+    @Test
+    public void testReplayDetection() throws Exception {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("replay");
+        storage.initialize();
+        final ReplayCache replayCache = new ReplayCache();
+        replayCache.setStorage(storage);
+        replayCache.initialize();
+        final EncodingTicketService replayingService = new EncodingTicketService(storage, sealer);
+        replayingService.setReplayCache(replayCache);
+
+        final ServiceTicket st = replayingService.createServiceTicket(
+                String.valueOf(System.currentTimeMillis()),
+                new Instant().plus(5000),
+                "https://www.example.com/s3/",
+                newState("fitzgerald"),
+                false);
+        assertNotNull(replayingService.removeServiceTicket(st.getId()));
+        assertNull(replayingService.removeServiceTicket(st.getId()));
+
+        final ProxyTicket pt = replayingService.createProxyTicket(
+                String.valueOf(System.currentTimeMillis()),
+                new Instant().plus(5000),
+                newPGT(newState("gwendolyn"), "https://www.example.com/s1/"),
+                "https://www.example.com/s2/");
+        assertNotNull(replayingService.removeProxyTicket(pt.getId()));
+        assertNull(replayingService.removeProxyTicket(pt.getId()));
+
+        replayCache.destroy();
+        storage.destroy();
+    }
+
     private TicketState newState(final String principal) {
         return new TicketState(sessionIdGenerator.generateIdentifier(), principal, new Instant(), "authn/Password");
     }
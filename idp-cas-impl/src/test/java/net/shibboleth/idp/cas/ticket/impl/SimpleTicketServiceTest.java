@@ -17,6 +17,9 @@
 
 package net.shibboleth.idp.cas.ticket.impl;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.shibboleth.idp.cas.ticket.ProxyGrantingTicket;
 import net.shibboleth.idp.cas.ticket.ProxyTicket;
 import net.shibboleth.idp.cas.ticket.ServiceTicket;
@@ -98,6 +101,34 @@ public class SimpleTicketServiceTest {
         assertNull(ticketService.removeProxyTicket(pt.getId()));
     }
 
+    @Test
+    public void testConcurrentRemoveServiceTicket() throws Exception {
+        final ServiceTicket st = createServiceTicket();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger winners = new AtomicInteger();
+        final Thread[] validators = new Thread[10];
+        for (int i = 0; i < validators.length; i++) {
+            validators[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    if (ticketService.removeServiceTicket(st.getId()) != null) {
+                        winners.incrementAndGet();
+                    }
+                }
+            };
+            validators[i].start();
+        }
+        start.countDown();
+        for (final Thread validator : validators) {
+            validator.join(5000);
+        }
+        assertEquals(winners.get(), 1);
+    }
+
     private ServiceTicket createServiceTicket() {
         return ticketService.createServiceTicket(
                 new TicketIdentifierGenerationStrategy("ST", 25).generateIdentifier(),
@@ -148,6 +148,11 @@ public class AttributeReleaseConsentFunction implements Function<ProfileRequestC
                 if (consentFlowDescriptor.compareValues()) {
                     if (Objects.equals(consent.getValue(), previousConsent.getValue())) {
                         consent.setApproved(previousConsent.isApproved());
+                    } else if (attributeValuesHashFunction instanceof AttributeValuesHashFunction
+                            && ((AttributeValuesHashFunction) attributeValuesHashFunction).verifyLegacyHash(
+                                    attribute.getValues(), previousConsent.getValue())) {
+                        // Same values as when consent was given, so the current hash can replace the stored one.
+                        consent.setApproved(previousConsent.isApproved());
                     }
                 } else {
                     consent.setApproved(previousConsent.isApproved());
@@ -20,19 +20,26 @@ package net.shibboleth.idp.consent.logic.impl;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.shibboleth.idp.attribute.ByteAttributeValue;
+import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.XMLObjectAttributeValue;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NullableElements;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.cryptacular.util.CodecUtil;
 import org.cryptacular.util.HashUtil;
+import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.saml2.core.NameIDType;
@@ -41,6 +48,8 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Collections2;
 
 /**
@@ -49,13 +58,77 @@ import com.google.common.collect.Collections2;
  * Returns <code>null</code> for a <code>null</code> input or empty collection of IdP attribute values.
  * <code>Null</code> IdP attribute values are ignored.
  * 
- * The hash returned is the Base64 encoded representation of the SHA-256 digest.
+ * The hash returned is {@link #HASH_PREFIX} followed by the Base64 encoded representation of the SHA-256 digest of
+ * a canonical encoding of the values: a type tag for each value followed by its length-prefixed fields. The
+ * encoding of a non-NameID {@link XMLObject} value is its serialized DOM, which is remembered for the lifetime of
+ * the object.
+ * 
+ * Hashes computed by earlier versions, which digest a Java serialization of the values and have no prefix,
+ * can be checked with {@link #verifyLegacyHash(Collection, String)} so existing consent remains valid.
  */
 public class AttributeValuesHashFunction implements Function<Collection<IdPAttributeValue<?>>, String> {
 
+    /** Prefix identifying hashes computed by the current algorithm. */
+    @Nonnull @NotEmpty public static final String HASH_PREFIX = "2:";
+
+    /** Tag for string values. */
+    private static final int STRING_VALUE = 1;
+
+    /** Tag for scoped string values. */
+    private static final int SCOPED_VALUE = 2;
+
+    /** Tag for NameID values. */
+    private static final int NAMEID_VALUE = 3;
+
+    /** Tag for other {@link XMLObject} values. */
+    private static final int XMLOBJECT_VALUE = 4;
+
+    /** Tag for byte values. */
+    private static final int BYTE_VALUE = 5;
+
+    /** Tag for empty values. */
+    private static final int EMPTY_VALUE = 6;
+
+    /** Tag for values of any other type, which are digested via Java serialization. */
+    private static final int SERIALIZED_VALUE = 0x7f;
+
+    /** Digest reused by each thread. */
+    @Nonnull private static final ThreadLocal<CanonicalDigest> DIGEST = new ThreadLocal<CanonicalDigest>() {
+        @Override protected CanonicalDigest initialValue() {
+            try {
+                return new CanonicalDigest();
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            }
+        }
+    };
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AttributeValuesHashFunction.class);
 
+    /** Serialized form of {@link XMLObject} values, keyed by identity. */
+    @Nonnull private final Cache<XMLObject,byte[]> xmlObjectCache;
+
+    /** Whether to accept hashes computed by the legacy algorithm. */
+    private boolean legacyCompatibility;
+
+    /** Constructor. */
+    public AttributeValuesHashFunction() {
+        xmlObjectCache = CacheBuilder.newBuilder().weakKeys().maximumSize(1000).build();
+        legacyCompatibility = true;
+    }
+
+    /**
+     * Set whether {@link #verifyLegacyHash(Collection, String)} accepts hashes computed by the legacy algorithm.
+     * 
+     * <p>Defaults to true. Disabling this invalidates any consent stored by earlier versions.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setLegacyCompatibility(final boolean flag) {
+        legacyCompatibility = flag;
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nullable public String apply(@Nullable @NullableElements final Collection<IdPAttributeValue<?>> input) {
@@ -70,6 +143,110 @@ public class AttributeValuesHashFunction implements Function<Collection<IdPAttri
             return null;
         }
 
+        // Discard anything left behind by an earlier failure.
+        final CanonicalDigest digest = DIGEST.get();
+        digest.reset();
+        try {
+            for (final IdPAttributeValue<?> value : filteredInput) {
+                if (value instanceof ScopedStringAttributeValue) {
+                    digest.tag(SCOPED_VALUE);
+                    digest.string(((ScopedStringAttributeValue) value).getValue());
+                    digest.string(((ScopedStringAttributeValue) value).getScope());
+                } else if (value instanceof StringAttributeValue) {
+                    digest.tag(STRING_VALUE);
+                    digest.string(((StringAttributeValue) value).getValue());
+                } else if (value instanceof XMLObjectAttributeValue) {
+                    final XMLObject xmlObject = ((XMLObjectAttributeValue) value).getValue();
+                    if (xmlObject instanceof NameIDType) {
+                        digest.tag(NAMEID_VALUE);
+                        digest.string(((NameIDType) xmlObject).getValue());
+                    } else {
+                        digest.tag(XMLOBJECT_VALUE);
+                        digest.bytes(getSerializedXMLObject(xmlObject));
+                    }
+                } else if (value instanceof ByteAttributeValue) {
+                    digest.tag(BYTE_VALUE);
+                    digest.bytes(((ByteAttributeValue) value).getValue());
+                } else if (value instanceof EmptyAttributeValue) {
+                    digest.tag(EMPTY_VALUE);
+                    digest.string(((EmptyAttributeValue) value).getValue().name());
+                } else if (value.getValue() != null) {
+                    digest.tag(SERIALIZED_VALUE);
+                    digest.string(value.getValue().getClass().getName());
+                    final ObjectOutputStream objectOutputStream = new ObjectOutputStream(digest);
+                    objectOutputStream.writeObject(value.getValue());
+                    objectOutputStream.flush();
+                }
+            }
+
+            return HASH_PREFIX + CodecUtil.b64(digest.digest());
+
+        } catch (final MarshallingException e) {
+            log.error("Error while marshalling XMLObject value", e);
+            return null;
+        } catch (final IOException e) {
+            log.error("Error while serializing attribute value", e);
+            return null;
+        }
+    }
+
+    /**
+     * Check whether a hash may have been computed by the legacy algorithm.
+     * 
+     * @param hash a previously computed hash
+     * 
+     * @return true iff legacy compatibility is enabled and the hash was not computed by the current algorithm
+     */
+    public boolean isLegacyHash(@Nullable final String hash) {
+        return legacyCompatibility && hash != null && !hash.startsWith(HASH_PREFIX);
+    }
+
+    /**
+     * Check whether a hash computed by the legacy algorithm matches the given values.
+     * 
+     * @param input the attribute values
+     * @param hash a previously computed hash
+     * 
+     * @return true iff legacy compatibility is enabled, the hash was not computed by the current algorithm, and it
+     *          matches the legacy hash of the values
+     */
+    public boolean verifyLegacyHash(@Nullable @NullableElements final Collection<IdPAttributeValue<?>> input,
+            @Nullable final String hash) {
+        if (!isLegacyHash(hash) || input == null) {
+            return false;
+        }
+
+        final Collection<IdPAttributeValue<?>> filteredInput = Collections2.filter(input, Predicates.notNull());
+        return !filteredInput.isEmpty() && hash.equals(applyLegacy(filteredInput));
+    }
+
+    /**
+     * Get the serialized form of an {@link XMLObject}.
+     * 
+     * @param xmlObject the object
+     * 
+     * @return the serialized DOM as UTF-8
+     * 
+     * @throws MarshallingException if the object cannot be marshalled
+     */
+    @Nonnull private byte[] getSerializedXMLObject(@Nonnull final XMLObject xmlObject) throws MarshallingException {
+        byte[] serialized = xmlObjectCache.getIfPresent(xmlObject);
+        if (serialized == null) {
+            serialized = SerializeSupport.nodeToString(XMLObjectSupport.marshall(xmlObject))
+                    .getBytes(StandardCharsets.UTF_8);
+            xmlObjectCache.put(xmlObject, serialized);
+        }
+        return serialized;
+    }
+
+    /**
+     * Compute a hash using the legacy algorithm.
+     * 
+     * @param filteredInput the non-null attribute values
+     * 
+     * @return the hash, or null if an error occurs
+     */
+    @Nullable private String applyLegacy(@Nonnull final Collection<IdPAttributeValue<?>> filteredInput) {
         try {
             final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
             final ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
@@ -107,4 +284,4 @@ public class AttributeValuesHashFunction implements Function<Collection<IdPAttri
         }
     }
     
-}
\ No newline at end of file
+}
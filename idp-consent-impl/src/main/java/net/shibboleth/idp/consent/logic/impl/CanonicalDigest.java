@@ -0,0 +1,186 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.consent.logic.impl;
+
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A SHA-256 digest fed with type tags and length-prefixed fields, encoding strings as UTF-8 directly into a
+ * reusable buffer rather than allocating intermediate byte arrays.
+ * 
+ * <p>Instances are meant to be reused by a single thread; {@link #digest()} resets the state.</p>
+ */
+@NotThreadSafe
+final class CanonicalDigest extends OutputStream {
+
+    /** Length written in place of a null field. */
+    private static final int NULL_LENGTH = -1;
+
+    /** The digest. */
+    @Nonnull private final MessageDigest messageDigest;
+
+    /** Buffer for encoded bytes. */
+    @Nonnull private final byte[] buffer;
+
+    /** Number of bytes in the buffer. */
+    private int count;
+
+    /**
+     * Constructor.
+     * 
+     * @throws NoSuchAlgorithmException if SHA-256 is unavailable
+     */
+    CanonicalDigest() throws NoSuchAlgorithmException {
+        messageDigest = MessageDigest.getInstance("SHA-256");
+        buffer = new byte[512];
+    }
+
+    /**
+     * Add a type tag.
+     * 
+     * @param tag the tag
+     */
+    void tag(final int tag) {
+        write(tag);
+    }
+
+    /**
+     * Add a length-prefixed string, encoded as UTF-8.
+     * 
+     * @param value the string, or null
+     */
+    void string(@Nullable final String value) {
+        if (value == null) {
+            length(NULL_LENGTH);
+            return;
+        }
+
+        final int len = value.length();
+        int encodedLength = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                encodedLength++;
+            } else if (c < 0x800) {
+                encodedLength += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encodedLength += 4;
+                i++;
+            } else {
+                encodedLength += 3;
+            }
+        }
+        length(encodedLength);
+
+        for (int i = 0; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xc0 | (c >> 6));
+                write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, value.charAt(++i));
+                write(0xf0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3f));
+                write(0x80 | ((cp >> 6) & 0x3f));
+                write(0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced by U+FFFD.
+                write(0xef);
+                write(0xbf);
+                write(0xbd);
+            } else {
+                write(0xe0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3f));
+                write(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Add length-prefixed bytes.
+     * 
+     * @param value the bytes, or null
+     */
+    void bytes(@Nullable final byte[] value) {
+        if (value == null) {
+            length(NULL_LENGTH);
+        } else {
+            length(value.length);
+            write(value, 0, value.length);
+        }
+    }
+
+    /**
+     * Complete the digest and reset for reuse.
+     * 
+     * @return the digest value
+     */
+    @Nonnull byte[] digest() {
+        flush();
+        return messageDigest.digest();
+    }
+
+    /** Discard any input, for reuse after an error. */
+    void reset() {
+        count = 0;
+        messageDigest.reset();
+    }
+
+    /** {@inheritDoc} */
+    @Override public void write(final int b) {
+        if (count == buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /** {@inheritDoc} */
+    @Override public void write(@Nonnull final byte[] b, final int off, final int len) {
+        flush();
+        messageDigest.update(b, off, len);
+    }
+
+    /** {@inheritDoc} */
+    @Override public void flush() {
+        if (count > 0) {
+            messageDigest.update(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Add a length prefix.
+     * 
+     * @param length the length
+     */
+    private void length(final int length) {
+        write(length >>> 24);
+        write(length >>> 16);
+        write(length >>> 8);
+        write(length);
+    }
+
+}
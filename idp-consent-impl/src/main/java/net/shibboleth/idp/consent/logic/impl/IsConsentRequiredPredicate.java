@@ -23,6 +23,8 @@ import java.util.Objects;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.consent.context.impl.AttributeReleaseContext;
 import net.shibboleth.idp.consent.context.impl.ConsentContext;
 import net.shibboleth.idp.consent.flow.impl.ConsentFlowDescriptor;
 import net.shibboleth.idp.consent.impl.Consent;
@@ -39,6 +41,9 @@ import com.google.common.base.Predicate;
 /**
  * Predicate that returns whether consent is required by comparing the previous and current consents from the consent
  * context.
+ * 
+ * <p>If an {@link AttributeValuesHashFunction} is set, a previous attribute consent whose value is a hash computed by
+ * an earlier version still matches if that hash matches the current attribute values.</p>
  */
 public class IsConsentRequiredPredicate implements Predicate<ProfileRequestContext> {
 
@@ -51,11 +56,18 @@ public class IsConsentRequiredPredicate implements Predicate<ProfileRequestConte
     /** Consent flow descriptor lookup strategy. */
     @Nonnull private Function<ProfileRequestContext, ConsentFlowDescriptor> consentFlowDescriptorLookupStrategy;
 
+    /** Attribute release context lookup strategy. */
+    @Nonnull private Function<ProfileRequestContext, AttributeReleaseContext> attributeReleaseContextLookupStrategy;
+
+    /** Function used to check hashes computed by earlier versions. */
+    @Nullable private AttributeValuesHashFunction attributeValuesHashFunction;
+
     /** Constructor. */
     public IsConsentRequiredPredicate() {
         consentContextLookupStrategy = new ChildContextLookup<>(ConsentContext.class);
         consentFlowDescriptorLookupStrategy =
                 new FlowDescriptorLookupFunction<>(ConsentFlowDescriptor.class);
+        attributeReleaseContextLookupStrategy = new ChildContextLookup<>(AttributeReleaseContext.class, false);
     }
 
     /**
@@ -79,6 +91,28 @@ public class IsConsentRequiredPredicate implements Predicate<ProfileRequestConte
                 Constraint.isNotNull(strategy, "Consent flow descriptor lookup strategy cannot be null");
     }
 
+    /**
+     * Set the attribute release context lookup strategy.
+     * 
+     * @param strategy attribute release context lookup strategy
+     */
+    public void setAttributeReleaseContextLookupStrategy(
+            @Nonnull final Function<ProfileRequestContext, AttributeReleaseContext> strategy) {
+        attributeReleaseContextLookupStrategy =
+                Constraint.isNotNull(strategy, "Attribute release context lookup strategy cannot be null");
+    }
+
+    /**
+     * Set the function used to check previous attribute consents against hashes computed by earlier versions.
+     * 
+     * <p>Defaults to null, in which case such consents do not match.</p>
+     * 
+     * @param function the function used to compute the hash of an attribute's values
+     */
+    public void setAttributeValuesHashFunction(@Nullable final AttributeValuesHashFunction function) {
+        attributeValuesHashFunction = function;
+    }
+
     /** {@inheritDoc} */
     @Override @Nullable public boolean apply(@Nullable final ProfileRequestContext input) {
         if (input == null) {
@@ -117,7 +151,8 @@ public class IsConsentRequiredPredicate implements Predicate<ProfileRequestConte
                 return true;
             }
             if (consentFlowDescriptor.compareValues()
-                    && !Objects.equals(currentConsent.getValue(), previousConsent.getValue())) {
+                    && !Objects.equals(currentConsent.getValue(), previousConsent.getValue())
+                    && !isLegacyMatch(input, previousConsent)) {
                 log.debug("Consent is required, previous consent '{}' does not match current consent '{}'",
                         previousConsent, currentConsent);
                 return true;
@@ -128,4 +163,34 @@ public class IsConsentRequiredPredicate implements Predicate<ProfileRequestConte
         return false;
     }
 
+    /**
+     * Check whether a previous attribute consent carries a hash computed by an earlier version that matches the
+     * current attribute values.
+     * 
+     * @param input profile request context
+     * @param previousConsent previous consent
+     * 
+     * @return true iff the previous consent matches the current attribute values
+     */
+    private boolean isLegacyMatch(@Nonnull final ProfileRequestContext input,
+            @Nonnull final Consent previousConsent) {
+        if (attributeValuesHashFunction == null || !attributeValuesHashFunction.isLegacyHash(
+                previousConsent.getValue())) {
+            return false;
+        }
+
+        final AttributeReleaseContext attributeReleaseContext = attributeReleaseContextLookupStrategy.apply(input);
+        if (attributeReleaseContext == null) {
+            return false;
+        }
+
+        final IdPAttribute attribute = attributeReleaseContext.getConsentableAttributes().get(previousConsent.getId());
+        if (attribute != null
+                && attributeValuesHashFunction.verifyLegacyHash(attribute.getValues(), previousConsent.getValue())) {
+            log.debug("Previous consent '{}' matches current values by legacy hash", previousConsent);
+            return true;
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.consent.logic.impl;
+
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.consent.context.impl.ConsentContext;
+import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.messaging.context.navigate.ChildContextLookup;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+
+/**
+ * Predicate that returns whether previous consents should be stored again because their values are hashes computed
+ * by an earlier version, which the current consents replace.
+ * 
+ * <p>This is meant to be evaluated once {@link IsConsentRequiredPredicate} has determined that consent is not
+ * required, so that any previous consent whose value differs must have matched by its legacy hash.</p>
+ */
+public class IsConsentUpgradeRequiredPredicate implements Predicate<ProfileRequestContext> {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(IsConsentUpgradeRequiredPredicate.class);
+
+    /** Consent context lookup strategy. */
+    @Nonnull private Function<ProfileRequestContext, ConsentContext> consentContextLookupStrategy;
+
+    /** Function used to identify hashes computed by earlier versions. */
+    @Nonnull private AttributeValuesHashFunction attributeValuesHashFunction;
+
+    /** Constructor. */
+    public IsConsentUpgradeRequiredPredicate() {
+        consentContextLookupStrategy = new ChildContextLookup<>(ConsentContext.class);
+        attributeValuesHashFunction = new AttributeValuesHashFunction();
+    }
+
+    /**
+     * Set the consent context lookup strategy.
+     * 
+     * @param strategy consent context lookup strategy
+     */
+    public void
+            setConsentContextLookupStrategy(@Nonnull final Function<ProfileRequestContext, ConsentContext> strategy) {
+        consentContextLookupStrategy = Constraint.isNotNull(strategy, "Consent context lookup strategy cannot be null");
+    }
+
+    /**
+     * Set the function used to identify hashes computed by earlier versions.
+     * 
+     * @param function the function used to compute the hash of an attribute's values
+     */
+    public void setAttributeValuesHashFunction(@Nonnull final AttributeValuesHashFunction function) {
+        attributeValuesHashFunction = Constraint.isNotNull(function, "Hash function cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean apply(@Nullable final ProfileRequestContext input) {
+        if (input == null) {
+            return false;
+        }
+
+        final ConsentContext consentContext = consentContextLookupStrategy.apply(input);
+        if (consentContext == null) {
+            return false;
+        }
+
+        final Map<String, Consent> previousConsents = consentContext.getPreviousConsents();
+        for (final Consent currentConsent : consentContext.getCurrentConsents().values()) {
+            final Consent previousConsent = previousConsents.get(currentConsent.getId());
+            if (previousConsent != null && currentConsent.getValue() != null
+                    && attributeValuesHashFunction.isLegacyHash(previousConsent.getValue())
+                    && !Objects.equals(currentConsent.getValue(), previousConsent.getValue())) {
+                log.debug("Previous consent '{}' will be replaced by current consent '{}'", previousConsent,
+                        currentConsent);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -22,6 +22,8 @@ import java.util.Collections;
 import java.util.List;
 
 import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.ScopedStringAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
 
 import org.testng.Assert;
@@ -53,12 +55,67 @@ public class AttributeValuesHashFunctionTest {
 
     @Test public void testSingleValue() {
         final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
-        Assert.assertEquals(hash, "yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=");
+        Assert.assertEquals(hash, "2:qn25krWuEVEodq6KJVNgHv/34KZJ5yBWJMNieHXtp28=");
     }
 
     @Test public void testMultipleValues() {
         final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute2").getValues());
-        Assert.assertEquals(hash, "xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=");
+        Assert.assertEquals(hash, "2:sIBccu2J+aMjl92ZO5zZgpL2anXH9S8Wb/ryKvZBvJk=");
+    }
+
+    @Test public void testScopedValueIsNotString() {
+        final List<IdPAttributeValue<?>> scoped = new ArrayList<>();
+        scoped.add(new ScopedStringAttributeValue("value", "scope"));
+        final List<IdPAttributeValue<?>> string = new ArrayList<>();
+        string.add(new StringAttributeValue("value@scope"));
+        Assert.assertNotEquals(function.apply(scoped), function.apply(string));
+    }
+
+    @Test public void testValueBoundaries() {
+        final List<IdPAttributeValue<?>> split = new ArrayList<>();
+        split.add(new StringAttributeValue("a"));
+        split.add(new StringAttributeValue("bc"));
+        final List<IdPAttributeValue<?>> joined = new ArrayList<>();
+        joined.add(new StringAttributeValue("ab"));
+        joined.add(new StringAttributeValue("c"));
+        Assert.assertNotEquals(function.apply(split), function.apply(joined));
+    }
+
+    @Test public void testRepeatable() {
+        final List<IdPAttributeValue<?>> values = ConsentTestingSupport.newAttributeMap().get("attribute2").getValues();
+        Assert.assertEquals(function.apply(values), function.apply(values));
+    }
+
+    @Test public void testAfterError() {
+        final List<IdPAttributeValue<?>> unserializable = new ArrayList<>();
+        unserializable.add(new StringAttributeValue("first"));
+        unserializable.add(new IdPAttributeValue<Object>() {
+            public Object getValue() {
+                return new Object();
+            }
+            public String getDisplayValue() {
+                return "object";
+            }
+        });
+        Assert.assertNull(function.apply(unserializable));
+
+        final String hash = function.apply(ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
+        Assert.assertEquals(hash, "2:qn25krWuEVEodq6KJVNgHv/34KZJ5yBWJMNieHXtp28=");
+    }
+
+    @Test public void testLegacyHash() {
+        final List<IdPAttributeValue<?>> values = ConsentTestingSupport.newAttributeMap().get("attribute2").getValues();
+        Assert.assertTrue(function.verifyLegacyHash(values, "xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA="));
+        Assert.assertFalse(function.verifyLegacyHash(values, "yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM="));
+        Assert.assertFalse(function.verifyLegacyHash(values, function.apply(values)));
+        Assert.assertFalse(function.verifyLegacyHash(values, null));
+        Assert.assertFalse(function.verifyLegacyHash(null, "xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA="));
+    }
+
+    @Test public void testLegacyCompatibilityDisabled() {
+        function.setLegacyCompatibility(false);
+        final List<IdPAttributeValue<?>> values = ConsentTestingSupport.newAttributeMap().get("attribute2").getValues();
+        Assert.assertFalse(function.verifyLegacyHash(values, "xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA="));
     }
 
 }
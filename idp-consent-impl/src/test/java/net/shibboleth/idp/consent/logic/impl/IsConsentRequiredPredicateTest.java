@@ -20,6 +20,7 @@ package net.shibboleth.idp.consent.logic.impl;
 import java.util.Map;
 import java.util.Objects;
 
+import net.shibboleth.idp.consent.context.impl.AttributeReleaseContext;
 import net.shibboleth.idp.consent.context.impl.ConsentContext;
 import net.shibboleth.idp.consent.flow.impl.ConsentFlowDescriptor;
 import net.shibboleth.idp.consent.impl.Consent;
@@ -153,6 +154,31 @@ public class IsConsentRequiredPredicateTest {
                 .getSubcontext(ConsentContext.class).getCurrentConsents().keySet()));
     }
 
+    /**
+     * Set up consent context where the previous consent to an attribute carries a hash of its current values computed
+     * by an earlier version. This would be the situation when consent was stored before an upgrade.
+     */
+    private void setUpLegacyPreviousConsent() {
+        final Consent previousConsent = new Consent();
+        previousConsent.setId("attribute1");
+        previousConsent.setValue("yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=");
+        previousConsent.setApproved(true);
+
+        final Consent currentConsent = new Consent();
+        currentConsent.setId("attribute1");
+        currentConsent.setValue(new AttributeValuesHashFunction().apply(
+                ConsentTestingSupport.newAttributeMap().get("attribute1").getValues()));
+
+        final ConsentContext consentCtx = new ConsentContext();
+        consentCtx.getPreviousConsents().put(previousConsent.getId(), previousConsent);
+        consentCtx.getCurrentConsents().put(currentConsent.getId(), currentConsent);
+        prc.addSubcontext(consentCtx);
+
+        final AttributeReleaseContext arc = new AttributeReleaseContext();
+        arc.getConsentableAttributes().putAll(ConsentTestingSupport.newAttributeMap());
+        prc.addSubcontext(arc);
+    }
+
     @Test public void testNullInput() {
         Assert.assertFalse(p.apply(null));
     }
@@ -255,4 +281,29 @@ public class IsConsentRequiredPredicateTest {
         Assert.assertTrue(p.apply(prc));
     }
 
-}
\ No newline at end of file
+    @Test public void testLegacyPreviousConsentCompareValues() {
+        setUpLegacyPreviousConsent();
+        setUpDescriptor(true);
+        p.setAttributeValuesHashFunction(new AttributeValuesHashFunction());
+
+        Assert.assertFalse(p.apply(prc));
+    }
+
+    @Test public void testLegacyPreviousConsentWithoutHashFunction() {
+        setUpLegacyPreviousConsent();
+        setUpDescriptor(true);
+
+        Assert.assertTrue(p.apply(prc));
+    }
+
+    @Test public void testLegacyPreviousConsentCompatibilityDisabled() {
+        setUpLegacyPreviousConsent();
+        setUpDescriptor(true);
+        final AttributeValuesHashFunction function = new AttributeValuesHashFunction();
+        function.setLegacyCompatibility(false);
+        p.setAttributeValuesHashFunction(function);
+
+        Assert.assertTrue(p.apply(prc));
+    }
+
+}
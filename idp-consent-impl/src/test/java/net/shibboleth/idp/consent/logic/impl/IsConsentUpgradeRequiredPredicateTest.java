@@ -0,0 +1,120 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.consent.logic.impl;
+
+import net.shibboleth.idp.consent.context.impl.ConsentContext;
+import net.shibboleth.idp.consent.impl.Consent;
+import net.shibboleth.idp.consent.impl.ConsentTestingSupport;
+import net.shibboleth.idp.profile.RequestContextBuilder;
+import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** {@link IsConsentUpgradeRequiredPredicate} unit test. */
+public class IsConsentUpgradeRequiredPredicateTest {
+
+    private static final String LEGACY_HASH = "yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=";
+
+    private RequestContext src;
+
+    private ProfileRequestContext prc;
+
+    private IsConsentUpgradeRequiredPredicate p;
+
+    private String currentHash;
+
+    @BeforeMethod public void setUp() throws Exception {
+        src = new RequestContextBuilder().buildRequestContext();
+        prc = new WebflowRequestContextProfileRequestContextLookup().apply(src);
+
+        p = new IsConsentUpgradeRequiredPredicate();
+
+        currentHash = new AttributeValuesHashFunction().apply(
+                ConsentTestingSupport.newAttributeMap().get("attribute1").getValues());
+    }
+
+    /**
+     * Add a {@link ConsentContext} with a previous and current consent to an attribute.
+     * 
+     * @param previousValue value of the previous consent, or null for no previous consent
+     * @param currentValue value of the current consent
+     */
+    private void setUpConsents(final String previousValue, final String currentValue) {
+        final ConsentContext consentCtx = new ConsentContext();
+        if (previousValue != null) {
+            final Consent previousConsent = new Consent();
+            previousConsent.setId("attribute1");
+            previousConsent.setValue(previousValue);
+            previousConsent.setApproved(true);
+            consentCtx.getPreviousConsents().put(previousConsent.getId(), previousConsent);
+        }
+
+        final Consent currentConsent = new Consent();
+        currentConsent.setId("attribute1");
+        currentConsent.setValue(currentValue);
+        currentConsent.setApproved(true);
+        consentCtx.getCurrentConsents().put(currentConsent.getId(), currentConsent);
+        prc.addSubcontext(consentCtx);
+    }
+
+    @Test public void testNullInput() {
+        Assert.assertFalse(p.apply(null));
+    }
+
+    @Test public void testNullConsentContext() {
+        Assert.assertFalse(p.apply(prc));
+    }
+
+    @Test public void testLegacyPreviousConsent() {
+        setUpConsents(LEGACY_HASH, currentHash);
+
+        Assert.assertTrue(p.apply(prc));
+    }
+
+    @Test public void testCurrentPreviousConsent() {
+        setUpConsents(currentHash, currentHash);
+
+        Assert.assertFalse(p.apply(prc));
+    }
+
+    @Test public void testNoPreviousConsent() {
+        setUpConsents(null, currentHash);
+
+        Assert.assertFalse(p.apply(prc));
+    }
+
+    @Test public void testValuesNotCompared() {
+        setUpConsents(LEGACY_HASH, null);
+
+        Assert.assertFalse(p.apply(prc));
+    }
+
+    @Test public void testLegacyCompatibilityDisabled() {
+        final AttributeValuesHashFunction function = new AttributeValuesHashFunction();
+        function.setLegacyCompatibility(false);
+        p.setAttributeValuesHashFunction(function);
+        setUpConsents(LEGACY_HASH, currentHash);
+
+        Assert.assertFalse(p.apply(prc));
+    }
+
+}
@@ -121,7 +121,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":\"attribute1\",\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":\"attribute2\",\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":\"attribute1\",\"v\":\"2:qn25krWuEVEodq6KJVNgHv/34KZJ5yBWJMNieHXtp28=\"},{\"id\":\"attribute2\",\"v\":\"2:sIBccu2J+aMjl92ZO5zZgpL2anXH9S8Wb/ryKvZBvJk=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -136,7 +136,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":201,\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":202,\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":201,\"v\":\"2:qn25krWuEVEodq6KJVNgHv/34KZJ5yBWJMNieHXtp28=\"},{\"id\":202,\"v\":\"2:sIBccu2J+aMjl92ZO5zZgpL2anXH9S8Wb/ryKvZBvJk=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -154,7 +154,7 @@ public class ConsentSerializerTest {
         final String serialized = serializer.serialize(consents);
         Assert.assertEquals(
                 serialized,
-                "[{\"id\":\"attribute1\",\"v\":\"yePBj0hcjLihhDtDb//R/ymyw2CHZAUreX/4RupmSXM=\"},{\"id\":\"attribute2\",\"v\":\"xxuA06hGJ1DcJ4JSaWiBXXGfcRr6oxHM5jaURXBBnbA=\",\"appr\":false}]");
+                "[{\"id\":\"attribute1\",\"v\":\"2:qn25krWuEVEodq6KJVNgHv/34KZJ5yBWJMNieHXtp28=\"},{\"id\":\"attribute2\",\"v\":\"2:sIBccu2J+aMjl92ZO5zZgpL2anXH9S8Wb/ryKvZBvJk=\",\"appr\":false}]");
 
         final Map<String, Consent> deserialized = serializer.deserialize(1, CONTEXT, KEY, serialized, null);
 
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.log;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.metrics.MetricsSupport;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * An {@link AsyncAppender} that can discard records rather than block the logging thread when its queue is full,
+ * and that reports its queue depth and the number of discarded records through the OpenSAML metric registry.
+ * 
+ * <p>This is intended for high volume, request-driven logs such as the audit and F-TICKS logs, where the calling
+ * thread is servicing a user's request and a slow destination should not hold it up. By default it blocks,
+ * like its parent, so that nothing is lost.</p>
+ * 
+ * <p>The metrics are named <code>net.shibboleth.idp.log.async.&lt;appender name&gt;.queueDepth</code> and
+ * <code>...dropped</code>, and are registered when the appender starts if a registry is available.</p>
+ */
+public class MeteredAsyncAppender extends AsyncAppender {
+
+    /** Prefix of the metric names. */
+    @Nonnull public static final String METRIC_PREFIX = "net.shibboleth.idp.log.async";
+
+    /** Whether to discard records rather than block when the queue is full. */
+    private boolean discardWhenFull;
+
+    /** Count of records discarded because the queue was full. */
+    @Nonnull private final Counter droppedRecords;
+
+    /** Held by callers from checking for room in the queue to adding to it, when discarding. */
+    @Nonnull private final Object appendLock;
+
+    /** Registry the metrics were added to. */
+    @Nullable private MetricRegistry metricRegistry;
+
+    /** Constructor. */
+    public MeteredAsyncAppender() {
+        droppedRecords = new Counter();
+        appendLock = new Object();
+        // audit records are logged at INFO, which the parent would otherwise discard as the queue fills
+        setDiscardingThreshold(0);
+    }
+
+    /**
+     * Get whether records are discarded rather than blocking the caller when the queue is full.
+     * 
+     * @return whether records are discarded when the queue is full
+     */
+    public boolean isDiscardWhenFull() {
+        return discardWhenFull;
+    }
+
+    /**
+     * Set whether records are discarded rather than blocking the caller when the queue is full.
+     * 
+     * @param flag whether to discard records when the queue is full
+     */
+    public void setDiscardWhenFull(final boolean flag) {
+        discardWhenFull = flag;
+        // the parent then offers records to the queue rather than waiting to put them
+        setNeverBlock(flag);
+    }
+
+    /**
+     * Get the number of records discarded because the queue was full.
+     * 
+     * @return number of discarded records
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords.getCount();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void start() {
+        super.start();
+        if (!isStarted()) {
+            return;
+        }
+
+        metricRegistry = MetricsSupport.getMetricRegistry();
+        if (metricRegistry != null) {
+            // a reloaded configuration replaces the appender of the same name
+            metricRegistry.remove(getMetricName("queueDepth"));
+            metricRegistry.remove(getMetricName("dropped"));
+            metricRegistry.register(getMetricName("queueDepth"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return getNumberOfElementsInQueue();
+                }
+            });
+            metricRegistry.register(getMetricName("dropped"), droppedRecords);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void stop() {
+        if (metricRegistry != null) {
+            metricRegistry.remove(getMetricName("queueDepth"));
+            metricRegistry.remove(getMetricName("dropped"));
+            metricRegistry = null;
+        }
+        super.stop();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void append(final ILoggingEvent eventObject) {
+        if (!discardWhenFull) {
+            super.append(eventObject);
+            return;
+        }
+
+        // The parent's offer doesn't report failure, but only callers add to the queue, so while they are excluded
+        // the offer succeeds exactly when there is room beforehand.
+        synchronized (appendLock) {
+            if (getRemainingCapacity() == 0) {
+                droppedRecords.inc();
+                return;
+            }
+            super.append(eventObject);
+        }
+    }
+
+    /**
+     * Build the full name of one of this appender's metrics.
+     * 
+     * @param metric the metric's own name
+     * 
+     * @return the full name
+     */
+    @Nonnull private String getMetricName(@Nonnull final String metric) {
+        return MetricRegistry.name(METRIC_PREFIX, getName(), metric);
+    }
+
+}
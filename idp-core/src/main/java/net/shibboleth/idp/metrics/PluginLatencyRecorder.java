@@ -0,0 +1,238 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.metrics.MetricsSupport;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Records a sample of the execution times of one plugin, such as a data connector or filter policy, into a
+ * {@link Timer} backed by a {@link LatencyReservoir}.
+ * 
+ * <p>The timer is registered with the OpenSAML metric registry on first use, under
+ * {@value #METRIC_PREFIX}.&lt;category&gt;.&lt;id&gt;, so it is subject to the registry's filtering. If the
+ * registry is unavailable or declines the timer, nothing is recorded, and registration is retried periodically in
+ * case the registry's filter changes. Only one call in {@link #getSampleInterval()} is timed, so the timer's count
+ * reflects the sample rather than every call.</p>
+ * 
+ * <p>Recorders for the same plugin share a timer, which is removed from the registry once every recorder using it
+ * has been {@link #destroy()}ed, so the timers of plugins removed by a reload do not accumulate.</p>
+ * 
+ * <p>Usage is:</p>
+ * <pre>
+ * final long start = recorder.start();
+ * try {
+ *     ...
+ * } finally {
+ *     recorder.stop(start);
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public final class PluginLatencyRecorder {
+
+    /** Prefix of the metric names. */
+    @Nonnull @NotEmpty public static final String METRIC_PREFIX = "net.shibboleth.idp.plugin.latency";
+
+    /** Value returned by {@link #start()} for a call that is not being timed. */
+    public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /** Default sample interval. */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 10;
+
+    /** Time to wait before retrying registration of a timer the registry declined, in milliseconds. */
+    private static final long RETRY_INTERVAL = 60 * 1000;
+
+    /** Number of recorders using each registered timer. */
+    @Nonnull private static final Map<String,Integer> TIMER_USERS = new HashMap<>();
+
+    /** One call in this many is timed, or none if 0. */
+    private static volatile int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    /** Name of the timer. */
+    @Nonnull @NotEmpty private final String metricName;
+
+    /** The timer, once looked up. */
+    @Nullable private volatile Timer timer;
+
+    /** Whether the timer has been obtained, or the recorder destroyed. */
+    private volatile boolean resolved;
+
+    /** Earliest time to retry registration after the registry declined the timer. */
+    private volatile long nextAttempt;
+
+    /** Whether this recorder holds a use of its timer. */
+    @GuardedBy("this") private boolean registered;
+
+    /**
+     * Constructor.
+     * 
+     * @param category the kind of plugin, e.g. "resolver.connector"
+     * @param id the plugin's identifier
+     */
+    public PluginLatencyRecorder(@Nonnull @NotEmpty final String category, @Nonnull @NotEmpty final String id) {
+        metricName = MetricRegistry.name(METRIC_PREFIX, Constraint.isNotNull(category, "Category cannot be null"),
+                Constraint.isNotNull(id, "ID cannot be null"));
+    }
+
+    /**
+     * Get the name of the timer.
+     * 
+     * @return the metric name
+     */
+    @Nonnull @NotEmpty public String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Get the sample interval; one call in this many is timed, or none if 0.
+     * 
+     * @return the sample interval
+     */
+    @NonNegative public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Set the sample interval; one call in this many is timed, or none if 0.
+     * 
+     * @param interval the sample interval
+     */
+    public static void setSampleInterval(@NonNegative final int interval) {
+        sampleInterval = (int) Constraint.isGreaterThanOrEqual(0, interval, "Sample interval cannot be negative");
+    }
+
+    /**
+     * Decide whether to time this call and, if so, return the start time.
+     * 
+     * @return the start time, or {@link #NOT_SAMPLED}
+     */
+    public long start() {
+        final int interval = sampleInterval;
+        if (interval == 0 || (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0)) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time since a call to {@link #start()}, if that call was sampled.
+     * 
+     * @param start the value returned by {@link #start()}
+     */
+    public void stop(final long start) {
+        if (start == NOT_SAMPLED) {
+            return;
+        }
+        final long elapsed = System.nanoTime() - start;
+        final Timer t = getTimer();
+        if (t != null) {
+            t.update(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stop recording, and remove the timer from the registry if no other recorder is using it.
+     */
+    public synchronized void destroy() {
+        final Timer t = timer;
+        timer = null;
+        resolved = true;
+        if (!registered) {
+            return;
+        }
+        registered = false;
+
+        synchronized (TIMER_USERS) {
+            final Integer users = TIMER_USERS.get(metricName);
+            if (users != null && users > 1) {
+                TIMER_USERS.put(metricName, users - 1);
+                return;
+            }
+            TIMER_USERS.remove(metricName);
+            final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+            if (registry != null && registry.getMetrics().get(metricName) == t) {
+                registry.remove(metricName);
+            }
+        }
+    }
+
+    /**
+     * Get the timer, registering it on first use.
+     * 
+     * @return the timer, or null if it could not be registered
+     */
+    @Nullable private Timer getTimer() {
+        if (resolved) {
+            return timer;
+        } else if (System.currentTimeMillis() < nextAttempt) {
+            return null;
+        }
+
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry == null) {
+            // try again on the next sample
+            return null;
+        }
+
+        synchronized (this) {
+            if (!resolved) {
+                synchronized (TIMER_USERS) {
+                    Metric metric = registry.getMetrics().get(metricName);
+                    if (metric == null) {
+                        try {
+                            registry.register(metricName, new Timer(new LatencyReservoir()));
+                        } catch (final IllegalArgumentException e) {
+                            // registered outside of this class under the same name
+                        }
+                        metric = registry.getMetrics().get(metricName);
+                    }
+                    if (metric instanceof Timer) {
+                        final Integer users = TIMER_USERS.get(metricName);
+                        TIMER_USERS.put(metricName, users != null ? users + 1 : 1);
+                        registered = true;
+                        timer = (Timer) metric;
+                        resolved = true;
+                    } else {
+                        // declined by the registry's filter, which may change
+                        nextAttempt = System.currentTimeMillis() + RETRY_INTERVAL;
+                    }
+                }
+            }
+        }
+        return timer;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics.impl;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.metrics.PluginLatencyRecorder;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.metrics.MetricsSupport;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * A gauge summarizing the slowest plugins recorded by {@link PluginLatencyRecorder}, and a filter matching that
+ * gauge and all of the underlying timers.
+ * 
+ * <p>The gauge's value is a list of the slowest plugins, ordered by a configurable quantile of their latency,
+ * with each entry giving the plugin's timer name, sample count and latency summary in milliseconds.</p>
+ */
+public class PluginLatencyGaugeSet implements MetricSet, MetricFilter {
+
+    /** Name of the gauge. */
+    @Nonnull @NotEmpty public static final String SLOWEST_METRIC_NAME =
+            MetricRegistry.name(PluginLatencyRecorder.METRIC_PREFIX, "slowest");
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** The map of gauges. */
+    @Nonnull @NonnullElements private final Map<String,Metric> gauges;
+
+    /** Number of plugins to report. */
+    @Positive private int maxEntries;
+
+    /** Quantile to order plugins by. */
+    private double quantile;
+
+    /** Constructor. */
+    public PluginLatencyGaugeSet() {
+        maxEntries = 10;
+        quantile = 0.99;
+
+        gauges = Collections.<String,Metric>singletonMap(SLOWEST_METRIC_NAME,
+                new Gauge<List<Map<String,Object>>>() {
+                    public List<Map<String,Object>> getValue() {
+                        return getSlowest();
+                    }
+                });
+    }
+
+    /**
+     * Set the number of plugins to report.
+     * 
+     * @param max number of plugins
+     */
+    public void setMaxEntries(@Positive final int max) {
+        maxEntries = (int) Constraint.isGreaterThan(0, max, "Maximum entries must be greater than 0");
+    }
+
+    /**
+     * Set the quantile to order plugins by, e.g. 0.5 for the median.
+     * 
+     * @param q quantile between 0 and 1
+     */
+    public void setQuantile(final double q) {
+        Constraint.isTrue(q >= 0.0 && q <= 1.0, "Quantile must be between 0 and 1");
+        quantile = q;
+    }
+
+    /** {@inheritDoc} */
+    public Map<String,Metric> getMetrics() {
+        return gauges;
+    }
+
+    /** {@inheritDoc} */
+    public boolean matches(final String name, final Metric metric) {
+        return name.startsWith(PluginLatencyRecorder.METRIC_PREFIX + '.');
+    }
+
+    /**
+     * Build the list of the slowest plugins.
+     * 
+     * @return summaries of the slowest plugins, slowest first
+     */
+    @Nonnull @NonnullElements private List<Map<String,Object>> getSlowest() {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry == null) {
+            return Collections.emptyList();
+        }
+
+        final List<Map.Entry<String,Snapshot>> snapshots = new ArrayList<>();
+        for (final Map.Entry<String,Timer> entry : registry.getTimers(this).entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                snapshots.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                        entry.getValue().getSnapshot()));
+            }
+        }
+
+        final double q = quantile;
+        Collections.sort(snapshots, new Comparator<Map.Entry<String,Snapshot>>() {
+            public int compare(final Map.Entry<String,Snapshot> o1, final Map.Entry<String,Snapshot> o2) {
+                return Double.compare(o2.getValue().getValue(q), o1.getValue().getValue(q));
+            }
+        });
+
+        final List<Map<String,Object>> result = new ArrayList<>(Math.min(maxEntries, snapshots.size()));
+        for (final Map.Entry<String,Snapshot> entry : snapshots.subList(0, Math.min(maxEntries, snapshots.size()))) {
+            final Snapshot snapshot = entry.getValue();
+            final Map<String,Object> summary = new LinkedHashMap<>();
+            summary.put("name", entry.getKey().substring(PluginLatencyRecorder.METRIC_PREFIX.length() + 1));
+            summary.put("count", snapshot.size());
+            summary.put("mean", snapshot.getMean() / NANOS_PER_MILLI);
+            summary.put("p50", snapshot.getMedian() / NANOS_PER_MILLI);
+            summary.put("p95", snapshot.get95thPercentile() / NANOS_PER_MILLI);
+            summary.put("p99", snapshot.get99thPercentile() / NANOS_PER_MILLI);
+            summary.put("max", snapshot.getMax() / NANOS_PER_MILLI);
+            result.add(summary);
+        }
+        return result;
+    }
+
+}
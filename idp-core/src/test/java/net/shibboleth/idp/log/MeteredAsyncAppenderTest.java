@@ -0,0 +1,157 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/** Unit test for {@link MeteredAsyncAppender}. */
+public class MeteredAsyncAppenderTest {
+
+    private MetricRegistry registry;
+
+    private LoggerContext loggerContext;
+
+    private BlockingAppender target;
+
+    private MeteredAsyncAppender appender;
+
+    @BeforeMethod public void setUp() {
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+
+        loggerContext = new LoggerContext();
+        target = new BlockingAppender();
+        target.setContext(loggerContext);
+        target.start();
+
+        appender = new MeteredAsyncAppender();
+        appender.setName("test");
+        appender.setContext(loggerContext);
+        appender.setQueueSize(1);
+        appender.addAppender(target);
+    }
+
+    @AfterMethod public void tearDown() {
+        target.release.countDown();
+        appender.stop();
+        ConfigurationService.deregister(MetricRegistry.class);
+    }
+
+    @Test public void testDiscard() throws InterruptedException {
+        appender.setDiscardWhenFull(true);
+        appender.start();
+
+        // The first record is held by the destination, the second fills the queue and the third is discarded.
+        appender.doAppend(newEvent("one"));
+        Assert.assertTrue(target.started.await(5, TimeUnit.SECONDS));
+        appender.doAppend(newEvent("two"));
+        appender.doAppend(newEvent("three"));
+
+        Assert.assertEquals(appender.getDroppedRecordCount(), 1);
+        Assert.assertEquals(registry.counter(MeteredAsyncAppender.METRIC_PREFIX + ".test.dropped").getCount(), 1);
+        final Gauge<?> depth = registry.getGauges().get(MeteredAsyncAppender.METRIC_PREFIX + ".test.queueDepth");
+        Assert.assertEquals(depth.getValue(), 1);
+
+        target.release.countDown();
+        appender.stop();
+        Assert.assertEquals(target.messages.size(), 2);
+        Assert.assertEquals(target.messages.get(0), "one");
+        Assert.assertEquals(target.messages.get(1), "two");
+        Assert.assertNull(registry.getGauges().get(MeteredAsyncAppender.METRIC_PREFIX + ".test.queueDepth"));
+    }
+
+    @Test public void testBlock() throws InterruptedException {
+        appender.start();
+
+        appender.doAppend(newEvent("one"));
+        Assert.assertTrue(target.started.await(5, TimeUnit.SECONDS));
+        appender.doAppend(newEvent("two"));
+
+        // With the queue full, the caller waits rather than discarding the record.
+        final Thread caller = new Thread() {
+            public void run() {
+                appender.doAppend(newEvent("three"));
+            }
+        };
+        caller.start();
+        caller.join(200);
+        Assert.assertTrue(caller.isAlive());
+
+        target.release.countDown();
+        caller.join(5000);
+        Assert.assertFalse(caller.isAlive());
+        appender.stop();
+
+        Assert.assertEquals(appender.getDroppedRecordCount(), 0);
+        Assert.assertEquals(target.messages.size(), 3);
+    }
+
+    /**
+     * Create a record to log.
+     * 
+     * @param message the message
+     * 
+     * @return the record
+     */
+    private ILoggingEvent newEvent(final String message) {
+        return new LoggingEvent(MeteredAsyncAppenderTest.class.getName(), loggerContext.getLogger("test"), Level.INFO,
+                message, null, null);
+    }
+
+    /** Destination which holds up the first record it receives until released. */
+    private static class BlockingAppender extends AppenderBase<ILoggingEvent> {
+
+        /** Counted down when the first record arrives. */
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        /** Waited for before handling any record. */
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        /** Messages received. */
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        /** {@inheritDoc} */
+        @Override protected void append(final ILoggingEvent eventObject) {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(eventObject.getMessage());
+        }
+    }
+}
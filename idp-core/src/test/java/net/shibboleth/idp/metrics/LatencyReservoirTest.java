@@ -0,0 +1,106 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Snapshot;
+
+/** Unit test for {@link LatencyReservoir}. */
+public class LatencyReservoirTest {
+
+    @Test public void testSmallValues() {
+        for (int i = 0; i < LatencyReservoir.SUB_BUCKETS; i++) {
+            Assert.assertEquals(LatencyReservoir.getBucket(i), i);
+            Assert.assertEquals(LatencyReservoir.getBucketValue(i), i);
+        }
+        Assert.assertEquals(LatencyReservoir.getBucket(-5), 0);
+    }
+
+    @Test public void testBuckets() {
+        Assert.assertEquals(LatencyReservoir.getBucket(16), 16);
+        Assert.assertEquals(LatencyReservoir.getBucket(31), 31);
+        Assert.assertEquals(LatencyReservoir.getBucket(32), 32);
+        Assert.assertEquals(LatencyReservoir.getBucket(33), 32);
+        Assert.assertEquals(LatencyReservoir.getBucket(34), 33);
+        Assert.assertEquals(LatencyReservoir.getBucketValue(32), 33);
+
+        final int last = LatencyReservoir.getBucket(Long.MAX_VALUE);
+        Assert.assertEquals(LatencyReservoir.getBucket(1L << 40), last - LatencyReservoir.SUB_BUCKETS + 1);
+        Assert.assertEquals(LatencyReservoir.getBucket(1L << 41), last);
+    }
+
+    @Test public void testBucketValueError() {
+        int previous = 0;
+        for (long value = 1; value < (1L << 40); value += 1 + value / 7) {
+            final int bucket = LatencyReservoir.getBucket(value);
+            Assert.assertTrue(bucket >= previous, "Buckets must not decrease as values increase");
+            previous = bucket;
+            final long reported = LatencyReservoir.getBucketValue(bucket);
+            Assert.assertTrue(Math.abs(reported - value) <= value / 32.0, value + " reported as " + reported);
+        }
+    }
+
+    @Test public void testEmptySnapshot() {
+        final Snapshot snapshot = new LatencyReservoir().getSnapshot();
+        Assert.assertEquals(snapshot.size(), 0);
+        Assert.assertEquals(snapshot.getValue(0.5), 0.0);
+        Assert.assertEquals(snapshot.getMax(), 0);
+        Assert.assertEquals(snapshot.getMean(), 0.0);
+        Assert.assertEquals(snapshot.getValues().length, 0);
+    }
+
+    @Test public void testExactQuantiles() {
+        final LatencyReservoir reservoir = new LatencyReservoir();
+        for (int i = 1; i <= 10; i++) {
+            reservoir.update(i);
+        }
+        Assert.assertEquals(reservoir.size(), 10);
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(snapshot.size(), 10);
+        Assert.assertEquals(snapshot.getValue(0.0), 1.0);
+        Assert.assertEquals(snapshot.getMedian(), 5.0);
+        Assert.assertEquals(snapshot.getValue(0.9), 9.0);
+        Assert.assertEquals(snapshot.getValue(1.0), 10.0);
+        Assert.assertEquals(snapshot.getMin(), 1);
+        Assert.assertEquals(snapshot.getMax(), 10);
+        Assert.assertEquals(snapshot.getMean(), 5.5);
+        Assert.assertEquals(snapshot.getValues(), new long[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    }
+
+    @Test public void testApproximateQuantiles() {
+        final LatencyReservoir reservoir = new LatencyReservoir();
+        for (int i = 0; i < 99; i++) {
+            reservoir.update(1000000);
+        }
+        reservoir.update(1000000000);
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+        Assert.assertEquals(snapshot.getMedian(), 1000000, 1000000 / 32.0);
+        Assert.assertEquals(snapshot.getValue(0.99), 1000000, 1000000 / 32.0);
+        Assert.assertEquals(snapshot.getValue(1.0), 1000000000, 1000000000 / 32.0);
+        Assert.assertEquals(snapshot.getMax(), 1000000000, 1000000000 / 32.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testInvalidQuantile() {
+        new LatencyReservoir().getSnapshot().getValue(1.5);
+    }
+
+}
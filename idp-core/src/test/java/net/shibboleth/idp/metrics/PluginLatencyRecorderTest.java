@@ -0,0 +1,153 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/** Unit test for {@link PluginLatencyRecorder}. */
+public class PluginLatencyRecorderTest {
+
+    private MetricRegistry registry;
+
+    @BeforeMethod public void setUp() {
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+    }
+
+    @AfterMethod public void tearDown() {
+        ConfigurationService.deregister(MetricRegistry.class);
+        PluginLatencyRecorder.setSampleInterval(PluginLatencyRecorder.DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    @Test public void testName() {
+        Assert.assertEquals(new PluginLatencyRecorder("resolver.connector", "foo").getMetricName(),
+                PluginLatencyRecorder.METRIC_PREFIX + ".resolver.connector.foo");
+    }
+
+    @Test public void testSampling() {
+        final PluginLatencyRecorder recorder = new PluginLatencyRecorder("test", "sampling");
+
+        PluginLatencyRecorder.setSampleInterval(0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(recorder.start(), PluginLatencyRecorder.NOT_SAMPLED);
+        }
+
+        PluginLatencyRecorder.setSampleInterval(1);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotEquals(recorder.start(), PluginLatencyRecorder.NOT_SAMPLED);
+        }
+
+        PluginLatencyRecorder.setSampleInterval(10);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (recorder.start() != PluginLatencyRecorder.NOT_SAMPLED) {
+                sampled++;
+            }
+        }
+        Assert.assertTrue(sampled > 700 && sampled < 1300, "Sampled " + sampled + " of 10000");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testNegativeInterval() {
+        PluginLatencyRecorder.setSampleInterval(-1);
+    }
+
+    @Test public void testRecord() {
+        PluginLatencyRecorder.setSampleInterval(1);
+        final PluginLatencyRecorder recorder = new PluginLatencyRecorder("test", "record");
+
+        recorder.stop(PluginLatencyRecorder.NOT_SAMPLED);
+        Assert.assertNull(registry.getMetrics().get(recorder.getMetricName()));
+
+        recorder.stop(recorder.start());
+        recorder.stop(recorder.start());
+        final Timer timer = registry.getTimers().get(recorder.getMetricName());
+        Assert.assertNotNull(timer);
+        Assert.assertEquals(timer.getCount(), 2);
+
+        recorder.destroy();
+        Assert.assertNull(registry.getMetrics().get(recorder.getMetricName()));
+        recorder.stop(recorder.start());
+        Assert.assertEquals(timer.getCount(), 2);
+    }
+
+    @Test public void testSharedTimer() {
+        PluginLatencyRecorder.setSampleInterval(1);
+        final PluginLatencyRecorder oldRecorder = new PluginLatencyRecorder("test", "shared");
+        final PluginLatencyRecorder newRecorder = new PluginLatencyRecorder("test", "shared");
+
+        oldRecorder.stop(oldRecorder.start());
+        newRecorder.stop(newRecorder.start());
+        final Timer timer = registry.getTimers().get(oldRecorder.getMetricName());
+        Assert.assertEquals(timer.getCount(), 2);
+
+        oldRecorder.destroy();
+        Assert.assertSame(registry.getMetrics().get(newRecorder.getMetricName()), timer);
+        newRecorder.stop(newRecorder.start());
+        Assert.assertEquals(timer.getCount(), 3);
+
+        newRecorder.destroy();
+        Assert.assertNull(registry.getMetrics().get(newRecorder.getMetricName()));
+    }
+
+    @Test public void testDeclined() {
+        final MetricRegistry filtered = new MetricRegistry() {
+            public <T extends Metric> T register(final String name, final T metric) {
+                return metric;
+            }
+        };
+        ConfigurationService.register(MetricRegistry.class, filtered);
+        PluginLatencyRecorder.setSampleInterval(1);
+        final PluginLatencyRecorder recorder = new PluginLatencyRecorder("test", "declined");
+
+        recorder.stop(recorder.start());
+        recorder.stop(recorder.start());
+        Assert.assertTrue(filtered.getMetrics().isEmpty());
+        recorder.destroy();
+    }
+
+    @Test public void testOtherMetric() {
+        PluginLatencyRecorder.setSampleInterval(1);
+        final PluginLatencyRecorder recorder = new PluginLatencyRecorder("test", "other");
+        registry.counter(recorder.getMetricName());
+
+        recorder.stop(recorder.start());
+        recorder.destroy();
+        Assert.assertNotNull(registry.getCounters().get(recorder.getMetricName()));
+    }
+
+    @Test public void testTimerUnits() {
+        PluginLatencyRecorder.setSampleInterval(1);
+        final PluginLatencyRecorder recorder = new PluginLatencyRecorder("test", "units");
+
+        recorder.stop(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        final Timer timer = registry.getTimers().get(recorder.getMetricName());
+        Assert.assertTrue(timer.getSnapshot().getMax() >= TimeUnit.MILLISECONDS.toNanos(5) * 31 / 32);
+        recorder.destroy();
+    }
+
+}
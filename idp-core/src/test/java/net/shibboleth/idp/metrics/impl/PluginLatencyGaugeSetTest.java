@@ -0,0 +1,91 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.metrics.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.shibboleth.idp.metrics.LatencyReservoir;
+import net.shibboleth.idp.metrics.PluginLatencyRecorder;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/** Unit test for {@link PluginLatencyGaugeSet}. */
+public class PluginLatencyGaugeSetTest {
+
+    private MetricRegistry registry;
+
+    @BeforeMethod public void setUp() {
+        registry = new MetricRegistry();
+        ConfigurationService.register(MetricRegistry.class, registry);
+    }
+
+    @AfterMethod public void tearDown() {
+        ConfigurationService.deregister(MetricRegistry.class);
+    }
+
+    @Test public void testFilter() {
+        final PluginLatencyGaugeSet gaugeSet = new PluginLatencyGaugeSet();
+        Assert.assertTrue(gaugeSet.matches(PluginLatencyGaugeSet.SLOWEST_METRIC_NAME, null));
+        Assert.assertTrue(gaugeSet.matches(PluginLatencyRecorder.METRIC_PREFIX + ".resolver.plugin.foo", null));
+        Assert.assertFalse(gaugeSet.matches(PluginLatencyRecorder.METRIC_PREFIX + "foo", null));
+        Assert.assertFalse(gaugeSet.matches("net.shibboleth.idp.other", null));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testSlowest() {
+        addTimer("fast", 1);
+        addTimer("slow", 100);
+        addTimer("medium", 10);
+        registry.register(PluginLatencyRecorder.METRIC_PREFIX + ".unused", new Timer(new LatencyReservoir()));
+
+        final PluginLatencyGaugeSet gaugeSet = new PluginLatencyGaugeSet();
+        gaugeSet.setMaxEntries(2);
+        final Gauge<List<Map<String,Object>>> gauge = (Gauge<List<Map<String,Object>>>)
+                gaugeSet.getMetrics().get(PluginLatencyGaugeSet.SLOWEST_METRIC_NAME);
+
+        final List<Map<String,Object>> slowest = gauge.getValue();
+        Assert.assertEquals(slowest.size(), 2);
+        Assert.assertEquals(slowest.get(0).get("name"), "slow");
+        Assert.assertEquals(slowest.get(0).get("count"), 1);
+        Assert.assertEquals((Double) slowest.get(0).get("p99"), 100.0, 100.0 / 32);
+        Assert.assertEquals(slowest.get(1).get("name"), "medium");
+    }
+
+    /**
+     * Register a plugin timer with a single value.
+     * 
+     * @param name plugin name
+     * @param millis value to record
+     */
+    private void addTimer(final String name, final long millis) {
+        final Timer timer = new Timer(new LatencyReservoir());
+        timer.update(millis, TimeUnit.MILLISECONDS);
+        registry.register(PluginLatencyRecorder.METRIC_PREFIX + '.' + name, timer);
+    }
+
+}
@@ -19,18 +19,22 @@ package net.shibboleth.idp.profile.logic;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import net.shibboleth.idp.profile.context.navigate.RelyingPartyIdLookupFunction;
 import net.shibboleth.utilities.java.support.annotation.ParameterName;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
 import net.shibboleth.utilities.java.support.logic.StrategyIndirectedPredicate;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 import org.opensaml.profile.context.ProfileRequestContext;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
 
 /**
  * Predicate that evaluates a {@link ProfileRequestContext} by looking for a relying party ID
@@ -39,6 +43,9 @@ import com.google.common.base.Predicate;
  */
 public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<ProfileRequestContext,String> {
 
+    /** The hardwired set of values to check against, if any. */
+    @Nullable @NonnullElements @Unmodifiable private final Set<String> candidateIds;
+
     /**
      * Constructor.
      * 
@@ -47,6 +54,7 @@ public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<Profile
     public RelyingPartyIdPredicate(
             @Nonnull @NonnullElements @ParameterName(name="candidates") final Collection<String> candidates) {
         super(new RelyingPartyIdLookupFunction(), StringSupport.normalizeStringCollection(candidates));
+        candidateIds = ImmutableSet.copyOf(StringSupport.normalizeStringCollection(candidates));
     }
 
     /**
@@ -65,6 +73,16 @@ public class RelyingPartyIdPredicate extends StrategyIndirectedPredicate<Profile
      */
     public RelyingPartyIdPredicate(@Nonnull @ParameterName(name="pred") final Predicate<String> pred) {
         super(new RelyingPartyIdLookupFunction(), pred);
+        candidateIds = null;
+    }
+
+    /**
+     * Get the hardwired set of values to check against.
+     * 
+     * @return the values, or null if a generalized predicate is in use
+     */
+    @Nullable @NonnullElements @Unmodifiable public Set<String> getCandidates() {
+        return candidateIds;
     }
     
 }
\ No newline at end of file
@@ -244,6 +244,15 @@ public class RelyingPartyConfiguration extends AbstractIdentifiableInitializable
         profileConfigurationsLookupStrategy = strategy;
     }
 
+    /**
+     * Get the condition under which the relying party configuration should be active.
+     * 
+     * @return the activation condition
+     */
+    @Nonnull public Predicate<ProfileRequestContext> getActivationCondition() {
+        return activationCondition;
+    }
+
     /**
      * Set the condition under which the relying party configuration should be active.
      * 
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -52,6 +53,9 @@ import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 /**
@@ -62,7 +66,15 @@ import com.google.common.collect.ImmutableMap;
 public class WriteAuditLog extends AbstractProfileAction {
 
     /** Formatter used to convert timestamps to strings. */
-    private static DateTimeFormatter v2Formatter = ISODateTimeFormat.basicDateTimeNoMillis();
+    private static DateTimeFormatter v2Formatter = ISODateTimeFormat.basicDateTimeNoMillis().withZone(DateTimeZone.UTC);
+
+    /** Most recently formatted event time, reused by every record logged in the same second. */
+    @Nonnull private static final AtomicReference<FormattedTime> LAST_EVENT_TIME =
+            new AtomicReference<>(new FormattedTime(-1, ""));
+
+    /** Compiled formats shared across instances, keyed by formatting string. */
+    @Nonnull private static final Cache<String,CompiledFormat> COMPILED_FORMATS =
+            CacheBuilder.newBuilder().maximumSize(100).build();
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(WriteAuditLog.class);
@@ -70,8 +82,8 @@ public class WriteAuditLog extends AbstractProfileAction {
     /** Strategy used to locate the {@link AuditContext} associated with a given {@link ProfileRequestContext}. */
     @Nonnull private Function<ProfileRequestContext,AuditContext> auditContextLookupStrategy;
     
-    /** Map of log category to formatting tokens and literals to output. */
-    @Nonnull @NotEmpty private Map<String,List<String>> formattingMap;
+    /** Map of log category to compiled formatting tokens and literals to output. */
+    @Nonnull @NotEmpty private Map<String,CompiledFormat> formattingMap;
 
     /** The Spring RequestContext to operate on. */
     @Nullable private RequestContext requestContext;
@@ -106,10 +118,13 @@ public class WriteAuditLog extends AbstractProfileAction {
      * @return map of formatting tokens
      */
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Map<String,List<String>> getFormattingMap() {
-        return ImmutableMap.copyOf(formattingMap);
+        final ImmutableMap.Builder<String,List<String>> builder = ImmutableMap.builder();
+        for (final Map.Entry<String,CompiledFormat> entry : formattingMap.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().getTokens());
+        }
+        return builder.build();
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /**
      * Set the map of logging category to formatting strings for log entries.
      * 
@@ -117,6 +132,9 @@ public class WriteAuditLog extends AbstractProfileAction {
      * Tokens can contain any letter or number or a hyphen. Anything other than a token, including whitespace, is
      * a literal.</p>
      * 
+     * <p>Each formatting string is compiled once into a sequence of field extractors, and the result is shared with
+     * any other instance using the same string.</p>
+     * 
      * @param map map of categories to formatting strings
      */
     public void setFormattingMap(@Nonnull @NonnullElements final Map<String,String> map) {
@@ -132,38 +150,14 @@ public class WriteAuditLog extends AbstractProfileAction {
                 continue;
             }
             
-            final int len = s.length();
-            boolean inToken = false;
-            final List<String> format = new ArrayList<>();
-            final StringBuilder field = new StringBuilder();
-            for (int pos = 0; pos < len; ++pos) {
-                final char ch = s.charAt(pos);
-                if (inToken) {
-                    if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
-                        format.add(field.toString());
-                        field.setLength(0);
-                        inToken = false;
-                    }
-                } else if (ch == '%') {
-                    if (field.length() > 0) {
-                        format.add(field.toString());
-                        field.setLength(0);
-                    }
-                    inToken = true;
-                }
-                
-                field.append(ch);
-            }
-            
-            if (field.length() > 0) {
-                format.add(field.toString());
+            CompiledFormat format = COMPILED_FORMATS.getIfPresent(s);
+            if (format == null) {
+                format = compile(s);
+                COMPILED_FORMATS.put(s, format);
             }
-            
             formattingMap.put(category, format);
         }
     }
-// Checkstyle: CyclomaticComplexity ON
-
 
     /** {@inheritDoc} */
     @Override
@@ -188,52 +182,16 @@ public class WriteAuditLog extends AbstractProfileAction {
         return true;
     }
     
-// Checkstyle: CyclomaticComplexity OFF
     /** {@inheritDoc} */
     @Override
     protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext) {
 
-        for (final Map.Entry<String,List<String>> entry : formattingMap.entrySet()) {
+        for (final Map.Entry<String,CompiledFormat> entry : formattingMap.entrySet()) {
         
-            final StringBuilder record = new StringBuilder();
+            final StringBuilder record = new StringBuilder(256);
     
-            for (final String token : entry.getValue()) {
-                if (token.startsWith("%")) {
-                    if (token.length() == 1 || token.charAt(1) == '%') {
-                        record.append('%');
-                    } else {
-                        final String field = token.substring(1);
-                        
-                        if (IdPAuditFields.EVENT_TIME.equals(field)) {
-                            record.append(new DateTime().toString(v2Formatter.withZone(DateTimeZone.UTC)));
-                        } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
-                            final Event event = requestContext.getCurrentEvent();
-                            if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
-                                record.append(event.getId());
-                            }
-                        } else if (IdPAuditFields.PROFILE.equals(field)) {
-                            record.append(profileRequestContext.getProfileId());
-                        } else if (IdPAuditFields.REMOTE_ADDR.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRemoteAddr());
-                        } else if (IdPAuditFields.URI.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURI());
-                        } else if (IdPAuditFields.URL.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getRequestURL());
-                        } else if (IdPAuditFields.USER_AGENT.equals(field) && httpRequest != null) {
-                            record.append(httpRequest.getHeader("User-Agent"));
-                        } else if (auditCtx != null) {
-                            final Iterator<String> iter = auditCtx.getFieldValues(field).iterator();
-                            while (iter.hasNext()) {
-                                record.append(iter.next());
-                                if (iter.hasNext()) {
-                                    record.append(',');
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    record.append(token);
-                }
+            for (final AuditField field : entry.getValue().getFields()) {
+                field.append(this, profileRequestContext, record);
             }
             
             filter(record);
@@ -242,7 +200,6 @@ public class WriteAuditLog extends AbstractProfileAction {
                     + profileRequestContext.getLoggingId()).info(record.toString());
         }
     }
-// Checkstyle: CyclomaticComplexity ON
     
     /**
      * Optional override to filter the outgoing log message, does nothing by default.
@@ -253,4 +210,305 @@ public class WriteAuditLog extends AbstractProfileAction {
         
     }
     
+// Checkstyle: CyclomaticComplexity OFF
+    /**
+     * Split a formatting string into tokens and literals, and compile each into a field extractor.
+     * 
+     * @param s formatting string
+     * 
+     * @return the compiled format
+     */
+    @Nonnull private static CompiledFormat compile(@Nonnull @NotEmpty final String s) {
+        final int len = s.length();
+        boolean inToken = false;
+        final List<String> format = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        for (int pos = 0; pos < len; ++pos) {
+            final char ch = s.charAt(pos);
+            if (inToken) {
+                if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '%') {
+                    format.add(field.toString());
+                    field.setLength(0);
+                    inToken = false;
+                }
+            } else if (ch == '%') {
+                if (field.length() > 0) {
+                    format.add(field.toString());
+                    field.setLength(0);
+                }
+                inToken = true;
+            }
+            
+            field.append(ch);
+        }
+        
+        if (field.length() > 0) {
+            format.add(field.toString());
+        }
+
+        final AuditField[] fields = new AuditField[format.size()];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = compileToken(format.get(i));
+        }
+        return new CompiledFormat(format, fields);
+    }
+
+    /**
+     * Compile a single token or literal into a field extractor.
+     * 
+     * @param token the token or literal
+     * 
+     * @return the field extractor
+     */
+    @Nonnull private static AuditField compileToken(@Nonnull final String token) {
+        if (!token.startsWith("%")) {
+            return new LiteralField(token);
+        } else if (token.length() == 1 || token.charAt(1) == '%') {
+            return new LiteralField("%");
+        }
+        
+        final String field = token.substring(1);
+        if (IdPAuditFields.EVENT_TIME.equals(field)) {
+            return new AuditField() {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    record.append(getEventTime());
+                }
+            };
+        } else if (IdPAuditFields.EVENT_TYPE.equals(field)) {
+            return new AuditField() {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    final Event event = action.requestContext.getCurrentEvent();
+                    if (event != null && !event.getId().equals(EventIds.PROCEED_EVENT_ID)) {
+                        record.append(event.getId());
+                    }
+                }
+            };
+        } else if (IdPAuditFields.PROFILE.equals(field)) {
+            return new AuditField() {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    record.append(profileRequestContext.getProfileId());
+                }
+            };
+        } else if (IdPAuditFields.REMOTE_ADDR.equals(field)) {
+            return new ContextField(field) {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    if (action.httpRequest != null) {
+                        record.append(action.httpRequest.getRemoteAddr());
+                    } else {
+                        super.append(action, profileRequestContext, record);
+                    }
+                }
+            };
+        } else if (IdPAuditFields.URI.equals(field)) {
+            return new ContextField(field) {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    if (action.httpRequest != null) {
+                        record.append(action.httpRequest.getRequestURI());
+                    } else {
+                        super.append(action, profileRequestContext, record);
+                    }
+                }
+            };
+        } else if (IdPAuditFields.URL.equals(field)) {
+            return new ContextField(field) {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    if (action.httpRequest != null) {
+                        record.append(action.httpRequest.getRequestURL());
+                    } else {
+                        super.append(action, profileRequestContext, record);
+                    }
+                }
+            };
+        } else if (IdPAuditFields.USER_AGENT.equals(field)) {
+            return new ContextField(field) {
+                public void append(@Nonnull final WriteAuditLog action,
+                        @Nonnull final ProfileRequestContext profileRequestContext,
+                        @Nonnull final StringBuilder record) {
+                    if (action.httpRequest != null) {
+                        record.append(action.httpRequest.getHeader("User-Agent"));
+                    } else {
+                        super.append(action, profileRequestContext, record);
+                    }
+                }
+            };
+        } else {
+            return new ContextField(field);
+        }
+    }
+// Checkstyle: CyclomaticComplexity ON
+
+    /**
+     * Get the current time in the audit log's format, formatting it at most once per second.
+     * 
+     * @return the formatted time
+     */
+    @Nonnull private static String getEventTime() {
+        final long second = System.currentTimeMillis() / 1000;
+        FormattedTime time = LAST_EVENT_TIME.get();
+        if (time.getSecond() != second) {
+            time = new FormattedTime(second, new DateTime(second * 1000).toString(v2Formatter));
+            LAST_EVENT_TIME.set(time);
+        }
+        return time.getText();
+    }
+
+    /** Extracts one field of an audit record. */
+    private abstract static class AuditField {
+
+        /**
+         * Append the field's value to a record.
+         * 
+         * @param action the action writing the record
+         * @param profileRequestContext the current profile request context
+         * @param record the record being built
+         */
+        public abstract void append(@Nonnull final WriteAuditLog action,
+                @Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final StringBuilder record);
+    }
+
+    /** A literal. */
+    private static class LiteralField extends AuditField {
+
+        /** The literal text. */
+        @Nonnull private final String text;
+
+        /**
+         * Constructor.
+         * 
+         * @param literal the literal text
+         */
+        public LiteralField(@Nonnull final String literal) {
+            text = literal;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void append(@Nonnull final WriteAuditLog action,
+                @Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final StringBuilder record) {
+            record.append(text);
+        }
+    }
+
+    /** A field whose values are taken from the {@link AuditContext}. */
+    private static class ContextField extends AuditField {
+
+        /** The field name. */
+        @Nonnull @NotEmpty private final String name;
+
+        /**
+         * Constructor.
+         * 
+         * @param field the field name
+         */
+        public ContextField(@Nonnull @NotEmpty final String field) {
+            name = field;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void append(@Nonnull final WriteAuditLog action,
+                @Nonnull final ProfileRequestContext profileRequestContext, @Nonnull final StringBuilder record) {
+            if (action.auditCtx != null) {
+                final Iterator<String> iter = action.auditCtx.getFieldValues(name).iterator();
+                while (iter.hasNext()) {
+                    record.append(iter.next());
+                    if (iter.hasNext()) {
+                        record.append(',');
+                    }
+                }
+            }
+        }
+    }
+
+    /** A formatting string split into tokens, with the field extractor for each. */
+    private static final class CompiledFormat {
+
+        /** The formatting tokens and literals. */
+        @Nonnull @NonnullElements @Unmodifiable private final List<String> tokens;
+
+        /** The field extractor for each token. */
+        @Nonnull @NonnullElements private final AuditField[] fields;
+
+        /**
+         * Constructor.
+         * 
+         * @param formatTokens the formatting tokens and literals
+         * @param formatFields the field extractor for each token
+         */
+        public CompiledFormat(@Nonnull @NonnullElements final List<String> formatTokens,
+                @Nonnull @NonnullElements final AuditField[] formatFields) {
+            tokens = ImmutableList.copyOf(formatTokens);
+            fields = formatFields;
+        }
+
+        /**
+         * Get the formatting tokens and literals.
+         * 
+         * @return the tokens
+         */
+        @Nonnull @NonnullElements @Unmodifiable public List<String> getTokens() {
+            return tokens;
+        }
+
+        /**
+         * Get the field extractor for each token.
+         * 
+         * @return the field extractors
+         */
+        @Nonnull @NonnullElements public AuditField[] getFields() {
+            return fields;
+        }
+    }
+
+    /** A formatted timestamp and the second it represents. */
+    private static final class FormattedTime {
+
+        /** Seconds since the epoch. */
+        private final long second;
+
+        /** The formatted time. */
+        @Nonnull private final String text;
+
+        /**
+         * Constructor.
+         * 
+         * @param epochSecond seconds since the epoch
+         * @param formatted the formatted time
+         */
+        public FormattedTime(final long epochSecond, @Nonnull final String formatted) {
+            second = epochSecond;
+            text = formatted;
+        }
+
+        /**
+         * Get the seconds since the epoch.
+         * 
+         * @return seconds since the epoch
+         */
+        public long getSecond() {
+            return second;
+        }
+
+        /**
+         * Get the formatted time.
+         * 
+         * @return the formatted time
+         */
+        @Nonnull public String getText() {
+            return text;
+        }
+    }
+
 }
\ No newline at end of file
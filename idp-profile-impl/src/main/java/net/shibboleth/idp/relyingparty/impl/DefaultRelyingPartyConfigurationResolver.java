@@ -23,20 +23,25 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.shibboleth.ext.spring.service.AbstractServiceableComponent;
 import net.shibboleth.idp.profile.config.SecurityConfiguration;
+import net.shibboleth.idp.profile.context.navigate.RelyingPartyIdLookupFunction;
+import net.shibboleth.idp.profile.logic.RelyingPartyIdPredicate;
 import net.shibboleth.idp.profile.logic.VerifiedProfilePredicate;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfiguration;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfigurationResolver;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotLive;
 import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.component.IdentifiableComponent;
@@ -49,8 +54,11 @@ import org.opensaml.security.credential.Credential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -61,6 +69,13 @@ import com.google.common.collect.ImmutableMap;
  * <p>
  * Note that this resolver does not permit more than one {@link RelyingPartyConfiguration} with the same ID.
  * </p>
+ * 
+ * <p>
+ * Configurations activated by a {@link RelyingPartyIdPredicate} with a fixed set of IDs are indexed by relying
+ * party ID on initialization, so only those matching the request, and those with other activation conditions, are
+ * evaluated. An optional cache of the result of {@link #resolveSingle(ProfileRequestContext)} by relying party and
+ * profile may also be enabled.
+ * </p>
  */
 public class DefaultRelyingPartyConfigurationResolver
         extends AbstractServiceableComponent<RelyingPartyConfigurationResolver>
@@ -72,6 +87,21 @@ public class DefaultRelyingPartyConfigurationResolver
     /** Registered relying party configurations. */
     @Nonnull private List<RelyingPartyConfiguration> rpConfigurations;
 
+    /** Configurations which cannot be selected by relying party ID, in order. */
+    @NonnullAfterInit private List<RelyingPartyConfiguration> unindexedConfigurations;
+
+    /** Candidate configurations for each indexed relying party ID, in order, including the unindexed ones. */
+    @NonnullAfterInit private Map<String,List<RelyingPartyConfiguration>> indexedConfigurations;
+
+    /** Strategy used to obtain the relying party ID, matching that of {@link RelyingPartyIdPredicate}. */
+    @Nonnull private final Function<ProfileRequestContext,String> relyingPartyIdLookupStrategy;
+
+    /** Maximum number of cached results of {@link #resolveSingle(ProfileRequestContext)}, or 0 for none. */
+    @NonNegative private long resolutionCacheSize;
+
+    /** Cached results of {@link #resolveSingle(ProfileRequestContext)} by relying party ID and profile ID. */
+    @Nullable private Cache<Pair<String,String>,RelyingPartyConfiguration> resolutionCache;
+
     /** Unverified relying party configuration, used if the request is unverified. */
     @Nullable private RelyingPartyConfiguration unverifiedConfiguration;
 
@@ -100,6 +130,7 @@ public class DefaultRelyingPartyConfigurationResolver
         securityConfigurationMap = Collections.emptyMap();
         signingCredentials = Collections.emptyList();
         encryptionCredentials = Collections.emptyList();
+        relyingPartyIdLookupStrategy = new RelyingPartyIdLookupFunction();
     }
 
     /**
@@ -227,6 +258,23 @@ public class DefaultRelyingPartyConfigurationResolver
         defaultSecurityConfiguration = config;
     }
 
+    /**
+     * Set the maximum number of results of {@link #resolveSingle(ProfileRequestContext)} to cache by relying party
+     * and profile.
+     * 
+     * <p>Defaults to 0, which disables the cache. The cache is discarded along with the resolver when the
+     * configuration is reloaded, but it is only appropriate if the activation conditions depend on nothing but the
+     * relying party and profile, since a cached result will not reflect changes to anything else, such as
+     * refreshed metadata.</p>
+     * 
+     * @param size maximum number of cached results
+     */
+    public void setResolutionCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        resolutionCacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size cannot be negative");
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -239,6 +287,58 @@ public class DefaultRelyingPartyConfigurationResolver
             }
             configIds.add(config.getId());
         }
+
+        final List<RelyingPartyConfiguration> unindexed = new ArrayList<>();
+        final Map<String,List<RelyingPartyConfiguration>> indexed = new HashMap<>();
+        for (final RelyingPartyConfiguration config : rpConfigurations) {
+            final Set<String> relyingPartyIds = config.getActivationCondition() instanceof RelyingPartyIdPredicate
+                    ? ((RelyingPartyIdPredicate) config.getActivationCondition()).getCandidates() : null;
+            if (relyingPartyIds == null) {
+                unindexed.add(config);
+                for (final List<RelyingPartyConfiguration> candidates : indexed.values()) {
+                    candidates.add(config);
+                }
+            } else {
+                for (final String relyingPartyId : relyingPartyIds) {
+                    List<RelyingPartyConfiguration> candidates = indexed.get(relyingPartyId);
+                    if (candidates == null) {
+                        candidates = new ArrayList<>(unindexed);
+                        indexed.put(relyingPartyId, candidates);
+                    }
+                    candidates.add(config);
+                }
+            }
+        }
+
+        unindexedConfigurations = ImmutableList.copyOf(unindexed);
+        indexedConfigurations = new HashMap<>(indexed.size());
+        for (final Map.Entry<String,List<RelyingPartyConfiguration>> entry : indexed.entrySet()) {
+            indexedConfigurations.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        log.debug("Indexed {} of {} relying party configurations by relying party ID",
+                rpConfigurations.size() - unindexedConfigurations.size(), rpConfigurations.size());
+
+        if (resolutionCacheSize > 0) {
+            resolutionCache = CacheBuilder.newBuilder().maximumSize(resolutionCacheSize).build();
+        }
+    }
+
+    /**
+     * Get the configurations which might be applicable to a request, in order.
+     * 
+     * @param relyingPartyId the relying party ID, if any
+     * 
+     * @return the candidate configurations
+     */
+    @Nonnull @NonnullElements private List<RelyingPartyConfiguration> getCandidateConfigurations(
+            @Nullable final String relyingPartyId) {
+        if (relyingPartyId != null) {
+            final List<RelyingPartyConfiguration> candidates = indexedConfigurations.get(relyingPartyId);
+            if (candidates != null) {
+                return candidates;
+            }
+        }
+        return unindexedConfigurations;
     }
 
     /** {@inheritDoc} */
@@ -263,7 +363,8 @@ public class DefaultRelyingPartyConfigurationResolver
 
         final ArrayList<RelyingPartyConfiguration> matches = new ArrayList<>();
 
-        for (final RelyingPartyConfiguration configuration : rpConfigurations) {
+        for (final RelyingPartyConfiguration configuration
+                : getCandidateConfigurations(relyingPartyIdLookupStrategy.apply(context))) {
             log.debug("Checking if relying party configuration {} is applicable", configuration.getId());
             if (configuration.apply(context)) {
                 log.debug("Relying party configuration {} is applicable", configuration.getId());
@@ -301,7 +402,35 @@ public class DefaultRelyingPartyConfigurationResolver
             return getUnverifiedConfiguration();
         }
 
-        for (final RelyingPartyConfiguration configuration : rpConfigurations) {
+        final String relyingPartyId = relyingPartyIdLookupStrategy.apply(context);
+        if (resolutionCache != null && relyingPartyId != null) {
+            final Pair<String,String> key = new Pair<>(relyingPartyId, context.getProfileId());
+            final RelyingPartyConfiguration cached = resolutionCache.getIfPresent(key);
+            if (cached != null) {
+                log.debug("Returning cached relying party configuration {}", cached.getId());
+                return cached;
+            }
+            final RelyingPartyConfiguration configuration = doResolveSingle(context, relyingPartyId);
+            if (configuration != null) {
+                resolutionCache.put(key, configuration);
+            }
+            return configuration;
+        }
+        
+        return doResolveSingle(context, relyingPartyId);
+    }
+
+    /**
+     * Find the first applicable verified configuration, or the default configuration.
+     * 
+     * @param context current profile request context
+     * @param relyingPartyId the relying party ID, if any
+     * 
+     * @return the configuration to use
+     */
+    @Nullable private RelyingPartyConfiguration doResolveSingle(@Nonnull final ProfileRequestContext context,
+            @Nullable final String relyingPartyId) {
+        for (final RelyingPartyConfiguration configuration : getCandidateConfigurations(relyingPartyId)) {
             log.debug("Checking if relying party configuration {} is applicable", configuration.getId());
             if (configuration.apply(context)) {
                 log.debug("Relying party configuration {} is applicable", configuration.getId());
@@ -141,6 +141,29 @@ public class WriteAuditLogTest {
     }
 
 
+    @Test public void testServletFieldWithoutRequest() throws ComponentInitializationException {
+        final AuditContext ac = prc.getSubcontext(AuditContext.class, true);
+        ac.getFieldValues("a").add("10.0.0.1");
+        
+        action.setHttpServletRequest(null);
+        action.setFormattingMap(Collections.singletonMap("category", "%a|%P|%%"));
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertEquals(action.getResult(), "10.0.0.1|" + prc.getProfileId() + "|%");
+    }
+
+    @Test public void testEventTime() throws ComponentInitializationException {
+        action.setFormattingMap(Collections.singletonMap("category", "%T"));
+        action.initialize();
+        
+        final Event event = action.execute(src);
+        ActionTestingSupport.assertProceedEvent(event);
+        Assert.assertTrue(action.getResult().matches("\\d{8}T\\d{6}Z"), action.getResult());
+    }
+
+
     /**
      * Subclass for testing purposes that grants access to the built log entry.
      */
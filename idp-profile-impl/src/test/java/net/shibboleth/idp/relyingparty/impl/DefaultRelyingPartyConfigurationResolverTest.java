@@ -18,10 +18,13 @@
 package net.shibboleth.idp.relyingparty.impl;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.profile.logic.RelyingPartyIdPredicate;
 import net.shibboleth.idp.relyingparty.RelyingPartyConfiguration;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 
@@ -29,6 +32,7 @@ import org.opensaml.profile.context.ProfileRequestContext;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 
 /** Unit test for {@link DefaultRelyingPartyConfigurationResolver}. */
@@ -206,4 +210,77 @@ public class DefaultRelyingPartyConfigurationResolverTest {
         result = resolver.resolveSingle(null);
         Assert.assertNull(result);
     }
-}
\ No newline at end of file
+
+    @Test public void testIndexedResolve() throws Exception {
+        final RelyingPartyConfiguration defaultRP = newConfiguration("defaultRPId", null);
+        final RelyingPartyConfiguration one = newConfiguration("one",
+                new RelyingPartyIdPredicate(Arrays.asList("https://sp1.example.org", "https://sp2.example.org")));
+        final RelyingPartyConfiguration two = newConfiguration("two",
+                Predicates.<ProfileRequestContext>alwaysFalse());
+        final RelyingPartyConfiguration three = newConfiguration("three",
+                new RelyingPartyIdPredicate("https://sp2.example.org"));
+        final RelyingPartyConfiguration four = newConfiguration("four", null);
+
+        final DefaultRelyingPartyConfigurationResolver resolver = new DefaultRelyingPartyConfigurationResolver();
+        resolver.setId("test");
+        resolver.setRelyingPartyConfigurations(Arrays.asList(one, two, three, four));
+        resolver.setDefaultConfiguration(defaultRP);
+        resolver.initialize();
+
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp1.example.org", "profile")), one);
+        Assert.assertEquals(resolver.resolve(newContext("https://sp2.example.org", "profile")),
+                Arrays.asList(one, three, four));
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp3.example.org", "profile")), four);
+        Assert.assertEquals(resolver.resolve(newContext("https://sp3.example.org", "profile")),
+                Collections.singletonList(four));
+        Assert.assertSame(resolver.resolveSingle(newContext(null, "profile")), four);
+    }
+
+    @Test public void testResolutionCache() throws Exception {
+        final RelyingPartyConfiguration defaultRP = newConfiguration("defaultRPId", null);
+        final AtomicInteger evaluations = new AtomicInteger();
+        final RelyingPartyConfiguration one = newConfiguration("one", new Predicate<ProfileRequestContext>() {
+            public boolean apply(final ProfileRequestContext input) {
+                evaluations.incrementAndGet();
+                return "profile".equals(input.getProfileId());
+            }
+        });
+
+        final DefaultRelyingPartyConfigurationResolver resolver = new DefaultRelyingPartyConfigurationResolver();
+        resolver.setId("test");
+        resolver.setRelyingPartyConfigurations(Collections.singletonList(one));
+        resolver.setDefaultConfiguration(defaultRP);
+        resolver.setResolutionCacheSize(10);
+        resolver.initialize();
+
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp1.example.org", "profile")), one);
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp1.example.org", "profile")), one);
+        Assert.assertEquals(evaluations.get(), 1);
+
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp1.example.org", "other")), defaultRP);
+        Assert.assertSame(resolver.resolveSingle(newContext("https://sp2.example.org", "profile")), one);
+        Assert.assertEquals(evaluations.get(), 3);
+    }
+
+    private ProfileRequestContext newContext(final String relyingPartyId, final String profileId) {
+        final ProfileRequestContext requestContext = new ProfileRequestContext();
+        requestContext.setProfileId(profileId);
+        final RelyingPartyContext rpCtx = requestContext.getSubcontext(RelyingPartyContext.class, true);
+        rpCtx.setVerified(true);
+        rpCtx.setRelyingPartyId(relyingPartyId);
+        return requestContext;
+    }
+
+    private RelyingPartyConfiguration newConfiguration(final String id,
+            final Predicate<ProfileRequestContext> condition) throws ComponentInitializationException {
+        final RelyingPartyConfiguration config = new RelyingPartyConfiguration();
+        config.setId(id);
+        config.setResponderId("foo");
+        config.setDetailedErrors(true);
+        if (condition != null) {
+            config.setActivationCondition(condition);
+        }
+        config.initialize();
+        return config;
+    }
+}
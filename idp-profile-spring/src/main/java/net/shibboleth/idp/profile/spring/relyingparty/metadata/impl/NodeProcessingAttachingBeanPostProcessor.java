@@ -26,6 +26,7 @@ import javax.annotation.Nullable;
 import net.shibboleth.idp.attribute.resolver.AttributeResolver;
 import net.shibboleth.idp.saml.metadata.RelyingPartyMetadataProvider;
 import net.shibboleth.idp.saml.metadata.impl.AttributeMappingNodeProcessor;
+import net.shibboleth.idp.saml.metadata.impl.EntityAttributesIndexNodeProcessor;
 import net.shibboleth.idp.saml.security.impl.KeyAuthorityNodeProcessor;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.service.ReloadableService;
@@ -42,11 +43,11 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 
 /**
  * A {@link BeanPostProcessor} for {@link MetadataResolver} beans that ensures a {@link NodeProcessingMetadataFilter}
- * containing a pair of default {@link MetadataNodeProcessor} plugins is attached.
+ * containing a set of default {@link MetadataNodeProcessor} plugins is attached.
  * 
  * <p>
  * This is done to ensure that other components function correctly, such as the PKIX trust engine and predicates that
- * depend on group information.
+ * depend on group information or indexed EntityAttributes tags.
  * </p>
  */
 public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcessor {
@@ -93,7 +94,8 @@ public class NodeProcessingAttachingBeanPostProcessor implements BeanPostProcess
         if (!filterAttached) {
             final NodeProcessingMetadataFilter filterToAttach = new NodeProcessingMetadataFilter();
             final List<MetadataNodeProcessor> processors = new ArrayList<>(
-                    Arrays.asList(new EntitiesDescriptorNameProcessor(), new KeyAuthorityNodeProcessor()));
+                    Arrays.asList(new EntitiesDescriptorNameProcessor(), new KeyAuthorityNodeProcessor(),
+                            new EntityAttributesIndexNodeProcessor()));
             if (null != atributeResolverService) {
                 processors.add(new AttributeMappingNodeProcessor(atributeResolverService));
             }
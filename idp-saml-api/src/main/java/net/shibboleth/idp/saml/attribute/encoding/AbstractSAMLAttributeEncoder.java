@@ -27,6 +27,7 @@ import net.shibboleth.idp.attribute.AttributeEncoder;
 import net.shibboleth.idp.attribute.AttributeEncodingException;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.metrics.PluginLatencyRecorder;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
@@ -68,6 +69,12 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
 
     /** Whether to encode with xsi:type or not. */
     private boolean encodeType;
+
+    /** Records a sample of encoding times. */
+    @NonnullAfterInit private PluginLatencyRecorder latencyRecorder;
+
+    /** Shared value builders, obtained at initialization. */
+    @NonnullAfterInit private AttributeValueBuilders valueBuilders;
     
     /** Constructor. */
     public AbstractSAMLAttributeEncoder() {
@@ -135,6 +142,15 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
         encodeType = flag;
     }
 
+    /**
+     * Get the attribute value builders resolved when this encoder was initialized.
+     * 
+     * @return the value builders, or null if not yet initialized
+     */
+    @NonnullAfterInit protected AttributeValueBuilders getValueBuilders() {
+        return valueBuilders;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
@@ -143,6 +159,18 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
         if (name == null) {
             throw new ComponentInitializationException("Attribute name cannot be null or empty");
         }
+
+        latencyRecorder = new PluginLatencyRecorder("encoder", getProtocol() + '.' + name);
+        valueBuilders = AttributeValueBuilders.getInstance();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (latencyRecorder != null) {
+            latencyRecorder.destroy();
+        }
+        super.doDestroy();
     }
     
     /** {@inheritDoc} */
@@ -150,6 +178,25 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
     @Nonnull public AttributeType encode(@Nonnull final IdPAttribute attribute) throws AttributeEncodingException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         Constraint.isNotNull(attribute, "Attribute to encode cannot be null");
+
+        final long latencyStart = latencyRecorder.start();
+        try {
+            return doEncode(attribute);
+        } finally {
+            latencyRecorder.stop(latencyStart);
+        }
+    }
+
+    /**
+     * Encode the values of an attribute.
+     * 
+     * @param attribute the attribute to encode
+     * 
+     * @return the encoded attribute
+     * 
+     * @throws AttributeEncodingException if the attribute cannot be encoded
+     */
+    @Nonnull private AttributeType doEncode(@Nonnull final IdPAttribute attribute) throws AttributeEncodingException {
         final String attributeId = attribute.getId();
         log.debug("Beginning to encode attribute {}", attributeId);
 
@@ -158,7 +205,7 @@ public abstract class AbstractSAMLAttributeEncoder<AttributeType extends SAMLObj
                     + " attribute.  It does not contain any values");
         }
 
-        final List<XMLObject> samlAttributeValues = new ArrayList<>();
+        final List<XMLObject> samlAttributeValues = new ArrayList<>(attribute.getValues().size());
 
         EncodedType attributeValue;
         XMLObject samlAttributeValue;
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.attribute.encoding;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.namespace.QName;
+
+import net.shibboleth.idp.saml.xmlobject.ScopedValue;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.XMLObjectBuilder;
+import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.XMLRuntimeException;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSAny;
+import org.opensaml.core.xml.schema.XSBase64Binary;
+import org.opensaml.core.xml.schema.XSString;
+
+/**
+ * The {@link XMLObjectBuilder}s used by {@link SAMLEncoderSupport} to build attribute values, resolved once so
+ * that an encoder can hold on to them rather than looking them up for every value it encodes.
+ * 
+ * <p>A single instance is shared by all encoders, and replaced if the global builder factory is.</p>
+ */
+@Immutable
+public final class AttributeValueBuilders {
+
+    /** The shared instance. */
+    @Nullable private static volatile AttributeValueBuilders instance;
+
+    /** The builder factory the builders were resolved from. */
+    @Nullable private final XMLObjectBuilderFactory factory;
+
+    /** Builders by type name. */
+    @Nonnull private final Map<QName,XMLObjectBuilder<?>> builders;
+
+    /**
+     * Constructor.
+     * 
+     * @param builderFactory the builder factory to resolve builders from
+     */
+    private AttributeValueBuilders(@Nullable final XMLObjectBuilderFactory builderFactory) {
+        factory = builderFactory;
+        builders = new HashMap<>(4);
+        for (final QName typeName : new QName[] {XSString.TYPE_NAME, XSAny.TYPE_NAME, XSBase64Binary.TYPE_NAME,
+                ScopedValue.TYPE_NAME}) {
+            final XMLObjectBuilder<?> builder = factory != null ? factory.getBuilder(typeName) : null;
+            if (builder != null) {
+                builders.put(typeName, builder);
+            }
+        }
+    }
+
+    /**
+     * Get the shared instance, resolving the builders from the current global builder factory if necessary.
+     * 
+     * @return the shared instance
+     */
+    @Nonnull public static AttributeValueBuilders getInstance() {
+        final XMLObjectBuilderFactory currentFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
+        AttributeValueBuilders current = instance;
+        if (current == null || current.factory != currentFactory) {
+            current = new AttributeValueBuilders(currentFactory);
+            instance = current;
+        }
+        return current;
+    }
+
+    /**
+     * Get the builder for a type, falling back to the global builder factory if it was not resolved up front.
+     * 
+     * @param <T> type of object built
+     * @param builders pre-resolved builders, or null
+     * @param typeName the type
+     * 
+     * @return the builder, or null if none is registered
+     */
+    @Nullable static <T extends XMLObject> XMLObjectBuilder<T> getBuilder(
+            @Nullable final AttributeValueBuilders builders, @Nonnull final QName typeName) {
+        if (builders != null) {
+            final XMLObjectBuilder<T> builder = (XMLObjectBuilder<T>) builders.builders.get(typeName);
+            if (builder != null) {
+                return builder;
+            }
+        }
+        return XMLObjectProviderRegistrySupport.getBuilderFactory().<T>getBuilder(typeName);
+    }
+
+    /**
+     * Get the builder for a type, falling back to the global builder factory if it was not resolved up front.
+     * 
+     * @param <T> type of object built
+     * @param builders pre-resolved builders, or null
+     * @param typeName the type
+     * 
+     * @return the builder
+     * 
+     * @throws XMLRuntimeException if no builder is registered
+     */
+    @Nonnull static <T extends XMLObject> XMLObjectBuilder<T> getBuilderOrThrow(
+            @Nullable final AttributeValueBuilders builders, @Nonnull final QName typeName) {
+        if (builders != null) {
+            final XMLObjectBuilder<T> builder = (XMLObjectBuilder<T>) builders.builders.get(typeName);
+            if (builder != null) {
+                return builder;
+            }
+        }
+        return XMLObjectProviderRegistrySupport.getBuilderFactory().<T>getBuilderOrThrow(typeName);
+    }
+
+}
@@ -30,7 +30,6 @@ import net.shibboleth.utilities.java.support.logic.Constraint;
 
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.XMLObjectBuilder;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.schema.XSAny;
 import org.opensaml.core.xml.schema.XSBase64Binary;
 import org.opensaml.core.xml.schema.XSString;
@@ -62,6 +61,23 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeStringValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final String value, final boolean withType) {
+        return encodeStringValue(attribute, attributeValueElementName, value, withType, null);
+    }
+
+    /**
+     * Encodes a String value into a SAML attribute value element.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param withType whether to include xsi:type
+     * @param builders pre-resolved builders to use, if any
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeStringValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final String value, final boolean withType,
+            @Nullable final AttributeValueBuilders builders) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
@@ -73,16 +89,15 @@ public final class SAMLEncoderSupport {
         LOG.debug("Encoding value {} of attribute {}", value, attribute.getId());
         
         if (withType) {
-            final XMLObjectBuilder<XSString> stringBuilder = (XMLObjectBuilder<XSString>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSString>getBuilderOrThrow(
-                            XSString.TYPE_NAME);
+            final XMLObjectBuilder<XSString> stringBuilder =
+                    AttributeValueBuilders.<XSString>getBuilderOrThrow(builders, XSString.TYPE_NAME);
             final XSString samlAttributeValue =
                     stringBuilder.buildObject(attributeValueElementName, XSString.TYPE_NAME);
             samlAttributeValue.setValue(value);
             return samlAttributeValue;
         } else {
-            final XMLObjectBuilder<XSAny> anyBuilder = (XMLObjectBuilder<XSAny>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME);
+            final XMLObjectBuilder<XSAny> anyBuilder =
+                    AttributeValueBuilders.<XSAny>getBuilderOrThrow(builders, XSAny.TYPE_NAME);
             final XSAny samlAttributeValue = anyBuilder.buildObject(attributeValueElementName);
             samlAttributeValue.setTextContent(value);
             return samlAttributeValue;
@@ -101,6 +116,23 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeByteArrayValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final byte[] value, final boolean withType) {
+        return encodeByteArrayValue(attribute, attributeValueElementName, value, withType, null);
+    }
+
+    /**
+     * Base64 encodes a <code>byte[]</code> into a SAML attribute value element.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param withType whether to include xsi:type
+     * @param builders pre-resolved builders to use, if any
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeByteArrayValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final byte[] value, final boolean withType,
+            @Nullable final AttributeValueBuilders builders) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
@@ -110,16 +142,15 @@ public final class SAMLEncoderSupport {
         }
 
         if (withType) {
-            final XMLObjectBuilder<XSBase64Binary> binaryBuilder = (XMLObjectBuilder<XSBase64Binary>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSBase64Binary>getBuilderOrThrow(
-                            XSBase64Binary.TYPE_NAME);
+            final XMLObjectBuilder<XSBase64Binary> binaryBuilder =
+                    AttributeValueBuilders.<XSBase64Binary>getBuilderOrThrow(builders, XSBase64Binary.TYPE_NAME);
             final XSBase64Binary samlAttributeValue =
                     binaryBuilder.buildObject(attributeValueElementName, XSBase64Binary.TYPE_NAME);
             samlAttributeValue.setValue(Base64Support.encode(value, Base64Support.UNCHUNKED));
             return samlAttributeValue;
         } else {
-            final XMLObjectBuilder<XSAny> anyBuilder = (XMLObjectBuilder<XSAny>)
-                    XMLObjectProviderRegistrySupport.getBuilderFactory().<XSAny>getBuilderOrThrow(XSAny.TYPE_NAME);
+            final XMLObjectBuilder<XSAny> anyBuilder =
+                    AttributeValueBuilders.<XSAny>getBuilderOrThrow(builders, XSAny.TYPE_NAME);
             final XSAny samlAttributeValue = anyBuilder.buildObject(attributeValueElementName);
             samlAttributeValue.setTextContent(Base64Support.encode(value, Base64Support.UNCHUNKED));
             return samlAttributeValue;
@@ -137,6 +168,22 @@ public final class SAMLEncoderSupport {
      */
     @Nullable public static XMLObject encodeXMLObjectValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final XMLObject value) {
+        return encodeXMLObjectValue(attribute, attributeValueElementName, value, null);
+    }
+
+    /**
+     * Encodes an {@link XMLObject} value in to a {@link XSAny} SAML attribute value.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the SAML 1 or SAML 1 attribute name
+     * @param value value to encoded
+     * @param builders pre-resolved builders to use, if any
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    @Nullable public static XMLObject encodeXMLObjectValue(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final XMLObject value,
+            @Nullable final AttributeValueBuilders builders) {
         if (value == null) {
             LOG.debug("Skipping empty value for attribute {}", attribute.getId());
             return null;
@@ -144,8 +191,8 @@ public final class SAMLEncoderSupport {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
 
-        final XMLObjectBuilder<XSAny> attributeValueBuilder = (XMLObjectBuilder<XSAny>)
-                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(XSAny.TYPE_NAME);
+        final XMLObjectBuilder<XSAny> attributeValueBuilder =
+                AttributeValueBuilders.<XSAny>getBuilder(builders, XSAny.TYPE_NAME);
         final XSAny samlAttributeValue = attributeValueBuilder.buildObject(attributeValueElementName);
         samlAttributeValue.getUnknownXMLObjects().add(value);
 
@@ -167,6 +214,27 @@ public final class SAMLEncoderSupport {
     public static XMLObject encodeScopedStringValueAttribute(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
             @Nonnull @NotEmpty final String scopeAttributeName, final boolean withType) {
+        return encodeScopedStringValueAttribute(attribute, attributeValueElementName, value, scopeAttributeName,
+                withType, null);
+    }
+
+    /**
+     * Encode a {@link ScopedStringAttributeValue} value in to an SAML attribute value element using the
+     * (older Shibboleth) sytnax where the scope is inside an XML attribute.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param scopeAttributeName the name that the attribute will be given
+     * @param withType whether to include xsi:type
+     * @param builders pre-resolved builders to use, if any
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    public static XMLObject encodeScopedStringValueAttribute(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
+            @Nonnull @NotEmpty final String scopeAttributeName, final boolean withType,
+            @Nullable final AttributeValueBuilders builders) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
         Constraint.isNotNull(scopeAttributeName, "Scope Attribute Name cannot be null");
@@ -176,8 +244,8 @@ public final class SAMLEncoderSupport {
             return null;
         }
         
-        final XMLObjectBuilder<ScopedValue> scopedValueBuilder = (XMLObjectBuilder<ScopedValue>)
-                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(ScopedValue.TYPE_NAME);
+        final XMLObjectBuilder<ScopedValue> scopedValueBuilder =
+                AttributeValueBuilders.<ScopedValue>getBuilder(builders, ScopedValue.TYPE_NAME);
         final ScopedValue scopedValue =
                 withType ? scopedValueBuilder.buildObject(attributeValueElementName, ScopedValue.TYPE_NAME)
                         : scopedValueBuilder.buildObject(attributeValueElementName);
@@ -204,6 +272,27 @@ public final class SAMLEncoderSupport {
     public static XMLObject encodeScopedStringValueInline(@Nonnull final IdPAttribute attribute,
             @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
             @Nonnull final String scopeDelimiter, final boolean withType) {
+        return encodeScopedStringValueInline(attribute, attributeValueElementName, value, scopeDelimiter, withType,
+                null);
+    }
+
+    /**
+     * Encode a {@link ScopedStringAttributeValue} value into a SAML attribute value element using
+     * the "inline" syntax where the scope and value are combined into a string.
+     * 
+     * @param attribute attribute to be encoded
+     * @param attributeValueElementName the element name to create
+     * @param value value to encoded
+     * @param scopeDelimiter the delimiter to put between the value and the scope
+     * @param withType whether to include xsi:type
+     * @param builders pre-resolved builders to use, if any
+     * 
+     * @return the attribute value element or null if the given value was null or empty
+     */
+    public static XMLObject encodeScopedStringValueInline(@Nonnull final IdPAttribute attribute,
+            @Nonnull final QName attributeValueElementName, @Nullable final ScopedStringAttributeValue value,
+            @Nonnull final String scopeDelimiter, final boolean withType,
+            @Nullable final AttributeValueBuilders builders) {
         Constraint.isNotNull(attribute, "Attribute cannot be null");
         Constraint.isNotNull(attributeValueElementName, "Attribute Element Name cannot be null");
         Constraint.isNotNull(scopeDelimiter, "Scope delimiter cannot be null");
@@ -216,6 +305,6 @@ public final class SAMLEncoderSupport {
         final StringBuilder builder =
                 new StringBuilder(value.getValue()).append(scopeDelimiter).append(value.getScope());
 
-        return encodeStringValue(attribute, attributeValueElementName, builder.toString(), withType);
+        return encodeStringValue(attribute, attributeValueElementName, builder.toString(), withType, builders);
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Unmodifiable;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * An index of the EntityAttributes extension tags that apply to an {@link EntityDescriptor}, keyed by tag name.
+ * 
+ * <p>Only the first EntityAttributes extension of the entity and of each enclosing group is indexed, matching the
+ * behavior of components that examine the metadata directly. An index is attached to an entity's
+ * {@link XMLObject#getObjectMetadata()} when metadata is loaded, so that components can locate tags without walking
+ * the metadata on every request.</p>
+ */
+@ThreadSafe
+public final class EntityAttributesIndex {
+
+    /** Tags found in the entity's own extensions, by name, in document order. */
+    @Nonnull @NonnullElements private final Map<String,List<Attribute>> entityTags;
+
+    /** Tags found in the entity's extensions and then those of each enclosing group, by name, nearest first. */
+    @Nonnull @NonnullElements private final Map<String,List<Attribute>> inheritedTags;
+
+    /**
+     * Constructor.
+     * 
+     * @param entity the entity to index
+     */
+    public EntityAttributesIndex(@Nonnull final EntityDescriptor entity) {
+        Constraint.isNotNull(entity, "EntityDescriptor cannot be null");
+
+        final Map<String,List<Attribute>> ownTags = new HashMap<>();
+        addTags(ownTags, entity.getExtensions());
+
+        final Map<String,List<Attribute>> allTags = new HashMap<>();
+        addTags(allTags, entity.getExtensions());
+        XMLObject parent = entity.getParent();
+        while (parent instanceof EntitiesDescriptor) {
+            addTags(allTags, ((EntitiesDescriptor) parent).getExtensions());
+            parent = parent.getParent();
+        }
+
+        entityTags = freeze(ownTags);
+        inheritedTags = freeze(allTags);
+    }
+
+    /**
+     * Get the tags with a given name in the entity's own extensions, in document order.
+     * 
+     * @param name tag name
+     * 
+     * @return the matching tags
+     */
+    @Nonnull @NonnullElements @Unmodifiable public List<Attribute> getEntityTags(
+            @Nonnull @NotEmpty final String name) {
+        final List<Attribute> tags = entityTags.get(name);
+        return tags != null ? tags : Collections.<Attribute>emptyList();
+    }
+
+    /**
+     * Get the tags with a given name in the entity's extensions followed by those of its enclosing groups, starting
+     * with the nearest.
+     * 
+     * @param name tag name
+     * 
+     * @return the matching tags
+     */
+    @Nonnull @NonnullElements @Unmodifiable public List<Attribute> getInheritedTags(
+            @Nonnull @NotEmpty final String name) {
+        final List<Attribute> tags = inheritedTags.get(name);
+        return tags != null ? tags : Collections.<Attribute>emptyList();
+    }
+
+    /**
+     * Get the index attached to an entity, if any.
+     * 
+     * @param entity the entity
+     * 
+     * @return the most recently attached index, or null
+     */
+    @Nullable public static EntityAttributesIndex get(@Nonnull final EntityDescriptor entity) {
+        final List<EntityAttributesIndex> indexes = entity.getObjectMetadata().get(EntityAttributesIndex.class);
+        if (indexes == null || indexes.isEmpty()) {
+            return null;
+        }
+        return indexes.get(indexes.size() - 1);
+    }
+
+    /**
+     * Add the tags from the first EntityAttributes extension to an index under construction.
+     * 
+     * @param tags the index to populate
+     * @param extensions the extensions to examine, if any
+     */
+    private static void addTags(@Nonnull final Map<String,List<Attribute>> tags,
+            @Nullable final Extensions extensions) {
+        if (extensions == null) {
+            return;
+        }
+        final List<XMLObject> children = extensions.getUnknownXMLObjects(EntityAttributes.DEFAULT_ELEMENT_NAME);
+        if (children.isEmpty() || !(children.get(0) instanceof EntityAttributes)) {
+            return;
+        }
+        for (final Attribute tag : ((EntityAttributes) children.get(0)).getAttributes()) {
+            if (tag.getName() != null) {
+                List<Attribute> named = tags.get(tag.getName());
+                if (named == null) {
+                    named = new ArrayList<>(1);
+                    tags.put(tag.getName(), named);
+                }
+                named.add(tag);
+            }
+        }
+    }
+
+    /**
+     * Make an immutable copy of an index under construction.
+     * 
+     * @param tags the index
+     * 
+     * @return an immutable copy
+     */
+    @Nonnull @NonnullElements private static Map<String,List<Attribute>> freeze(
+            @Nonnull final Map<String,List<Attribute>> tags) {
+        if (tags.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String,List<Attribute>> frozen = new HashMap<>(tags.size());
+        for (final Map.Entry<String,List<Attribute>> entry : tags.entrySet()) {
+            frozen.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+}
@@ -43,6 +43,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.collect.Collections2;
 
+import net.shibboleth.idp.saml.metadata.EntityAttributesIndex;
 import net.shibboleth.idp.saml.profile.context.navigate.SAMLMetadataContextLookupFunction;
 import net.shibboleth.utilities.java.support.annotation.constraint.Live;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
@@ -263,6 +264,8 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     /**
      * Find a matching entity attribute in the input metadata.
      * 
+     * <p>An {@link EntityAttributesIndex} attached to the metadata is used if present.</p>
+     * 
      * @param entity the metadata to examine
      * @param name the tag name to search for
      * 
@@ -271,6 +274,16 @@ public abstract class AbstractMetadataDrivenConfigurationLookupStrategy<T> exten
     @Nullable private Attribute findMatchingTag(@Nonnull final EntityDescriptor entity,
             @Nonnull @NotEmpty final String name) {
         
+        final EntityAttributesIndex index = EntityAttributesIndex.get(entity);
+        if (index != null) {
+            for (final Attribute tag : index.getInheritedTags(name)) {
+                if (!strictNameFormat || Objects.equals(tag.getNameFormat(), Attribute.URI_REFERENCE)) {
+                    return tag;
+                }
+            }
+            return null;
+        }
+        
         // Check for a tag match in the EntityAttributes extension of the entity and its parent(s).
         Extensions exts = entity.getExtensions();
         if (exts != null) {
@@ -27,6 +27,7 @@ import net.shibboleth.idp.saml.xmlobject.ScopedValue;
 import net.shibboleth.utilities.java.support.codec.Base64Support;
 import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
 import net.shibboleth.utilities.java.support.xml.ElementSupport;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 
 import org.opensaml.core.OpenSAMLInitBaseTestCase;
 import org.opensaml.core.xml.AbstractXMLObjectBuilder;
@@ -227,6 +228,57 @@ public class SAMLEncoderSupportTest  extends OpenSAMLInitBaseTestCase {
         
         }
     
+    @Test public void sharedBuilders() {
+        Assert.assertSame(AttributeValueBuilders.getInstance(), AttributeValueBuilders.getInstance());
+    }
+
+    @Test public void prebuiltBuildersEquivalent() throws MarshallingException {
+
+        XMLObjectProviderRegistrySupport.registerObjectProvider(ScopedValue.TYPE_NAME, new ScopedValueBuilder(), new ScopedValueMarshaller(), new ScopedValueUnmarshaller());
+        final AttributeValueBuilders builders = AttributeValueBuilders.getInstance();
+
+        for (final boolean withType : new boolean[] {true, false}) {
+            assertEquivalent(SAMLEncoderSupport.encodeStringValue(ATTR, QNAME, STRING_VALUE, withType),
+                    SAMLEncoderSupport.encodeStringValue(ATTR, QNAME, STRING_VALUE, withType, builders));
+            assertEquivalent(SAMLEncoderSupport.encodeByteArrayValue(ATTR, QNAME, BYTE_ARRAY_VALUE, withType),
+                    SAMLEncoderSupport.encodeByteArrayValue(ATTR, QNAME, BYTE_ARRAY_VALUE, withType, builders));
+            assertEquivalent(SAMLEncoderSupport.encodeScopedStringValueAttribute(ATTR, QNAME, SCOPEDVAL,
+                    SCOPE_ATTRIBUTE_NAME, withType),
+                    SAMLEncoderSupport.encodeScopedStringValueAttribute(ATTR, QNAME, SCOPEDVAL,
+                            SCOPE_ATTRIBUTE_NAME, withType, builders));
+            assertEquivalent(SAMLEncoderSupport.encodeScopedStringValueInline(ATTR, QNAME, SCOPEDVAL, DELIMITER,
+                    withType),
+                    SAMLEncoderSupport.encodeScopedStringValueInline(ATTR, QNAME, SCOPEDVAL, DELIMITER, withType,
+                            builders));
+        }
+
+        final SAMLObjectBuilder<NameID> builder = (SAMLObjectBuilder<NameID>)
+                XMLObjectProviderRegistrySupport.getBuilderFactory().<NameID>getBuilderOrThrow(
+                        NameID.DEFAULT_ELEMENT_NAME);
+        final NameID first = builder.buildObject();
+        first.setValue(STRING_VALUE);
+        final NameID second = builder.buildObject();
+        second.setValue(STRING_VALUE);
+        assertEquivalent(SAMLEncoderSupport.encodeXMLObjectValue(ATTR, QNAME, first),
+                SAMLEncoderSupport.encodeXMLObjectValue(ATTR, QNAME, second, builders));
+    }
+
+    /**
+     * Check that two objects are of the same class and marshall identically.
+     * 
+     * @param expected object produced without pre-resolved builders
+     * @param actual object produced with them
+     * 
+     * @throws MarshallingException if either object cannot be marshalled
+     */
+    private void assertEquivalent(final XMLObject expected, final XMLObject actual) throws MarshallingException {
+        Assert.assertEquals(actual.getClass(), expected.getClass());
+        Assert.assertEquals(SerializeSupport.nodeToString(
+                XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(actual).marshall(actual)),
+                SerializeSupport.nodeToString(XMLObjectProviderRegistrySupport.getMarshallerFactory()
+                        .getMarshaller(expected).marshall(expected)));
+    }
+
     //
     // The rest of this function is cut and paste from the real providers in idp-saml-imp
     //
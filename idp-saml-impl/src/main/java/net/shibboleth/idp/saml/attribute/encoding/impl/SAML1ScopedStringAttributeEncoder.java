@@ -167,10 +167,11 @@ public class SAML1ScopedStringAttributeEncoder extends AbstractSAML1AttributeEnc
         
         if ("attribute".equals(getScopeType())) {
             return SAMLEncoderSupport.encodeScopedStringValueAttribute(attribute,
-                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType());
+                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeAttributeName(), encodeType(),
+                    getValueBuilders());
         } else {
             return SAMLEncoderSupport.encodeScopedStringValueInline(attribute,
-                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType());
+                    AttributeValue.DEFAULT_ELEMENT_NAME, value, getScopeDelimiter(), encodeType(), getValueBuilders());
         }
     }
 }
\ No newline at end of file
@@ -58,6 +58,6 @@ public class SAML1StringAttributeEncoder extends AbstractSAML1AttributeEncoder<S
                     attribute.getId(), value.getClass().getName());
         }
         return SAMLEncoderSupport.encodeStringValue(attribute,
-                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType());
+                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType(), getValueBuilders());
     }
 }
\ No newline at end of file
@@ -63,7 +63,7 @@ public class SAML2StringAttributeEncoder extends AbstractSAML2AttributeEncoder<S
                     attribute.getId(), value.getClass().getName());
         }
         return SAMLEncoderSupport.encodeStringValue(attribute,
-                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType());
+                AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue(), encodeType(), getValueBuilders());
     }
 
     /** {@inheritDoc} */
@@ -51,8 +51,8 @@ public class SAML2XMLObjectAttributeEncoder extends AbstractSAML2AttributeEncode
     /** {@inheritDoc} */
     @Override @Nullable protected XMLObject encodeValue(@Nonnull final IdPAttribute attribute,
             @Nonnull final XMLObjectAttributeValue value) throws AttributeEncodingException {
-        return SAMLEncoderSupport
-                .encodeXMLObjectValue(attribute, AttributeValue.DEFAULT_ELEMENT_NAME, value.getValue());
+        return SAMLEncoderSupport.encodeXMLObjectValue(attribute, AttributeValue.DEFAULT_ELEMENT_NAME,
+                value.getValue(), getValueBuilders());
     }
 
     /** {@inheritDoc} */
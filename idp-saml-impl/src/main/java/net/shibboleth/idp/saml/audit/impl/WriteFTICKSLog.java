@@ -41,6 +41,7 @@ import org.opensaml.messaging.context.navigate.MessageLookup;
 import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.profile.context.navigate.OutboundMessageContextLookup;
 import org.opensaml.saml.common.SAMLObject;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
@@ -55,6 +56,9 @@ public class WriteFTICKSLog extends AbstractProfileAction {
 
     /** Logging category to use. */
     @Nonnull @NotEmpty public static final String FTICKS_LOG_CATEGORY = "Shibboleth-FTICKS";
+
+    /** Logger for the records. */
+    @Nonnull private static final Logger FTICKS_LOG = LoggerFactory.getLogger(FTICKS_LOG_CATEGORY);
     
     /** Strategy used to locate the {@link AuditContext} associated with a given {@link ProfileRequestContext}. */
     @Nonnull private Function<ProfileRequestContext,AuditContext> auditContextLookupStrategy;
@@ -212,7 +216,7 @@ public class WriteFTICKSLog extends AbstractProfileAction {
 
         //"F-TICKS/%{idp.fticks.federation:Undefined}/1.0#TS=%T#RP=%SP#AP=%IDP #PN=%HASHEDu#AM=%ac#"
         
-        final StringBuilder record = new StringBuilder("F-TICKS/");
+        final StringBuilder record = new StringBuilder(256).append("F-TICKS/");
         record.append(federationId).append("/1.0#TS=").append(System.currentTimeMillis() / 1000);
         
         String field = relyingPartyLookupStrategy.apply(profileRequestContext);
@@ -247,7 +251,7 @@ public class WriteFTICKSLog extends AbstractProfileAction {
         }
 
         record.append("#");
-        LoggerFactory.getLogger(FTICKS_LOG_CATEGORY).info(record.toString());
+        FTICKS_LOG.info(record.toString());
     }
 // Checkstyle: CyclomaticComplexity ON
     
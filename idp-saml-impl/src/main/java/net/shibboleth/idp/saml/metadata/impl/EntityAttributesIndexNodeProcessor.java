@@ -0,0 +1,48 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.idp.saml.metadata.EntityAttributesIndex;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.metadata.resolver.filter.FilterException;
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+/**
+ * An implementation of {@link MetadataNodeProcessor} which attaches an {@link EntityAttributesIndex} to each
+ * {@link EntityDescriptor} we find, covering the tags of the entity and of its enclosing groups.
+ * 
+ * <p>The index reflects the metadata at the time of processing, so this processor must run after any filter that
+ * adds or removes EntityAttributes extensions.</p>
+ */
+@ThreadSafe
+public class EntityAttributesIndexNodeProcessor implements MetadataNodeProcessor {
+
+    /** {@inheritDoc} */
+    @Override public void process(@Nullable final XMLObject metadataNode) throws FilterException {
+        if (metadataNode instanceof EntityDescriptor) {
+            final EntityDescriptor entity = (EntityDescriptor) metadataNode;
+            entity.getObjectMetadata().put(new EntityAttributesIndex(entity));
+        }
+    }
+
+}
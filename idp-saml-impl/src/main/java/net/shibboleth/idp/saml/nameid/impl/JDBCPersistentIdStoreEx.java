@@ -27,8 +27,11 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -41,17 +44,26 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.joda.time.DateTime;
+import org.opensaml.core.metrics.MetricsSupport;
 import org.opensaml.saml.common.SAMLException;
+import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * JDBC-based storage management for SAML persistent IDs.
  * 
@@ -72,9 +84,20 @@ import org.slf4j.LoggerFactory;
  *    
  * The first three columns should be defined as the primary key of the table, and the other columns
  * should be indexed.</p>
+ * 
+ * <p>Active entries may optionally be cached in memory for a limited time, keyed by both source ID and
+ * issued value. Deactivating or attaching to an entry invalidates it locally, and if a shared
+ * {@link StorageService} is supplied, records the invalidation there for other nodes to observe when
+ * they next use their cached copy.</p>
  */
 public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent implements PersistentIdStoreEx {
 
+    /** Storage context for invalidation records. */
+    @Nonnull @NotEmpty public static final String INVALIDATION_CONTEXT = "_PersistentIdInvalidation";
+
+    /** Base name of cache metrics. */
+    @Nonnull @NotEmpty private static final String METRIC_NAME = "net.shibboleth.idp.saml.nameid.persistentIdStore";
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(JDBCPersistentIdStoreEx.class);
     
@@ -138,6 +161,27 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
     /** Parameterized delete statement used to clear dummy rows after verification. */
     @NonnullAfterInit private String deleteSQL;
 
+    /** Maximum number of entries to cache in each direction, or 0 for none. */
+    @NonNegative private long cacheSize;
+
+    /** Time to cache an entry in milliseconds. */
+    @Duration @Positive private long cacheTimeout;
+
+    /** Whether to cache the absence of an entry. */
+    private boolean cacheNegativeResults;
+
+    /** Optional storage for invalidations shared with other nodes. */
+    @Nullable private StorageService invalidationStorage;
+
+    /** Cache of entries by source ID. */
+    @Nullable private Cache<String,Optional<PersistentIdEntry>> sourceCache;
+
+    /** Cache of entries by issued value. */
+    @Nullable private Cache<String,Optional<PersistentIdEntry>> issuedCache;
+
+    /** Count of local invalidations, used to discard entries read before a concurrent modification. */
+    @Nonnull private final AtomicLong cacheGeneration;
+
     /** Constructor. */
     public JDBCPersistentIdStoreEx() {
         transactionRetry = 3;
@@ -154,6 +198,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         peerProvidedIdColumn = "peerProvidedId";
         creationTimeColumn = "creationDate";
         deactivationTimeColumn = "deactivationDate";
+        cacheTimeout = 10 * 60 * 1000;
+        cacheGeneration = new AtomicLong();
     }
     
     /**
@@ -262,6 +308,60 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         verifyDatabase = flag;
     }
 
+    /**
+     * Set the maximum number of entries to cache for lookup by source ID, and separately by issued value.
+     * 
+     * <p>Defaults to 0, which disables caching.</p>
+     * 
+     * @param size maximum number of entries
+     */
+    public void setCacheSize(@NonNegative final long size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheSize = Constraint.isGreaterThanOrEqual(0, size, "Cache size must be greater than or equal to 0");
+    }
+
+    /**
+     * Set the time to cache an entry. Defaults to 10 minutes.
+     * 
+     * <p>This bounds how long another node's deactivation goes unnoticed if no invalidation storage is
+     * supplied.</p>
+     * 
+     * @param timeout time to cache an entry in milliseconds
+     */
+    @Duration public void setCacheTimeout(@Duration @Positive final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheTimeout = Constraint.isGreaterThan(0, timeout, "Cache timeout must be greater than 0");
+    }
+
+    /**
+     * Set whether to cache the absence of an entry, when lookup by issued value fails or lookup by source ID
+     * fails without creation being permitted. Defaults to false.
+     * 
+     * @param flag flag to set
+     */
+    public void setCacheNegativeResults(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        cacheNegativeResults = flag;
+    }
+
+    /**
+     * Set a storage service, shared with other nodes, in which to record invalidations of cached entries.
+     * 
+     * <p>If set, each cache hit is checked against this storage before use, so every hit costs a read
+     * from it. A storage service backed by the same database as the store itself largely defeats the
+     * purpose of the cache.</p>
+     * 
+     * @param storage invalidation storage
+     */
+    public void setInvalidationStorage(@Nullable final StorageService storage) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        invalidationStorage = storage;
+    }
+
     /**
      * Set the table name.
      * 
@@ -490,6 +590,13 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             deleteSQL = "DELETE FROM " + tableName + " WHERE " + issuerColumn + "= ?";
         }
         
+        if (cacheSize > 0) {
+            sourceCache = CacheBuilder.newBuilder().maximumSize(cacheSize)
+                    .expireAfterWrite(cacheTimeout, TimeUnit.MILLISECONDS).build();
+            issuedCache = CacheBuilder.newBuilder().maximumSize(cacheSize)
+                    .expireAfterWrite(cacheTimeout, TimeUnit.MILLISECONDS).build();
+        }
+        
         try {
             verifyDatabase();
             log.info("{} Data source successfully verified", getLogPrefix());
@@ -512,6 +619,16 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                     throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
 
+        final String issuedKey = issuedCache != null ? getCacheKey(nameQualifier, spNameQualifier, persistentId) : null;
+        if (issuedKey != null) {
+            final Optional<PersistentIdEntry> cached = getCachedEntry(issuedCache, issuedKey);
+            if (cached != null) {
+                return cached.orNull();
+            }
+        }
+
+        final long generation = cacheGeneration.get();
+
         log.debug("{} Selecting previously issued persistent ID entry", getLogPrefix(), getByIssuedSelectSQL);
 
         log.trace("{} Prepared statement: {}", getLogPrefix(), getByIssuedSelectSQL);
@@ -530,6 +647,9 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             final List<PersistentIdEntry> entries = buildIdentifierEntries(statement.executeQuery());
 
             if (entries == null || entries.size() == 0) {
+                if (issuedKey != null && cacheNegativeResults) {
+                    putCachedEntry(issuedCache, issuedKey, Optional.<PersistentIdEntry>absent(), generation);
+                }
                 return null;
             }
 
@@ -537,6 +657,9 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                 log.warn("{} More than one record found, only the first will be returned", getLogPrefix());
             }
 
+            if (issuedKey != null) {
+                putCachedEntry(issuedCache, issuedKey, Optional.of(entries.get(0)), generation);
+            }
             return entries.get(0);
         } catch (final SQLException e) {
             throw new IOException(e);
@@ -552,6 +675,14 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             @Nullable final ComputedPersistentIdGenerationStrategy computedIdStrategy) throws IOException {
         ComponentSupport.ifNotInitializedThrowUninitializedComponentException(this);
         
+        final String sourceKey = sourceCache != null ? getCacheKey(nameQualifier, spNameQualifier, sourceId) : null;
+        if (sourceKey != null) {
+            final Optional<PersistentIdEntry> cached = getCachedEntry(sourceCache, sourceKey);
+            if (cached != null && (cached.isPresent() || !allowCreate)) {
+                return cached.orNull();
+            }
+        }
+
         log.debug("{} Obtaining persistent ID for source ID: {}", getLogPrefix(), sourceId);
 
         log.trace("{} Prepared statement: {}", getLogPrefix(), getBySourceSelectSQL);
@@ -564,6 +695,7 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
 
         int retries = transactionRetry;
         while (true) {
+            final long generation = cacheGeneration.get();
             try (final Connection dbConn = getConnection(false)) {
                 final PreparedStatement statement = dbConn.prepareStatement(getBySourceSelectSQL);
                 statement.setQueryTimeout((int) (queryTimeout / 1000));
@@ -581,10 +713,16 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                     log.debug("{} Returning existing active persistent ID: {}", getLogPrefix(),
                             entries.get(0).getPersistentId());
                     dbConn.commit();
+                    if (sourceKey != null && entries.get(0).getDeactivationTime() == null) {
+                        putCachedEntry(sourceCache, sourceKey, Optional.of(entries.get(0)), generation);
+                    }
                     return entries.get(0);
                 } else if (!allowCreate) {
                     log.debug("{} No existing persistent ID and creation is not permitted", getLogPrefix());
                     dbConn.commit();
+                    if (sourceKey != null && cacheNegativeResults) {
+                        putCachedEntry(sourceCache, sourceKey, Optional.<PersistentIdEntry>absent(), generation);
+                    }
                     return null;
                 }
 
@@ -608,6 +746,12 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
                 }
                 store(newEntry, dbConn);
                 dbConn.commit();
+                if (sourceKey != null) {
+                    putCachedEntry(sourceCache, sourceKey, Optional.of(newEntry), generation);
+                    if (cacheNegativeResults) {
+                        recordInvalidation(sourceKey);
+                    }
+                }
                 return newEntry;
             } catch (final SQLException e) {
                 boolean retry = false;
@@ -671,6 +815,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            invalidate(nameQualifier, spNameQualifier, persistentId);
         }
     }
 
@@ -702,6 +848,8 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
             }
         } catch (final SQLException e) {
             throw new IOException(e);
+        } finally {
+            invalidate(nameQualifier, spNameQualifier, persistentId);
         }
     }
     
@@ -761,6 +909,148 @@ public class JDBCPersistentIdStoreEx extends AbstractInitializableComponent impl
         statement.executeUpdate();
     }
 
+    /**
+     * Build an unambiguous cache key from its components.
+     * 
+     * @param nameQualifier the issuer
+     * @param spNameQualifier the recipient
+     * @param id the source ID or issued value
+     * 
+     * @return the key
+     */
+    @Nonnull @NotEmpty private String getCacheKey(@Nonnull final String nameQualifier,
+            @Nonnull final String spNameQualifier, @Nonnull final String id) {
+        return new StringBuilder().append(nameQualifier.length()).append(':').append(nameQualifier)
+                .append(spNameQualifier.length()).append(':').append(spNameQualifier).append(id).toString();
+    }
+
+    /**
+     * Get a cached entry, unless another node has recorded its invalidation.
+     * 
+     * @param cache the cache to check
+     * @param key the cache key
+     * 
+     * @return the cached entry or its recorded absence, or null if nothing usable is cached
+     */
+    @Nullable private Optional<PersistentIdEntry> getCachedEntry(
+            @Nonnull final Cache<String,Optional<PersistentIdEntry>> cache, @Nonnull @NotEmpty final String key) {
+        final Optional<PersistentIdEntry> cached = cache.getIfPresent(key);
+        if (cached == null) {
+            countCacheEvent("miss");
+            return null;
+        }
+
+        if (invalidationStorage != null) {
+            final String invalidationKey = cached.isPresent()
+                    ? getCacheKey(cached.get().getIssuerEntityId(), cached.get().getRecipientEntityId(),
+                            cached.get().getPersistentId())
+                    : key;
+            try {
+                if (invalidationStorage.read(INVALIDATION_CONTEXT, DigestUtils.sha256Hex(invalidationKey)) != null) {
+                    log.debug("{} Cached entry was invalidated by another node", getLogPrefix());
+                    cache.invalidate(key);
+                    countCacheEvent("invalidated");
+                    return null;
+                }
+            } catch (final IOException e) {
+                log.warn("{} Unable to check for invalidation of cached entry, ignoring cache", getLogPrefix(), e);
+                countCacheEvent("miss");
+                return null;
+            }
+        }
+
+        log.debug("{} Returning cached persistent ID entry", getLogPrefix());
+        countCacheEvent("hit");
+        return cached;
+    }
+
+    /**
+     * Cache an entry read from the database, unless a local invalidation may have occurred since it was read.
+     * 
+     * <p>The entry is added before the generation is rechecked, so an invalidation racing with the addition
+     * either removes it directly or is detected here.</p>
+     * 
+     * @param cache the cache to populate
+     * @param key the cache key
+     * @param entry the entry or its absence
+     * @param generation the invalidation count observed before the entry was read
+     */
+    private void putCachedEntry(@Nonnull final Cache<String,Optional<PersistentIdEntry>> cache,
+            @Nonnull @NotEmpty final String key, @Nonnull final Optional<PersistentIdEntry> entry,
+            final long generation) {
+        if (cacheGeneration.get() != generation) {
+            log.debug("{} Entry may have been modified while being read, not caching it", getLogPrefix());
+            return;
+        }
+        cache.put(key, entry);
+        if (cacheGeneration.get() != generation) {
+            log.debug("{} Entry may have been modified while being read, not caching it", getLogPrefix());
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Remove any cached copies of an entry that has been modified, and record the invalidation for other nodes.
+     * 
+     * @param nameQualifier the issuer
+     * @param spNameQualifier the recipient
+     * @param persistentId the issued value
+     */
+    private void invalidate(@Nonnull final String nameQualifier, @Nonnull final String spNameQualifier,
+            @Nonnull final String persistentId) {
+        if (issuedCache == null) {
+            return;
+        }
+
+        cacheGeneration.incrementAndGet();
+        final String issuedKey = getCacheKey(nameQualifier, spNameQualifier, persistentId);
+        issuedCache.invalidate(issuedKey);
+        final Iterator<Optional<PersistentIdEntry>> entries = sourceCache.asMap().values().iterator();
+        while (entries.hasNext()) {
+            final Optional<PersistentIdEntry> entry = entries.next();
+            if (entry.isPresent() && persistentId.equals(entry.get().getPersistentId())
+                    && nameQualifier.equals(entry.get().getIssuerEntityId())
+                    && spNameQualifier.equals(entry.get().getRecipientEntityId())) {
+                entries.remove();
+            }
+        }
+        recordInvalidation(issuedKey);
+    }
+
+    /**
+     * Record the invalidation of a cache key in the shared storage, if any, for long enough that no other node
+     * could still have cached it.
+     * 
+     * @param key the cache key
+     */
+    private void recordInvalidation(@Nonnull @NotEmpty final String key) {
+        if (invalidationStorage == null) {
+            return;
+        }
+
+        final String storageKey = DigestUtils.sha256Hex(key);
+        final long expiration = System.currentTimeMillis() + cacheTimeout;
+        try {
+            if (!invalidationStorage.create(INVALIDATION_CONTEXT, storageKey, "1", expiration)) {
+                invalidationStorage.update(INVALIDATION_CONTEXT, storageKey, "1", expiration);
+            }
+        } catch (final IOException e) {
+            log.error("{} Unable to record invalidation of cached entry for other nodes", getLogPrefix(), e);
+        }
+    }
+
+    /**
+     * Increment the counter for a cache event.
+     * 
+     * @param event the event name
+     */
+    private void countCacheEvent(@Nonnull @NotEmpty final String event) {
+        final MetricRegistry registry = MetricsSupport.getMetricRegistry();
+        if (registry != null) {
+            registry.counter(MetricRegistry.name(METRIC_NAME, "cache", event)).inc();
+        }
+    }
+
     /**
      * Obtain a connection from the data source.
      * 
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.profile.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.saml.saml2.metadata.RoleDescriptor;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded cache of results derived from a peer's metadata, such as resolved encryption parameters
+ * or endpoints, shared across requests.
+ * 
+ * <p>Entries are keyed by the identity of the {@link RoleDescriptor} the result was derived from, plus a list
+ * of discriminators capturing every other input to the derivation. A metadata refresh produces new
+ * {@link RoleDescriptor} instances, so results derived from stale metadata are never returned and simply age
+ * out. Discriminators are compared with {@link Object#equals(Object)}, which for configuration objects
+ * typically means identity, so reloading configuration has the same effect.</p>
+ * 
+ * <p>Results must not refer to the metadata they were derived from, or it would be kept alive until the
+ * results expire.</p>
+ * 
+ * @param <T> type of result
+ */
+@ThreadSafe
+public class MetadataResultCache<T> {
+
+    /** Cached results, or null if disabled. */
+    @Nullable private final Cache<ResultKey,T> cache;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxSize maximum number of results to cache, or 0 to disable caching
+     * @param maxDuration maximum time in milliseconds to cache a result
+     */
+    public MetadataResultCache(@NonNegative @ParameterName(name="maxSize") final long maxSize,
+            @Duration @Positive @ParameterName(name="maxDuration") final long maxDuration) {
+        Constraint.isGreaterThanOrEqual(0, maxSize, "Maximum cache size must be greater than or equal to 0");
+        Constraint.isGreaterThan(0, maxDuration, "Maximum cache duration must be greater than 0");
+        if (maxSize > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(maxDuration, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Get whether caching is enabled.
+     * 
+     * @return true iff results will be cached
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Get a cached result.
+     * 
+     * @param roleDescriptor the metadata the result was derived from
+     * @param discriminators the other inputs to the derivation
+     * 
+     * @return the cached result, or null
+     */
+    @Nullable public T get(@Nonnull final RoleDescriptor roleDescriptor, @Nonnull final List<?> discriminators) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getIfPresent(new ResultKey(roleDescriptor, discriminators));
+    }
+
+    /**
+     * Cache a result.
+     * 
+     * <p>The discriminators must not be modified afterwards.</p>
+     * 
+     * @param roleDescriptor the metadata the result was derived from
+     * @param discriminators the other inputs to the derivation
+     * @param result the result
+     */
+    public void put(@Nonnull final RoleDescriptor roleDescriptor, @Nonnull final List<?> discriminators,
+            @Nonnull final T result) {
+        if (cache != null) {
+            cache.put(new ResultKey(roleDescriptor, discriminators), result);
+        }
+    }
+
+    /** Discard all cached results. */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /** Key combining metadata identity with other inputs. */
+    private static final class ResultKey {
+
+        /** The metadata. */
+        @Nonnull private final WeakReference<RoleDescriptor> roleDescriptor;
+
+        /** Other inputs. */
+        @Nonnull private final List<?> discriminators;
+
+        /** Precomputed hash code. */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         * 
+         * @param role the metadata
+         * @param inputs other inputs
+         */
+        ResultKey(@Nonnull final RoleDescriptor role, @Nonnull final List<?> inputs) {
+            roleDescriptor = new WeakReference<>(role);
+            discriminators = inputs;
+            hashCode = 31 * System.identityHashCode(role) + inputs.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        @Override public int hashCode() {
+            return hashCode;
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof ResultKey)) {
+                return false;
+            }
+            final ResultKey other = (ResultKey) obj;
+            final RoleDescriptor role = roleDescriptor.get();
+            return role != null && role == other.roleDescriptor.get() && hashCode == other.hashCode
+                    && discriminators.equals(other.discriminators);
+        }
+    }
+
+}
@@ -18,8 +18,10 @@
 package net.shibboleth.idp.saml.profile.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -92,6 +94,9 @@ import com.google.common.collect.Iterables;
  * <p>If the outbound binding is an artifact-based binding, then the action also creates
  * a {@link SAMLArtifactContext} populated by settings from the {@link SAMLArtifactConfiguration}.</p> 
  * 
+ * <p>If a {@link MetadataResultCache} is supplied, endpoints validated against a peer's metadata are reused
+ * for subsequent requests with the same metadata, eligible bindings, and requested endpoint.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  * @event {@link EventIds#INVALID_MSG_CTX}
  * @event {@link SAMLEventIds#ENDPOINT_RESOLUTION_FAILED}
@@ -106,6 +111,9 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
 
     /** Endpoint resolver. */
     @NonnullAfterInit private EndpointResolver<?> endpointResolver;
+
+    /** Optional cache of the positions of resolved endpoints within the metadata. */
+    @Nullable private MetadataResultCache<Integer> endpointCache;
     
     /** List of possible bindings, in preference order. */
     @Nonnull @NonnullElements private List<BindingDescriptor> bindingDescriptors;
@@ -199,6 +207,20 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
         
         endpointResolver = Constraint.isNotNull(resolver, "EndpointResolver cannot be null");
     }
+
+    /**
+     * Set a cache of resolved endpoints to consult before the resolver.
+     * 
+     * <p>The cache holds the position of each resolved endpoint among the metadata's endpoints of the
+     * relevant type, rather than the endpoint itself, so that it does not keep stale metadata alive.</p>
+     * 
+     * @param cache endpoint cache
+     */
+    public void setEndpointCache(@Nullable final MetadataResultCache<Integer> cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        endpointCache = cache;
+    }
     
     /**
      * Set the bindings to evaluate for use, in preference order.
@@ -398,12 +420,30 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
             log.debug("{} No metadata available for endpoint resolution", getLogPrefix());
         }
         
-        // Attempt resolution.
+        // Attempt resolution, trying the cache first if the result will be validated against metadata.
         Endpoint resolvedEndpoint = null;
-        try {
-            resolvedEndpoint = endpointResolver.resolveSingle(criteria);
-        } catch (final ResolverException e) {
-            log.error("{} Error resolving outbound message endpoint", getLogPrefix(), e);
+        final List<Object> discriminators = buildCacheDiscriminators(criteria, bindings);
+        final List<Endpoint> candidates =
+                discriminators != null ? mdContext.getRoleDescriptor().getEndpoints(endpointType) : null;
+        if (candidates != null) {
+            final Integer position = endpointCache.get(mdContext.getRoleDescriptor(), discriminators);
+            if (position != null && position < candidates.size()) {
+                log.debug("{} Using cached endpoint resolution result", getLogPrefix());
+                resolvedEndpoint = candidates.get(position);
+            }
+        }
+        if (resolvedEndpoint == null) {
+            try {
+                resolvedEndpoint = endpointResolver.resolveSingle(criteria);
+            } catch (final ResolverException e) {
+                log.error("{} Error resolving outbound message endpoint", getLogPrefix(), e);
+            }
+            if (resolvedEndpoint != null && candidates != null) {
+                final int position = findEndpoint(candidates, resolvedEndpoint);
+                if (position >= 0) {
+                    endpointCache.put(mdContext.getRoleDescriptor(), discriminators, position);
+                }
+            }
         }
         
         if (resolvedEndpoint == null) {
@@ -498,6 +538,67 @@ public class PopulateBindingAndEndpointContexts extends AbstractProfileAction {
         return false;
     }
 
+    /**
+     * Build the inputs other than metadata that determine the resolved endpoint, for use with the cache.
+     * 
+     * <p>Only resolutions that validate the endpoint against metadata are cacheable, since a trusted
+     * template endpoint is returned as is.</p>
+     * 
+     * @param criteria input to the resolver
+     * @param bindings eligible bindings
+     * 
+     * @return the cache discriminators, or null if the result should not be cached
+     */
+    @Nullable private List<Object> buildCacheDiscriminators(@Nonnull final CriteriaSet criteria,
+            @Nonnull @NonnullElements final List<String> bindings) {
+        if (endpointCache == null || mdContext == null || mdContext.getRoleDescriptor() == null) {
+            return null;
+        }
+        
+        final EndpointCriterion endpointCriterion = criteria.get(EndpointCriterion.class);
+        if (endpointCriterion == null || endpointCriterion.isTrusted()) {
+            return null;
+        }
+        
+        final Endpoint template = endpointCriterion.getEndpoint();
+        return Arrays.<Object>asList(endpointResolver, endpointType, new ArrayList<>(bindings),
+                template.getLocation(), template.getBinding(),
+                template instanceof IndexedEndpoint ? ((IndexedEndpoint) template).getIndex() : null);
+    }
+
+    /**
+     * Find the position of a resolved endpoint among the metadata's endpoints.
+     * 
+     * @param candidates the endpoints in the metadata
+     * @param endpoint the resolved endpoint
+     * 
+     * @return the position of the endpoint, or -1 if it does not appear in the metadata
+     */
+    private int findEndpoint(@Nonnull @NonnullElements final List<Endpoint> candidates,
+            @Nonnull final Endpoint endpoint) {
+        for (int i = 0; i < candidates.size(); ++i) {
+            final Endpoint candidate = candidates.get(i);
+            if (candidate == endpoint) {
+                return i;
+            }
+        }
+        
+        // The resolver may have returned a copy.
+        for (int i = 0; i < candidates.size(); ++i) {
+            final Endpoint candidate = candidates.get(i);
+            if (Objects.equals(candidate.getBinding(), endpoint.getBinding())
+                    && Objects.equals(candidate.getLocation(), endpoint.getLocation())
+                    && Objects.equals(candidate.getResponseLocation(), endpoint.getResponseLocation())
+                    && (!(candidate instanceof IndexedEndpoint) || !(endpoint instanceof IndexedEndpoint)
+                            || Objects.equals(((IndexedEndpoint) candidate).getIndex(),
+                                    ((IndexedEndpoint) endpoint).getIndex()))) {
+                return i;
+            }
+        }
+        
+        return -1;
+    }
+
     /**
      * Build a template Endpoint object to use as input criteria to the resolution process and wrap it in
      * a criterion object.
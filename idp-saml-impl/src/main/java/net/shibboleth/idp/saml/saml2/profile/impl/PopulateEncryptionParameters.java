@@ -17,6 +17,8 @@
 
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -37,16 +39,23 @@ import org.opensaml.saml.criterion.RoleDescriptorCriterion;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.NameID;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.security.x509.X509Credential;
 import org.opensaml.xmlsec.EncryptionConfiguration;
 import org.opensaml.xmlsec.EncryptionParameters;
 import org.opensaml.xmlsec.EncryptionParametersResolver;
 import org.opensaml.xmlsec.SecurityConfigurationSupport;
 import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
 import org.opensaml.xmlsec.criterion.EncryptionOptionalCriterion;
+import org.opensaml.xmlsec.encryption.support.RSAOAEPParameters;
+import org.opensaml.xmlsec.impl.BasicEncryptionParametersResolver;
 
 import net.shibboleth.idp.profile.AbstractProfileAction;
 import net.shibboleth.idp.profile.IdPEventIds;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.idp.saml.profile.impl.MetadataResultCache;
 import net.shibboleth.idp.saml.saml2.profile.config.SAML2ProfileConfiguration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
@@ -78,6 +87,10 @@ import com.google.common.base.Functions;
  * objects are input to the resolution process, along with the relying party's SAML metadata, which in
  * most cases will be the source of the eventual encryption key.</p>
  * 
+ * <p>If a {@link MetadataResultCache} is supplied, parameters resolved against a peer's metadata are reused
+ * for subsequent requests with the same metadata and configuration. Each request receives its own copy, and
+ * nothing is cached if the resolver generates data encryption keys.</p>
+ * 
  * @event {@link EventIds#PROCEED_EVENT_ID}
  * @event {@link EventIds#INVALID_PROFILE_CTX}
  * @event {@link EventIds#INVALID_SEC_CFG}
@@ -112,6 +125,9 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
     
     /** Resolver for parameters to store into context. */
     @NonnullAfterInit private EncryptionParametersResolver encParamsresolver;
+
+    /** Optional cache of resolved parameters. */
+    @Nullable private MetadataResultCache<EncryptionParameters> parametersCache;
     
     /** Active configurations to feed into resolver. */
     @Nullable @NonnullElements private List<EncryptionConfiguration> encryptionConfigurations;
@@ -239,6 +255,17 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
         
         encParamsresolver = Constraint.isNotNull(newResolver, "EncryptionParametersResolver cannot be null");
     }
+
+    /**
+     * Set a cache of resolved parameters to consult before the resolver.
+     * 
+     * @param cache parameters cache
+     */
+    public void setParametersCache(@Nullable final MetadataResultCache<EncryptionParameters> cache) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        parametersCache = cache;
+    }
     
     /** {@inheritDoc} */
     @Override
@@ -326,8 +353,7 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
                 throw new ResolverException("No EncryptionConfigurations returned by lookup strategy");
             }
             
-            final EncryptionParameters params =
-                    encParamsresolver.resolveSingle(buildCriteriaSet(profileRequestContext));
+            final EncryptionParameters params = resolveParameters(buildCriteriaSet(profileRequestContext));
             log.debug("{} {} EncryptionParameters", getLogPrefix(),
                     params != null ? "Resolved" : "Failed to resolve");
             if (params != null) {
@@ -360,6 +386,111 @@ public class PopulateEncryptionParameters extends AbstractProfileAction {
     }
 // Checkstyle: CyclomaticComplexity ON
     
+    /**
+     * Resolve parameters, using the cache if possible.
+     * 
+     * @param criteria input to the resolver
+     * 
+     * @return the parameters, or null
+     * 
+     * @throws ResolverException if an error occurs
+     */
+    @Nullable private EncryptionParameters resolveParameters(@Nonnull final CriteriaSet criteria)
+            throws ResolverException {
+        
+        // A data encryption key generated by the resolver must never be reused.
+        final RoleDescriptorCriterion roleCriterion = criteria.get(RoleDescriptorCriterion.class);
+        if (parametersCache == null || roleCriterion == null
+                || (encParamsresolver instanceof BasicEncryptionParametersResolver
+                        && ((BasicEncryptionParametersResolver) encParamsresolver)
+                            .isAutoGenerateDataEncryptionCredential())) {
+            return encParamsresolver.resolveSingle(criteria);
+        }
+        
+        final EntityIdCriterion entityIdCriterion = criteria.get(EntityIdCriterion.class);
+        final List<Object> discriminators = Arrays.<Object>asList(
+                encParamsresolver,
+                new ArrayList<>(encryptionConfigurations),
+                encryptionOptional,
+                entityIdCriterion != null ? entityIdCriterion.getEntityId() : null,
+                samlProtocol,
+                peerRole);
+        
+        final EncryptionParameters cached = parametersCache.get(roleCriterion.getRole(), discriminators);
+        if (cached != null) {
+            log.debug("{} Using cached EncryptionParameters", getLogPrefix());
+            return copyParameters(cached, false);
+        }
+        
+        final EncryptionParameters params = encParamsresolver.resolveSingle(criteria);
+        if (params != null) {
+            parametersCache.put(roleCriterion.getRole(), discriminators, copyParameters(params, true));
+        }
+        return params;
+    }
+    
+    /**
+     * Copy parameters to or from the cache, so that changes made to them while processing one request
+     * do not affect others.
+     * 
+     * @param params the parameters to copy
+     * @param detach whether to also copy the credentials without their context, which may refer to the metadata
+     * 
+     * @return the copy
+     */
+    @Nonnull private static EncryptionParameters copyParameters(@Nonnull final EncryptionParameters params,
+            final boolean detach) {
+        final EncryptionParameters copy = new EncryptionParameters();
+        copy.setDataEncryptionAlgorithm(params.getDataEncryptionAlgorithm());
+        copy.setDataKeyInfoGenerator(params.getDataKeyInfoGenerator());
+        copy.setKeyTransportEncryptionAlgorithm(params.getKeyTransportEncryptionAlgorithm());
+        copy.setKeyTransportKeyInfoGenerator(params.getKeyTransportKeyInfoGenerator());
+        if (params.getRSAOAEPParameters() != null) {
+            copy.setRSAOAEPParameters(new RSAOAEPParameters(params.getRSAOAEPParameters().getDigestMethod(),
+                    params.getRSAOAEPParameters().getMaskGenerationFunction(),
+                    params.getRSAOAEPParameters().getOAEPParams()));
+        }
+        if (detach) {
+            copy.setDataEncryptionCredential(detachCredential(params.getDataEncryptionCredential()));
+            copy.setKeyTransportEncryptionCredential(
+                    detachCredential(params.getKeyTransportEncryptionCredential()));
+        } else {
+            copy.setDataEncryptionCredential(params.getDataEncryptionCredential());
+            copy.setKeyTransportEncryptionCredential(params.getKeyTransportEncryptionCredential());
+        }
+        return copy;
+    }
+    
+    /**
+     * Copy the key material and identifying information of a credential, leaving behind its context.
+     * 
+     * @param credential the credential to copy
+     * 
+     * @return the copy, or null
+     */
+    @Nullable private static Credential detachCredential(@Nullable final Credential credential) {
+        final BasicCredential copy;
+        if (credential == null) {
+            return null;
+        } else if (credential instanceof X509Credential) {
+            final X509Credential x509Credential = (X509Credential) credential;
+            final BasicX509Credential x509Copy = new BasicX509Credential(x509Credential.getEntityCertificate());
+            x509Copy.setEntityCertificateChain(x509Credential.getEntityCertificateChain());
+            x509Copy.setCRLs(x509Credential.getCRLs());
+            copy = x509Copy;
+        } else if (credential.getSecretKey() != null) {
+            copy = new BasicCredential(credential.getSecretKey());
+        } else if (credential.getPublicKey() != null) {
+            copy = new BasicCredential(credential.getPublicKey());
+        } else {
+            return credential;
+        }
+        copy.setEntityId(credential.getEntityId());
+        copy.setUsageType(credential.getUsageType());
+        copy.getKeyNames().addAll(credential.getKeyNames());
+        return copy;
+    }
+    
     /**
      * Build the criteria used as input to the {@link EncryptionParametersResolver}.
      * 
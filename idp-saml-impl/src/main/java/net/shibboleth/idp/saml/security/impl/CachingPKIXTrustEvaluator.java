@@ -0,0 +1,276 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.security.impl;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import net.shibboleth.utilities.java.support.annotation.Duration;
+import net.shibboleth.utilities.java.support.annotation.ParameterName;
+import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
+import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.x509.PKIXTrustEvaluator;
+import org.opensaml.security.x509.PKIXValidationInformation;
+import org.opensaml.security.x509.PKIXValidationOptions;
+import org.opensaml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A {@link PKIXTrustEvaluator} that remembers successful validations made by another evaluator.
+ * 
+ * <p>Entries are keyed by the identity of the {@link PKIXValidationInformation} (which
+ * {@link MetadataPKIXValidationInformationResolver} caches on the metadata, so a metadata refresh yields new
+ * instances and orphans any old entries) and by a digest of the untrusted credential's certificates and CRLs.
+ * An entry lasts no longer than the configured maximum, the expiry of any certificate in the untrusted chain or
+ * the trust anchors, or the next update of any CRL in the credential or validation information. Failures are
+ * never cached.</p>
+ */
+@ThreadSafe
+public class CachingPKIXTrustEvaluator implements PKIXTrustEvaluator {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(CachingPKIXTrustEvaluator.class);
+
+    /** The evaluator to delegate to. */
+    @Nonnull private final PKIXTrustEvaluator delegate;
+
+    /** Successful validations, mapped to the time at which they expire. */
+    @Nullable private final Cache<ValidationKey,Long> validationCache;
+
+    /** Maximum time to cache a result. */
+    @Duration @Positive private final long maxCacheDuration;
+
+    /**
+     * Constructor.
+     * 
+     * @param evaluator the evaluator to delegate to
+     * @param maxSize maximum number of results to cache, or 0 to disable caching
+     * @param maxDuration maximum time in milliseconds to cache a result
+     */
+    public CachingPKIXTrustEvaluator(
+            @Nonnull @ParameterName(name="evaluator") final PKIXTrustEvaluator evaluator,
+            @NonNegative @ParameterName(name="maxSize") final long maxSize,
+            @Duration @Positive @ParameterName(name="maxDuration") final long maxDuration) {
+        delegate = Constraint.isNotNull(evaluator, "PKIXTrustEvaluator cannot be null");
+        Constraint.isGreaterThanOrEqual(0, maxSize, "Maximum cache size must be greater than or equal to 0");
+        maxCacheDuration = Constraint.isGreaterThan(0, maxDuration, "Maximum cache duration must be greater than 0");
+        if (maxSize > 0) {
+            validationCache = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(maxDuration, TimeUnit.MILLISECONDS)
+                    .build();
+        } else {
+            validationCache = null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean validate(@Nonnull final PKIXValidationInformation validationInfo,
+            @Nonnull final X509Credential untrustedCredential) throws SecurityException {
+        if (validationCache == null) {
+            return delegate.validate(validationInfo, untrustedCredential);
+        }
+
+        final ValidationKey key = buildKey(validationInfo, untrustedCredential);
+        if (key != null) {
+            final Long expiration = validationCache.getIfPresent(key);
+            if (expiration != null) {
+                if (expiration > System.currentTimeMillis()) {
+                    log.debug("Using cached PKIX validation result for credential with entity certificate '{}'",
+                            untrustedCredential.getEntityCertificate().getSubjectX500Principal().getName());
+                    return true;
+                }
+                validationCache.invalidate(key);
+            }
+        }
+
+        final boolean result = delegate.validate(validationInfo, untrustedCredential);
+        if (result && key != null) {
+            final long expiration = getExpiration(validationInfo, untrustedCredential);
+            if (expiration > System.currentTimeMillis()) {
+                validationCache.put(key, expiration);
+            }
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override @Nonnull public PKIXValidationOptions getPKIXValidationOptions() {
+        return delegate.getPKIXValidationOptions();
+    }
+
+    /** Discard all cached results. */
+    public void invalidateAll() {
+        if (validationCache != null) {
+            validationCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Build the cache key for a validation.
+     * 
+     * @param validationInfo the trust anchors and CRLs
+     * @param untrustedCredential the credential being validated
+     * 
+     * @return the key, or null if the credential cannot be digested
+     */
+    @Nullable private ValidationKey buildKey(@Nonnull final PKIXValidationInformation validationInfo,
+            @Nonnull final X509Credential untrustedCredential) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(untrustedCredential.getEntityCertificate().getEncoded());
+            final Collection<X509Certificate> chain = untrustedCredential.getEntityCertificateChain();
+            if (chain != null) {
+                for (final X509Certificate cert : chain) {
+                    digest.update(cert.getEncoded());
+                }
+            }
+            final Collection<X509CRL> crls = untrustedCredential.getCRLs();
+            if (crls != null) {
+                for (final X509CRL crl : crls) {
+                    digest.update(crl.getEncoded());
+                }
+            }
+            return new ValidationKey(validationInfo, digest.digest());
+        } catch (final NoSuchAlgorithmException | CertificateEncodingException | CRLException e) {
+            log.debug("Unable to compute cache key for credential, result will not be cached", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the time at which a successful validation stops being cacheable.
+     * 
+     * @param validationInfo the trust anchors and CRLs
+     * @param untrustedCredential the credential validated
+     * 
+     * @return the expiration time
+     */
+    private long getExpiration(@Nonnull final PKIXValidationInformation validationInfo,
+            @Nonnull final X509Credential untrustedCredential) {
+        long expiration = Math.min(System.currentTimeMillis() + maxCacheDuration,
+                untrustedCredential.getEntityCertificate().getNotAfter().getTime());
+        expiration = Math.min(expiration, getNotAfter(untrustedCredential.getEntityCertificateChain()));
+        expiration = Math.min(expiration, getNotAfter(validationInfo.getCertificates()));
+        expiration = Math.min(expiration, getNextUpdate(untrustedCredential.getCRLs()));
+        return Math.min(expiration, getNextUpdate(validationInfo.getCRLs()));
+    }
+
+    /**
+     * Get the earliest expiry time of a set of certificates.
+     * 
+     * @param certs the certificates
+     * 
+     * @return the earliest expiry time, or {@link Long#MAX_VALUE}
+     */
+    private long getNotAfter(@Nullable final Collection<X509Certificate> certs) {
+        long notAfter = Long.MAX_VALUE;
+        if (certs != null) {
+            for (final X509Certificate cert : certs) {
+                notAfter = Math.min(notAfter, cert.getNotAfter().getTime());
+            }
+        }
+        return notAfter;
+    }
+
+    /**
+     * Get the earliest next update time of a set of CRLs.
+     * 
+     * @param crls the CRLs
+     * 
+     * @return the earliest next update time, or {@link Long#MAX_VALUE}
+     */
+    private long getNextUpdate(@Nullable final Collection<X509CRL> crls) {
+        long nextUpdate = Long.MAX_VALUE;
+        if (crls != null) {
+            for (final X509CRL crl : crls) {
+                if (crl.getNextUpdate() != null) {
+                    nextUpdate = Math.min(nextUpdate, crl.getNextUpdate().getTime());
+                }
+            }
+        }
+        return nextUpdate;
+    }
+
+    /**
+     * Cache key combining the identity of a {@link PKIXValidationInformation} with a credential digest.
+     * 
+     * <p>The validation information is only weakly referenced, so stale metadata is not retained by the cache.</p>
+     */
+    private static final class ValidationKey {
+
+        /** The validation information. */
+        @Nonnull private final WeakReference<PKIXValidationInformation> validationInfo;
+
+        /** Credential digest. */
+        @Nonnull private final ByteBuffer credentialDigest;
+
+        /** Precomputed hash code. */
+        private final int hashCode;
+
+        /**
+         * Constructor.
+         * 
+         * @param info the validation information
+         * @param digest the credential digest
+         */
+        ValidationKey(@Nonnull final PKIXValidationInformation info, @Nonnull final byte[] digest) {
+            validationInfo = new WeakReference<>(info);
+            credentialDigest = ByteBuffer.wrap(digest);
+            hashCode = 31 * System.identityHashCode(info) + credentialDigest.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        @Override public int hashCode() {
+            return hashCode;
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof ValidationKey)) {
+                return false;
+            }
+            final ValidationKey other = (ValidationKey) obj;
+            final PKIXValidationInformation info = validationInfo.get();
+            return info != null && info == other.validationInfo.get() && hashCode == other.hashCode
+                    && credentialDigest.equals(other.credentialDigest);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.metadata.impl;
+
+import java.util.Collections;
+
+import net.shibboleth.idp.saml.metadata.EntityAttributesIndex;
+
+import org.opensaml.core.xml.XMLObjectBaseTestCase;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.metadata.resolver.filter.MetadataNodeProcessor;
+import org.opensaml.saml.metadata.resolver.filter.impl.NodeProcessingMetadataFilter;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** Test for {@link EntityAttributesIndexNodeProcessor}. */
+public class EntityAttributesIndexNodeProcessorTest extends XMLObjectBaseTestCase {
+
+    @Test public void testInheritance() throws Exception {
+        final EntitiesDescriptor group = buildXMLObject(EntitiesDescriptor.DEFAULT_ELEMENT_NAME);
+        group.setExtensions(buildExtensions(buildTag("shared", null), buildTag("groupOnly", Attribute.URI_REFERENCE)));
+
+        final EntityDescriptor entity = buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        entity.setEntityID("https://sp.example.org");
+        entity.setExtensions(buildExtensions(buildTag("shared", Attribute.URI_REFERENCE)));
+        group.getEntityDescriptors().add(entity);
+
+        final NodeProcessingMetadataFilter filter = new NodeProcessingMetadataFilter();
+        filter.setNodeProcessors(
+                Collections.<MetadataNodeProcessor>singletonList(new EntityAttributesIndexNodeProcessor()));
+        filter.initialize();
+        filter.filter(group);
+
+        final EntityAttributesIndex index = EntityAttributesIndex.get(entity);
+        Assert.assertNotNull(index);
+
+        Assert.assertEquals(index.getEntityTags("shared").size(), 1);
+        Assert.assertEquals(index.getEntityTags("shared").get(0).getNameFormat(), Attribute.URI_REFERENCE);
+        Assert.assertTrue(index.getEntityTags("groupOnly").isEmpty());
+
+        Assert.assertEquals(index.getInheritedTags("shared").size(), 2);
+        Assert.assertSame(index.getInheritedTags("shared").get(0), index.getEntityTags("shared").get(0));
+        Assert.assertNull(index.getInheritedTags("shared").get(1).getNameFormat());
+        Assert.assertEquals(index.getInheritedTags("groupOnly").size(), 1);
+        Assert.assertTrue(index.getInheritedTags("missing").isEmpty());
+    }
+
+    private Extensions buildExtensions(final Attribute... tags) {
+        final EntityAttributes entityAttributes = buildXMLObject(EntityAttributes.DEFAULT_ELEMENT_NAME);
+        for (final Attribute tag : tags) {
+            entityAttributes.getAttributes().add(tag);
+        }
+        final Extensions extensions = buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+        extensions.getUnknownXMLObjects().add(entityAttributes);
+        return extensions;
+    }
+
+    private Attribute buildTag(final String name, final String format) {
+        final Attribute tag = buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+        tag.setName(name);
+        tag.setNameFormat(format);
+        return tag;
+    }
+}
@@ -34,6 +34,7 @@ import net.shibboleth.utilities.java.support.component.ComponentInitializationEx
 import net.shibboleth.utilities.java.support.component.UninitializedComponentException;
 import net.shibboleth.utilities.java.support.component.UnmodifiableComponentException;
 
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -172,4 +173,46 @@ public class DatabaseBackedIDStoreTest {
         Assert.assertTrue(comparePersistentIdEntrys(gotback, id));
     }
     
-}
\ No newline at end of file
+    @Test public void cachedEntries() throws ComponentInitializationException, IOException {
+        final MemoryStorageService storage = new MemoryStorageService();
+        storage.setId("invalidations");
+        storage.initialize();
+
+        final JDBCPersistentIdStoreEx store = new JDBCPersistentIdStoreEx();
+        store.setDataSource(testSource);
+        store.setCacheSize(100);
+        store.setInvalidationStorage(storage);
+        store.initialize();
+
+        final JDBCPersistentIdStoreEx otherStore = new JDBCPersistentIdStoreEx();
+        otherStore.setDataSource(testSource);
+        otherStore.setCacheSize(100);
+        otherStore.setInvalidationStorage(storage);
+        otherStore.initialize();
+
+        final PersistentIdEntry created = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotNull(created);
+        Assert.assertSame(store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null),
+                created);
+
+        final PersistentIdEntry issued = otherStore.getByIssuedValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, created.getPersistentId());
+        Assert.assertNotNull(issued);
+        Assert.assertSame(otherStore.getByIssuedValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, created.getPersistentId()), issued);
+
+        store.deactivate(DatabaseTestingSupport.IDP_ENTITY_ID, DatabaseTestingSupport.SP_ENTITY_ID,
+                created.getPersistentId(), null);
+
+        Assert.assertNull(otherStore.getByIssuedValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, created.getPersistentId()));
+        final PersistentIdEntry replacement = store.getBySourceValue(DatabaseTestingSupport.IDP_ENTITY_ID,
+                DatabaseTestingSupport.SP_ENTITY_ID, "localID", DatabaseTestingSupport.PRINCIPAL_ID, true, null);
+        Assert.assertNotEquals(replacement.getPersistentId(), created.getPersistentId());
+
+        storage.destroy();
+    }
+    
+}
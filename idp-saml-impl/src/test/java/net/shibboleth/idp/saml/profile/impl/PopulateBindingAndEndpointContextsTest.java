@@ -25,6 +25,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
@@ -36,6 +37,8 @@ import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileR
 import net.shibboleth.idp.saml.saml2.profile.config.BrowserSSOProfileConfiguration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
 import org.opensaml.core.xml.XMLObjectBaseTestCase;
@@ -325,6 +328,57 @@ public class PopulateBindingAndEndpointContextsTest extends XMLObjectBaseTestCas
         Assert.assertEquals(epCtx.getEndpoint().getLocation(), LOCATION_POST);
     }
 
+    /** Resolution against the same metadata is cached. */
+    @Test
+    public void testCachedInMetadata() throws UnmarshallingException, ComponentInitializationException {
+        final AtomicInteger resolutions = new AtomicInteger();
+        final PopulateBindingAndEndpointContexts cachingAction = new PopulateBindingAndEndpointContexts();
+        cachingAction.setEndpointResolver(new DefaultEndpointResolver<AssertionConsumerService>() {
+            @Override
+            public AssertionConsumerService resolveSingle(final CriteriaSet criteria) throws ResolverException {
+                resolutions.incrementAndGet();
+                return super.resolveSingle(criteria);
+            }
+        });
+        cachingAction.setEndpointType(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+        final BindingDescriptor binding = new BindingDescriptor();
+        binding.setId(SAMLConstants.SAML2_POST_BINDING_URI);
+        binding.initialize();
+        cachingAction.setBindings(Collections.singletonList(binding));
+        cachingAction.setEndpointCache(new MetadataResultCache<Integer>(10, 60000));
+        cachingAction.initialize();
+        
+        final EntityDescriptor entity = loadMetadata("/net/shibboleth/idp/saml/impl/profile/SPWithEndpoints.xml");
+        final SAMLMetadataContext mdCtx = new SAMLMetadataContext();
+        mdCtx.setEntityDescriptor(entity);
+        mdCtx.setRoleDescriptor(entity.getSPSSODescriptor("required"));
+        prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true).addSubcontext(mdCtx);
+        
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertEquals(resolutions.get(), 1);
+        
+        final SAMLEndpointContext epCtx = prc.getOutboundMessageContext().getSubcontext(
+                SAMLPeerEntityContext.class, false).getSubcontext(SAMLEndpointContext.class, false);
+        Assert.assertEquals(epCtx.getEndpoint().getBinding(), SAMLConstants.SAML2_POST_BINDING_URI);
+        Assert.assertEquals(epCtx.getEndpoint().getLocation(), LOCATION_POST);
+        Assert.assertSame(epCtx.getEndpoint().getParent(), mdCtx.getRoleDescriptor());
+
+        // A different location is resolved afresh, and fails.
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(LOCATION);
+        ActionTestingSupport.assertEvent(cachingAction.execute(rc), SAMLEventIds.ENDPOINT_RESOLUTION_FAILED);
+        Assert.assertEquals(resolutions.get(), 2);
+        
+        // Refreshed metadata is resolved afresh.
+        ((AuthnRequest) prc.getInboundMessageContext().getMessage()).setAssertionConsumerServiceURL(LOCATION_POST);
+        final EntityDescriptor refreshed =
+                loadMetadata("/net/shibboleth/idp/saml/impl/profile/SPWithEndpoints.xml");
+        mdCtx.setEntityDescriptor(refreshed);
+        mdCtx.setRoleDescriptor(refreshed.getSPSSODescriptor("required"));
+        ActionTestingSupport.assertProceedEvent(cachingAction.execute(rc));
+        Assert.assertEquals(resolutions.get(), 3);
+    }
+
     /** Requested index is in metadata. */
     @Test
     public void testIndexInMetadata() throws UnmarshallingException {
@@ -17,7 +17,10 @@
 
 package net.shibboleth.idp.saml.saml2.profile.impl;
 
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.shibboleth.idp.profile.ActionTestingSupport;
 import net.shibboleth.idp.profile.IdPEventIds;
@@ -25,6 +28,7 @@ import net.shibboleth.idp.profile.RequestContextBuilder;
 import net.shibboleth.idp.profile.config.ProfileConfiguration;
 import net.shibboleth.idp.profile.context.RelyingPartyContext;
 import net.shibboleth.idp.profile.context.navigate.WebflowRequestContextProfileRequestContextLookup;
+import net.shibboleth.idp.saml.profile.impl.MetadataResultCache;
 import net.shibboleth.idp.saml.saml2.profile.config.BrowserSSOProfileConfiguration;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.logic.Constraint;
@@ -32,12 +36,21 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 
 import org.opensaml.core.OpenSAMLInitBaseTestCase;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.profile.action.EventIds;
 import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.messaging.context.SAMLMetadataContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml.saml2.profile.context.EncryptionContext;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialContext;
+import org.opensaml.security.crypto.KeySupport;
 import org.opensaml.xmlsec.EncryptionParameters;
 import org.opensaml.xmlsec.EncryptionParametersResolver;
 import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
+import org.opensaml.xmlsec.impl.BasicEncryptionParametersResolver;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 import org.testng.Assert;
@@ -136,10 +149,69 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
         Assert.assertNull(ctx.getAttributeEncryptionParameters());
     }
     
+    @Test public void testCached() throws Exception {
+        final MockResolver resolver = new MockResolver(false);
+        action.setEncryptionParametersResolver(resolver);
+        action.setParametersCache(new MetadataResultCache<EncryptionParameters>(10, 60000));
+        action.initialize();
+        
+        addRoleDescriptor();
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        final EncryptionContext ctx =
+                prc.getSubcontext(RelyingPartyContext.class).getSubcontext(EncryptionContext.class);
+        final EncryptionParameters first = ctx.getAssertionEncryptionParameters();
+        Assert.assertNotNull(first);
+        first.setKeyTransportEncryptionAlgorithm("urn:changed");
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        final EncryptionParameters second = ctx.getAssertionEncryptionParameters();
+        Assert.assertEquals(resolver.resolutions, 1);
+        Assert.assertNotSame(second, first);
+        Assert.assertEquals(second.getKeyTransportEncryptionAlgorithm(), "urn:test");
+        
+        // The cached credential keeps its key but not its context.
+        final Credential credential = second.getKeyTransportEncryptionCredential();
+        Assert.assertEquals(credential.getPublicKey(), first.getKeyTransportEncryptionCredential().getPublicKey());
+        Assert.assertFalse(first.getKeyTransportEncryptionCredential().getCredentialContextSet().isEmpty());
+        Assert.assertTrue(credential.getCredentialContextSet().isEmpty());
+    }
+
+    @Test public void testNotCachedWithGeneratedKeys() throws Exception {
+        final AtomicInteger resolutions = new AtomicInteger();
+        final BasicEncryptionParametersResolver resolver = new BasicEncryptionParametersResolver() {
+            @Override public EncryptionParameters resolveSingle(final CriteriaSet criteria) throws ResolverException {
+                resolutions.incrementAndGet();
+                return new EncryptionParameters();
+            }
+        };
+        resolver.setAutoGenerateDataEncryptionCredential(true);
+        action.setEncryptionParametersResolver(resolver);
+        action.setParametersCache(new MetadataResultCache<EncryptionParameters>(10, 60000));
+        action.initialize();
+        
+        addRoleDescriptor();
+        
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        ActionTestingSupport.assertProceedEvent(action.execute(rc));
+        Assert.assertEquals(resolutions.get(), 2);
+    }
+    
+    private void addRoleDescriptor() {
+        final SAMLPeerEntityContext peerCtx =
+                prc.getOutboundMessageContext().getSubcontext(SAMLPeerEntityContext.class, true);
+        peerCtx.setEntityId("https://sp.example.org");
+        final SPSSODescriptor role = (SPSSODescriptor) XMLObjectSupport.buildXMLObject(
+                SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        peerCtx.getSubcontext(SAMLMetadataContext.class, true).setRoleDescriptor(role);
+    }
+    
     private class MockResolver implements EncryptionParametersResolver {
 
         private boolean throwException;
         
+        private int resolutions;
+        
         public MockResolver(final boolean shouldThrow) {
             throwException = shouldThrow;
         }
@@ -158,7 +230,19 @@ public class PopulateEncryptionParametersTest extends OpenSAMLInitBaseTestCase {
             }
             
             Constraint.isNotNull(criteria.get(EncryptionConfigurationCriterion.class), "Criterion was null");
-            return new EncryptionParameters();
+            resolutions++;
+            
+            final EncryptionParameters params = new EncryptionParameters();
+            params.setKeyTransportEncryptionAlgorithm("urn:test");
+            try {
+                final BasicCredential credential =
+                        new BasicCredential(KeySupport.generateKeyPair("RSA", 1024, null).getPublic());
+                credential.getCredentialContextSet().add(new CredentialContext() {});
+                params.setKeyTransportEncryptionCredential(credential);
+            } catch (final NoSuchAlgorithmException | NoSuchProviderException e) {
+                throw new ResolverException(e);
+            }
+            return params;
         }
         
     }
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.saml.security.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.security.x509.BasicPKIXValidationInformation;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.security.x509.PKIXTrustEvaluator;
+import org.opensaml.security.x509.PKIXValidationInformation;
+import org.opensaml.security.x509.PKIXValidationOptions;
+import org.opensaml.security.x509.X509Credential;
+import org.opensaml.security.x509.X509Support;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Unit test for {@link CachingPKIXTrustEvaluator}. */
+public class CachingPKIXTrustEvaluatorTest {
+
+    private static final String CERT_BASE64 = ""
+            + "MIIDFzCCAf+gAwIBAgIUXh4JjpV+UtjcEYLzsGP8cHH2l/4wDQYJKoZIhvcNAQEL"
+            + "BQAwGzEZMBcGA1UEAwwQdGVzdC5leGFtcGxlLm9yZzAeFw0yNjEwMTcwMTM2MjBa"
+            + "Fw00NjEwMTIwMTM2MjBaMBsxGTAXBgNVBAMMEHRlc3QuZXhhbXBsZS5vcmcwggEi"
+            + "MA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQDa6Z3C5EnO7l4H7YgtYGv6uoJd"
+            + "wNPTrtreTZzIpZkv2+uTKmduOAaubgRJXkkrLUSICgQ9inT0tA4dxstfqA+eJ7NJ"
+            + "XcRqdq1mNP10wXRtVQOm4rPovUv/5ctrr1yWhYVC+5aea5h9Hx3kc0/U/wklpc/i"
+            + "qDAjvEaViiMszXR2RZ/BQaDkmTtwXSBNuA5wvilr+CLYdG5kf+4D2DIW05H7Jtx+"
+            + "e3uwNW4N+qCDUxHyrG55i0emYBJFgjrElUYS6Au9k/OUZE3RRN5KIq1ql/MdcpqJ"
+            + "Ado8euvmeK7eC2pQspIdOKq/SEenEaO9NBcnsniXTFn9cOTKKbrJADyjADGHAgMB"
+            + "AAGjUzBRMB0GA1UdDgQWBBT9q1aD7zGutwyQlMTnwHnX9cKVdzAfBgNVHSMEGDAW"
+            + "gBT9q1aD7zGutwyQlMTnwHnX9cKVdzAPBgNVHRMBAf8EBTADAQH/MA0GCSqGSIb3"
+            + "DQEBCwUAA4IBAQAfVfbFHsmTwJBV6EGk0AxndUYR9rUz95G9FGyM9Aru5zeXnDOB"
+            + "ObOdyUJerS87QB4AGhfBq/TwE539G0elx/mn9EbeidtSOfIHJRHYXBVHJS0Ii97t"
+            + "mZr1qlbEJuXLhGtkFQXPvvEQWP1ZfsxOmx3DyoO9MEVbuvLcgBwxmkzwNmNlSfIF"
+            + "OEvUsujizsOTnHLch8s/DM/06SqkcOD9etrqeYeZBl1KdFt4eTEE7VW+h3b4erhr"
+            + "vUAD6bCJCRxpOfa4Xf9lH8Zi8z0Ghb9qiH8CxbVgoiLG68zTOvff1tc3zyX+rTV2"
+            + "m5e/fS1nmIHBHLS5vnICjAG6L8ArEmUz4i+O";
+
+    private CountingEvaluator delegate;
+
+    private X509Credential credential;
+
+    @BeforeMethod public void setUp() throws CertificateException {
+        delegate = new CountingEvaluator();
+        final X509Certificate cert = X509Support.decodeCertificate(CERT_BASE64);
+        credential = new BasicX509Credential(cert);
+    }
+
+    @Test public void testCachesSuccess() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = newInfo();
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 1);
+
+        evaluator.invalidateAll();
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testNewValidationInfo() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+
+        Assert.assertTrue(evaluator.validate(newInfo(), credential));
+        Assert.assertTrue(evaluator.validate(newInfo(), credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testFailureNotCached() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = newInfo();
+        delegate.result = false;
+
+        Assert.assertFalse(evaluator.validate(info, credential));
+        Assert.assertFalse(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testDisabled() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 0, 60000);
+        final PKIXValidationInformation info = newInfo();
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testMaxDuration() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 100);
+        final PKIXValidationInformation info = newInfo();
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 1);
+
+        Thread.sleep(200);
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testExpiredChain() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = newInfo();
+        final BasicX509Credential chainCredential = new BasicX509Credential(credential.getEntityCertificate());
+        chainCredential.setEntityCertificateChain(Arrays.asList(credential.getEntityCertificate(),
+                mockCertificate(System.currentTimeMillis() - 1000)));
+
+        Assert.assertTrue(evaluator.validate(info, chainCredential));
+        Assert.assertTrue(evaluator.validate(info, chainCredential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testAnchorExpiry() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = new BasicPKIXValidationInformation(
+                Collections.singletonList(mockCertificate(System.currentTimeMillis() + 200)), null, 1);
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 1);
+
+        Thread.sleep(300);
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testExpiredAnchor() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = new BasicPKIXValidationInformation(
+                Collections.singletonList(mockCertificate(System.currentTimeMillis() - 1000)), null, 1);
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testCRLNextUpdate() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation info = new BasicPKIXValidationInformation(
+                Collections.<X509Certificate>emptyList(),
+                Collections.singletonList(mockCRL(new Date(System.currentTimeMillis() + 200))), 1);
+
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 1);
+
+        Thread.sleep(300);
+        Assert.assertTrue(evaluator.validate(info, credential));
+        Assert.assertEquals(delegate.count, 2);
+    }
+
+    @Test public void testStaleCRL() throws Exception {
+        final CachingPKIXTrustEvaluator evaluator = new CachingPKIXTrustEvaluator(delegate, 10, 60000);
+        final PKIXValidationInformation staleInfo = new BasicPKIXValidationInformation(
+                Collections.<X509Certificate>emptyList(),
+                Collections.singletonList(mockCRL(new Date(System.currentTimeMillis() - 1000))), 1);
+
+        Assert.assertTrue(evaluator.validate(staleInfo, credential));
+        Assert.assertTrue(evaluator.validate(staleInfo, credential));
+        Assert.assertEquals(delegate.count, 2);
+
+        final PKIXValidationInformation openInfo = new BasicPKIXValidationInformation(
+                Collections.<X509Certificate>emptyList(), Collections.singletonList(mockCRL(null)), 1);
+        Assert.assertTrue(evaluator.validate(openInfo, credential));
+        Assert.assertTrue(evaluator.validate(openInfo, credential));
+        Assert.assertEquals(delegate.count, 3);
+    }
+
+    @Nonnull private PKIXValidationInformation newInfo() {
+        return new BasicPKIXValidationInformation(Collections.<X509Certificate>emptyList(), null, 1);
+    }
+
+    /**
+     * Build a certificate that expires at a given time.
+     * 
+     * @param notAfter expiry time
+     * 
+     * @return the certificate
+     * 
+     * @throws CertificateEncodingException never
+     */
+    @Nonnull private X509Certificate mockCertificate(final long notAfter) throws CertificateEncodingException {
+        final X509Certificate cert = mock(X509Certificate.class);
+        when(cert.getNotAfter()).thenReturn(new Date(notAfter));
+        when(cert.getEncoded()).thenReturn(new byte[] {(byte) notAfter});
+        return cert;
+    }
+
+    /**
+     * Build a CRL with a given next update time.
+     * 
+     * @param nextUpdate next update time, or null
+     * 
+     * @return the CRL
+     */
+    @Nonnull private X509CRL mockCRL(@Nullable final Date nextUpdate) {
+        final X509CRL crl = mock(X509CRL.class);
+        when(crl.getNextUpdate()).thenReturn(nextUpdate);
+        return crl;
+    }
+
+    /** Evaluator returning a fixed result and counting its calls. */
+    private static class CountingEvaluator implements PKIXTrustEvaluator {
+
+        private int count;
+
+        private boolean result = true;
+
+        /** {@inheritDoc} */
+        public boolean validate(final PKIXValidationInformation validationInfo,
+                final X509Credential untrustedCredential) {
+            count++;
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        public PKIXValidationOptions getPKIXValidationOptions() {
+            return new PKIXValidationOptions();
+        }
+    }
+
+}
@@ -70,6 +70,15 @@ public abstract class AbstractSPSessionSerializer extends AbstractInitializableC
         expirationOffset = Constraint.isGreaterThanOrEqual(0, offset, "Offset must be greater than or equal to zero");
     }
 
+    /**
+     * Get the milliseconds to subtract from record expiration to establish session expiration value.
+     * 
+     * @return the expiration offset
+     */
+    @Duration @NonNegative protected long getExpirationOffset() {
+        return expirationOffset;
+    }
+
     /** {@inheritDoc} */
     @Override
     @Nonnull @NotEmpty public String serialize(@Nonnull final SPSession instance) throws IOException {
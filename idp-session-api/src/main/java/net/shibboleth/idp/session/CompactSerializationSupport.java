@@ -0,0 +1,133 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+
+/**
+ * Helper class for serializers that can write records in a compact binary form instead of JSON.
+ * 
+ * <p>The binary form has to be stored as a string, so it is Base64-encoded. Records large enough to benefit are
+ * deflated first, which more than recovers the encoding overhead, and are marked with a leading
+ * {@link #DEFLATED_PREFIX}. Neither form can begin with '{', so JSON records remain distinguishable.</p>
+ */
+public final class CompactSerializationSupport {
+
+    /** Prefix marking a deflated record. */
+    public static final char DEFLATED_PREFIX = '~';
+
+    /** Records smaller than this are not worth deflating. */
+    private static final int DEFLATE_THRESHOLD = 128;
+
+    /** Constructor. */
+    private CompactSerializationSupport() {
+        
+    }
+
+    /**
+     * Get whether a stored record is in JSON form rather than the compact form.
+     * 
+     * @param value the stored record
+     * 
+     * @return true iff the record is JSON
+     */
+    public static boolean isJSON(@Nullable final String value) {
+        return value != null && value.startsWith("{");
+    }
+
+    /**
+     * Encode a binary record for storage, deflating it if that makes it smaller.
+     * 
+     * @param data the binary record
+     * 
+     * @return the encoded record
+     */
+    @Nonnull @NotEmpty public static String encode(@Nonnull final byte[] data) {
+        if (data.length >= DEFLATE_THRESHOLD) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                final byte[] buffer = new byte[data.length];
+                final int length = deflater.deflate(buffer);
+                if (deflater.finished() && length < data.length) {
+                    final byte[] deflated = new byte[length];
+                    System.arraycopy(buffer, 0, deflated, 0, length);
+                    return DEFLATED_PREFIX + Base64Support.encode(deflated, Base64Support.UNCHUNKED);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        
+        return Base64Support.encode(data, Base64Support.UNCHUNKED);
+    }
+
+    /**
+     * Decode a stored record produced by {@link #encode(byte[])}.
+     * 
+     * @param value the stored record
+     * 
+     * @return the binary record
+     * @throws IOException if the record is malformed
+     */
+    @Nonnull public static byte[] decode(@Nonnull @NotEmpty final String value) throws IOException {
+        final boolean deflated = value.charAt(0) == DEFLATED_PREFIX;
+        final byte[] data;
+        try {
+            data = Base64Support.decode(deflated ? value.substring(1) : value);
+        } catch (final RuntimeException e) {
+            throw new IOException("Record is not validly encoded", e);
+        }
+        if (data == null || data.length == 0) {
+            throw new IOException("Record is empty or not validly encoded");
+        } else if (!deflated) {
+            return data;
+        }
+        
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            final byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Deflated record is truncated");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (final DataFormatException e) {
+            throw new IOException("Deflated record is malformed", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link CompactSerializationSupport} unit test. */
+public class CompactSerializationSupportTest {
+
+    @Test public void testSmall() throws Exception {
+        final byte[] data = {1, 2, 3, 4};
+        
+        final String encoded = CompactSerializationSupport.encode(data);
+        Assert.assertEquals(encoded, "AQIDBA==");
+        Assert.assertFalse(CompactSerializationSupport.isJSON(encoded));
+        Assert.assertTrue(Arrays.equals(CompactSerializationSupport.decode(encoded), data));
+    }
+
+    @Test public void testDeflated() throws Exception {
+        final byte[] data = new byte[1024];
+        Arrays.fill(data, (byte) 'x');
+        
+        final String encoded = CompactSerializationSupport.encode(data);
+        Assert.assertEquals(encoded.charAt(0), CompactSerializationSupport.DEFLATED_PREFIX);
+        Assert.assertTrue(encoded.length() < data.length);
+        Assert.assertFalse(CompactSerializationSupport.isJSON(encoded));
+        Assert.assertTrue(Arrays.equals(CompactSerializationSupport.decode(encoded), data));
+    }
+
+    @Test public void testIncompressible() throws Exception {
+        final byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 167 + 13);
+        }
+        
+        final String encoded = CompactSerializationSupport.encode(data);
+        Assert.assertNotEquals(encoded.charAt(0), CompactSerializationSupport.DEFLATED_PREFIX);
+        Assert.assertTrue(Arrays.equals(CompactSerializationSupport.decode(encoded), data));
+    }
+
+    @Test public void testJSON() {
+        Assert.assertTrue(CompactSerializationSupport.isJSON("{\"id\":\"test\"}"));
+        Assert.assertFalse(CompactSerializationSupport.isJSON(null));
+    }
+
+    @Test public void testInvalid() {
+        for (final String value : new String[] {"~AQID", "~", "~~~~"}) {
+            try {
+                CompactSerializationSupport.decode(value);
+                Assert.fail(value);
+            } catch (final IOException e) {
+                
+            }
+        }
+    }
+
+}
@@ -17,25 +17,48 @@
 
 package net.shibboleth.idp.session.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.json.JsonObject;
 
 import net.shibboleth.idp.session.AbstractSPSessionSerializer;
 import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.CompactSerializationSupport;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.utilities.java.support.annotation.Duration;
 import net.shibboleth.utilities.java.support.annotation.constraint.NonNegative;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A serializer for {@link BasicSPSession} objects.
+ * 
+ * <p>Sessions are written as JSON unless {@link #setCompactSerialization(boolean)} is set, in which case a
+ * versioned binary form is written instead. Both forms are always readable.</p>
  */
 @ThreadSafe
 public class BasicSPSessionSerializer extends AbstractSPSessionSerializer {
+
+    /** Version of the compact format. */
+    private static final byte COMPACT_FORMAT_VERSION = 1;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BasicSPSessionSerializer.class);
+
+    /** Whether to write the compact binary format instead of JSON. */
+    private boolean compactSerialization;
     
     /**
      * Constructor.
@@ -46,6 +69,76 @@ public class BasicSPSessionSerializer extends AbstractSPSessionSerializer {
         super(offset);
     }
 
+    /**
+     * Get whether sessions are written in a compact binary format instead of JSON.
+     * 
+     * @return true iff the compact format is written
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether sessions are written in a compact binary format instead of JSON.
+     * 
+     * <p>Defaults to false. Either format is read regardless of this setting. The compact format carries only
+     * the basic session data, so subclasses that override
+     * {@link #doSerializeAdditional(SPSession, javax.json.stream.JsonGenerator)} should not enable it.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        
+        compactSerialization = flag;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull @NotEmpty public String serialize(@Nonnull final SPSession instance) throws IOException {
+        if (!compactSerialization) {
+            return super.serialize(instance);
+        }
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(COMPACT_FORMAT_VERSION);
+        out.writeUTF(instance.getId());
+        out.writeLong(instance.getCreationInstant());
+        out.flush();
+        
+        return CompactSerializationSupport.encode(bytes.toByteArray());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public SPSession deserialize(final long version, @Nonnull @NotEmpty final String context,
+            @Nonnull @NotEmpty final String key, @Nonnull @NotEmpty final String value, @Nullable final Long expiration)
+                    throws IOException {
+        
+        if (expiration == null || CompactSerializationSupport.isJSON(value)) {
+            return super.deserialize(version, context, key, value, expiration);
+        }
+        
+        try {
+            final DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(CompactSerializationSupport.decode(value)));
+            final byte formatVersion = in.readByte();
+            if (formatVersion != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unsupported SPSession format version " + formatVersion);
+            }
+            
+            final String serviceId = in.readUTF();
+            final long creation = in.readLong();
+            
+            return new BasicSPSession(serviceId, creation, expiration - getExpirationOffset());
+            
+        } catch (final EOFException | IllegalArgumentException e) {
+            log.error("Exception while parsing SPSession", e);
+            throw new IOException("Found invalid data structure while parsing SPSession", e);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override 
     @Nonnull protected SPSession doDeserialize(@Nonnull final JsonObject obj,
@@ -18,9 +18,19 @@
 package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -64,6 +74,12 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     /** Storage version used to synchronize changes. */
     private long version;
     
+    /** Activity instant last written to the master record. */
+    @Duration private volatile long persistedActivityInstant;
+    
+    /** Activity instants last written to result records, keyed by flow ID. */
+    @Nonnull private final Map<String, Long> persistedResultActivity;
+    
     /**
      * Constructor.
      *
@@ -80,18 +96,34 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         sessionManager = Constraint.isNotNull(manager, "SessionManager cannot be null");
         
         version = 1;
+        persistedActivityInstant = creationTime;
+        persistedResultActivity = new ConcurrentHashMap<>();
     }
     
     /** {@inheritDoc} */
     @Override @Duration public void setLastActivityInstant(@Duration @Positive final long instant) 
             throws SessionException {
         
+        if (instant >= persistedActivityInstant
+                && instant - persistedActivityInstant < sessionManager.getActivityUpdateInterval()) {
+            log.trace("Skipping update of master record for session {}, activity recently recorded", getId());
+            super.setLastActivityInstant(instant);
+            return;
+        }
+        
         final long exp = instant + sessionManager.getSessionTimeout() + sessionManager.getSessionSlop();
         log.debug("Updating expiration of master record for session {} to {}", getId(), new DateTime(exp));
         
         try {
-            sessionManager.getStorageService().updateExpiration(
-                    getId(), StorageBackedSessionManager.SESSION_MASTER_KEY, exp);
+            // The marker only advances once storage reflects it, which may be later if the write is asynchronous.
+            sessionManager.updateExpiration(getId(), StorageBackedSessionManager.SESSION_MASTER_KEY, exp,
+                    new Runnable() {
+                        public void run() {
+                            if (instant > persistedActivityInstant) {
+                                persistedActivityInstant = instant;
+                            }
+                        }
+                    });
             super.setLastActivityInstant(instant);
         } catch (final IOException e) {
             log.error("Exception updating expiration of master record for session {}", getId(), e);
@@ -154,24 +186,11 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     @Nonnull @NonnullElements @NotLive @Unmodifiable public Set<AuthenticationResult> getAuthenticationResults() {
         
         // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-        final Iterator<Map.Entry<String, Optional<AuthenticationResult>>> entries =
-                getAuthenticationResultMap().entrySet().iterator();
-        while (entries.hasNext()) {
-            final Map.Entry<String, Optional<AuthenticationResult>> entry = entries.next();
-            if (!entry.getValue().isPresent()) {
-                try {
-                    final AuthenticationResult result = loadAuthenticationResultFromStorage(entry.getKey());
-                    if (result != null) {
-                        entry.setValue(Optional.of(result));
-                    } else {
-                        // A null here means the reference to the record should be removed.
-                        entries.remove();
-                    }
-                } catch (final IOException e) {
-                    // An exception implies the record *might* still be accessible later.
-                }
+        loadSparseEntries(getAuthenticationResultMap(), new RecordLoader<AuthenticationResult>() {
+            public AuthenticationResult load(@Nonnull @NotEmpty final String key) throws IOException {
+                return loadAuthenticationResultFromStorage(key);
             }
-        }
+        });
         
         return super.getAuthenticationResults();
     }
@@ -252,10 +271,25 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         final String flowId = result.getAuthenticationFlowId();
         final AuthenticationFlowDescriptor flow = sessionManager.getAuthenticationFlowDescriptor(flowId);
         if (flow != null) {
+            final Long persisted = persistedResultActivity.get(flowId);
+            if (persisted != null && result.getLastActivityInstant() >= persisted
+                    && result.getLastActivityInstant() - persisted < sessionManager.getActivityUpdateInterval()) {
+                log.trace("Skipping update of AuthenticationResult for flow {} in session {}, activity recently "
+                        + "recorded", flowId, getId());
+                return;
+            }
+            final long instant = result.getLastActivityInstant();
             try {
-                if (!sessionManager.getStorageService().updateExpiration(getId(), result.getAuthenticationFlowId(),
-                        result.getLastActivityInstant() + flow.getInactivityTimeout()
-                            + AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET)) {
+                if (!sessionManager.updateExpiration(getId(), flowId,
+                        instant + flow.getInactivityTimeout() + AuthenticationFlowDescriptor.STORAGE_EXPIRATION_OFFSET,
+                        new Runnable() {
+                            public void run() {
+                                final Long current = persistedResultActivity.get(flowId);
+                                if (current == null || instant > current) {
+                                    persistedResultActivity.put(flowId, instant);
+                                }
+                            }
+                        })) {
                     log.warn("Skipping update, AuthenticationResult for flow {} in session {} not found in storage",
                             flowId, getId());
                 }
@@ -323,24 +357,11 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         
         if (sessionManager.isTrackSPSessions() && sessionManager.storageServiceMeetsThreshold()) {
             // Check for any sparse/null values in the map, which need to be loaded before returning a complete set.
-            final Iterator<Map.Entry<String, Optional<SPSession>>> entries =
-                    getSPSessionMap().entrySet().iterator();
-            while (entries.hasNext()) {
-                final Map.Entry<String, Optional<SPSession>> entry = entries.next();
-                if (!entry.getValue().isPresent()) {
-                    try {
-                        final SPSession result = loadSPSessionFromStorage(entry.getKey());
-                        if (result != null) {
-                            entry.setValue(Optional.of(result));
-                        } else {
-                            // A null here means the reference to the record should be removed.
-                            entries.remove();
-                        }
-                    } catch (final IOException e) {
-                        // An exception implies the record *might* still be accessible later.
-                    }
+            loadSparseEntries(getSPSessionMap(), new RecordLoader<SPSession>() {
+                public SPSession load(@Nonnull @NotEmpty final String key) throws IOException {
+                    return loadSPSessionFromStorage(key);
                 }
-            }
+            });
         }
         
         return super.getSPSessions();
@@ -485,7 +506,9 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     /** {@inheritDoc} */
     @Override
     public boolean checkTimeout() throws SessionException {
-        if (getLastActivityInstant() + sessionManager.getSessionTimeout() > System.currentTimeMillis()) {
+        // The stored activity time may lag by up to the update interval, so that much is tolerated.
+        if (getLastActivityInstant() + sessionManager.getSessionTimeout() + sessionManager.getActivityUpdateInterval()
+                > System.currentTimeMillis()) {
             return super.checkTimeout();
         } else {
             return false;
@@ -509,6 +532,15 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
     protected void setVersion(final long ver) {
         version = ver;
     }
+    
+    /**
+     * Set the activity instant last written to the master record.
+     * 
+     * @param instant activity instant reflected by the stored record's expiration
+     */
+    protected void setPersistedActivityInstant(@Duration final long instant) {
+        persistedActivityInstant = instant;
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -522,6 +554,112 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         return super.getSPSessionMap();
     }
     
+    /**
+     * Load any sparse entries in a map of lazily-loaded records.
+     * 
+     * <p>The {@link org.opensaml.storage.StorageService} API has no multi-key read, so if the parent
+     * {@link StorageBackedSessionManager} has been supplied with an executor, the individual reads are issued
+     * concurrently and the results applied to the map once all have completed. Otherwise they are performed
+     * serially.</p>
+     * 
+     * @param <T> type of record
+     * @param map the map to populate
+     * @param loader loads a single record
+     */
+    private <T> void loadSparseEntries(@Nonnull @NonnullElements @Live final Map<String, Optional<T>> map,
+            @Nonnull final RecordLoader<T> loader) {
+        
+        final List<String> sparseKeys = new ArrayList<>();
+        for (final Map.Entry<String, Optional<T>> entry : map.entrySet()) {
+            if (!entry.getValue().isPresent()) {
+                sparseKeys.add(entry.getKey());
+            }
+        }
+        
+        if (sparseKeys.isEmpty()) {
+            return;
+        }
+        
+        final ExecutorService executor = sessionManager.getBatchReadExecutor();
+        if (executor == null || sparseKeys.size() == 1) {
+            for (final String key : sparseKeys) {
+                try {
+                    applyLoadedEntry(map, key, loader.load(key));
+                } catch (final IOException e) {
+                    // An exception implies the record *might* still be accessible later.
+                }
+            }
+            return;
+        }
+        
+        log.debug("Loading {} records in session {} concurrently", sparseKeys.size(), getId());
+        final long deadline = System.currentTimeMillis() + sessionManager.getBatchReadTimeout();
+        final Map<String, Future<T>> futures = new LinkedHashMap<>(sparseKeys.size());
+        for (final String key : sparseKeys) {
+            try {
+                futures.put(key, executor.submit(new Callable<T>() {
+                    public T call() throws IOException {
+                        return loader.load(key);
+                    }
+                }));
+            } catch (final RejectedExecutionException e) {
+                log.debug("Batch read executor saturated, loading record {} in session {} directly", key, getId());
+                try {
+                    applyLoadedEntry(map, key, loader.load(key));
+                } catch (final IOException e2) {
+                    // An exception implies the record *might* still be accessible later.
+                }
+            }
+        }
+        
+        for (final Map.Entry<String, Future<T>> future : futures.entrySet()) {
+            try {
+                applyLoadedEntry(map, future.getKey(), future.getValue().get(
+                        Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+            } catch (final ExecutionException e) {
+                // As in the serial case, a storage exception implies the record *might* still be accessible later,
+                // but anything else is propagated.
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                log.warn("Unable to load record {} in session {}, leaving it unloaded", future.getKey(), getId(),
+                        cause);
+            } catch (final TimeoutException e) {
+                // Treated like a storage exception.
+                future.getValue().cancel(true);
+                log.warn("Timed out loading record {} in session {}, leaving it unloaded", future.getKey(), getId());
+            } catch (final InterruptedException e) {
+                log.warn("Interrupted while loading records in session {}", getId());
+                Thread.currentThread().interrupt();
+                for (final Future<T> remaining : futures.values()) {
+                    remaining.cancel(true);
+                }
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Apply the result of loading a sparse entry to a map.
+     * 
+     * @param <T> type of record
+     * @param map the map to update
+     * @param key the record key
+     * @param result the loaded record, or null if the record is missing or unusable
+     */
+    private <T> void applyLoadedEntry(@Nonnull @NonnullElements @Live final Map<String, Optional<T>> map,
+            @Nonnull @NotEmpty final String key, @Nullable final T result) {
+        if (result != null) {
+            map.put(key, Optional.of(result));
+        } else {
+            // A null here means the reference to the record should be removed.
+            map.remove(key);
+        }
+    }
+    
     /**
      * Loads an {@link AuthenticationResult} record from storage and deserializes it using the object
      * attached to the corresponding {@link AuthenticationFlowDescriptor}.
@@ -544,7 +682,9 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         try {
             final StorageRecord<AuthenticationResult> record = sessionManager.getStorageService().read(getId(), flowId);
             if (record != null) {
-                return record.getValue(flow, getId(), flowId);
+                final AuthenticationResult result = record.getValue(flow, getId(), flowId);
+                persistedResultActivity.put(flowId, result.getLastActivityInstant());
+                return result;
             } else {
                 log.debug("No AuthenticationResult for flow {} in session {}", flowId, getId());
                 return null;
@@ -593,6 +733,8 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
             if (!success) {
                 log.error("Exhausted retry attempts storing AuthenticationResult for flow {} in session {}",
                         flowId, getId());
+            } else {
+                persistedResultActivity.put(flowId, result.getLastActivityInstant());
             }
             
             return success;
@@ -733,6 +875,7 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
                 throw new IOException("Unable to update session, record disappeared");
             }
             version = ver;
+            persistedActivityInstant = getLastActivityInstant();
             return true;
         } catch (final VersionMismatchException e) {
             // The record has changed underneath. We need to deserialize the session back into the
@@ -749,4 +892,22 @@ public class StorageBackedIdPSession extends AbstractIdPSession {
         }
     }
     
-}
\ No newline at end of file
+
+    /**
+     * Loads a single record from storage.
+     * 
+     * @param <T> type of record
+     */
+    private interface RecordLoader<T> {
+        
+        /**
+         * Load the record.
+         * 
+         * @param key record key
+         * 
+         * @return the stored record, or null if the record is missing or unusable
+         * @throws IOException if a possibly transitory storage-related error occurs
+         */
+        @Nullable T load(@Nonnull @NotEmpty final String key) throws IOException;
+    }
+}
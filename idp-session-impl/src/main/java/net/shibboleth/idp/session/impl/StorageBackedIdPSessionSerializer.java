@@ -17,9 +17,15 @@
 
 package net.shibboleth.idp.session.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
@@ -36,6 +42,7 @@ import javax.json.stream.JsonGenerator;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.session.AbstractIdPSession;
+import net.shibboleth.idp.session.CompactSerializationSupport;
 import net.shibboleth.idp.session.SPSession;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
@@ -50,6 +57,10 @@ import com.google.common.base.Optional;
 /**
  * A serializer for instances of {@link StorageBackedIdPSession} designed in conjunction with the
  * {@link org.opensaml.storage.StorageService}-backed {@link net.shibboleth.idp.session.SessionManager} implementation.
+ * 
+ * <p>Records are written as JSON unless {@link StorageBackedSessionManager#isCompactSerialization()} is set, in
+ * which case a versioned binary form is written instead. Both forms are always readable, so the setting can be
+ * changed without invalidating existing sessions.</p>
  */
 @ThreadSafe
 public class StorageBackedIdPSessionSerializer extends AbstractInitializableComponent implements
@@ -73,6 +84,15 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     /** Field name of service ID array. */
     @Nonnull @NotEmpty private static final String SERVICE_ID_ARRAY_FIELD = "svcs";
 
+    /** Version of the compact format. */
+    private static final byte COMPACT_FORMAT_VERSION = 1;
+
+    /** Flag in the compact format indicating an IPv4 address is present. */
+    private static final byte IPV4_ADDRESS_FLAG = 0x01;
+
+    /** Flag in the compact format indicating an IPv6 address is present. */
+    private static final byte IPV6_ADDRESS_FLAG = 0x02;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StorageBackedIdPSessionSerializer.class);
 
@@ -101,6 +121,10 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     @Override @Nonnull @NotEmpty public String serialize(@Nonnull final StorageBackedIdPSession instance)
             throws IOException {
 
+        if (sessionManager.isCompactSerialization()) {
+            return serializeCompact(instance);
+        }
+        
         try {
             final StringWriter sink = new StringWriter(128);
             final JsonGenerator gen = jsonProvider.createGenerator(sink);
@@ -156,6 +180,8 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
 
         if (expiration == null) {
             throw new IOException("IdPSession objects must have an expiration");
+        } else if (!CompactSerializationSupport.isJSON(value)) {
+            return deserializeCompact(version, context, value, expiration);
         }
 
         try {
@@ -178,6 +204,7 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
             objectToPopulate.setVersion(version);
             objectToPopulate.doSetLastActivityInstant(expiration - sessionManager.getSessionTimeout()
                     - sessionManager.getSessionSlop());
+            objectToPopulate.setPersistedActivityInstant(objectToPopulate.getLastActivityInstant());
             if (obj.containsKey(IPV4_ADDRESS_FIELD)) {
                 objectToPopulate.doBindToAddress(obj.getString(IPV4_ADDRESS_FIELD));
             }
@@ -217,4 +244,123 @@ public class StorageBackedIdPSessionSerializer extends AbstractInitializableComp
     }
     // Checkstyle: CyclomaticComplexity ON
 
-}
\ No newline at end of file
+    /**
+     * Serialize a session in the compact binary format.
+     * 
+     * @param instance the session
+     * 
+     * @return the encoded record
+     * @throws IOException if an error occurs
+     */
+    @Nonnull @NotEmpty private String serializeCompact(@Nonnull final StorageBackedIdPSession instance)
+            throws IOException {
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(COMPACT_FORMAT_VERSION);
+        out.writeLong(instance.getCreationInstant());
+        out.writeUTF(instance.getPrincipalName());
+        
+        final String v4 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV4);
+        final String v6 = instance.getAddress(AbstractIdPSession.AddressFamily.IPV6);
+        out.writeByte((v4 != null ? IPV4_ADDRESS_FLAG : 0) | (v6 != null ? IPV6_ADDRESS_FLAG : 0));
+        if (v4 != null) {
+            out.writeUTF(v4);
+        }
+        if (v6 != null) {
+            out.writeUTF(v6);
+        }
+        
+        final Set<AuthenticationResult> results = instance.getAuthenticationResults();
+        out.writeInt(results.size());
+        for (final AuthenticationResult result : results) {
+            out.writeUTF(result.getAuthenticationFlowId());
+        }
+        
+        Set<SPSession> services = Collections.emptySet();
+        if (sessionManager.isTrackSPSessions()) {
+            if (sessionManager.storageServiceMeetsThreshold()) {
+                services = instance.getSPSessions();
+            } else {
+                log.debug("Unable to serialize SP session due to to storage service limitations");
+            }
+        }
+        out.writeInt(services.size());
+        for (final SPSession service : services) {
+            out.writeUTF(service.getId());
+        }
+        
+        out.flush();
+        return CompactSerializationSupport.encode(bytes.toByteArray());
+    }
+    
+    /**
+     * Deserialize a session from the compact binary format.
+     * 
+     * @param version record version
+     * @param context record context
+     * @param value the encoded record
+     * @param expiration record expiration
+     * 
+     * @return the session
+     * @throws IOException if the record is malformed
+     */
+    @Nonnull private StorageBackedIdPSession deserializeCompact(final long version,
+            @Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String value, final long expiration)
+                    throws IOException {
+        
+        final byte[] data = CompactSerializationSupport.decode(value);
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            final byte formatVersion = in.readByte();
+            if (formatVersion != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unsupported IdPSession format version " + formatVersion);
+            }
+            
+            final long creation = in.readLong();
+            final String principalName = in.readUTF();
+
+            // Create new object if necessary.
+            StorageBackedIdPSession objectToPopulate = targetObject;
+            if (objectToPopulate == null) {
+                objectToPopulate = new StorageBackedIdPSession(sessionManager, context, principalName, creation);
+            }
+            
+            // Populate fields in-place, bypassing any storage interactions.
+            objectToPopulate.setVersion(version);
+            objectToPopulate.doSetLastActivityInstant(expiration - sessionManager.getSessionTimeout()
+                    - sessionManager.getSessionSlop());
+            objectToPopulate.setPersistedActivityInstant(objectToPopulate.getLastActivityInstant());
+            
+            final byte addressFlags = in.readByte();
+            if ((addressFlags & IPV4_ADDRESS_FLAG) != 0) {
+                objectToPopulate.doBindToAddress(in.readUTF());
+            }
+            if ((addressFlags & IPV6_ADDRESS_FLAG) != 0) {
+                objectToPopulate.doBindToAddress(in.readUTF());
+            }
+            
+            objectToPopulate.getAuthenticationResultMap().clear();
+            final int flowCount = in.readInt();
+            for (int i = 0; i < flowCount; i++) {
+                // An absent mapping is used to signify the existence of a result not yet loaded.
+                objectToPopulate.getAuthenticationResultMap().put(in.readUTF(),
+                        Optional.<AuthenticationResult> absent());
+            }
+            
+            objectToPopulate.getSPSessionMap().clear();
+            final int serviceCount = in.readInt();
+            for (int i = 0; i < serviceCount; i++) {
+                // An absent mapping is used to signify the existence of a session not yet loaded.
+                objectToPopulate.getSPSessionMap().put(in.readUTF(), Optional.<SPSession> absent());
+            }
+            
+            return objectToPopulate;
+            
+        } catch (final EOFException | IllegalArgumentException e) {
+            log.error("Exception while parsing IdPSession", e);
+            throw new IOException("Found invalid data structure while parsing IdPSession", e);
+        }
+    }
+
+}
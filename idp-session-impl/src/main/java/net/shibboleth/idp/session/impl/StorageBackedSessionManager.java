@@ -18,9 +18,22 @@
 package net.shibboleth.idp.session.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,6 +57,7 @@ import net.shibboleth.utilities.java.support.annotation.constraint.NonnullAfterI
 import net.shibboleth.utilities.java.support.annotation.constraint.NonnullElements;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
 import net.shibboleth.utilities.java.support.annotation.constraint.Positive;
+import net.shibboleth.utilities.java.support.collection.Pair;
 import net.shibboleth.utilities.java.support.component.AbstractIdentifiableInitializableComponent;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.component.ComponentSupport;
@@ -54,6 +68,8 @@ import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
 import net.shibboleth.utilities.java.support.resolver.ResolverException;
 import net.shibboleth.utilities.java.support.security.IdentifierGenerationStrategy;
 
+import org.opensaml.storage.StorageCapabilities;
+import org.opensaml.storage.StorageCapabilitiesEx;
 import org.opensaml.storage.StorageRecord;
 import org.opensaml.storage.StorageSerializer;
 import org.opensaml.storage.StorageService;
@@ -116,6 +132,18 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Default cookie name for session tracking. */
     @Nonnull @NotEmpty protected static final String DEFAULT_COOKIE_NAME = "shib_idp_session";
 
+    /**
+     * Separates an SPSession key from a secondary index shard number. This is a Unicode noncharacter, which cannot
+     * appear in XML and so cannot appear in a SAML NameID or a CAS ticket.
+     */
+    private static final char SHARD_DELIMITER = '\uFFFF';
+
+    /** Key of the record holding the highest secondary index shard count used for a service. */
+    @Nonnull @NotEmpty private static final String SHARD_COUNT_KEY = SHARD_DELIMITER + "shards";
+
+    /** How long a shard count record outlives the index records it covers, in milliseconds. */
+    @Duration private static final long SHARD_COUNT_LIFETIME = 24 * 60 * 60 * 1000;
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(StorageBackedSessionManager.class);
 
@@ -131,6 +159,15 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Amount of time in milliseconds to defer expiration of records for better handling of logout. */
     @Duration @NonNegative private long sessionSlop;
 
+    /** Minimum time between writes of session activity to storage. */
+    @Duration @NonNegative private long activityUpdateInterval;
+
+    /** Optional executor used to write expiration updates asynchronously. */
+    @Nullable private Executor activityUpdateExecutor;
+
+    /** Expiration updates awaiting or undergoing asynchronous write, keyed by record context and key. */
+    @Nonnull private final Map<Pair<String,String>,PendingExpiration> pendingExpirations;
+
     /** Indicates that storage service failures should be masked as much as possible. */
     private boolean maskStorageFailure;
 
@@ -140,9 +177,18 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Indicates whether to secondary-index SPSessions. */
     private boolean secondaryServiceIndex;
 
+    /** Number of records across which each secondary index entry is spread. */
+    @Positive private int secondaryServiceIndexShards;
+
+    /** Expiration of the shard count record known to be current for each service ID. */
+    @Nonnull private final ConcurrentMap<String,Long> shardCountExpirations;
+
     /** Indicates whether sessions are bound to client addresses. */
     private boolean consistentAddress;
 
+    /** Indicates whether session records are written in a compact binary form. */
+    private boolean compactSerialization;
+
     /** Manages creation of cookies. */
     @NonnullAfterInit private CookieManager cookieManager;
 
@@ -167,6 +213,12 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
     /** Mappings between a SPSession type and a serializer implementation. */
     @Nullable private SPSessionSerializerRegistry spSessionSerializerRegistry;
 
+    /** Optional executor used to load sparse session records concurrently. */
+    @Nullable private ExecutorService batchReadExecutor;
+
+    /** Time to wait for the records read by {@link #batchReadExecutor}. */
+    @Duration @Positive private long batchReadTimeout;
+
     /**
      * Constructor.
      * 
@@ -178,6 +230,10 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         consistentAddress = true;
         cookieName = DEFAULT_COOKIE_NAME;
         storageServiceThreshold = 1024 * 1024;
+        secondaryServiceIndexShards = 1;
+        batchReadTimeout = 10 * 1000;
+        shardCountExpirations = new ConcurrentHashMap<>();
+        pendingExpirations = new HashMap<>();
     }
 
     /**
@@ -242,6 +298,50 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         sessionSlop = Constraint.isGreaterThanOrEqual(0, slop, "Slop must be greater than or equal to zero");
     }
 
+    /**
+     * Get the minimum time between writes of session and result activity to storage.
+     * 
+     * @return minimum time between activity writes in milliseconds
+     */
+    @NonNegative @Duration public long getActivityUpdateInterval() {
+        return activityUpdateInterval;
+    }
+
+    /**
+     * Set the minimum time between writes of session and result activity to storage.
+     * 
+     * <p>Activity within this interval of the last recorded activity only updates the in-memory object,
+     * avoiding a storage write per request. The stored activity time may therefore lag by up to this interval,
+     * which is tolerated when checking for timeout. To ensure records outlive the sessions they hold, this
+     * cannot exceed the session slop.</p>
+     * 
+     * <p>Defaults to 0, meaning every activity update is written.</p>
+     * 
+     * @param interval minimum time between activity writes in milliseconds
+     */
+    @Duration public void setActivityUpdateInterval(@Duration @NonNegative final long interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        activityUpdateInterval = Constraint.isGreaterThanOrEqual(0, interval,
+                "Activity update interval must be greater than or equal to zero");
+    }
+
+    /**
+     * Set an executor used to write record expiration updates asynchronously.
+     * 
+     * <p>Updates to the same record that arrive before the executor reaches them are combined into a single
+     * write of the latest expiration, and writes to a record are never concurrent, so an older expiration cannot
+     * overwrite a newer one. Failures are logged rather than reported to the caller. If not set, if the executor
+     * rejects a task, or if the StorageService is client-side, updates are written synchronously.</p>
+     * 
+     * @param executor the executor, or null
+     */
+    public void setActivityUpdateExecutor(@Nullable final Executor executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        activityUpdateExecutor = executor;
+    }
+
     /**
      * Get whether to mask StorageService failures where possible.
      * 
@@ -310,6 +410,37 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         secondaryServiceIndex = flag;
     }
 
+    /**
+     * Get the number of records across which each secondary index entry is spread.
+     * 
+     * @return number of records per secondary index entry
+     */
+    @Positive public int getSecondaryServiceIndexShards() {
+        return secondaryServiceIndexShards;
+    }
+
+    /**
+     * Set the number of records across which each secondary index entry is spread.
+     * 
+     * <p>Each entry in the secondary index lists the sessions that share a service ID and key. With a single
+     * record, every session added for a popular key rewrites the same record, and concurrent additions collide and
+     * have to be retried. Spreading the entry across several records, chosen by session ID, divides that contention
+     * at the cost of one read per record on lookup, which are issued concurrently if a
+     * {@link #setBatchReadExecutor(ExecutorService)} is set.</p>
+     * 
+     * <p>Defaults to 1, which is the original single-record layout. Records in that layout continue to be read
+     * when a larger value is set. The highest value used for a service is also recorded in storage, so lowering
+     * the value does not hide sessions indexed in the higher-numbered records.</p>
+     * 
+     * @param shards number of records per secondary index entry
+     */
+    public void setSecondaryServiceIndexShards(@Positive final int shards) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        secondaryServiceIndexShards =
+                (int) Constraint.isGreaterThan(0, shards, "Secondary index shard count must be greater than 0");
+    }
+
     /**
      * Get whether sessions are bound to client addresses.
      * 
@@ -330,6 +461,29 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         consistentAddress = flag;
     }
 
+    /**
+     * Get whether session records are written in a compact binary form rather than JSON.
+     * 
+     * @return true iff session records should be written in compact form
+     */
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+
+    /**
+     * Set whether session records are written in a compact binary form rather than JSON.
+     * 
+     * <p>Records in either form are readable regardless of this setting, so it may be changed
+     * without losing existing sessions. Defaults to false.</p>
+     * 
+     * @param flag flag to set
+     */
+    public void setCompactSerialization(final boolean flag) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        compactSerialization = flag;
+    }
+
     /**
      * Set the cookie name to use for session tracking.
      * 
@@ -471,6 +625,54 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         spSessionSerializerRegistry = registry;
     }
 
+    /**
+     * Get the executor used to load the {@link SPSession} and {@link net.shibboleth.idp.authn.AuthenticationResult}
+     * records of a session concurrently.
+     * 
+     * @return the executor, or null
+     */
+    @Nullable public ExecutorService getBatchReadExecutor() {
+        return batchReadExecutor;
+    }
+
+    /**
+     * Set an executor used to load the {@link SPSession} and {@link net.shibboleth.idp.authn.AuthenticationResult}
+     * records of a session concurrently when a complete set is requested, as in the case of logout.
+     * 
+     * <p>If not set, the records are loaded one at a time. The executor should be bounded; if it rejects a
+     * read, that read is performed by the calling thread.</p>
+     * 
+     * @param executor the executor, or null
+     */
+    public void setBatchReadExecutor(@Nullable final ExecutorService executor) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        batchReadExecutor = executor;
+    }
+
+    /**
+     * Get the time to wait for a set of records read by the {@link #getBatchReadExecutor()}.
+     * 
+     * @return the timeout in milliseconds
+     */
+    @Duration @Positive public long getBatchReadTimeout() {
+        return batchReadTimeout;
+    }
+
+    /**
+     * Set the time to wait for a set of records read by the {@link #getBatchReadExecutor()}. Records still
+     * outstanding after this time are treated as if the storage service had failed to read them.
+     * 
+     * <p>Defaults to 10 seconds.</p>
+     * 
+     * @param timeout the timeout in milliseconds
+     */
+    @Duration public void setBatchReadTimeout(@Duration @Positive final long timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+
+        batchReadTimeout = Constraint.isGreaterThan(0, timeout, "Timeout must be greater than zero");
+    }
+
     /** {@inheritDoc} */
     @Override protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
@@ -486,12 +688,144 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
                     "Initialization of StorageBackedSessionManager requires non-null CookieManager");
         } else if (trackSPSessions && spSessionSerializerRegistry == null) {
             throw new ComponentInitializationException("Tracking SPSessions requires a spSessionSerializerRegistry");
+        } else if (activityUpdateInterval > sessionSlop) {
+            throw new ComponentInitializationException("Activity update interval cannot exceed session slop");
+        }
+
+        if (batchReadExecutor != null && !isServerSideStorage()) {
+            // Client-side storage is bound to the request thread, so can't be read from a pool.
+            log.warn("Ignoring batch read executor, StorageService is client-side");
+            batchReadExecutor = null;
+        }
+        
+        if (activityUpdateExecutor != null && !isServerSideStorage()) {
+            // Client-side storage is written out with the response, so updates can't be deferred past it.
+            log.warn("Ignoring activity update executor, StorageService is client-side");
+            activityUpdateExecutor = null;
         }
 
         // This is our private instance, so we initialize it.
         serializer.initialize();
     }
 
+    /**
+     * Get whether the StorageService is server-side, and so usable from threads other than the request thread.
+     * 
+     * @return false iff the StorageService reports itself as client-side
+     */
+    private boolean isServerSideStorage() {
+        final StorageCapabilities caps = storageService.getCapabilities();
+        return !(caps instanceof StorageCapabilitiesEx) || ((StorageCapabilitiesEx) caps).isServerSide();
+    }
+
+    /**
+     * Update the expiration of a record, asynchronously if an executor has been set.
+     * 
+     * <p>The callback is run once the expiration, or a later one for the same record, has been written, so that
+     * callers can track what storage reflects. It is not run if the record turns out not to exist or the write
+     * fails.</p>
+     * 
+     * @param context record context
+     * @param key record key
+     * @param expiration new expiration
+     * @param onWrite callback to run once the expiration is written, or null
+     * 
+     * @return false iff the record was known not to exist
+     * @throws IOException if a synchronous update fails
+     */
+    protected boolean updateExpiration(@Nonnull @NotEmpty final String context, @Nonnull @NotEmpty final String key,
+            final long expiration, @Nullable final Runnable onWrite) throws IOException {
+        
+        if (activityUpdateExecutor == null) {
+            final boolean result = storageService.updateExpiration(context, key, expiration);
+            if (result && onWrite != null) {
+                onWrite.run();
+            }
+            return result;
+        }
+        
+        final Pair<String,String> record = new Pair<>(context, key);
+        synchronized (pendingExpirations) {
+            final PendingExpiration pending = pendingExpirations.get(record);
+            if (pending != null) {
+                // A task owns this record and will pick up the change before it finishes.
+                pending.expiration = Math.max(pending.expiration, expiration);
+                if (onWrite != null) {
+                    pending.callbacks.add(onWrite);
+                }
+                return true;
+            }
+            pendingExpirations.put(record, new PendingExpiration(expiration, onWrite));
+        }
+        
+        try {
+            activityUpdateExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        writePendingExpiration(record);
+                    } catch (final IOException e) {
+                        log.error("Exception updating expiration of record {} in context {}", key, context, e);
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            log.debug("Activity update executor saturated, updating record {} in context {} directly", key, context);
+            return writePendingExpiration(record);
+        }
+        return true;
+    }
+    
+    /**
+     * Write the pending expiration of a record until no further change is pending, then release the record.
+     * 
+     * @param record record context and key
+     * 
+     * @return false iff the record was known not to exist
+     * @throws IOException if an update fails
+     */
+    private boolean writePendingExpiration(@Nonnull final Pair<String,String> record) throws IOException {
+        boolean result = true;
+        while (true) {
+            long expiration = 0;
+            final List<Runnable> callbacks;
+            final boolean done;
+            synchronized (pendingExpirations) {
+                final PendingExpiration pending = pendingExpirations.get(record);
+                callbacks = new ArrayList<>(pending.callbacks);
+                pending.callbacks.clear();
+                done = pending.written == pending.expiration;
+                if (done) {
+                    pendingExpirations.remove(record);
+                } else {
+                    expiration = pending.expiration;
+                    pending.written = expiration;
+                }
+            }
+            
+            if (!done) {
+                try {
+                    result = storageService.updateExpiration(record.getFirst(), record.getSecond(), expiration);
+                } catch (final IOException e) {
+                    synchronized (pendingExpirations) {
+                        pendingExpirations.remove(record);
+                    }
+                    throw e;
+                }
+            }
+            
+            // Callbacks collected above were for this expiration or an earlier one.
+            if (result) {
+                for (final Runnable callback : callbacks) {
+                    callback.run();
+                }
+            }
+            
+            if (done) {
+                return result;
+            }
+        }
+    }
+
     /** {@inheritDoc} */
     @Override @Nonnull public IdPSession createSession(@Nonnull @NotEmpty final String principalName)
             throws SessionException {
@@ -647,15 +981,13 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             log.debug("Maintaining secondary index for service ID {} and key {}", serviceId, serviceKey);
 
             final int contextSize = storageService.getCapabilities().getContextSize();
-            final int keySize = storageService.getCapabilities().getKeySize();
 
-            // Truncate context and key if needed.
+            // Truncate context if needed, and map key to the appropriate index record.
             if (serviceId.length() > contextSize) {
                 serviceId = serviceId.substring(0, contextSize);
             }
-            if (serviceKey.length() > keySize) {
-                serviceKey = serviceKey.substring(0, keySize);
-            }
+            serviceKey = getSecondaryIndexKey(serviceKey, idpSession.getId());
+            recordSecondaryIndexShards(serviceId, spSession.getExpirationInstant() + sessionSlop);
 
             StorageRecord sessionList = null;
 
@@ -726,15 +1058,12 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             log.debug("Removing secondary index for service ID {} and key {}", serviceId, serviceKey);
 
             final int contextSize = storageService.getCapabilities().getContextSize();
-            final int keySize = storageService.getCapabilities().getKeySize();
 
-            // Truncate context and key if needed.
+            // Truncate context if needed, and map key to the appropriate index record.
             if (serviceId.length() > contextSize) {
                 serviceId = serviceId.substring(0, contextSize);
             }
-            if (serviceKey.length() > keySize) {
-                serviceKey = serviceKey.substring(0, keySize);
-            }
+            serviceKey = getSecondaryIndexKey(serviceKey, idpSession.getId());
 
             StorageRecord sessionList = null;
 
@@ -815,6 +1144,150 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         return null;
     }
 
+    /**
+     * Get the key of the secondary index record holding a given session.
+     * 
+     * @param serviceKey the untruncated SPSession key
+     * @param sessionId the IdP session ID
+     * 
+     * @return the storage key of the index record
+     */
+    @Nonnull @NotEmpty private String getSecondaryIndexKey(@Nonnull @NotEmpty final String serviceKey,
+            @Nonnull @NotEmpty final String sessionId) {
+        if (secondaryServiceIndexShards == 1) {
+            return truncateSecondaryIndexKey(serviceKey, "");
+        }
+        return truncateSecondaryIndexKey(serviceKey, SHARD_DELIMITER
+                + Integer.toString((sessionId.hashCode() & Integer.MAX_VALUE) % secondaryServiceIndexShards));
+    }
+    
+    /**
+     * Get the keys of all secondary index records that may hold sessions for a given key, including the
+     * single-record layout for compatibility.
+     * 
+     * @param serviceKey the untruncated SPSession key
+     * @param shards the number of shards to include
+     * 
+     * @return the storage keys of the index records
+     */
+    @Nonnull @NonnullElements private List<String> getSecondaryIndexKeys(@Nonnull @NotEmpty final String serviceKey,
+            @Positive final int shards) {
+        final List<String> keys = new ArrayList<>(shards + 1);
+        keys.add(truncateSecondaryIndexKey(serviceKey, ""));
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                keys.add(truncateSecondaryIndexKey(serviceKey, SHARD_DELIMITER + Integer.toString(i)));
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Ensure the shard count record for a service covers the current shard count until a given time.
+     * 
+     * <p>Each node remembers the expiration it last established for a service, so the record is only read and
+     * written when sharding is first used for the service and about once a day thereafter.</p>
+     * 
+     * @param serviceId the (truncated) service ID
+     * @param expiration expiration of the index record being written
+     */
+    private void recordSecondaryIndexShards(@Nonnull @NotEmpty final String serviceId, final long expiration) {
+        if (secondaryServiceIndexShards == 1) {
+            return;
+        }
+        
+        final Long known = shardCountExpirations.get(serviceId);
+        if (known != null && known >= expiration) {
+            return;
+        }
+        
+        final long newExpiration = expiration + SHARD_COUNT_LIFETIME;
+        try {
+            final StorageRecord record = storageService.read(serviceId, SHARD_COUNT_KEY);
+            if (record == null) {
+                if (!storageService.create(serviceId, SHARD_COUNT_KEY,
+                        Integer.toString(secondaryServiceIndexShards), newExpiration)) {
+                    log.debug("Shard count record for service ID {} appeared, will retry on next update", serviceId);
+                    return;
+                }
+            } else {
+                final int shards = Math.max(parseShardCount(record.getValue()), secondaryServiceIndexShards);
+                final Long recordExpiration = record.getExpiration();
+                if (storageService.updateWithVersion(record.getVersion(), serviceId, SHARD_COUNT_KEY,
+                        Integer.toString(shards), recordExpiration != null
+                            ? Math.max(recordExpiration, newExpiration) : newExpiration) == null) {
+                    log.debug("Shard count record for service ID {} disappeared, will retry on next update",
+                            serviceId);
+                    return;
+                }
+            }
+            shardCountExpirations.put(serviceId, newExpiration);
+        } catch (final IOException e) {
+            log.warn("Exception maintaining shard count record for service ID {}", serviceId, e);
+        } catch (final VersionMismatchException e) {
+            log.debug("Shard count record for service ID {} was updated concurrently, will retry on next update",
+                    serviceId);
+        }
+    }
+    
+    /**
+     * Get the number of secondary index shards to read for a service, which is the larger of the current setting
+     * and the highest count recorded for the service.
+     * 
+     * @param serviceId the (truncated) service ID
+     * 
+     * @return the number of shards to read
+     * @throws ResolverException if an error occurs reading the shard count record
+     */
+    @Positive private int getSecondaryIndexShards(@Nonnull @NotEmpty final String serviceId)
+            throws ResolverException {
+        try {
+            final StorageRecord record = storageService.read(serviceId, SHARD_COUNT_KEY);
+            if (record != null) {
+                return Math.max(parseShardCount(record.getValue()), secondaryServiceIndexShards);
+            }
+        } catch (final IOException e) {
+            log.error("Exception reading shard count record for service ID {}", serviceId, e);
+            if (!maskStorageFailure) {
+                throw new ResolverException("Exception while querying based on SPSession", e);
+            }
+        }
+        return secondaryServiceIndexShards;
+    }
+    
+    /**
+     * Parse the value of a shard count record.
+     * 
+     * @param value the record value
+     * 
+     * @return the shard count, or 1 if the value is invalid
+     */
+    @Positive private int parseShardCount(@Nullable final String value) {
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (final NumberFormatException e) {
+            log.warn("Ignoring invalid secondary index shard count record: {}", value);
+            return 1;
+        }
+    }
+    
+    /**
+     * Truncate a key to fit the storage service once a suffix is appended.
+     * 
+     * @param serviceKey the key
+     * @param suffix the suffix to append
+     * 
+     * @return the suffixed key
+     */
+    @Nonnull @NotEmpty private String truncateSecondaryIndexKey(@Nonnull @NotEmpty final String serviceKey,
+            @Nonnull final String suffix) {
+        final int keySize = storageService.getCapabilities().getKeySize() - suffix.length();
+        if (serviceKey.length() > keySize) {
+            return serviceKey.substring(0, keySize) + suffix;
+        }
+        return serviceKey + suffix;
+    }
+    
     /**
      * Performs a lookup and deserializes records potentially matching a SPSession.
      * 
@@ -827,45 +1300,143 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
             lookupBySPSession(@Nonnull final SPSessionCriterion criterion) throws ResolverException {
 
         final int contextSize = storageService.getCapabilities().getContextSize();
-        final int keySize = storageService.getCapabilities().getKeySize();
 
         String serviceId = criterion.getServiceId();
-        String serviceKey = criterion.getSPSessionKey();
+        final String serviceKey = criterion.getSPSessionKey();
         log.debug("Performing secondary lookup on service ID {} and key {}", serviceId, serviceKey);
 
-        // Truncate context and key if needed.
+        // Truncate context if needed.
         if (serviceId.length() > contextSize) {
             serviceId = serviceId.substring(0, contextSize);
         }
-        if (serviceKey.length() > keySize) {
-            serviceKey = serviceKey.substring(0, keySize);
+
+        final Map<String,IdPSession> sessions = new LinkedHashMap<>();
+        final List<String> indexKeys = getSecondaryIndexKeys(serviceKey, getSecondaryIndexShards(serviceId));
+        final Map<String,StorageRecord> records = readSecondaryIndexRecords(serviceId, indexKeys);
+        for (final Map.Entry<String,StorageRecord> record : records.entrySet()) {
+            lookupBySecondaryIndexRecord(serviceId, record.getKey(), record.getValue(), sessions);
+        }
+        
+        if (sessions.isEmpty()) {
+            log.debug("Secondary lookup failed on service ID {} and key {}", serviceId, serviceKey);
         }
 
-        StorageRecord sessionList = null;
+        return ImmutableList.copyOf(sessions.values());
+    }
 
-        try {
-            sessionList = storageService.read(serviceId, serviceKey);
-        } catch (final IOException e) {
-            log.error("Exception while querying based service ID {} and key {}", serviceId, serviceKey, e);
-            if (!maskStorageFailure) {
-                throw new ResolverException("Exception while querying based on SPSession", e);
+    /**
+     * Reads a set of secondary index records, concurrently if a {@link #getBatchReadExecutor()} is set.
+     * 
+     * @param serviceId the (truncated) service ID
+     * @param indexKeys the storage keys of the index records
+     * 
+     * @return the records that exist, keyed by storage key
+     * @throws ResolverException if an error occurs during lookup
+     */
+    @Nonnull @NonnullElements private Map<String,StorageRecord> readSecondaryIndexRecords(
+            @Nonnull @NotEmpty final String serviceId, @Nonnull @NonnullElements final List<String> indexKeys)
+                    throws ResolverException {
+        
+        final Map<String,StorageRecord> records = new LinkedHashMap<>(indexKeys.size());
+        
+        final Map<String,Future<StorageRecord>> futures = new LinkedHashMap<>(indexKeys.size());
+        final long deadline = System.currentTimeMillis() + batchReadTimeout;
+        if (batchReadExecutor != null && indexKeys.size() > 1) {
+            for (final String indexKey : indexKeys) {
+                try {
+                    futures.put(indexKey, batchReadExecutor.submit(new Callable<StorageRecord>() {
+                        public StorageRecord call() throws IOException {
+                            return storageService.read(serviceId, indexKey);
+                        }
+                    }));
+                } catch (final RejectedExecutionException e) {
+                    log.debug("Batch read executor saturated, reading index record {} directly", indexKey);
+                    futures.put(indexKey, null);
+                }
+            }
+        } else {
+            for (final String indexKey : indexKeys) {
+                futures.put(indexKey, null);
             }
         }
-
-        if (sessionList == null) {
-            log.debug("Secondary lookup failed on service ID {} and key {}", serviceId, serviceKey);
-            return ImmutableList.of();
+        
+        for (final Map.Entry<String,Future<StorageRecord>> future : futures.entrySet()) {
+            StorageRecord sessionList = null;
+            try {
+                if (future.getValue() != null) {
+                    sessionList = future.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
+                } else {
+                    sessionList = storageService.read(serviceId, future.getKey());
+                }
+            } catch (final IOException e) {
+                log.error("Exception while querying based service ID {} and key {}", serviceId, future.getKey(), e);
+                if (!maskStorageFailure) {
+                    throw new ResolverException("Exception while querying based on SPSession", e);
+                }
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                log.error("Exception while querying based service ID {} and key {}", serviceId, future.getKey(),
+                        cause);
+                if (!maskStorageFailure) {
+                    throw new ResolverException("Exception while querying based on SPSession", cause);
+                }
+            } catch (final TimeoutException e) {
+                future.getValue().cancel(true);
+                log.error("Timed out querying based on service ID {} and key {}", serviceId, future.getKey());
+                if (!maskStorageFailure) {
+                    for (final Future<StorageRecord> remaining : futures.values()) {
+                        if (remaining != null) {
+                            remaining.cancel(true);
+                        }
+                    }
+                    throw new ResolverException("Timed out querying based on SPSession", e);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (final Future<StorageRecord> remaining : futures.values()) {
+                    if (remaining != null) {
+                        remaining.cancel(true);
+                    }
+                }
+                throw new ResolverException("Interrupted while querying based on SPSession", e);
+            }
+            
+            if (sessionList != null) {
+                records.put(future.getKey(), sessionList);
+            }
         }
+        
+        return records;
+    }
 
-        final ImmutableList.Builder builder = ImmutableList.<IdPSession> builder();
+    /**
+     * Deserializes the sessions listed in a secondary index record, cleaning up any that no longer exist.
+     * 
+     * @param serviceId the (truncated) service ID
+     * @param indexKey the storage key of the index record
+     * @param sessionList the index record
+     * @param sessions map of session ID to session to add to
+     * 
+     * @throws ResolverException if an error occurs during lookup
+     */
+    private void lookupBySecondaryIndexRecord(@Nonnull @NotEmpty final String serviceId,
+            @Nonnull @NotEmpty final String indexKey, @Nonnull final StorageRecord sessionList,
+            @Nonnull @NonnullElements final Map<String,IdPSession> sessions) throws ResolverException {
 
         final StringBuilder writeBackSessionList = new StringBuilder(sessionList.getValue().length());
 
         for (final String sessionId : sessionList.getValue().split(",")) {
-            final IdPSession session = lookupBySessionId(sessionId);
+            final IdPSession session =
+                    sessions.containsKey(sessionId) ? sessions.get(sessionId) : lookupBySessionId(sessionId);
             if (session != null) {
                 // Session was found, so add it to the return set and to the updated index record.
-                builder.add(session);
+                sessions.put(sessionId, session);
                 writeBackSessionList.append(sessionId);
                 writeBackSessionList.append(',');
             }
@@ -874,9 +1445,9 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         try {
             final String writeBackValue = writeBackSessionList.toString();
             if (writeBackValue.length() == 0) {
-                storageService.deleteWithVersion(sessionList.getVersion(), serviceId, serviceKey);
+                storageService.deleteWithVersion(sessionList.getVersion(), serviceId, indexKey);
             } else if (!writeBackValue.equals(sessionList.getValue())) {
-                storageService.updateWithVersion(sessionList.getVersion(), serviceId, serviceKey, writeBackValue,
+                storageService.updateWithVersion(sessionList.getVersion(), serviceId, indexKey, writeBackValue,
                         sessionList.getExpiration());
             }
         } catch (final IOException e) {
@@ -884,7 +1455,33 @@ public class StorageBackedSessionManager extends AbstractIdentifiableInitializab
         } catch (final VersionMismatchException e) {
             log.debug("Ignoring version mismatch while updating secondary index");
         }
+    }
 
-        return builder.build();
+    /** An expiration update owned by a single writer. */
+    private static final class PendingExpiration {
+        
+        /** Latest expiration requested. */
+        private long expiration;
+        
+        /** Expiration last written, or 0. */
+        private long written;
+        
+        /** Callbacks to run once the current expiration is written. */
+        @Nonnull @NonnullElements private final List<Runnable> callbacks;
+        
+        /**
+         * Constructor.
+         *
+         * @param exp expiration requested
+         * @param onWrite callback to run once it is written, or null
+         */
+        private PendingExpiration(final long exp, @Nullable final Runnable onWrite) {
+            expiration = exp;
+            callbacks = new ArrayList<>(1);
+            if (onWrite != null) {
+                callbacks.add(onWrite);
+            }
+        }
     }
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.concurrent.Executor;
+
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.net.CookieManager;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.security.SecureRandomIdentifierGenerationStrategy;
+
+import org.opensaml.storage.StorageRecord;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link StorageBackedSessionManager} unit test for coalescing of activity updates. */
+public class ActivityUpdateStorageBackedSessionManagerTest extends SessionManagerBaseTestCase {
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        sessionManager.setSessionSlop(60 * 60 * 1000);
+        sessionManager.setActivityUpdateInterval(60 * 1000);
+    }
+    
+    @Test
+    public void testCoalescing() throws Exception {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final long expiration = readExpiration(session.getId());
+        
+        // Activity within the interval leaves the record alone.
+        Thread.sleep(50);
+        Assert.assertTrue(session.checkTimeout());
+        Assert.assertEquals(readExpiration(session.getId()), expiration);
+        
+        final IdPSession session2 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertTrue(session2.checkTimeout());
+        Assert.assertEquals(readExpiration(session.getId()), expiration);
+        
+        // Activity beyond it is written.
+        session2.setLastActivityInstant(session.getCreationInstant() + 2 * 60 * 1000);
+        Assert.assertEquals(readExpiration(session.getId()), expiration + 2 * 60 * 1000);
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+    
+    @Test
+    public void testAsync() throws Exception {
+        final StringBuilder queued = new StringBuilder();
+        final Runnable[] task = new Runnable[1];
+        final StorageBackedSessionManager manager = createAsyncManager(0, queued, task);
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        final IdPSession session = manager.createSession("joe");
+        final long expiration = readExpiration(session.getId());
+        
+        // An older update arriving late must not win.
+        session.setLastActivityInstant(session.getCreationInstant() + 2000);
+        session.setLastActivityInstant(session.getCreationInstant() + 1000);
+        Assert.assertEquals(queued.length(), 1);
+        Assert.assertEquals(readExpiration(session.getId()), expiration);
+        
+        task[0].run();
+        Assert.assertEquals(readExpiration(session.getId()), expiration + 2000);
+        
+        // The record is released once written, so the next update is queued afresh.
+        session.setLastActivityInstant(session.getCreationInstant() + 3000);
+        Assert.assertEquals(queued.length(), 2);
+        task[0].run();
+        Assert.assertEquals(readExpiration(session.getId()), expiration + 3000);
+        
+        manager.destroySession(session.getId(), true);
+        manager.destroy();
+    }
+    
+    @Test
+    public void testAsyncInterval() throws Exception {
+        final StringBuilder queued = new StringBuilder();
+        final Runnable[] task = new Runnable[1];
+        final StorageBackedSessionManager manager = createAsyncManager(60 * 1000, queued, task);
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        final IdPSession session = manager.createSession("joe");
+        final long expiration = readExpiration(session.getId());
+        
+        session.setLastActivityInstant(session.getCreationInstant() + 2 * 60 * 1000);
+        Assert.assertEquals(queued.length(), 1);
+        
+        // Until the write lands, further activity is not treated as recorded and joins the pending update.
+        session.setLastActivityInstant(session.getCreationInstant() + 2 * 60 * 1000 + 1000);
+        Assert.assertEquals(queued.length(), 1);
+        task[0].run();
+        Assert.assertEquals(readExpiration(session.getId()), expiration + 2 * 60 * 1000 + 1000);
+        
+        // Once it has, activity within the interval is skipped.
+        session.setLastActivityInstant(session.getCreationInstant() + 2 * 60 * 1000 + 2000);
+        Assert.assertEquals(queued.length(), 1);
+        Assert.assertEquals(readExpiration(session.getId()), expiration + 2 * 60 * 1000 + 1000);
+        
+        manager.destroySession(session.getId(), true);
+        manager.destroy();
+    }
+    
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testIntervalExceedsSlop() throws ComponentInitializationException {
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
+        manager.setStorageService(storageService);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setCookieManager(new CookieManager());
+        manager.setId("Invalid Session Manager");
+        manager.setActivityUpdateInterval(60 * 1000);
+        manager.initialize();
+    }
+    
+    /**
+     * Create a manager whose activity updates are held until released.
+     * 
+     * @param interval activity update interval
+     * @param queued receives a character for each task submitted
+     * @param task receives the last task submitted
+     * 
+     * @return the manager
+     * @throws ComponentInitializationException if initialization fails
+     */
+    private StorageBackedSessionManager createAsyncManager(final long interval, final StringBuilder queued,
+            final Runnable[] task) throws ComponentInitializationException {
+        final CookieManager cookieManager = new CookieManager();
+        cookieManager.setHttpServletRequest(requestProxy);
+        cookieManager.setHttpServletResponse(responseProxy);
+        cookieManager.initialize();
+
+        final StorageBackedSessionManager manager = new StorageBackedSessionManager();
+        manager.setStorageService(storageService);
+        manager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        manager.setHttpServletRequest(requestProxy);
+        manager.setHttpServletResponse(responseProxy);
+        manager.setCookieManager(cookieManager);
+        manager.setId("Async Session Manager");
+        manager.setSessionSlop(60 * 60 * 1000);
+        manager.setActivityUpdateInterval(interval);
+        manager.setActivityUpdateExecutor(new Executor() {
+            public void execute(final Runnable command) {
+                queued.append('x');
+                task[0] = command;
+            }
+        });
+        manager.initialize();
+        return manager;
+    }
+    
+    /**
+     * Read the expiration of a session's master record.
+     * 
+     * @param sessionId session ID
+     * 
+     * @return the record expiration
+     * @throws Exception if an error occurs
+     */
+    private long readExpiration(final String sessionId) throws Exception {
+        final StorageRecord record = storageService.read(sessionId, StorageBackedSessionManager.SESSION_MASTER_KEY);
+        Assert.assertNotNull(record);
+        return record.getExpiration();
+    }
+}
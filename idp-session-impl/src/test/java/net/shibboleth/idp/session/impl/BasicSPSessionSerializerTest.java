@@ -95,6 +95,43 @@ public class BasicSPSessionSerializerTest {
         Assert.assertEquals(session.getExpirationInstant(), session2.getExpirationInstant());
     }
     
+    @Test public void testCompact() throws Exception {
+        long exp = INSTANT + 60000L;
+        
+        BasicSPSessionSerializer compactSerializer = new BasicSPSessionSerializer(0);
+        compactSerializer.setCompactSerialization(true);
+        compactSerializer.initialize();
+        
+        BasicSPSession session = new BasicSPSession("test", INSTANT, exp);
+        
+        String s = compactSerializer.serialize(session);
+        String s2 = fileToString(DATAPATH + "basicSPSession.json");
+        Assert.assertTrue(s.length() < s2.length());
+        
+        // Either format can be read by either serializer.
+        for (SPSession session2 : new SPSession[] {compactSerializer.deserialize(1, CONTEXT, KEY, s, exp),
+                compactSerializer.deserialize(1, CONTEXT, KEY, s2, exp),
+                serializer.deserialize(1, CONTEXT, KEY, s, exp)}) {
+            Assert.assertEquals(session.getId(), session2.getId());
+            Assert.assertEquals(session.getCreationInstant(), session2.getCreationInstant());
+            Assert.assertEquals(session.getExpirationInstant(), session2.getExpirationInstant());
+        }
+        
+        try {
+            compactSerializer.deserialize(1, CONTEXT, KEY, s, null);
+            Assert.fail();
+        } catch (IOException e) {
+            
+        }
+        
+        try {
+            compactSerializer.deserialize(1, CONTEXT, KEY, "AQID", exp);
+            Assert.fail();
+        } catch (IOException e) {
+            
+        }
+    }
+    
     private String fileToString(String pathname) throws URISyntaxException, IOException {
         try (FileInputStream stream = new FileInputStream(
                 new File(BasicSPSessionSerializerTest.class.getResource(pathname).toURI()))) {
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.session.BasicSPSession;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SessionIdCriterion;
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/** {@link StorageBackedSessionManager} unit test with concurrent loading of session records. */
+public class BatchReadStorageBackedSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    private ExecutorService executor;
+    
+    private GatedStorageService gatedStorage;
+    
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        super.adjustProperties();
+        gatedStorage = new GatedStorageService();
+        gatedStorage.setId("TestStorageService");
+        storageService = gatedStorage;
+        sessionManager.setStorageService(storageService);
+        executor = Executors.newFixedThreadPool(4);
+        sessionManager.setBatchReadExecutor(executor);
+        sessionManager.setBatchReadTimeout(3000);
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @AfterClass public void tearDown() {
+        super.tearDown();
+        executor.shutdownNow();
+    }
+    
+    @Test
+    public void testReadsOverlap() throws ResolverException, SessionException {
+        final String sessionId = createSessionWithSPSessions(4);
+        final IdPSession session = sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(sessionId)));
+
+        // Each read waits until all four are in flight, so they can only all succeed if they overlap.
+        final CountDownLatch inFlight = new CountDownLatch(4);
+        gatedStorage.gate(sessionId, inFlight, 2000);
+        try {
+            Assert.assertEquals(session.getSPSessions().size(), 4);
+            Assert.assertEquals(inFlight.getCount(), 0);
+        } finally {
+            gatedStorage.gate(null, null, 0);
+        }
+        
+        sessionManager.destroySession(sessionId, true);
+    }
+
+    @Test(timeOut = 10000)
+    public void testReadTimeout() throws ResolverException, SessionException {
+        final String sessionId = createSessionWithSPSessions(2);
+        final IdPSession session = sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(sessionId)));
+
+        // A gate held open past the timeout leaves the records unloaded.
+        gatedStorage.gate(sessionId, new CountDownLatch(Integer.MAX_VALUE), 30000);
+        try {
+            Assert.assertTrue(session.getSPSessions().isEmpty());
+        } finally {
+            gatedStorage.gate(null, null, 0);
+        }
+        
+        // The records are still referenced, so can be loaded later.
+        Assert.assertEquals(session.getSPSessions().size(), 2);
+        
+        sessionManager.destroySession(sessionId, true);
+    }
+    
+    /**
+     * Create a session with a number of SP sessions.
+     * 
+     * @param count number of SP sessions
+     * 
+     * @return the session ID
+     * @throws SessionException if an error occurs
+     */
+    @Nonnull @NotEmpty private String createSessionWithSPSessions(final int count) throws SessionException {
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        for (int i = 0; i < count; i++) {
+            session.addSPSession(new BasicSPSession("https://sp" + i + ".example.org/shibboleth",
+                    System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000));
+        }
+        return session.getId();
+    }
+    
+    /** Storage service whose reads in one context can be held until a latch is released. */
+    private static class GatedStorageService extends MemoryStorageService {
+        
+        /** Context whose reads are gated. */
+        @Nullable private volatile String gatedContext;
+        
+        /** Latch each gated read counts down and then waits for. */
+        @Nullable private volatile CountDownLatch latch;
+        
+        /** How long a gated read waits for the latch, in milliseconds. */
+        private volatile long wait;
+        
+        /**
+         * Gate reads in a context.
+         * 
+         * @param context the context, or null to remove the gate
+         * @param gate latch each read counts down and then waits for
+         * @param waitMs how long each read waits for the latch before failing
+         */
+        public void gate(@Nullable final String context, @Nullable final CountDownLatch gate, final long waitMs) {
+            wait = waitMs;
+            latch = gate;
+            gatedContext = context;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        @Nullable public <T> StorageRecord<T> read(@Nonnull @NotEmpty final String context,
+                @Nonnull @NotEmpty final String key) throws IOException {
+            final CountDownLatch gate = latch;
+            if (gate != null && context.equals(gatedContext)) {
+                gate.countDown();
+                try {
+                    if (!gate.await(wait, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("Gated read of " + key + " was not released");
+                    }
+                } catch (final InterruptedException e) {
+                    throw new IOException("Gated read of " + key + " was interrupted", e);
+                }
+            }
+            return super.read(context, key);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the University Corporation for Advanced Internet Development,
+ * Inc. (UCAID) under one or more contributor license agreements.  See the
+ * NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The UCAID licenses this file to You under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shibboleth.idp.session.impl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.SPSession;
+import net.shibboleth.idp.session.SPSessionSerializerRegistry;
+import net.shibboleth.idp.session.SessionException;
+import net.shibboleth.idp.session.criterion.SPSessionCriterion;
+import net.shibboleth.utilities.java.support.net.CookieManager;
+import net.shibboleth.utilities.java.support.net.HttpServletRequestResponseContext;
+import net.shibboleth.utilities.java.support.resolver.CriteriaSet;
+import net.shibboleth.utilities.java.support.resolver.ResolverException;
+import net.shibboleth.utilities.java.support.security.SecureRandomIdentifierGenerationStrategy;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/** {@link StorageBackedSessionManager} unit test with a sharded secondary index. */
+public class ShardedIndexStorageBackedSessionManagerTest extends StorageBackedSessionManagerTest {
+
+    /** {@inheritDoc} */
+    @Override
+    protected void adjustProperties() {
+        super.adjustProperties();
+        sessionManager.setSecondaryServiceIndexShards(4);
+    }
+    
+    @Test
+    public void testLegacyIndexRecord() throws Exception {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        
+        // Simulate an index record written in the single-record layout.
+        storageService.create("https://legacy.example.org/shibboleth", "LegacyKey", session.getId() + ',',
+                System.currentTimeMillis() + 60 * 60 * 1000);
+        
+        final Iterable<IdPSession> sessions = sessionManager.resolve(new CriteriaSet(
+                new SPSessionCriterion("https://legacy.example.org/shibboleth", "LegacyKey")));
+        Assert.assertEquals(sessions.iterator().next().getId(), session.getId());
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+
+    @Test
+    public void testShardDelimiter() throws Exception {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        final IdPSession other = sessionManager.createSession("jane");
+        
+        // A real key that looks like a shard of another key must not be read as one.
+        storageService.create("https://delimiter.example.org/shibboleth", "SomeKey!0", other.getId() + ',',
+                System.currentTimeMillis() + 60 * 60 * 1000);
+        storageService.create("https://delimiter.example.org/shibboleth", "SomeKey", session.getId() + ',',
+                System.currentTimeMillis() + 60 * 60 * 1000);
+        
+        final Iterator<IdPSession> sessions = sessionManager.resolve(new CriteriaSet(
+                new SPSessionCriterion("https://delimiter.example.org/shibboleth", "SomeKey"))).iterator();
+        Assert.assertEquals(sessions.next().getId(), session.getId());
+        Assert.assertFalse(sessions.hasNext());
+        
+        sessionManager.destroySession(session.getId(), true);
+        sessionManager.destroySession(other.getId(), true);
+    }
+
+    @Test
+    public void testShardCountLowered() throws Exception {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final Set<String> sessionIds = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            final IdPSession session = sessionManager.createSession("joe");
+            session.addSPSession(new ExtendedSPSession("https://lowered.example.org/shibboleth",
+                    System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000));
+            sessionIds.add(session.getId());
+        }
+        
+        // A manager sharing the storage but no longer sharding still finds every session.
+        final StorageBackedSessionManager unsharded = new StorageBackedSessionManager();
+        unsharded.setStorageService(storageService);
+        unsharded.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        unsharded.setHttpServletRequest(requestProxy);
+        unsharded.setHttpServletResponse(responseProxy);
+        unsharded.setCookieManager(new CookieManager());
+        unsharded.setId("Unsharded Session Manager");
+        unsharded.setTrackSPSessions(true);
+        unsharded.setSecondaryServiceIndex(true);
+        unsharded.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        unsharded.initialize();
+        
+        final Set<String> resolved = new HashSet<>();
+        for (final IdPSession session : unsharded.resolve(new CriteriaSet(
+                new SPSessionCriterion("https://lowered.example.org/shibboleth", ExtendedSPSession.SESSION_KEY)))) {
+            resolved.add(session.getId());
+        }
+        Assert.assertEquals(resolved, sessionIds);
+        
+        unsharded.destroy();
+    }
+
+    @Test
+    public void testConcurrentIndexing() throws ResolverException, SessionException, InterruptedException {
+        
+        final Set<String> sessionIds = new HashSet<>();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(),
+                            new MockHttpServletResponse());
+                    try {
+                        for (int j = 0; j < 5; j++) {
+                            final IdPSession session = sessionManager.createSession("joe");
+                            final SPSession spSession = new ExtendedSPSession("https://busy.example.org/shibboleth",
+                                    System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000);
+                            session.addSPSession(spSession);
+                            synchronized (sessionIds) {
+                                sessionIds.add(session.getId());
+                            }
+                        }
+                    } catch (final SessionException e) {
+                        // Detected by the size check.
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join(10000);
+        }
+        
+        final Set<String> resolved = new HashSet<>();
+        for (final IdPSession session : sessionManager.resolve(new CriteriaSet(
+                new SPSessionCriterion("https://busy.example.org/shibboleth", ExtendedSPSession.SESSION_KEY)))) {
+            resolved.add(session.getId());
+        }
+        Assert.assertEquals(sessionIds.size(), 40);
+        Assert.assertEquals(resolved, sessionIds);
+    }
+}
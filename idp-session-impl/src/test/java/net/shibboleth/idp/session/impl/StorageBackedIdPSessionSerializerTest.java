@@ -24,6 +24,7 @@ import java.net.URISyntaxException;
 
 import net.shibboleth.idp.authn.AuthenticationResult;
 import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+import net.shibboleth.idp.session.AbstractIdPSession;
 import net.shibboleth.idp.session.BasicSPSession;
 import net.shibboleth.idp.session.SPSessionSerializerRegistry;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
@@ -37,6 +38,8 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableSet;
+
 /** {@link StorageBackedIdPSessionSerializer} unit test. */
 public class StorageBackedIdPSessionSerializerTest {
 
@@ -150,6 +153,56 @@ public class StorageBackedIdPSessionSerializerTest {
         Assert.assertEquals(session.getLastActivityInstant(), session2.getLastActivityInstant());
     }
     
+    @Test public void testCompact() throws Exception {
+        long exp = INSTANT + (60 * 60 * 1000);
+        
+        StorageBackedSessionManager compactManager = new StorageBackedSessionManager();
+        compactManager.setStorageService(manager.getStorageService());
+        compactManager.setIDGenerator(new SecureRandomIdentifierGenerationStrategy());
+        compactManager.setCookieManager(new CookieManager());
+        compactManager.setId("Compact Session Manager");
+        compactManager.setTrackSPSessions(true);
+        compactManager.setSPSessionSerializerRegistry(new SPSessionSerializerRegistry());
+        compactManager.setCompactSerialization(true);
+        compactManager.initialize();
+        
+        StorageBackedIdPSessionSerializer compactSerializer =
+                new StorageBackedIdPSessionSerializer(compactManager, null);
+        compactSerializer.initialize();
+        
+        StorageBackedIdPSession session = new StorageBackedIdPSession(compactManager, "test", "foo", INSTANT);
+        session.doBindToAddress("127.0.0.1");
+        session.doBindToAddress("::1");
+        session.doAddAuthenticationResult(new AuthenticationResult("a", new UsernamePrincipal("jdoe")));
+        session.doAddAuthenticationResult(new AuthenticationResult("b", new UsernamePrincipal("jdoe")));
+        session.doAddSPSession(new BasicSPSession("bar", INSTANT, exp));
+        
+        String s = compactSerializer.serialize(session);
+        Assert.assertTrue(s.length() < serializer.serialize(session).length());
+        
+        StorageBackedIdPSession session2 = compactSerializer.deserialize(1, "test", KEY, s, exp);
+        Assert.assertEquals(session2.getId(), session.getId());
+        Assert.assertEquals(session2.getPrincipalName(), session.getPrincipalName());
+        Assert.assertEquals(session2.getCreationInstant(), session.getCreationInstant());
+        Assert.assertEquals(session2.getLastActivityInstant(), session.getLastActivityInstant());
+        Assert.assertEquals(session2.getAddress(AbstractIdPSession.AddressFamily.IPV4), "127.0.0.1");
+        Assert.assertEquals(session2.getAddress(AbstractIdPSession.AddressFamily.IPV6), "::1");
+        Assert.assertEquals(session2.getAuthenticationResultMap().keySet(), ImmutableSet.of("a", "b"));
+        Assert.assertEquals(session2.getSPSessionMap().keySet(), ImmutableSet.of("bar"));
+        
+        // Either format can be read by either serializer.
+        Assert.assertEquals(serializer.deserialize(1, "test", KEY, s, exp).getPrincipalName(), "foo");
+        Assert.assertEquals(compactSerializer.deserialize(1, "test", KEY,
+                fileToString(DATAPATH + "basicIdPSession.json"), exp).getPrincipalName(), "foo");
+        
+        try {
+            compactSerializer.deserialize(1, "test", KEY, "AQID", exp);
+            Assert.fail();
+        } catch (IOException e) {
+            
+        }
+    }
+    
     private boolean isV8() {
         final String ver = System.getProperty("java.version");
         return ver.startsWith("1.8");
@@ -303,6 +303,26 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         sessionManager.destroySession(session.getId(), true);
     }
     
+    @Test
+    public void testManySPSessions() throws ResolverException, SessionException {
+        
+        HttpServletRequestResponseContext.loadCurrent(new MockHttpServletRequest(), new MockHttpServletResponse());
+        
+        final IdPSession session = sessionManager.createSession("joe");
+        for (int i = 0; i < 20; i++) {
+            Assert.assertNull(session.addSPSession(new BasicSPSession("https://sp" + i + ".example.org/shibboleth",
+                    System.currentTimeMillis(), System.currentTimeMillis() + 60 * 60 * 1000)));
+        }
+        
+        // Load from storage, which leaves the SPSessions to be loaded on demand.
+        final IdPSession session2 =
+                sessionManager.resolveSingle(new CriteriaSet(new SessionIdCriterion(session.getId())));
+        Assert.assertEquals(session2.getSPSessions().size(), 20);
+        Assert.assertNotNull(session2.getSPSession("https://sp7.example.org/shibboleth"));
+        
+        sessionManager.destroySession(session.getId(), true);
+    }
+    
     @Test
     public void testSecondaryLookup() throws ResolverException, SessionException, InterruptedException {
         
@@ -356,7 +376,7 @@ public class StorageBackedSessionManagerTest extends SessionManagerBaseTestCase
         Assert.assertEquals(sessions.size(), 0);
     }
 
-    private static class ExtendedSPSession extends BasicSPSession {
+    static class ExtendedSPSession extends BasicSPSession {
 
         public static final String SESSION_KEY = "PerSessionNameWouldGoHere";
         